@@ -0,0 +1,133 @@
+package com.hartmann.onlinechat.benchmark;
+
+import com.hartmann.onlinechat.bot.BotCommand;
+import com.hartmann.onlinechat.bot.BotCommandRegistry;
+import com.hartmann.onlinechat.bot.BotService;
+import com.hartmann.onlinechat.bot.MessageClassifier;
+import com.hartmann.onlinechat.bot.commands.HelpCommand;
+import com.hartmann.onlinechat.bot.commands.MathCommand;
+import com.hartmann.onlinechat.bot.math.CompiledExpression;
+import com.hartmann.onlinechat.bot.math.ExpressionCompiler;
+import com.hartmann.onlinechat.metrics.ChatMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message classification, command lookup, end-to-end command processing
+ * (including the hand-off to the bot executor), and math expression
+ * compilation and evaluation.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BotBenchmark {
+
+    @Param({ "2 + 3 * 4", "sqrt((3.5 ^ 2 + 4 ^ 2) * 2) - max(1, -2) / 7 % 3" })
+    public String expression;
+
+    private BotCommandRegistry commandRegistry;
+    private BotService botService;
+    private MathCommand mathCommand;
+    private String[] mathArgs;
+    private CompiledExpression compiled;
+    private SimpMessageHeaderAccessor headers;
+
+    @Setup
+    public void setUp() {
+        ChatMetrics chatMetrics = new ChatMetrics(new SimpleMeterRegistry());
+        mathCommand = new MathCommand(256);
+        commandRegistry = new BotCommandRegistry(List.of(new HelpCommand(), mathCommand), chatMetrics, 2, 1000,
+                2000, 8);
+        commandRegistry.initializeCommands();
+        botService = new BotService(commandRegistry);
+        mathArgs = expression.split(" ");
+        compiled = ExpressionCompiler.compile(expression);
+        headers = SimpMessageHeaderAccessor.create();
+        headers.setSessionId("s0");
+    }
+
+    @TearDown
+    public void tearDown() {
+        commandRegistry.shutdown();
+    }
+
+    @Benchmark
+    public boolean isBotCommandForChatMessage() {
+        return botService.isBotCommand("Hello everyone, how is it going?");
+    }
+
+    @Benchmark
+    public boolean isBotCommandForBotMessage() {
+        return botService.isBotCommand("@server math 2 + 3");
+    }
+
+    @Benchmark
+    public MessageClassifier.Classification classifyChatMessage() {
+        return MessageClassifier.classify("Hello everyone, how is it going?");
+    }
+
+    @Benchmark
+    public MessageClassifier.Classification classifyDirectMessage() {
+        return MessageClassifier.classify("@Alice are you there?");
+    }
+
+    @Benchmark
+    public MessageClassifier.Classification classifyBotMessage() {
+        return MessageClassifier.classify("@server math 2 + 3");
+    }
+
+    /** Case-insensitive trie lookup straight from the message content. */
+    @Benchmark
+    public Optional<BotCommand> resolveCommand() {
+        return commandRegistry.getCommand("@server MATH 2 + 3", 8, 12);
+    }
+
+    @Benchmark
+    public String processHelpCommand() {
+        return botService.processCommand("@server help", headers).join();
+    }
+
+    @Benchmark
+    public String processMathCommand() {
+        return botService.processCommand("@server math " + expression, headers).join();
+    }
+
+    /** MathCommand.execute with a cache hit: formatting plus evaluation. */
+    @Benchmark
+    public String mathCommandCached() {
+        return mathCommand.execute(mathArgs, headers);
+    }
+
+    @Benchmark
+    public CompiledExpression compileExpression() {
+        return ExpressionCompiler.compile(expression);
+    }
+
+    @Benchmark
+    public double evaluateCompiledExpression() {
+        return compiled.evaluate();
+    }
+}
+// END
@@ -0,0 +1,84 @@
+package com.hartmann.onlinechat.benchmark;
+
+import com.hartmann.onlinechat.wire.SharedFrameEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * STOMP encoding cost of one broadcast to 1,000 and 10,000 subscribers, with
+ * Spring's StompEncoder (a frame encoded per subscriber) against the
+ * SharedFrameEncoder (encoded once per broadcast). Every tenth subscriber
+ * uses a different subscription ID and gets an assembled frame. Run with
+ * {@code -prof gc} to compare the garbage per broadcast.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastFanOutBenchmark {
+
+    @Param({ "1000", "10000" })
+    public int subscribers;
+
+    @Param({ "stomp", "shared" })
+    public String encoderKind;
+
+    private StompEncoder encoder;
+    private Map<String, Object>[] subscriberHeaders;
+    private byte[] payload;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        encoder = "shared".equals(encoderKind) ? new SharedFrameEncoder() : new StompEncoder();
+        payload = "{\"type\":\"CHAT\",\"sender\":\"User0\",\"content\":\"Hello everyone, how is it going?\"}"
+                .getBytes(StandardCharsets.UTF_8);
+        subscriberHeaders = new Map[subscribers];
+        for (int i = 0; i < subscribers; i++) {
+            SimpMessageHeaderAccessor broker = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            broker.setSessionId("session" + i);
+            broker.setSubscriptionId(i % 10 == 0 ? "sub-1" : "sub-0");
+            broker.setDestination("/topic/public");
+            broker.setContentType(MimeTypeUtils.APPLICATION_JSON);
+            StompHeaderAccessor accessor = StompHeaderAccessor.wrap(
+                    MessageBuilder.createMessage(payload, broker.getMessageHeaders()));
+            accessor.updateStompCommandAsServerMessage();
+            subscriberHeaders[i] = accessor.getMessageHeaders();
+        }
+    }
+
+    @Benchmark
+    public void broadcast(Blackhole blackhole) {
+        // A new payload array per broadcast, as the message converter produces one per send
+        byte[] body = payload.clone();
+        for (Map<String, Object> headers : subscriberHeaders) {
+            blackhole.consume(encoder.encode(headers, body));
+        }
+    }
+}
+// END
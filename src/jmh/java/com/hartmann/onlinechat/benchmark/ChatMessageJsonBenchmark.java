@@ -0,0 +1,66 @@
+package com.hartmann.onlinechat.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hartmann.onlinechat.chat.ChatMessage;
+import com.hartmann.onlinechat.chat.MessageType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization of ChatMessage with the same ObjectMapper
+ * configuration Spring uses for the STOMP message converter.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatMessageJsonBenchmark {
+
+    private ObjectMapper objectMapper;
+    private ChatMessage message;
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws IOException {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        message = ChatMessage.builder()
+                .content("Hello everyone, how is it going?")
+                .sender("User0")
+                .type(MessageType.CHAT)
+                .build();
+        json = objectMapper.writeValueAsBytes(message);
+    }
+
+    @Benchmark
+    public byte[] serializeToBytes() throws IOException {
+        return objectMapper.writeValueAsBytes(message);
+    }
+
+    @Benchmark
+    public String serializeToString() throws IOException {
+        return objectMapper.writeValueAsString(message);
+    }
+
+    @Benchmark
+    public ChatMessage deserialize() throws IOException {
+        return objectMapper.readValue(json, ChatMessage.class);
+    }
+}
+// END
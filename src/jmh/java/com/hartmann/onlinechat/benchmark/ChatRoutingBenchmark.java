@@ -0,0 +1,146 @@
+package com.hartmann.onlinechat.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hartmann.onlinechat.audit.AuditLog;
+import com.hartmann.onlinechat.bot.BotCommandRegistry;
+import com.hartmann.onlinechat.bot.BotService;
+import com.hartmann.onlinechat.bot.commands.HelpCommand;
+import com.hartmann.onlinechat.bot.commands.MathCommand;
+import com.hartmann.onlinechat.chat.ChatController;
+import com.hartmann.onlinechat.chat.ChatMessage;
+import com.hartmann.onlinechat.chat.MessageType;
+import com.hartmann.onlinechat.cluster.ClusterService;
+import com.hartmann.onlinechat.history.ChatHistoryStore;
+import com.hartmann.onlinechat.history.RecentMessageBuffer;
+import com.hartmann.onlinechat.mailbox.OfflineMailbox;
+import com.hartmann.onlinechat.metrics.ChatMetrics;
+import com.hartmann.onlinechat.search.SearchIndex;
+import com.hartmann.onlinechat.service.DirectMessageService;
+import com.hartmann.onlinechat.service.PresenceBroadcaster;
+import com.hartmann.onlinechat.service.SessionManager;
+import com.hartmann.onlinechat.service.SessionMessenger;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routing cost of ChatController.sendMessage for each message kind, with
+ * 1,000 connected sessions and outbound frames dropped by a no-op channel.
+ * Public messages include the history append and ring buffer publish, and
+ * every message is recorded in the audit log.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatRoutingBenchmark {
+
+    private static final int SESSIONS = 1_000;
+
+    private Path historyDirectory;
+    private ChatHistoryStore historyStore;
+    private AuditLog auditLog;
+    private BotCommandRegistry commandRegistry;
+    private ChatController controller;
+    private SimpMessageHeaderAccessor senderHeaders;
+    private ChatMessage publicMessage;
+    private ChatMessage roomMessage;
+    private ChatMessage directMessage;
+
+    @Setup
+    public void setUp() throws IOException {
+        SimpMessagingTemplate template = new SimpMessagingTemplate((message, timeout) -> true);
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        ChatMetrics chatMetrics = new ChatMetrics(new SimpleMeterRegistry());
+        PresenceBroadcaster presenceBroadcaster = new PresenceBroadcaster(template, 0);
+        SessionManager sessionManager = new SessionManager(presenceBroadcaster);
+        SessionMessenger sessionMessenger = new SessionMessenger(template);
+        RecentMessageBuffer recentMessages = new RecentMessageBuffer(50);
+
+        historyDirectory = Files.createTempDirectory("jmh-history");
+        historyStore = new ChatHistoryStore(historyDirectory, 16 * 1024 * 1024, 256L * 1024 * 1024, 1, 1000,
+                objectMapper);
+        auditLog = new AuditLog(objectMapper, true, historyDirectory.resolve("audit.jsonl"), 65536, 512, 200, 1.0);
+        ClusterService clusterService = new ClusterService(sessionManager, presenceBroadcaster, template,
+                sessionMessenger, recentMessages, historyStore, objectMapper, false, "node-1", "127.0.0.1", 0, "", "", 500,
+                2000, 2000);
+        OfflineMailbox offlineMailbox = new OfflineMailbox(objectMapper, false, historyDirectory.resolve("spill.dat"),
+                4096, 4096, 4096, 200, 262144, 1000, 72);
+        commandRegistry = new BotCommandRegistry(List.of(new HelpCommand(), new MathCommand(256)), chatMetrics, 2,
+                1000, 2000, 8);
+        commandRegistry.initializeCommands();
+        controller = new ChatController(new BotService(commandRegistry), template, sessionManager,
+                new DirectMessageService(sessionManager, sessionMessenger, clusterService, offlineMailbox),
+                sessionMessenger,
+                historyStore, recentMessages, new SearchIndex(historyStore, objectMapper, false, 1 << 20, 1 << 16, 4),
+                clusterService, chatMetrics, auditLog);
+
+        for (int i = 0; i < SESSIONS; i++) {
+            sessionManager.addSession("s" + i, "User" + i);
+        }
+        sessionManager.joinRoom("s0", "dev");
+        sessionManager.joinRoom("s1", "dev");
+
+        senderHeaders = SimpMessageHeaderAccessor.create();
+        senderHeaders.setSessionId("s0");
+        senderHeaders.setSessionAttributes(new HashMap<>(Map.of("username", "User0")));
+
+        publicMessage = message("Hello everyone, how is it going?", null);
+        roomMessage = message("Standup in five minutes", "dev");
+        directMessage = message("@User1 are you joining the call?", null);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        commandRegistry.shutdown();
+        historyStore.close();
+        auditLog.close();
+        FileSystemUtils.deleteRecursively(historyDirectory);
+    }
+
+    private static ChatMessage message(String content, String room) {
+        return ChatMessage.builder().content(content).sender("User0").type(MessageType.CHAT).room(room).build();
+    }
+
+    @Benchmark
+    public ChatMessage publicMessage() {
+        return controller.sendMessage(publicMessage, senderHeaders);
+    }
+
+    @Benchmark
+    public ChatMessage roomMessage() {
+        return controller.sendMessage(roomMessage, senderHeaders);
+    }
+
+    @Benchmark
+    public ChatMessage directMessage() {
+        return controller.sendMessage(directMessage, senderHeaders);
+    }
+}
+// END
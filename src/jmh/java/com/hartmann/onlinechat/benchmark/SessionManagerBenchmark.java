@@ -0,0 +1,75 @@
+package com.hartmann.onlinechat.benchmark;
+
+import com.hartmann.onlinechat.service.PresenceBroadcaster;
+import com.hartmann.onlinechat.service.SessionManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SessionManager registration and lookup cost as a function of the number of
+ * connected sessions. Presence changes are broadcast immediately to a no-op
+ * channel, so registration includes the presence bookkeeping.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionManagerBenchmark {
+
+    @Param({ "10000", "100000" })
+    public int sessions;
+
+    private SessionManager sessionManager;
+    private String[] usernames;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        SimpMessagingTemplate template = new SimpMessagingTemplate((message, timeout) -> true);
+        sessionManager = new SessionManager(new PresenceBroadcaster(template, 0));
+        usernames = new String[sessions];
+        for (int i = 0; i < sessions; i++) {
+            usernames[i] = "User" + i;
+            sessionManager.addSession("s" + i, usernames[i]);
+        }
+    }
+
+    /** Registers and removes one extra session, so the session count stays constant. */
+    @Benchmark
+    public boolean addAndRemoveSession() {
+        boolean added = sessionManager.addSession("bench-session", "BenchUser");
+        sessionManager.removeSession("bench-session");
+        return added;
+    }
+
+    /** Case-insensitive lookup of a connected user, cycling through all users. */
+    @Benchmark
+    public String getSessionIdByUsername() {
+        int index = next;
+        next = index + 1 == usernames.length ? 0 : index + 1;
+        return sessionManager.getSessionIdByUsername(usernames[index]);
+    }
+
+    @Benchmark
+    public String getSessionIdByUnknownUsername() {
+        return sessionManager.getSessionIdByUsername("NobodyByThisName");
+    }
+}
+// END
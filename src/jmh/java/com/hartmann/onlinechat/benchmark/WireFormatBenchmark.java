@@ -0,0 +1,110 @@
+package com.hartmann.onlinechat.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hartmann.onlinechat.chat.ChatMessage;
+import com.hartmann.onlinechat.chat.MessageType;
+import com.hartmann.onlinechat.wire.CompactMessageConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON versus the compact wire format: encode and decode cost for a public
+ * chat message, a direct message (which carries the target session ID) and
+ * a 50-message history replay. Bytes per payload are printed at setup.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    @Param({ "public", "direct", "history" })
+    public String payloadKind;
+
+    private ObjectMapper objectMapper;
+    private CompactMessageConverter compactConverter;
+    private Object payload;
+    private Class<?> payloadClass;
+    private byte[] json;
+    private Message<byte[]> compactFrame;
+
+    @Setup
+    public void setUp() throws IOException {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        compactConverter = new CompactMessageConverter(objectMapper);
+        ChatMessage chat = ChatMessage.builder()
+                .content("Hello everyone, how is it going?")
+                .sender("User0")
+                .type(MessageType.CHAT)
+                .build();
+        switch (payloadKind) {
+            case "public" -> payload = chat;
+            case "direct" -> payload = ChatMessage.builder()
+                    .content("Are you there?")
+                    .sender("User0")
+                    .type(MessageType.CHAT)
+                    .targetSessionId("k3n2x1ab")
+                    .build();
+            default -> {
+                List<ChatMessage> messages = new ArrayList<>();
+                for (int i = 0; i < 50; i++) {
+                    messages.add(chat);
+                }
+                payload = Map.of("type", "HISTORY_REPLAY", "messages", messages);
+            }
+        }
+        payloadClass = payload instanceof ChatMessage ? ChatMessage.class : Map.class;
+        json = objectMapper.writeValueAsBytes(payload);
+        byte[] compact = compactConverter.encode(payload);
+        compactFrame = MessageBuilder.withPayload(compact)
+                .setHeader(MessageHeaders.CONTENT_TYPE, CompactMessageConverter.COMPACT_JSON)
+                .build();
+        System.out.printf("%n%s payload: JSON %d bytes, compact %d bytes (%.0f%%)%n", payloadKind, json.length,
+                compact.length, 100.0 * compact.length / json.length);
+    }
+
+    @Benchmark
+    public byte[] encodeJson() throws IOException {
+        return objectMapper.writeValueAsBytes(payload);
+    }
+
+    @Benchmark
+    public byte[] encodeCompact() {
+        return compactConverter.encode(payload);
+    }
+
+    @Benchmark
+    public Object decodeJson() throws IOException {
+        return objectMapper.readValue(json, payloadClass);
+    }
+
+    @Benchmark
+    public Object decodeCompact() {
+        return compactConverter.fromMessage(compactFrame, payloadClass);
+    }
+}
+// END
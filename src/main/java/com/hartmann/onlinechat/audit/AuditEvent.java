@@ -0,0 +1,45 @@
+package com.hartmann.onlinechat.audit;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * One line of the audit log.
+ *
+ * @param timestamp Epoch milliseconds when the event was recorded
+ * @param type      What happened
+ * @param sessionId The acting session, if any
+ * @param username  The acting user, if known
+ * @param target    Room, DM recipient or bot command, depending on the type
+ * @param content   Message content, if any
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record AuditEvent(long timestamp, Type type, String sessionId, String username, String target,
+        String content) {
+
+    /** Audit event types. Message-like types are subject to sampling; lifecycle types are always recorded. */
+    public enum Type {
+        MESSAGE(true),
+        ROOM_MESSAGE(true),
+        DIRECT_MESSAGE(true),
+        BOT_COMMAND(true),
+        JOIN(false),
+        JOIN_REJECTED(false),
+        LEAVE(false),
+        ROOM_JOIN(false),
+        ROOM_LEAVE(false);
+
+        private final boolean sampled;
+
+        Type(boolean sampled) {
+            this.sampled = sampled;
+        }
+
+        public boolean isSampled() {
+            return sampled;
+        }
+    }
+}
+// END
@@ -0,0 +1,70 @@
+package com.hartmann.onlinechat.audit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free multi-producer single-consumer queue.
+ * A producer claims a slot with one compare-and-set on the producer index and
+ * then publishes the element into it; the consumer treats an empty slot as
+ * "not yet published" and stops there. When the queue is full, offer fails
+ * immediately instead of waiting, so producers never block.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+final class AuditEventQueue<E> {
+
+    private final AtomicReferenceArray<E> slots;
+    private final int mask;
+    private final int capacity;
+    private final AtomicLong producerIndex = new AtomicLong();
+    private final AtomicLong consumerIndex = new AtomicLong();
+
+    AuditEventQueue(int capacity) {
+        // Round the slot array up to a power of two so the index is a mask, not a modulo
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.capacity = Math.max(1, capacity);
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds an element unless the queue is full. Safe to call from any thread.
+     *
+     * @return false if the queue was full and the element was not added
+     */
+    boolean offer(E element) {
+        long index;
+        do {
+            index = producerIndex.get();
+            if (index - consumerIndex.get() >= capacity) {
+                return false;
+            }
+        } while (!producerIndex.compareAndSet(index, index + 1));
+        slots.lazySet((int) (index & mask), element);
+        return true;
+    }
+
+    /**
+     * Removes the oldest published element. Must only be called by the single consumer.
+     *
+     * @return The element, or null if the queue is empty or the next element is not published yet
+     */
+    E poll() {
+        long index = consumerIndex.get();
+        int slot = (int) (index & mask);
+        E element = slots.get(slot);
+        if (element == null) {
+            return null;
+        }
+        slots.lazySet(slot, null);
+        consumerIndex.lazySet(index + 1);
+        return element;
+    }
+
+    int size() {
+        return (int) Math.max(0, producerIndex.get() - consumerIndex.get());
+    }
+}
+// END
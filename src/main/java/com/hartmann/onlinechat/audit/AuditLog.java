@@ -0,0 +1,199 @@
+package com.hartmann.onlinechat.audit;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous audit log of chat events, kept out of the message path.
+ * Recording an event is a single lock-free enqueue into a bounded queue; it
+ * never blocks and never touches the file. A background writer drains the
+ * queue in batches and appends one JSON object per line, flushing once per
+ * batch. When the queue is full the event is dropped and counted instead of
+ * slowing the caller down. Chat messages and bot commands can be sampled;
+ * joins, leaves and room changes are always recorded.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@Component
+@Slf4j
+public class AuditLog {
+
+    private final boolean enabled;
+    private final double messageSampleRate;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final AuditEventQueue<AuditEvent> queue;
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder sampledOut = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder writeErrors = new LongAdder();
+    private final JsonGenerator generator;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public AuditLog(ObjectMapper objectMapper,
+            @Value("${chat.audit.enabled:true}") boolean enabled,
+            @Value("${chat.audit.file:data/audit/chat-audit.jsonl}") Path file,
+            @Value("${chat.audit.queue-capacity:65536}") int queueCapacity,
+            @Value("${chat.audit.batch-size:512}") int batchSize,
+            @Value("${chat.audit.flush-interval-ms:200}") long flushIntervalMs,
+            @Value("${chat.audit.message-sample-rate:1.0}") double messageSampleRate) throws IOException {
+        this.enabled = enabled;
+        this.messageSampleRate = messageSampleRate;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        this.queue = new AuditEventQueue<>(queueCapacity);
+        if (!enabled) {
+            this.generator = null;
+            this.writer = null;
+            return;
+        }
+
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.generator = objectMapper.createGenerator(Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE));
+        // One event per line instead of Jackson's default space between root values
+        generator.setRootValueSeparator(null);
+        this.writer = new Thread(this::writeLoop, "audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+        log.info("Audit log writing to {} (message sample rate {})", file, messageSampleRate);
+    }
+
+    /**
+     * Records an event without blocking. The event is dropped if the queue is full.
+     *
+     * @param type      What happened
+     * @param sessionId The acting session, if any
+     * @param username  The acting user, if known
+     * @param target    Room, DM recipient or bot command, depending on the type
+     * @param content   Message content, if any
+     */
+    public void record(AuditEvent.Type type, String sessionId, String username, String target, String content) {
+        if (!enabled) {
+            return;
+        }
+        if (type.isSampled() && messageSampleRate < 1.0
+                && ThreadLocalRandom.current().nextDouble() >= messageSampleRate) {
+            sampledOut.increment();
+            return;
+        }
+        if (queue.offer(new AuditEvent(System.currentTimeMillis(), type, sessionId, username, target, content))) {
+            recorded.increment();
+        } else {
+            dropped.increment();
+        }
+    }
+
+    private void writeLoop() {
+        while (running) {
+            if (drain() < batchSize) {
+                // Queue is empty: push the batch to the file and wait for more
+                flush();
+                LockSupport.parkNanos(this, flushIntervalNanos);
+            }
+        }
+        // Write whatever was recorded before shutdown
+        int drained;
+        do {
+            drained = drain();
+        } while (drained > 0);
+        flush();
+    }
+
+    private int drain() {
+        int count = 0;
+        AuditEvent event;
+        while (count < batchSize && (event = queue.poll()) != null) {
+            try {
+                generator.writeObject(event);
+                generator.writeRaw('\n');
+                written.increment();
+            } catch (IOException e) {
+                writeErrors.increment();
+                log.error("Failed to write audit event", e);
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private void flush() {
+        try {
+            generator.flush();
+        } catch (IOException e) {
+            writeErrors.increment();
+            log.error("Failed to flush audit log", e);
+        }
+    }
+
+    /** Events accepted into the queue. */
+    public long getRecorded() {
+        return recorded.sum();
+    }
+
+    /** Events dropped because the queue was full. */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /** Message events skipped by sampling. */
+    public long getSampledOut() {
+        return sampledOut.sum();
+    }
+
+    /** Events written to the file. */
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /** Events or flushes that failed with an I/O error. */
+    public long getWriteErrors() {
+        return writeErrors.sum();
+    }
+
+    /** Events waiting for the writer. */
+    public int getPending() {
+        return queue.size();
+    }
+
+    /** Stops the writer after it has written all queued events, then closes the file. */
+    @PreDestroy
+    public void close() {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            generator.close();
+        } catch (IOException e) {
+            log.error("Failed to close audit log", e);
+        }
+    }
+}
+// END
@@ -2,6 +2,10 @@ package com.hartmann.onlinechat.bot;
 
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 /**
  * Common interface for all bot command implementations.
  * This interface ensures that future bot commands can be added without modifying
@@ -20,6 +24,35 @@ public interface BotCommand {
      * @return The response message to be sent back to the requesting session
      */
     String execute(String[] args, SimpMessageHeaderAccessor headerAccessor);
+
+    /**
+     * Executes the bot command asynchronously. The default runs {@link #execute}
+     * on the given bot executor; commands that wait on I/O can override this and
+     * complete the future themselves without holding a bot thread.
+     * 
+     * @param args The command arguments (excluding the command name itself)
+     * @param headerAccessor WebSocket session header accessor for retrieving session information
+     * @param executor The dedicated bot command executor
+     * @return Future completed with the response message
+     */
+    default CompletableFuture<String> executeAsync(String[] args, SimpMessageHeaderAccessor headerAccessor,
+            Executor executor) {
+        return CompletableFuture.supplyAsync(() -> execute(args, headerAccessor), executor);
+    }
+
+    /**
+     * @return Timeout for this command in milliseconds, or 0 for the registry default
+     */
+    default long getTimeoutMs() {
+        return 0;
+    }
+
+    /**
+     * @return Maximum concurrent executions of this command, or 0 for the registry default
+     */
+    default int getMaxConcurrency() {
+        return 0;
+    }
     
     /**
      * Returns the unique command name that triggers this bot function.
@@ -27,5 +60,15 @@ public interface BotCommand {
      * @return The command name (e.g., "info", "help", etc.)
      */
     String getCommandName();
+
+    /**
+     * Returns additional names that trigger this command. Like the command name,
+     * aliases are matched case-insensitively and must be unique across commands.
+     * 
+     * @return The aliases, empty by default
+     */
+    default List<String> getAliases() {
+        return List.of();
+    }
 }
 // END
\ No newline at end of file
@@ -1,62 +1,232 @@
 package com.hartmann.onlinechat.bot;
 
+import com.hartmann.onlinechat.metrics.ChatMetrics;
 import jakarta.annotation.PostConstruct;
-import lombok.RequiredArgsConstructor;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.stereotype.Component;
 
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Registry that manages all available bot commands.
  * This component automatically discovers all BotCommand implementations
- * and provides a mechanism to resolve commands by name.
- * 
+ * and provides a mechanism to resolve commands by name or alias. Names are
+ * kept in a case-insensitive trie, so a command is resolved straight from a
+ * region of the message content without lowercasing or copying it.
+ * Commands run on a dedicated, bounded executor so they never block the
+ * STOMP inbound channel. Each command has its own bulkhead (a limit on
+ * concurrent executions) and timeout, so one slow or pathological command
+ * can neither starve the other commands nor hold a caller forever.
+ * Every execution is timed per command and outcome.
+ *
  * @author Thomas Hartmann
  */
 // START
 @Component
-@RequiredArgsConstructor
 @Slf4j
 public class BotCommandRegistry {
-    
+
     private final List<BotCommand> botCommands;
-    private final Map<String, BotCommand> commandMap = new HashMap<>();
-    
+    private final CommandTrie<BotCommand> commandTrie = new CommandTrie<>();
+    private int commandCount;
+    // START - Async execution
+    private final Map<BotCommand, Semaphore> bulkheads = new HashMap<>();
+    private final ThreadPoolExecutor executor;
+    private final long defaultTimeoutMs;
+    private final int defaultMaxConcurrency;
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+    // END
+    private final ChatMetrics chatMetrics;
+
+    public BotCommandRegistry(List<BotCommand> botCommands, ChatMetrics chatMetrics,
+            @Value("${chat.bot.threads:4}") int threads,
+            @Value("${chat.bot.queue-capacity:100}") int queueCapacity,
+            @Value("${chat.bot.timeout-ms:2000}") long defaultTimeoutMs,
+            @Value("${chat.bot.max-concurrent-per-command:2}") int defaultMaxConcurrency) {
+        this.botCommands = botCommands;
+        this.chatMetrics = chatMetrics;
+        this.defaultTimeoutMs = defaultTimeoutMs;
+        this.defaultMaxConcurrency = defaultMaxConcurrency;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "bot-command-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
     /**
-     * Initializes the command registry by mapping command names to their implementations.
+     * Initializes the command registry by mapping command names and aliases to their implementations.
+     *
+     * @throws IllegalStateException if two commands share a name or alias
      */
     @PostConstruct
     public void initializeCommands() {
         botCommands.forEach(command -> {
-            String commandName = command.getCommandName().toLowerCase();
-            commandMap.put(commandName, command);
-            log.info("Registered bot command: {}", commandName);
+            String commandName = command.getCommandName().toLowerCase(Locale.ROOT);
+            register(commandName, command);
+            command.getAliases().forEach(alias -> register(alias, command));
+            int maxConcurrency = command.getMaxConcurrency() > 0 ? command.getMaxConcurrency() : defaultMaxConcurrency;
+            bulkheads.put(command, new Semaphore(maxConcurrency));
+            commandCount++;
+            log.info("Registered bot command: {} (aliases {}, max concurrency {}, timeout {} ms)", commandName,
+                    command.getAliases(), maxConcurrency, timeoutMs(command));
         });
-        log.info("Bot command registry initialized with {} commands", commandMap.size());
+        log.info("Bot command registry initialized with {} commands", commandCount);
     }
-    
+
+    private void register(String name, BotCommand command) {
+        BotCommand existing = commandTrie.putIfAbsent(name, command);
+        if (existing != null) {
+            throw new IllegalStateException("Bot command name '" + name + "' of " + command.getCommandName()
+                    + " is already used by " + existing.getCommandName());
+        }
+    }
+
     /**
-     * Retrieves a bot command by its name.
-     * 
+     * Retrieves a bot command by its name or alias, ignoring case.
+     *
      * @param commandName The name of the command to retrieve
      * @return Optional containing the command if found, empty otherwise
      */
     public Optional<BotCommand> getCommand(String commandName) {
-        return Optional.ofNullable(commandMap.get(commandName.toLowerCase()));
+        return getCommand(commandName, 0, commandName.length());
     }
-    
+
     /**
-     * Checks if a command with the given name exists.
-     * 
+     * Retrieves a bot command by the name or alias in {@code text[start, end)}, ignoring case.
+     *
+     * @param text  Text containing the command name, usually the message content
+     * @param start Start of the name
+     * @param end   End (exclusive) of the name
+     * @return Optional containing the command if found, empty otherwise
+     */
+    public Optional<BotCommand> getCommand(CharSequence text, int start, int end) {
+        return Optional.ofNullable(commandTrie.get(text, start, end));
+    }
+
+    /**
+     * Checks if a command with the given name or alias exists.
+     *
      * @param commandName The name of the command to check
      * @return true if the command exists, false otherwise
      */
     public boolean hasCommand(String commandName) {
-        return commandMap.containsKey(commandName.toLowerCase());
+        return getCommand(commandName).isPresent();
+    }
+
+    // START - Async execution
+    /**
+     * Runs a command on the bot executor within its bulkhead and timeout.
+     * Never blocks the caller. The returned future always completes normally:
+     * rejections, timeouts and failures are turned into a response message.
+     * A timed-out command keeps its bulkhead slot until it actually finishes,
+     * so a hanging command can occupy at most its own concurrency limit.
+     *
+     * @param command The command to run
+     * @param args The command arguments
+     * @param headerAccessor WebSocket session header accessor
+     * @return Future completed with the response message
+     */
+    public CompletableFuture<String> execute(BotCommand command, String[] args,
+            SimpMessageHeaderAccessor headerAccessor) {
+        String commandName = command.getCommandName().toLowerCase(Locale.ROOT);
+        long start = System.nanoTime();
+        Semaphore bulkhead = bulkheads.get(command);
+        if (bulkhead == null || !bulkhead.tryAcquire()) {
+            rejections.incrementAndGet();
+            chatMetrics.botCommandCompleted(commandName, "busy", System.nanoTime() - start);
+            log.warn("Bot command '{}' rejected: concurrency limit reached", commandName);
+            return CompletableFuture.completedFuture(
+                    "The '" + commandName + "' command is busy. Please try again in a moment.");
+        }
+
+        CompletableFuture<String> execution;
+        try {
+            execution = command.executeAsync(args, headerAccessor, executor);
+        } catch (RejectedExecutionException e) {
+            bulkhead.release();
+            rejections.incrementAndGet();
+            chatMetrics.botCommandCompleted(commandName, "overloaded", System.nanoTime() - start);
+            log.warn("Bot command '{}' rejected: bot executor is saturated", commandName);
+            return CompletableFuture.completedFuture("The server bot is overloaded. Please try again in a moment.");
+        } catch (RuntimeException e) {
+            bulkhead.release();
+            chatMetrics.botCommandCompleted(commandName, "error", System.nanoTime() - start);
+            return CompletableFuture.completedFuture("Error processing command: " + e.getMessage());
+        }
+        execution.whenComplete((result, error) -> bulkhead.release());
+
+        long timeoutMs = timeoutMs(command);
+        // copy() keeps the timeout from completing the execution itself, which owns the bulkhead slot
+        return execution.copy()
+                .orTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .handle((result, error) -> {
+                    if (error == null) {
+                        chatMetrics.botCommandCompleted(commandName, "success", System.nanoTime() - start);
+                        return result;
+                    }
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error;
+                    if (cause instanceof TimeoutException) {
+                        timeouts.incrementAndGet();
+                        chatMetrics.botCommandCompleted(commandName, "timeout", System.nanoTime() - start);
+                        log.warn("Bot command '{}' timed out after {} ms", commandName, timeoutMs);
+                        return "The '" + commandName + "' command timed out after " + timeoutMs + " ms.";
+                    }
+                    if (cause instanceof RejectedExecutionException) {
+                        rejections.incrementAndGet();
+                        chatMetrics.botCommandCompleted(commandName, "overloaded", System.nanoTime() - start);
+                        return "The server bot is overloaded. Please try again in a moment.";
+                    }
+                    chatMetrics.botCommandCompleted(commandName, "error", System.nanoTime() - start);
+                    log.error("Bot command '{}' failed", commandName, cause);
+                    return "Error processing command: " + cause.getMessage();
+                });
+    }
+
+    private long timeoutMs(BotCommand command) {
+        return command.getTimeoutMs() > 0 ? command.getTimeoutMs() : defaultTimeoutMs;
+    }
+
+    /** Number of commands that exceeded their timeout. */
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    /** Number of commands rejected by a bulkhead or a full bot executor. */
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    /** Number of commands waiting for a bot executor thread. */
+    public int getQueuedCommands() {
+        return executor.getQueue().size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
     }
+    // END
 }
-// END
\ No newline at end of file
+// END
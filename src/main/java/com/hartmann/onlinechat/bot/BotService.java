@@ -6,11 +6,14 @@ import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.stereotype.Service;
 
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Service responsible for processing bot commands.
  * This service acts as the main entry point for bot functionality,
- * handling command parsing and execution delegation.
+ * handling command parsing and execution delegation. Messages are classified
+ * by {@link MessageClassifier} and commands resolved by {@link BotCommandRegistry}
+ * straight from the message content.
  * 
  * @author Thomas Hartmann
  */
@@ -20,8 +23,8 @@ import java.util.Optional;
 @Slf4j
 public class BotService {
     
-    private static final String BOT_PREFIX = "@server";
     private static final String UNKNOWN_COMMAND_RESPONSE = "Unknown command. Available commands: info";
+    private static final String[] NO_ARGS = new String[0];
     
     private final BotCommandRegistry commandRegistry;
     
@@ -32,83 +35,88 @@ public class BotService {
      * @return true if the message starts with @server, false otherwise
      */
     public boolean isBotCommand(String content) {
-        boolean isBot = content != null && content.trim().toLowerCase().startsWith(BOT_PREFIX);
-        log.debug("Checking if '{}' is bot command: {}", content, isBot);
-        return isBot;
+        return MessageClassifier.classify(content).kind() == MessageClassifier.Kind.BOT;
     }
     
     /**
-     * Processes a bot command and returns the appropriate response.
+     * Processes a bot command asynchronously on the bot executor.
+     * Returns immediately; the future completes with the response once the
+     * command has finished, failed or timed out.
      * 
      * @param content The full message content including @server prefix
      * @param headerAccessor WebSocket session header accessor
-     * @return The bot's response message
+     * @return Future completed with the bot's response message
      */
-    public String processCommand(String content, SimpMessageHeaderAccessor headerAccessor) {
-        log.info("Processing bot command: {}", content);
+    public CompletableFuture<String> processCommand(String content, SimpMessageHeaderAccessor headerAccessor) {
+        return processCommand(MessageClassifier.classify(content), headerAccessor);
+    }
+    
+    /**
+     * Processes an already classified bot command. The command is resolved
+     * directly from the message content; only the arguments are copied out.
+     * 
+     * @param command A {@link MessageClassifier.Kind#BOT} classification
+     * @param headerAccessor WebSocket session header accessor
+     * @return Future completed with the bot's response message
+     */
+    public CompletableFuture<String> processCommand(MessageClassifier.Classification command,
+            SimpMessageHeaderAccessor headerAccessor) {
+        if (command.kind() != MessageClassifier.Kind.BOT || !command.hasName()) {
+            return CompletableFuture.completedFuture("Invalid command format. Use: @server <command>");
+        }
         
         try {
-            String[] parts = parseCommand(content);
-            if (parts.length == 0 || parts[0].isEmpty()) {
-                return "Invalid command format. Use: @server <command>";
+            Optional<BotCommand> botCommand = commandRegistry.getCommand(command.content(), command.nameStart(),
+                    command.nameEnd());
+            if (botCommand.isEmpty()) {
+                log.warn("Unknown bot command: {}", command.name());
+                return CompletableFuture.completedFuture(UNKNOWN_COMMAND_RESPONSE);
             }
             
-            String commandName = parts[0];
-            String[] args = extractArgs(parts);
-            
-            log.info("Command name: '{}', args count: {}", commandName, args.length);
-            
-            Optional<BotCommand> command = commandRegistry.getCommand(commandName);
-            
-            if (command.isPresent()) {
-                log.info("Executing command: {} with {} args", commandName, args.length);
-                String result = command.get().execute(args, headerAccessor);
-                log.info("Command execution result: {}", result);
-                return result;
-            } else {
-                log.warn("Unknown bot command: {}", commandName);
-                return UNKNOWN_COMMAND_RESPONSE;
-            }
+            String[] args = splitArgs(command.content(), command.bodyStart(), command.end());
+            log.debug("Executing command: {} with {} args", botCommand.get().getCommandName(), args.length);
+            return commandRegistry.execute(botCommand.get(), args, headerAccessor);
             
         } catch (Exception e) {
-            log.error("Error processing bot command: {}", content, e);
-            return "Error processing command: " + e.getMessage();
+            log.error("Error processing bot command: {}", command.content(), e);
+            return CompletableFuture.completedFuture("Error processing command: " + e.getMessage());
         }
     }
     
     /**
-     * Parses the command content to extract command name and arguments.
+     * Splits the argument region of a command on whitespace, without a regex.
      * 
      * @param content The full message content
-     * @return Array of command parts [commandName, arg1, arg2, ...]
+     * @param start Start of the arguments
+     * @param end End (exclusive) of the arguments, without trailing whitespace
+     * @return The arguments, empty if there are none
      */
-    private String[] parseCommand(String content) {
-        // Remove @server prefix and split by spaces
-        String commandContent = content.trim().substring(BOT_PREFIX.length()).trim();
-        log.debug("Command content after removing prefix: '{}'", commandContent);
-        
-        if (commandContent.isEmpty()) {
-            return new String[0];
+    private static String[] splitArgs(String content, int start, int end) {
+        if (start >= end) {
+            return NO_ARGS;
         }
-        
-        String[] parts = commandContent.split("\\s+");
-        log.debug("Command parts: {}", java.util.Arrays.toString(parts));
-        return parts;
-    }
-    
-    /**
-     * Extracts arguments from command parts, excluding the command name.
-     * 
-     * @param parts The full command parts array
-     * @return Array containing only the arguments
-     */
-    private String[] extractArgs(String[] parts) {
-        if (parts.length <= 1) {
-            return new String[0];
+        int count = 0;
+        for (int i = start; i < end; count++) {
+            while (i < end && content.charAt(i) > ' ') {
+                i++;
+            }
+            while (i < end && content.charAt(i) <= ' ') {
+                i++;
+            }
         }
         
-        String[] args = new String[parts.length - 1];
-        System.arraycopy(parts, 1, args, 0, args.length);
+        String[] args = new String[count];
+        int i = start;
+        for (int arg = 0; arg < count; arg++) {
+            int argStart = i;
+            while (i < end && content.charAt(i) > ' ') {
+                i++;
+            }
+            args[arg] = content.substring(argStart, i);
+            while (i < end && content.charAt(i) <= ' ') {
+                i++;
+            }
+        }
         return args;
     }
 }
@@ -0,0 +1,79 @@
+package com.hartmann.onlinechat.bot;
+
+import java.util.Arrays;
+
+/**
+ * Case-insensitive trie over command names and aliases.
+ * Built once at startup; lookups walk a region of the message content
+ * character by character, so resolving a command neither lowercases nor
+ * copies the name. Each node keeps its few children in parallel arrays,
+ * which is compact and fast for the small alphabet of command names.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+final class CommandTrie<T> {
+
+    private final Node<T> root = new Node<>();
+
+    /**
+     * Adds a key unless it is already present.
+     *
+     * @return The value already stored for the key, or null if the key was added
+     */
+    T putIfAbsent(String key, T value) {
+        Node<T> node = root;
+        for (int i = 0; i < key.length(); i++) {
+            node = node.childFor(Character.toLowerCase(key.charAt(i)));
+        }
+        if (node.value != null) {
+            return node.value;
+        }
+        node.value = value;
+        return null;
+    }
+
+    /**
+     * Looks up the key stored in {@code text[start, end)}, ignoring case.
+     *
+     * @return The value, or null if there is none
+     */
+    T get(CharSequence text, int start, int end) {
+        Node<T> node = root;
+        for (int i = start; i < end && node != null; i++) {
+            node = node.child(Character.toLowerCase(text.charAt(i)));
+        }
+        return node != null ? node.value : null;
+    }
+
+    private static final class Node<T> {
+
+        private char[] keys = new char[0];
+        @SuppressWarnings("unchecked")
+        private Node<T>[] children = new Node[0];
+        private T value;
+
+        Node<T> child(char key) {
+            char[] k = keys;
+            for (int i = 0; i < k.length; i++) {
+                if (k[i] == key) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node<T> childFor(char key) {
+            Node<T> child = child(key);
+            if (child == null) {
+                child = new Node<>();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                keys[keys.length - 1] = key;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+}
+// END
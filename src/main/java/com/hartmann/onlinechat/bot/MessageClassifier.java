@@ -0,0 +1,124 @@
+package com.hartmann.onlinechat.bot;
+
+/**
+ * Classifies chat message content in a single pass without copying it.
+ * A message whose first non-blank character is '@' is either a bot command
+ * or a direct message; everything else is a public (or room) message.
+ * The result holds offsets into the original content, so the routing
+ * decision itself allocates nothing and public messages are classified
+ * without any allocation at all.
+ * <p>
+ * Recognized forms:
+ * <ul>
+ * <li>{@code @server <command> [args...]} - bot command</li>
+ * <li>{@code @server-info [args...]} - any '@' token starting with "server"
+ * is a bot command named by the whole token, so aliases registered in
+ * {@link BotCommandRegistry} can be used directly</li>
+ * <li>{@code @<username> [message]} - direct message</li>
+ * </ul>
+ * Whitespace is any character up to and including space, as in {@link String#trim()}.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+public final class MessageClassifier {
+
+    public enum Kind {
+        PUBLIC, DIRECT, BOT
+    }
+
+    private static final String BOT_PREFIX = "server";
+
+    private MessageClassifier() {
+    }
+
+    /**
+     * Routing decision for one message. For {@link Kind#DIRECT} the name is the
+     * recipient and the body is the message; for {@link Kind#BOT} the name is the
+     * command (empty if missing) and the body holds the arguments.
+     *
+     * @param kind      How the message is routed
+     * @param content   The original content, or null for public messages
+     * @param nameStart Start of the recipient or command name
+     * @param nameEnd   End (exclusive) of the recipient or command name
+     * @param bodyStart Start of the message body or arguments
+     * @param end       End (exclusive) of the content without trailing whitespace
+     */
+    public record Classification(Kind kind, String content, int nameStart, int nameEnd, int bodyStart, int end) {
+
+        static final Classification PUBLIC = new Classification(Kind.PUBLIC, null, 0, 0, 0, 0);
+
+        /** @return The recipient or command name */
+        public String name() {
+            return content.substring(nameStart, nameEnd);
+        }
+
+        /** @return The message body or command arguments, without surrounding whitespace */
+        public String body() {
+            return bodyStart < end ? content.substring(bodyStart, end) : "";
+        }
+
+        /** @return false for a bot command without a command name */
+        public boolean hasName() {
+            return nameStart < nameEnd;
+        }
+    }
+
+    /**
+     * Classifies message content.
+     *
+     * @param content The raw message content, may be null
+     * @return The routing decision; the shared PUBLIC instance for anything not starting with '@'
+     */
+    public static Classification classify(String content) {
+        if (content == null) {
+            return Classification.PUBLIC;
+        }
+        int length = content.length();
+        int start = skipWhitespace(content, 0, length);
+        if (start == length || content.charAt(start) != '@') {
+            return Classification.PUBLIC;
+        }
+        int end = length;
+        while (end > start && content.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        int tokenStart = start + 1;
+        int tokenEnd = skipToken(content, tokenStart, end);
+        if (!startsWithIgnoreCase(content, tokenStart, tokenEnd, BOT_PREFIX)) {
+            return new Classification(Kind.DIRECT, content, tokenStart, tokenEnd,
+                    skipWhitespace(content, tokenEnd, end), end);
+        }
+
+        if (tokenEnd - tokenStart == BOT_PREFIX.length()) {
+            // "@server <command> args": the command is the next token
+            int commandStart = skipWhitespace(content, tokenEnd, end);
+            int commandEnd = skipToken(content, commandStart, end);
+            return new Classification(Kind.BOT, content, commandStart, commandEnd,
+                    skipWhitespace(content, commandEnd, end), end);
+        }
+        // "@server-info args": the whole token names the command
+        return new Classification(Kind.BOT, content, tokenStart, tokenEnd,
+                skipWhitespace(content, tokenEnd, end), end);
+    }
+
+    private static int skipWhitespace(String content, int index, int end) {
+        while (index < end && content.charAt(index) <= ' ') {
+            index++;
+        }
+        return index;
+    }
+
+    private static int skipToken(String content, int index, int end) {
+        while (index < end && content.charAt(index) > ' ') {
+            index++;
+        }
+        return index;
+    }
+
+    private static boolean startsWithIgnoreCase(String content, int start, int end, String prefix) {
+        return end - start >= prefix.length() && content.regionMatches(true, start, prefix, 0, prefix.length());
+    }
+}
+// END
@@ -4,9 +4,11 @@ import com.hartmann.onlinechat.bot.BotCommand;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+
 /**
  * Command to display available commands.
- * Usage: @server help
+ * Usage: @server help (aliases: @server ?, @server commands)
  */
 @Component
 public class HelpCommand implements BotCommand {
@@ -18,11 +20,13 @@ public class HelpCommand implements BotCommand {
         sb.append("-------------------\n");
         sb.append("@server help            - Show this help message\n");
         sb.append("@server info            - Show your client info\n");
-        // sb.append("@server server-info - Show server statistics\n"); // Conflict on
-        // 'info', omitting for now unless I fix it
+        sb.append("@server-info            - Show server statistics (alias: @server status)\n");
         sb.append("@server math <expr>     - Calculate math expression\n");
+        sb.append("@server search <words>  - Search public messages (from:<user>, since:<n>m|h|d)\n");
         sb.append("@admin <message>        - Send private message to Admin\n");
-        sb.append("@<username> <message>   - Send private message to User");
+        sb.append("@<username> <message>   - Send private message to User\n");
+        sb.append("/join <room>            - Join a room and send messages there\n");
+        sb.append("/leave                  - Leave the current room (back to #general)");
         return sb.toString();
     }
 
@@ -30,4 +34,9 @@ public class HelpCommand implements BotCommand {
     public String getCommandName() {
         return "help";
     }
+
+    @Override
+    public List<String> getAliases() {
+        return List.of("?", "commands");
+    }
 }
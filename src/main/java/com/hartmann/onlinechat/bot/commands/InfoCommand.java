@@ -29,19 +29,19 @@ public class InfoCommand implements BotCommand {
      */
     @Override
     public String execute(String[] args, SimpMessageHeaderAccessor headerAccessor) {
-        log.info("Executing info command for session");
+        log.debug("Executing info command for session");
         
         // Get session ID (Client-ID)
         String sessionId = headerAccessor.getSessionId();
-        log.info("Session ID: {}", sessionId);
+        log.debug("Session ID: {}", sessionId);
         
         // Get client name from session attributes
         String clientName = getClientName(headerAccessor);
-        log.info("Client name: {}", clientName);
+        log.debug("Client name: {}", clientName);
         
         // Format response according to specification
         String response = formatInfoResponse(sessionId, clientName);
-        log.info("Info command response: {}", response);
+        log.debug("Info command response: {}", response);
         
         return response;
     }
@@ -0,0 +1,104 @@
+package com.hartmann.onlinechat.bot.commands;
+
+import com.hartmann.onlinechat.bot.BotCommand;
+import com.hartmann.onlinechat.search.SearchHit;
+import com.hartmann.onlinechat.search.SearchIndex;
+import com.hartmann.onlinechat.search.SearchQuery;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command to search the public chat history.
+ * Usage: @server search <words> [from:<user>] [since:<n>m|h|d]
+ * Lists the newest matching messages; every word must occur in a message.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@Component
+public class SearchCommand implements BotCommand {
+
+    private static final String FROM = "from:";
+    private static final String SINCE = "since:";
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")
+            .withZone(ZoneId.systemDefault());
+
+    private final SearchIndex searchIndex;
+    private final int maxResults;
+
+    public SearchCommand(SearchIndex searchIndex, @Value("${chat.search.bot-results:5}") int maxResults) {
+        this.searchIndex = searchIndex;
+        this.maxResults = maxResults;
+    }
+
+    @Override
+    public String execute(String[] args, SimpMessageHeaderAccessor headerAccessor) {
+        List<String> words = new ArrayList<>();
+        String sender = null;
+        long since = 0;
+        for (String arg : args) {
+            String lower = arg.toLowerCase(Locale.ROOT);
+            if (lower.startsWith(FROM) && arg.length() > FROM.length()) {
+                sender = arg.substring(FROM.length());
+            } else if (lower.startsWith(SINCE)) {
+                long age = parseAge(lower.substring(SINCE.length()));
+                if (age < 0) {
+                    return "Error: Invalid time '" + arg + "'. Use since:<number>m, h or d (e.g., since:2h).";
+                }
+                since = System.currentTimeMillis() - age;
+            } else {
+                words.add(arg);
+            }
+        }
+        if (words.isEmpty() && sender == null) {
+            return "Usage: @server search <words> [from:<user>] [since:<n>m|h|d] (e.g., @server search deploy from:alice since:2h)";
+        }
+
+        List<SearchHit> hits = searchIndex.search(new SearchQuery(String.join(" ", words), sender, since,
+                Long.MAX_VALUE, maxResults));
+        if (hits.isEmpty()) {
+            return "No messages found.";
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("Newest ").append(hits.size()).append(hits.size() == 1 ? " match:" : " matches:");
+        for (SearchHit hit : hits) {
+            sb.append("\n[").append(TIME_FORMAT.format(Instant.ofEpochMilli(hit.timestamp()))).append("] ")
+                    .append(hit.message().getSender()).append(": ").append(hit.message().getContent());
+        }
+        return sb.toString();
+    }
+
+    /** Parses {@code <n>m}, {@code <n>h} or {@code <n>d} into milliseconds, or -1 if invalid. */
+    private static long parseAge(String value) {
+        if (value.length() < 2) {
+            return -1;
+        }
+        TimeUnit unit = switch (value.charAt(value.length() - 1)) {
+            case 'm' -> TimeUnit.MINUTES;
+            case 'h' -> TimeUnit.HOURS;
+            case 'd' -> TimeUnit.DAYS;
+            default -> null;
+        };
+        try {
+            long amount = Long.parseLong(value.substring(0, value.length() - 1));
+            return unit != null && amount >= 0 ? unit.toMillis(amount) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public String getCommandName() {
+        return "search";
+    }
+}
+// END
@@ -1,14 +1,18 @@
 package com.hartmann.onlinechat.bot.commands;
 
 import com.hartmann.onlinechat.bot.BotCommand;
+import com.hartmann.onlinechat.cluster.ClusterService;
+import com.hartmann.onlinechat.service.PresenceBroadcaster;
 import com.hartmann.onlinechat.service.SessionManager;
 import lombok.RequiredArgsConstructor;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+
 /**
  * Command to display server information.
- * Usage: @server-info
+ * Usage: @server-info, @server server-info or @server status
  */
 // START
 @Component
@@ -16,6 +20,8 @@ import org.springframework.stereotype.Component;
 public class ServerInfoCommand implements BotCommand {
 
     private final SessionManager sessionManager;
+    private final PresenceBroadcaster presenceBroadcaster;
+    private final ClusterService clusterService;
 
     @Override
     public String execute(String[] args, SimpMessageHeaderAccessor headerAccessor) {
@@ -24,7 +30,13 @@ public class ServerInfoCommand implements BotCommand {
         sb.append("-------------------\n");
         sb.append("Connected Clients: ").append(sessionManager.getConnectedClientCount()).append("\n");
         sb.append("Server Uptime:     ").append(sessionManager.getUptime()).append("\n");
-        sb.append("Admin User:        ").append(sessionManager.getAdminUsername());
+        sb.append("Admin User:        ").append(sessionManager.getAdminUsername()).append("\n");
+        sb.append("Presence Updates:  ").append(presenceBroadcaster.getUpdatesSent())
+                .append(" sent, ").append(presenceBroadcaster.getChangesCoalesced()).append(" coalesced");
+        String clusterStatus = clusterService.getStatus();
+        if (clusterStatus != null) {
+            sb.append("\nCluster Node:      ").append(clusterStatus);
+        }
 
         return sb.toString();
     }
@@ -33,5 +45,10 @@ public class ServerInfoCommand implements BotCommand {
     public String getCommandName() {
         return "server-info";
     }
+
+    @Override
+    public List<String> getAliases() {
+        return List.of("status");
+    }
 }
 // END
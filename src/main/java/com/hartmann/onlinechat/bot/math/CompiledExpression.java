@@ -0,0 +1,92 @@
+package com.hartmann.onlinechat.bot.math;
+
+/**
+ * A parsed arithmetic expression in compact postfix form: one int per
+ * instruction (opcode in the low byte, operand above it) and a constant pool
+ * of primitive doubles. Immutable and safe to share between threads.
+ * Evaluation runs on a per-thread primitive stack and does not allocate.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+public final class CompiledExpression {
+
+    static final int CONST = 0;
+    static final int ADD = 1;
+    static final int SUB = 2;
+    static final int MUL = 3;
+    static final int DIV = 4;
+    static final int MOD = 5;
+    static final int POW = 6;
+    static final int NEG = 7;
+    static final int FUNC = 8;
+
+    private static final ThreadLocal<double[]> STACKS = ThreadLocal.withInitial(() -> new double[64]);
+
+    private final int[] code;
+    private final double[] constants;
+    private final int maxStack;
+
+    CompiledExpression(int[] code, double[] constants, int maxStack) {
+        this.code = code;
+        this.constants = constants;
+        this.maxStack = maxStack;
+    }
+
+    /**
+     * Evaluates the expression.
+     *
+     * @return The result
+     * @throws ArithmeticException on division by zero or a non-finite result
+     */
+    public double evaluate() {
+        double[] stack = STACKS.get();
+        if (stack.length < maxStack) {
+            stack = new double[maxStack];
+            STACKS.set(stack);
+        }
+        int top = -1;
+        for (int instruction : code) {
+            int operand = instruction >>> 8;
+            switch (instruction & 0xFF) {
+                case CONST -> stack[++top] = constants[operand];
+                case ADD -> { top--; stack[top] += stack[top + 1]; }
+                case SUB -> { top--; stack[top] -= stack[top + 1]; }
+                case MUL -> { top--; stack[top] *= stack[top + 1]; }
+                case DIV -> {
+                    top--;
+                    if (stack[top + 1] == 0) {
+                        throw new ArithmeticException("Division by zero");
+                    }
+                    stack[top] /= stack[top + 1];
+                }
+                case MOD -> {
+                    top--;
+                    if (stack[top + 1] == 0) {
+                        throw new ArithmeticException("Division by zero");
+                    }
+                    stack[top] %= stack[top + 1];
+                }
+                case POW -> { top--; stack[top] = Math.pow(stack[top], stack[top + 1]); }
+                case NEG -> stack[top] = -stack[top];
+                case FUNC -> {
+                    MathFunction function = MathFunction.VALUES[operand];
+                    top -= function.arity() - 1;
+                    stack[top] = function.apply(stack, top);
+                }
+                default -> throw new IllegalStateException("Unknown opcode " + (instruction & 0xFF));
+            }
+        }
+        double result = stack[0];
+        if (!Double.isFinite(result)) {
+            throw new ArithmeticException("Result is not a finite number");
+        }
+        return result;
+    }
+
+    /** Number of instructions, for tests and diagnostics. */
+    public int size() {
+        return code.length;
+    }
+}
+// END
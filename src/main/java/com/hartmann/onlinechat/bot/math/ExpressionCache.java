@@ -0,0 +1,66 @@
+package com.hartmann.onlinechat.bot.math;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of compiled expressions, so repeated expressions skip
+ * parsing. Lookups are short and guarded by the cache's own monitor;
+ * compilation happens outside of it.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+public class ExpressionCache {
+
+    private final Map<String, CompiledExpression> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ExpressionCache(int capacity) {
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledExpression> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the compiled form of an expression, compiling and caching it on a miss.
+     *
+     * @throws IllegalArgumentException if the expression is invalid (invalid input is not cached)
+     */
+    public CompiledExpression get(String expression) {
+        CompiledExpression compiled;
+        synchronized (cache) {
+            compiled = cache.get(expression);
+        }
+        if (compiled != null) {
+            hits.incrementAndGet();
+            return compiled;
+        }
+        misses.incrementAndGet();
+        compiled = ExpressionCompiler.compile(expression);
+        synchronized (cache) {
+            cache.put(expression, compiled);
+        }
+        return compiled;
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
+// END
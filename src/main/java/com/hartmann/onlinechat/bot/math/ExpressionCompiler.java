@@ -0,0 +1,241 @@
+package com.hartmann.onlinechat.bot.math;
+
+import java.util.Arrays;
+
+/**
+ * Compiles an arithmetic expression into a {@link CompiledExpression}.
+ * A recursive-descent parser pulls tokens straight from the input in a single
+ * pass and emits postfix code as it goes; there is no token list or syntax tree.
+ * <p>
+ * Grammar, lowest precedence first:
+ * <pre>
+ * expression = term (('+' | '-') term)*
+ * term       = unary (('*' | '/' | '%') unary)*
+ * unary      = ('+' | '-') unary | power
+ * power      = primary ('^' unary)?            right-associative, -2^2 = -4
+ * primary    = number | '(' expression ')' | function '(' expression (',' expression)* ')' | 'pi' | 'e'
+ * </pre>
+ * Input length and nesting depth are limited so hostile input cannot exhaust
+ * the stack or the CPU.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+public final class ExpressionCompiler {
+
+    public static final int MAX_LENGTH = 256;
+    public static final int MAX_DEPTH = 32;
+
+    private final String input;
+    private int pos;
+    private int depth;
+    private int[] code = new int[16];
+    private int codeSize;
+    private double[] constants = new double[8];
+    private int constantCount;
+    private int stackDepth;
+    private int maxStack;
+
+    private ExpressionCompiler(String input) {
+        this.input = input;
+    }
+
+    /**
+     * Compiles an expression.
+     *
+     * @param expression The expression text
+     * @return The compiled expression
+     * @throws IllegalArgumentException if the expression is empty, too long, too deeply nested or invalid
+     */
+    public static CompiledExpression compile(String expression) {
+        if (expression == null || expression.isBlank()) {
+            throw new IllegalArgumentException("Empty expression");
+        }
+        if (expression.length() > MAX_LENGTH) {
+            throw new IllegalArgumentException("Expression is longer than " + MAX_LENGTH + " characters");
+        }
+        ExpressionCompiler compiler = new ExpressionCompiler(expression);
+        compiler.parseExpression();
+        if (compiler.peek() != 0) {
+            throw compiler.unexpected();
+        }
+        return new CompiledExpression(Arrays.copyOf(compiler.code, compiler.codeSize),
+                Arrays.copyOf(compiler.constants, compiler.constantCount), compiler.maxStack);
+    }
+
+    private void parseExpression() {
+        enter();
+        parseTerm();
+        for (char op = peek(); op == '+' || op == '-'; op = peek()) {
+            pos++;
+            parseTerm();
+            emit(op == '+' ? CompiledExpression.ADD : CompiledExpression.SUB, 0, -1);
+        }
+        leave();
+    }
+
+    private void parseTerm() {
+        parseUnary();
+        for (char op = peek(); op == '*' || op == '/' || op == '%'; op = peek()) {
+            pos++;
+            parseUnary();
+            emit(op == '*' ? CompiledExpression.MUL : op == '/' ? CompiledExpression.DIV : CompiledExpression.MOD, 0,
+                    -1);
+        }
+    }
+
+    private void parseUnary() {
+        char op = peek();
+        if (op == '+' || op == '-') {
+            pos++;
+            enter();
+            parseUnary();
+            leave();
+            if (op == '-') {
+                emit(CompiledExpression.NEG, 0, 0);
+            }
+            return;
+        }
+        parsePower();
+    }
+
+    private void parsePower() {
+        parsePrimary();
+        if (peek() == '^') {
+            pos++;
+            enter();
+            parseUnary();
+            leave();
+            emit(CompiledExpression.POW, 0, -1);
+        }
+    }
+
+    private void parsePrimary() {
+        char c = peek();
+        if (isDigit(c) || c == '.') {
+            parseNumber();
+        } else if (c == '(') {
+            pos++;
+            parseExpression();
+            expect(')');
+        } else if (Character.isLetter(c)) {
+            parseIdentifier();
+        } else {
+            throw unexpected();
+        }
+    }
+
+    private void parseNumber() {
+        int start = pos;
+        boolean dot = false;
+        for (; pos < input.length(); pos++) {
+            char c = input.charAt(pos);
+            if (c == '.' && !dot) {
+                dot = true;
+            } else if (!isDigit(c)) {
+                break;
+            }
+        }
+        if (pos - start == 1 && dot) {
+            pos = start;
+            throw unexpected();
+        }
+        emitConstant(Double.parseDouble(input.substring(start, pos)));
+    }
+
+    private void parseIdentifier() {
+        int start = pos;
+        while (pos < input.length() && Character.isLetter(input.charAt(pos))) {
+            pos++;
+        }
+        String name = input.substring(start, pos);
+        if (peek() != '(') {
+            if (name.equalsIgnoreCase("pi")) {
+                emitConstant(Math.PI);
+            } else if (name.equalsIgnoreCase("e")) {
+                emitConstant(Math.E);
+            } else {
+                throw new IllegalArgumentException("Unknown constant '" + name + "'");
+            }
+            return;
+        }
+
+        MathFunction function = MathFunction.byName(name);
+        if (function == null) {
+            throw new IllegalArgumentException("Unknown function '" + name + "'");
+        }
+        pos++; // (
+        int args = 1;
+        parseExpression();
+        while (peek() == ',') {
+            pos++;
+            parseExpression();
+            args++;
+        }
+        expect(')');
+        if (args != function.arity()) {
+            throw new IllegalArgumentException(
+                    name + "() takes " + function.arity() + " argument" + (function.arity() == 1 ? "" : "s"));
+        }
+        emit(CompiledExpression.FUNC, function.ordinal(), 1 - args);
+    }
+
+    // START - Emitting
+    private void emitConstant(double value) {
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        emit(CompiledExpression.CONST, constantCount++, 1);
+    }
+
+    private void emit(int opcode, int operand, int stackEffect) {
+        if (codeSize == code.length) {
+            code = Arrays.copyOf(code, codeSize * 2);
+        }
+        code[codeSize++] = operand << 8 | opcode;
+        stackDepth += stackEffect;
+        maxStack = Math.max(maxStack, stackDepth);
+    }
+    // END
+
+    // START - Tokenizer helpers
+    /**
+     * @return The next non-whitespace character without consuming it, or 0 at the end
+     */
+    private char peek() {
+        while (pos < input.length() && Character.isWhitespace(input.charAt(pos))) {
+            pos++;
+        }
+        return pos < input.length() ? input.charAt(pos) : 0;
+    }
+
+    private void expect(char expected) {
+        if (peek() != expected) {
+            throw new IllegalArgumentException("Expected '" + expected + "' at position " + (pos + 1));
+        }
+        pos++;
+    }
+
+    private void enter() {
+        if (++depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Expression is nested deeper than " + MAX_DEPTH + " levels");
+        }
+    }
+
+    private void leave() {
+        depth--;
+    }
+
+    private IllegalArgumentException unexpected() {
+        return pos < input.length()
+                ? new IllegalArgumentException("Unexpected '" + input.charAt(pos) + "' at position " + (pos + 1))
+                : new IllegalArgumentException("Unexpected end of expression");
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+    // END
+}
+// END
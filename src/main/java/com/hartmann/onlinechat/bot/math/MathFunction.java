@@ -0,0 +1,64 @@
+package com.hartmann.onlinechat.bot.math;
+
+import java.util.Locale;
+
+/**
+ * Functions callable from math expressions. Arguments are read straight from
+ * the evaluation stack, starting at the given index.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+enum MathFunction {
+
+    SQRT(1), ABS(1), SIN(1), COS(1), TAN(1), ASIN(1), ACOS(1), ATAN(1),
+    LN(1), LOG(1), EXP(1), FLOOR(1), CEIL(1), ROUND(1), MIN(2), MAX(2);
+
+    static final MathFunction[] VALUES = values();
+
+    private final int arity;
+
+    MathFunction(int arity) {
+        this.arity = arity;
+    }
+
+    int arity() {
+        return arity;
+    }
+
+    double apply(double[] stack, int first) {
+        double x = stack[first];
+        return switch (this) {
+            case SQRT -> Math.sqrt(x);
+            case ABS -> Math.abs(x);
+            case SIN -> Math.sin(x);
+            case COS -> Math.cos(x);
+            case TAN -> Math.tan(x);
+            case ASIN -> Math.asin(x);
+            case ACOS -> Math.acos(x);
+            case ATAN -> Math.atan(x);
+            case LN -> Math.log(x);
+            case LOG -> Math.log10(x);
+            case EXP -> Math.exp(x);
+            case FLOOR -> Math.floor(x);
+            case CEIL -> Math.ceil(x);
+            case ROUND -> Math.rint(x);
+            case MIN -> Math.min(x, stack[first + 1]);
+            case MAX -> Math.max(x, stack[first + 1]);
+        };
+    }
+
+    /**
+     * @return The function with this name (case-insensitive), or null
+     */
+    static MathFunction byName(CharSequence name) {
+        String upper = name.toString().toUpperCase(Locale.ROOT);
+        for (MathFunction function : VALUES) {
+            if (function.name().equals(upper)) {
+                return function;
+            }
+        }
+        return null;
+    }
+}
+// END
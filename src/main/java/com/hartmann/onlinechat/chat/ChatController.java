@@ -8,6 +8,7 @@ import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
 import com.hartmann.onlinechat.bot.BotService;
+import com.hartmann.onlinechat.bot.MessageClassifier;
 import lombok.RequiredArgsConstructor;
 
 /**
@@ -25,61 +26,146 @@ public class ChatController {
     // START
     private final com.hartmann.onlinechat.service.SessionManager sessionManager;
     private final com.hartmann.onlinechat.service.DirectMessageService directMessageService;
+    private final com.hartmann.onlinechat.service.SessionMessenger sessionMessenger;
+    private final com.hartmann.onlinechat.history.ChatHistoryStore chatHistoryStore;
+    private final com.hartmann.onlinechat.history.RecentMessageBuffer recentMessages;
+    private final com.hartmann.onlinechat.search.SearchIndex searchIndex;
+    private final com.hartmann.onlinechat.cluster.ClusterService clusterService;
+    private final com.hartmann.onlinechat.metrics.ChatMetrics chatMetrics;
+    private final com.hartmann.onlinechat.audit.AuditLog auditLog;
     // END
 
     @MessageMapping("/chat.sendMessage")
     @SendTo("/topic/public")
     public ChatMessage sendMessage(@Payload ChatMessage chatMessage, SimpMessageHeaderAccessor headerAccessor) {
-        log.info("Received message: " + chatMessage.getContent());
+        chatMetrics.messageReceived(chatMessage.getType());
 
         String content = chatMessage.getContent();
+        // Single pass over the content; public messages are classified without allocating
+        MessageClassifier.Classification classification = MessageClassifier.classify(content);
 
         // 1. Strict Handling for any message starting with "@"
-        if (content != null && content.trim().startsWith("@")) {
-
-            // A) Bot Command (@server ...)
-            if (botService.isBotCommand(content)) {
-                handleBotCommand(content, chatMessage.getSender(), headerAccessor);
-                return null; // Suppress broadcast
-            }
+        // A) Bot Command (@server ...)
+        if (classification.kind() == MessageClassifier.Kind.BOT) {
+            chatMetrics.messageRouted(com.hartmann.onlinechat.metrics.ChatMetrics.Route.BOT);
+            handleBotCommand(classification, chatMessage.getSender(), headerAccessor);
+            return null; // Suppress broadcast
+        }
 
-            // B) Direct Message (@User ...)
-            // Logic: It starts with @, and is NOT a bot command. Must be DM.
-            handleDirectMessage(content, chatMessage.getSender(), headerAccessor);
+        // B) Direct Message (@User ...)
+        // Logic: It starts with @, and is NOT a bot command. Must be DM.
+        if (classification.kind() == MessageClassifier.Kind.DIRECT) {
+            chatMetrics.messageRouted(com.hartmann.onlinechat.metrics.ChatMetrics.Route.PRIVATE);
+            handleDirectMessage(classification, chatMessage.getSender(), headerAccessor);
             return null; // Suppress broadcast
         }
 
-        // 2. Regular Public Message
+        // 2. Room Message - fan out to the room's members only
+        if (chatMessage.getRoom() != null) {
+            chatMetrics.messageRouted(com.hartmann.onlinechat.metrics.ChatMetrics.Route.ROOM);
+            auditLog.record(com.hartmann.onlinechat.audit.AuditEvent.Type.ROOM_MESSAGE, headerAccessor.getSessionId(), chatMessage.getSender(),
+                    chatMessage.getRoom(), content);
+            sendToRoom(chatMessage, headerAccessor.getSessionId());
+            return null; // Suppress public broadcast
+        }
+
+        // 3. Regular Public Message
+        chatMetrics.messageRouted(com.hartmann.onlinechat.metrics.ChatMetrics.Route.PUBLIC);
+        auditLog.record(com.hartmann.onlinechat.audit.AuditEvent.Type.MESSAGE, headerAccessor.getSessionId(), chatMessage.getSender(), null, content);
+        storeInHistory(chatMessage);
+        clusterService.publish("/topic/public", chatMessage);
         return chatMessage;
     }
 
-    // START - Helper: Handle DM
-    private void handleDirectMessage(String content, String sender, SimpMessageHeaderAccessor headerAccessor) {
-        log.info("Processing Direct Message from user: {}", sender);
-
-        String[] parts = content.trim().split("\\s+", 2);
-        if (parts.length > 0) {
-            String recipientUsername = parts[0].substring(1); // Remove @
-            String messageContent = parts.length > 1 ? parts[1] : "";
+    // START - Rooms
+    private void sendToRoom(ChatMessage chatMessage, String sessionId) {
+        String room = com.hartmann.onlinechat.service.SessionManager.normalizeRoomName(chatMessage.getRoom());
+        if (room == null || !sessionManager.isRoomMember(sessionId, room)) {
+            sendSystemMessage(sessionId, "You are not a member of room '" + chatMessage.getRoom() + "'.");
+            return;
+        }
+        chatMessage.setRoom(room);
+        String destination = com.hartmann.onlinechat.service.PresenceBroadcaster.roomDestination(room);
+        messagingTemplate.convertAndSend(destination, chatMessage);
+        clusterService.publish(destination, chatMessage);
+    }
 
-            String senderSessionId = headerAccessor.getSessionId();
+    @MessageMapping("/chat.joinRoom")
+    public void joinRoom(@Payload ChatMessage request, SimpMessageHeaderAccessor headerAccessor) {
+        String sessionId = headerAccessor.getSessionId();
+        String room = com.hartmann.onlinechat.service.SessionManager.normalizeRoomName(request.getRoom());
+        if (room == null) {
+            sendSystemMessage(sessionId, "Invalid room name. Use 1-32 letters, digits, '-' or '_'.");
+            return;
+        }
+        if (!sessionManager.joinRoom(sessionId, room)) {
+            sendSystemMessage(sessionId, "Could not join room '" + room + "'.");
+            return;
+        }
+        auditLog.record(com.hartmann.onlinechat.audit.AuditEvent.Type.ROOM_JOIN, sessionId, request.getSender(), room, null);
+        // The client subscribes to the room topic once it receives this snapshot
+        sessionMessenger.sendToSession(sessionId, sessionManager.getRoomSnapshot(room));
+    }
 
-            directMessageService.sendPrivateMessage(
-                    sender,
-                    senderSessionId,
-                    recipientUsername,
-                    messageContent);
+    @MessageMapping("/chat.leaveRoom")
+    public void leaveRoom(@Payload ChatMessage request, SimpMessageHeaderAccessor headerAccessor) {
+        String sessionId = headerAccessor.getSessionId();
+        String room = com.hartmann.onlinechat.service.SessionManager.normalizeRoomName(request.getRoom());
+        if (room != null && sessionManager.leaveRoom(sessionId, room)) {
+            auditLog.record(com.hartmann.onlinechat.audit.AuditEvent.Type.ROOM_LEAVE, sessionId, request.getSender(), room, null);
+            sessionMessenger.sendToSession(sessionId, java.util.Map.of("type", "ROOM_LEFT", "room", room));
         }
     }
+
+    private void sendSystemMessage(String sessionId, String content) {
+        ChatMessage message = ChatMessage.builder()
+                .content(content)
+                .sender("System")
+                .type(MessageType.BOT_MESSAGE)
+                .targetSessionId(sessionId)
+                .build();
+        sessionMessenger.sendToSession(sessionId, message);
+    }
     // END
 
-    // START - Helper: Handle Bot
-    private void handleBotCommand(String content, String sender, SimpMessageHeaderAccessor headerAccessor) {
-        log.info("Processing bot command from user: {} - Command: {}", sender, content);
+    // START - Helper: Persist public message
+    private void storeInHistory(ChatMessage chatMessage) {
+        recentMessages.publish(chatMessage);
         try {
-            String botResponse = botService.processCommand(content, headerAccessor);
-            String sessionId = headerAccessor.getSessionId();
+            chatHistoryStore.append(chatMessage);
+            // The search indexer reads the message back from the history on its own thread
+            searchIndex.messageStored();
+        } catch (Exception e) {
+            // History is best effort - never block the broadcast
+            log.error("Failed to store message in chat history", e);
+        }
+    }
+    // END
 
+    // START - Helper: Handle DM
+    private void handleDirectMessage(MessageClassifier.Classification directMessage, String sender,
+            SimpMessageHeaderAccessor headerAccessor) {
+        String recipientUsername = directMessage.name();
+        String messageContent = directMessage.body();
+
+        String senderSessionId = headerAccessor.getSessionId();
+        auditLog.record(com.hartmann.onlinechat.audit.AuditEvent.Type.DIRECT_MESSAGE, senderSessionId, sender, recipientUsername, messageContent);
+
+        directMessageService.sendPrivateMessage(
+                sender,
+                senderSessionId,
+                recipientUsername,
+                messageContent);
+    }
+    // END
+
+    // START - Helper: Handle Bot
+    // Commands run on the bot executor; the response is sent when ready, without holding the inbound thread
+    private void handleBotCommand(MessageClassifier.Classification command, String sender,
+            SimpMessageHeaderAccessor headerAccessor) {
+        String sessionId = headerAccessor.getSessionId();
+        auditLog.record(com.hartmann.onlinechat.audit.AuditEvent.Type.BOT_COMMAND, sessionId, sender, null, command.content());
+        botService.processCommand(command, headerAccessor).thenAccept(botResponse -> {
             ChatMessage botMessage = ChatMessage.builder()
                     .content(botResponse)
                     .sender("Server Bot")
@@ -87,16 +173,18 @@ public class ChatController {
                     .targetSessionId(sessionId)
                     .build();
 
-            messagingTemplate.convertAndSend("/topic/public", botMessage);
-        } catch (Exception e) {
+            sessionMessenger.sendToSession(sessionId, botMessage);
+        }).exceptionally(e -> {
             log.error("Error processing bot command", e);
-        }
+            return null;
+        });
     }
     // END
 
     @MessageMapping("/chat.addUser")
     @SendTo("/topic/public")
     public ChatMessage addUser(@Payload ChatMessage chatMessage, SimpMessageHeaderAccessor headerAccessor) {
+        chatMetrics.messageReceived(chatMessage.getType());
         String username = chatMessage.getSender();
         String sessionId = headerAccessor.getSessionId();
 
@@ -109,9 +197,14 @@ public class ChatController {
             return null; // Prevent broadcast
         }
 
-        // 2. Check for Duplicates
-        // We need a way to check strictly. sessionManager.getSessionIdByUsername works.
-        if (sessionManager.getSessionIdByUsername(username) != null) {
+        // 2. Atomically claim the username (case-insensitive, race-free) - cluster-wide first, then on this node
+        if (!clusterService.claimUsername(username, sessionId)) {
+            log.warn("Rejected username '{}' taken in the cluster from session: {}", username, sessionId);
+            sendRejection(sessionId, "Username '" + username + "' is already taken.");
+            return null; // Prevent broadcast
+        }
+        if (!sessionManager.addSession(sessionId, username)) {
+            clusterService.releaseUsername(username, sessionId);
             log.warn("Rejected duplicate username '{}' from session: {}", username, sessionId);
             sendRejection(sessionId, "Username '" + username + "' is already taken.");
             return null; // Prevent broadcast
@@ -120,14 +213,38 @@ public class ChatController {
 
         // Add a username in websocket Session
         headerAccessor.getSessionAttributes().put("username", username);
+        auditLog.record(com.hartmann.onlinechat.audit.AuditEvent.Type.JOIN, sessionId, username, null, null);
 
-        // START
-        sessionManager.addSession(sessionId, username);
-        // END
+        // Joining clients start from a full snapshot and apply deltas from there
+        sessionMessenger.sendToSession(sessionId, sessionManager.getPresenceSnapshot());
 
-        return chatMessage;
+        // Broadcast the JOIN here rather than through @SendTo, so the replay follows right after it
+        messagingTemplate.convertAndSend("/topic/public", chatMessage);
+        clusterService.publish("/topic/public", chatMessage);
+        sendRecentMessages(sessionId);
+        directMessageService.deliverOfflineMessages(username, sessionId);
+        return null; // Already broadcast
+    }
+
+    /**
+     * Sends a full presence snapshot to the requesting session only.
+     * Used by clients that detect a gap in presence delta versions.
+     */
+    @MessageMapping("/chat.presence")
+    public void requestPresenceSnapshot(SimpMessageHeaderAccessor headerAccessor) {
+        String sessionId = headerAccessor.getSessionId();
+        sessionMessenger.sendToSession(sessionId, sessionManager.getPresenceSnapshot());
     }
 
+    // START - Helper: Replay recent public messages to a joining session as one batch
+    private void sendRecentMessages(String sessionId) {
+        java.util.List<ChatMessage> recent = recentMessages.snapshot();
+        if (!recent.isEmpty()) {
+            sessionMessenger.sendToSession(sessionId, java.util.Map.of("type", "HISTORY_REPLAY", "messages", recent));
+        }
+    }
+    // END
+
     // START - Helper for sending Rejection
     private void sendRejection(String sessionId, String reason) {
         ChatMessage rejection = ChatMessage.builder()
@@ -137,7 +254,8 @@ public class ChatController {
                 .targetSessionId(sessionId)
                 .build();
 
-        messagingTemplate.convertAndSend("/topic/public", rejection);
+        auditLog.record(com.hartmann.onlinechat.audit.AuditEvent.Type.JOIN_REJECTED, sessionId, null, null, reason);
+        sessionMessenger.sendToSession(sessionId, rejection);
     }
     // END
 
@@ -147,6 +265,15 @@ public class ChatController {
             org.springframework.web.socket.messaging.SessionDisconnectEvent event) {
         String sessionId = event.getSessionId();
         sessionManager.removeSession(sessionId);
+        java.util.Map<String, Object> attributes = org.springframework.messaging.simp.SimpMessageHeaderAccessor
+                .getSessionAttributes(event.getMessage().getHeaders());
+        if (attributes != null) {
+            String username = (String) attributes.get("username");
+            clusterService.releaseUsername(username, sessionId);
+            if (username != null) {
+                directMessageService.userLeft(username);
+            }
+        }
     }
     // END
 }
\ No newline at end of file
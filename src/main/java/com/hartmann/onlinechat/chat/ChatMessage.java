@@ -10,4 +10,6 @@ public class ChatMessage {
     private String sender;
     private MessageType type;
     private String targetSessionId;
+    // Room name for room messages; null for the public channel
+    private String room;
 }
\ No newline at end of file
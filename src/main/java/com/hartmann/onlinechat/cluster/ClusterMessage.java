@@ -0,0 +1,71 @@
+package com.hartmann.onlinechat.cluster;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * Message exchanged between cluster nodes.
+ * One flat record covers every message type; fields a type doesn't use are
+ * left null/zero and omitted from the wire.
+ *
+ * @param type        Message type, see the constants below
+ * @param from        Sending node ID
+ * @param epoch       Leader epoch (fencing token) the sender knows
+ * @param requestId   Correlates CLAIM with CLAIM_RESULT
+ * @param username    Username for index, claim and admin messages
+ * @param nodeId      Node that owns the session in index/admin messages
+ * @param sessionId   WebSocket session ID on the owning node
+ * @param sequence    Cluster-wide join sequence assigned by the leader
+ * @param ok          Result of a claim
+ * @param destination STOMP destination for PUBLISH
+ * @param payload     JSON-encoded ChatMessage for PUBLISH and DIRECT
+ * @param entries     Local sessions in RESYNC, the full index in SNAPSHOT
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@JsonInclude(JsonInclude.Include.NON_DEFAULT)
+public record ClusterMessage(String type, String from, long epoch, String requestId, String username, String nodeId,
+        String sessionId, long sequence, boolean ok, String destination, String payload,
+        List<ClusterMessage> entries) {
+
+    public static final String HEARTBEAT = "HEARTBEAT";
+    public static final String LEADER_HEARTBEAT = "LEADER_HEARTBEAT";
+    public static final String CLAIM = "CLAIM";
+    public static final String CLAIM_RESULT = "CLAIM_RESULT";
+    public static final String RELEASE = "RELEASE";
+    public static final String INDEX_JOIN = "INDEX_JOIN";
+    public static final String INDEX_LEAVE = "INDEX_LEAVE";
+    public static final String ADMIN = "ADMIN";
+    public static final String RESYNC = "RESYNC";
+    public static final String SNAPSHOT = "SNAPSHOT";
+    public static final String PUBLISH = "PUBLISH";
+    public static final String DIRECT = "DIRECT";
+
+    static ClusterMessage of(String type, String from, long epoch) {
+        return new ClusterMessage(type, from, epoch, null, null, null, null, 0, false, null, null, null);
+    }
+
+    static ClusterMessage session(String type, String from, long epoch, String username, String nodeId,
+            String sessionId, long sequence) {
+        return new ClusterMessage(type, from, epoch, null, username, nodeId, sessionId, sequence, false, null, null,
+                null);
+    }
+
+    ClusterMessage withRequest(String requestId, boolean ok) {
+        return new ClusterMessage(type, from, epoch, requestId, username, nodeId, sessionId, sequence, ok,
+                destination, payload, entries);
+    }
+
+    ClusterMessage withPayload(String destination, String payload) {
+        return new ClusterMessage(type, from, epoch, requestId, username, nodeId, sessionId, sequence, ok,
+                destination, payload, entries);
+    }
+
+    ClusterMessage withEntries(List<ClusterMessage> entries) {
+        return new ClusterMessage(type, from, epoch, requestId, username, nodeId, sessionId, sequence, ok,
+                destination, payload, entries);
+    }
+}
+// END
@@ -0,0 +1,671 @@
+package com.hartmann.onlinechat.cluster;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One member of a chat cluster with static membership.
+ * <p>
+ * A single leader owns the global username index and the cluster-wide join
+ * order; the earliest joined session in that order is the cluster admin.
+ * Other nodes forward username claims and releases to the leader and keep a
+ * replica of the index, fed by the leader's INDEX and ADMIN messages, for
+ * cross-node direct messages and presence.
+ * <p>
+ * Leadership is a lease: the leader heartbeats every {@code heartbeatMs}, and
+ * a new leader (the live node with the lowest ID) is only elected after the
+ * current leader has been silent for {@code leaseMs}. Every election bumps the
+ * epoch, which is carried by every leader message as a fencing token: messages
+ * from an older epoch are dropped, and a deposed leader steps down as soon as
+ * it hears the newer epoch. After a leader change every node resyncs its local
+ * sessions with the new leader, which replies with the full index.
+ * <p>
+ * Listener callbacks run on transport or scheduler threads while the node's
+ * lock is held, so they must be short and must not call back into the node.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@Slf4j
+public class ClusterNode {
+
+    /**
+     * Receives cluster events that affect this node's clients.
+     */
+    public interface Listener {
+
+        /** A user connected to another node. */
+        void remoteUserJoined(String username);
+
+        /** A user on another node disconnected, or its node left the cluster. */
+        void remoteUserLeft(String username);
+
+        /**
+         * @param admin The new cluster admin, or null if nobody is connected
+         */
+        void adminChanged(Entry admin);
+
+        /** Another node published a message to one of its STOMP destinations. */
+        void published(String destination, String payload);
+
+        /** Another node sent a direct message to a session on this node. */
+        void directMessage(String sessionId, String payload);
+    }
+
+    /**
+     * Global index entry for one connected user.
+     *
+     * @param sequence Cluster-wide join sequence; the lowest is the admin
+     */
+    public record Entry(String username, String nodeId, String sessionId, long sequence) {
+    }
+
+    private final String nodeId;
+    private final ClusterTransport transport;
+    private final Listener listener;
+    private final long heartbeatNanos;
+    private final long leaseNanos;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, CompletableFuture<Boolean>> pendingClaims = new ConcurrentHashMap<>();
+
+    // Cluster state, guarded by lock
+    private final Object lock = new Object();
+    private final Map<String, Long> lastHeard = new HashMap<>();
+    private final Map<String, Entry> index = new HashMap<>();
+    private final Map<String, Entry> localSessions = new HashMap<>();
+    private long epoch;
+    private String leaderId;
+    private long leaderHeardAt;
+    private long startedAt;
+    private Entry admin;
+    // Leader only: join sequence -> entry
+    private final NavigableMap<Long, Entry> joinOrder = new TreeMap<>();
+    private long nextSequence = 1;
+
+    /**
+     * @param nodeId      This node's ID, unique in the cluster
+     * @param transport   Inter-node transport
+     * @param listener    Receives events for this node's clients
+     * @param heartbeatMs Heartbeat interval
+     * @param leaseMs     How long a silent node or leader is still considered alive
+     */
+    public ClusterNode(String nodeId, ClusterTransport transport, Listener listener,
+            long heartbeatMs, long leaseMs) {
+        if (leaseMs <= heartbeatMs) {
+            throw new IllegalArgumentException("Lease must be longer than the heartbeat interval");
+        }
+        this.nodeId = nodeId;
+        this.transport = transport;
+        this.listener = listener;
+        this.heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatMs);
+        this.leaseNanos = TimeUnit.MILLISECONDS.toNanos(leaseMs);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-heartbeat-" + nodeId);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        synchronized (lock) {
+            startedAt = System.nanoTime();
+        }
+        transport.start(this::receive);
+        scheduler.scheduleAtFixedRate(this::tick, 0, heartbeatNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+        transport.stop();
+        pendingClaims.values().forEach(claim -> claim.complete(false));
+    }
+
+    // START - Client API
+    /**
+     * Claims a username cluster-wide for a session on this node.
+     * Completes with false if the name is taken or no leader is available; the
+     * caller should apply a timeout and call {@link #releaseUsername} if it
+     * gives up, so a late grant does not leave a ghost entry behind.
+     *
+     * @param username  The username to claim
+     * @param sessionId The claiming session on this node
+     * @return Future completed with true if the name is now owned by the session
+     */
+    public CompletableFuture<Boolean> claimUsername(String username, String sessionId) {
+        String leader;
+        synchronized (lock) {
+            if (isLeaderLocked()) {
+                Entry entry = grantClaim(username, nodeId, sessionId);
+                if (entry != null) {
+                    localSessions.put(normalize(username), entry);
+                }
+                return CompletableFuture.completedFuture(entry != null);
+            }
+            leader = leaderId;
+        }
+        if (leader == null) {
+            log.warn("Cluster node {} rejected claim for '{}': no leader", nodeId, username);
+            return CompletableFuture.completedFuture(false);
+        }
+        String requestId = UUID.randomUUID().toString();
+        CompletableFuture<Boolean> claim = new CompletableFuture<>();
+        pendingClaims.put(requestId, claim);
+        claim.whenComplete((ok, error) -> pendingClaims.remove(requestId));
+        transport.send(leader, ClusterMessage.session(ClusterMessage.CLAIM, nodeId, currentEpoch(), username, nodeId,
+                sessionId, 0).withRequest(requestId, false));
+        return claim;
+    }
+
+    /**
+     * Releases a username owned by a session on this node.
+     */
+    public void releaseUsername(String username, String sessionId) {
+        String leader;
+        long currentEpoch;
+        synchronized (lock) {
+            Entry local = localSessions.get(normalize(username));
+            if (local != null && local.sessionId().equals(sessionId)) {
+                localSessions.remove(normalize(username));
+            }
+            if (isLeaderLocked()) {
+                revokeClaim(username, nodeId, sessionId);
+                return;
+            }
+            leader = leaderId;
+            currentEpoch = epoch;
+        }
+        if (leader != null) {
+            transport.send(leader, ClusterMessage.session(ClusterMessage.RELEASE, nodeId, currentEpoch, username,
+                    nodeId, sessionId, 0));
+        }
+    }
+
+    /**
+     * Publishes a message to the same destination on every other node.
+     *
+     * @param destination STOMP destination
+     * @param payload     JSON-encoded message
+     */
+    public void publish(String destination, String payload) {
+        transport.broadcast(ClusterMessage.of(ClusterMessage.PUBLISH, nodeId, 0).withPayload(destination, payload));
+    }
+
+    /**
+     * Sends a direct message to a user connected to another node.
+     *
+     * @param username Recipient username (case-insensitive)
+     * @param payload  JSON-encoded message
+     * @return true if the user is on another node and the message was sent
+     */
+    public boolean sendDirect(String username, String payload) {
+        Entry entry = lookup(username);
+        if (entry == null || entry.nodeId().equals(nodeId)) {
+            return false;
+        }
+        transport.send(entry.nodeId(), ClusterMessage.session(ClusterMessage.DIRECT, nodeId, 0, entry.username(),
+                entry.nodeId(), entry.sessionId(), 0).withPayload(null, payload));
+        return true;
+    }
+
+    /**
+     * @return The index entry for a username (case-insensitive), or null if offline
+     */
+    public Entry lookup(String username) {
+        synchronized (lock) {
+            return index.get(normalize(username));
+        }
+    }
+
+    /**
+     * @return All usernames in the global index, sorted
+     */
+    public List<String> getOnlineUsers() {
+        synchronized (lock) {
+            List<String> users = new ArrayList<>();
+            index.values().forEach(entry -> users.add(entry.username()));
+            Collections.sort(users);
+            return users;
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public boolean isLeader() {
+        synchronized (lock) {
+            return isLeaderLocked();
+        }
+    }
+
+    public String getLeaderId() {
+        synchronized (lock) {
+            return leaderId;
+        }
+    }
+
+    public long currentEpoch() {
+        synchronized (lock) {
+            return epoch;
+        }
+    }
+
+    public Entry getAdmin() {
+        synchronized (lock) {
+            return admin;
+        }
+    }
+
+    /**
+     * @return IDs of this node and every peer heard from within the lease
+     */
+    public Set<String> getLiveNodes() {
+        synchronized (lock) {
+            return liveNodesLocked(System.nanoTime());
+        }
+    }
+    // END
+
+    // START - Heartbeat, lease and election
+    private void tick() {
+        try {
+            synchronized (lock) {
+                long now = System.nanoTime();
+                if (isLeaderLocked()) {
+                    transport.broadcast(ClusterMessage.of(ClusterMessage.LEADER_HEARTBEAT, nodeId, epoch));
+                    evictDeadNodes(now);
+                    return;
+                }
+                transport.broadcast(ClusterMessage.of(ClusterMessage.HEARTBEAT, nodeId, epoch));
+
+                boolean leaseValid = leaderId != null && now - leaderHeardAt < leaseNanos;
+                // A fresh node first listens for one lease so it joins an existing leader
+                boolean settled = now - startedAt >= leaseNanos;
+                if (!leaseValid && settled && nodeId.equals(new TreeSet<>(liveNodesLocked(now)).first())) {
+                    becomeLeader(now);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Cluster node {} heartbeat failed", nodeId, e);
+        }
+    }
+
+    // Caller holds lock
+    private void becomeLeader(long now) {
+        epoch++;
+        String previousLeader = leaderId;
+        leaderId = nodeId;
+        log.info("Cluster node {} is now the leader (epoch {}, previous leader {})", nodeId, epoch, previousLeader);
+        transport.broadcast(ClusterMessage.of(ClusterMessage.LEADER_HEARTBEAT, nodeId, epoch));
+
+        // Rebuild the join order from the replica; followers resync anything it missed
+        joinOrder.clear();
+        index.values().forEach(entry -> joinOrder.put(entry.sequence(), entry));
+        if (!joinOrder.isEmpty()) {
+            nextSequence = Math.max(nextSequence, joinOrder.lastKey() + 1);
+        }
+        localSessions.values().forEach(local -> {
+            if (!index.containsKey(normalize(local.username()))) {
+                addEntry(new Entry(local.username(), nodeId, local.sessionId(), nextSequence++));
+            }
+        });
+        evictDeadNodes(now);
+        updateAdmin();
+    }
+
+    // Caller holds lock. Drops index entries of nodes whose lease expired.
+    private void evictDeadNodes(long now) {
+        Set<String> live = liveNodesLocked(now);
+        List<Entry> dead = new ArrayList<>();
+        index.values().forEach(entry -> {
+            if (!live.contains(entry.nodeId())) {
+                dead.add(entry);
+            }
+        });
+        if (dead.isEmpty()) {
+            return;
+        }
+        log.warn("Cluster node {} evicting {} sessions of unreachable nodes", nodeId, dead.size());
+        dead.forEach(entry -> {
+            removeEntry(entry);
+            broadcastIndex(ClusterMessage.INDEX_LEAVE, entry);
+        });
+        updateAdmin();
+    }
+
+    // Caller holds lock
+    private Set<String> liveNodesLocked(long now) {
+        Set<String> live = new HashSet<>();
+        live.add(nodeId);
+        lastHeard.forEach((peer, heardAt) -> {
+            if (now - heardAt < leaseNanos) {
+                live.add(peer);
+            }
+        });
+        return live;
+    }
+
+    // Caller holds lock
+    private boolean isLeaderLocked() {
+        return nodeId.equals(leaderId);
+    }
+
+    /**
+     * Fencing check for messages only a leader sends. Adopts a newer leader and
+     * rejects messages from a leader with an older epoch, or from the loser of
+     * two leaders elected with the same epoch (the lower node ID wins).
+     * Caller holds lock.
+     */
+    private boolean acceptLeader(ClusterMessage message) {
+        if (message.epoch() < epoch) {
+            log.debug("Cluster node {} fenced {} from {} at stale epoch {}", nodeId, message.type(), message.from(),
+                    message.epoch());
+            return false;
+        }
+        boolean sameLeader = message.from().equals(leaderId);
+        if (message.epoch() == epoch && leaderId != null && !sameLeader
+                && message.from().compareTo(leaderId) > 0) {
+            return false;
+        }
+        if (message.epoch() > epoch || !sameLeader) {
+            if (isLeaderLocked()) {
+                log.info("Cluster node {} steps down for leader {} (epoch {})", nodeId, message.from(),
+                        message.epoch());
+                joinOrder.clear();
+            }
+            epoch = message.epoch();
+            leaderId = message.from();
+            sendResync();
+        }
+        leaderHeardAt = System.nanoTime();
+        return true;
+    }
+
+    // Caller holds lock. Reports this node's sessions to a new leader.
+    private void sendResync() {
+        List<ClusterMessage> entries = new ArrayList<>();
+        localSessions.values().forEach(local -> entries.add(ClusterMessage.session(ClusterMessage.INDEX_JOIN, nodeId,
+                epoch, local.username(), nodeId, local.sessionId(), local.sequence())));
+        transport.send(leaderId, ClusterMessage.of(ClusterMessage.RESYNC, nodeId, epoch).withEntries(entries));
+    }
+    // END
+
+    // START - Inbound messages
+    private void receive(ClusterMessage message) {
+        switch (message.type()) {
+            case ClusterMessage.PUBLISH -> listener.published(message.destination(), message.payload());
+            case ClusterMessage.DIRECT -> listener.directMessage(message.sessionId(), message.payload());
+            default -> {
+                synchronized (lock) {
+                    lastHeard.put(message.from(), System.nanoTime());
+                    receiveLocked(message);
+                }
+            }
+        }
+    }
+
+    // Caller holds lock
+    private void receiveLocked(ClusterMessage message) {
+        switch (message.type()) {
+            case ClusterMessage.HEARTBEAT -> {
+                // Liveness only, recorded above
+            }
+            case ClusterMessage.LEADER_HEARTBEAT -> acceptLeader(message);
+            case ClusterMessage.CLAIM -> onClaim(message);
+            case ClusterMessage.CLAIM_RESULT -> onClaimResult(message);
+            case ClusterMessage.RELEASE -> {
+                if (isLeaderLocked()) {
+                    revokeClaim(message.username(), message.from(), message.sessionId());
+                }
+            }
+            case ClusterMessage.INDEX_JOIN -> {
+                if (acceptLeader(message)) {
+                    addEntry(toEntry(message));
+                }
+            }
+            case ClusterMessage.INDEX_LEAVE -> onIndexLeave(message);
+            case ClusterMessage.ADMIN -> {
+                if (acceptLeader(message)) {
+                    setAdmin(message.username() != null ? toEntry(message) : null);
+                }
+            }
+            case ClusterMessage.RESYNC -> {
+                if (isLeaderLocked() && message.epoch() == epoch) {
+                    onFollowerResync(message);
+                }
+            }
+            case ClusterMessage.SNAPSHOT -> {
+                if (acceptLeader(message)) {
+                    onLeaderSnapshot(message);
+                }
+            }
+            default -> log.warn("Cluster node {} ignored unknown message type {}", nodeId, message.type());
+        }
+    }
+
+    private void onClaim(ClusterMessage message) {
+        boolean granted = false;
+        long sequence = 0;
+        if (isLeaderLocked()) {
+            Entry entry = grantClaim(message.username(), message.from(), message.sessionId());
+            granted = entry != null;
+            sequence = granted ? entry.sequence() : 0;
+        }
+        transport.send(message.from(), ClusterMessage.session(ClusterMessage.CLAIM_RESULT, nodeId, epoch,
+                message.username(), message.from(), message.sessionId(), sequence)
+                .withRequest(message.requestId(), granted));
+    }
+
+    private void onClaimResult(ClusterMessage message) {
+        // A grant from a fenced leader is worthless: the new leader never saw it
+        boolean granted = message.ok() && acceptLeader(message);
+        if (granted) {
+            localSessions.put(normalize(message.username()), toEntry(message));
+        }
+        CompletableFuture<Boolean> claim = pendingClaims.get(message.requestId());
+        if (claim != null) {
+            claim.complete(granted);
+        } else if (granted) {
+            // The caller gave up before the grant arrived
+            localSessions.remove(normalize(message.username()));
+            transport.send(message.from(), ClusterMessage.session(ClusterMessage.RELEASE, nodeId, epoch,
+                    message.username(), nodeId, message.sessionId(), 0));
+        }
+    }
+
+    private void onIndexLeave(ClusterMessage message) {
+        if (!acceptLeader(message)) {
+            return;
+        }
+        Entry entry = toEntry(message);
+        removeEntry(entry);
+        Entry local = localSessions.get(normalize(entry.username()));
+        if (local != null && local.sessionId().equals(entry.sessionId())) {
+            // The leader evicted a session that is still connected here, e.g. after a network blip
+            sendResync();
+        }
+    }
+
+    // Leader: reconciles the index with a follower's local sessions and replies with the full index
+    private void onFollowerResync(ClusterMessage message) {
+        String follower = message.from();
+        Set<String> reported = new HashSet<>();
+        List<ClusterMessage> entries = message.entries() != null ? message.entries() : List.of();
+        for (ClusterMessage reportedEntry : entries) {
+            String name = normalize(reportedEntry.username());
+            reported.add(name);
+            Entry existing = index.get(name);
+            if (existing == null) {
+                long sequence = reportedEntry.sequence();
+                if (sequence <= 0 || joinOrder.containsKey(sequence)) {
+                    sequence = nextSequence++;
+                }
+                nextSequence = Math.max(nextSequence, sequence + 1);
+                Entry entry = new Entry(reportedEntry.username(), follower, reportedEntry.sessionId(), sequence);
+                addEntry(entry);
+                broadcastIndex(ClusterMessage.INDEX_JOIN, entry);
+            } else if (!existing.nodeId().equals(follower) || !existing.sessionId().equals(reportedEntry.sessionId())) {
+                log.warn("Cluster node {} found '{}' claimed on both {} and {}; keeping {}", nodeId,
+                        reportedEntry.username(), existing.nodeId(), follower, existing.nodeId());
+            }
+        }
+        List<Entry> stale = new ArrayList<>();
+        index.forEach((name, entry) -> {
+            if (entry.nodeId().equals(follower) && !reported.contains(name)) {
+                stale.add(entry);
+            }
+        });
+        stale.forEach(entry -> {
+            removeEntry(entry);
+            broadcastIndex(ClusterMessage.INDEX_LEAVE, entry);
+        });
+
+        List<ClusterMessage> snapshot = new ArrayList<>();
+        index.values().forEach(entry -> snapshot.add(indexMessage(ClusterMessage.INDEX_JOIN, entry)));
+        transport.send(follower, ClusterMessage.of(ClusterMessage.SNAPSHOT, nodeId, epoch).withEntries(snapshot));
+        updateAdmin();
+        transport.send(follower, adminMessage());
+    }
+
+    // Follower: replaces the replica with the leader's full index
+    private void onLeaderSnapshot(ClusterMessage message) {
+        Map<String, Entry> snapshot = new HashMap<>();
+        if (message.entries() != null) {
+            message.entries().forEach(entry -> snapshot.put(normalize(entry.username()), toEntry(entry)));
+        }
+        new ArrayList<>(index.values()).forEach(entry -> {
+            if (!entry.equals(snapshot.get(normalize(entry.username())))) {
+                removeEntry(entry);
+            }
+        });
+        snapshot.values().forEach(entry -> {
+            if (!entry.equals(index.get(normalize(entry.username())))) {
+                addEntry(entry);
+            }
+        });
+    }
+    // END
+
+    // START - Index (leader operations broadcast, replica operations apply locally)
+    // Caller holds lock and is the leader
+    private Entry grantClaim(String username, String ownerId, String sessionId) {
+        String name = normalize(username);
+        if (name == null || name.isEmpty() || index.containsKey(name)) {
+            return null;
+        }
+        Entry entry = new Entry(username, ownerId, sessionId, nextSequence++);
+        addEntry(entry);
+        broadcastIndex(ClusterMessage.INDEX_JOIN, entry);
+        updateAdmin();
+        return entry;
+    }
+
+    // Caller holds lock and is the leader
+    private void revokeClaim(String username, String ownerId, String sessionId) {
+        Entry entry = index.get(normalize(username));
+        if (entry == null || !entry.nodeId().equals(ownerId) || !entry.sessionId().equals(sessionId)) {
+            return;
+        }
+        removeEntry(entry);
+        broadcastIndex(ClusterMessage.INDEX_LEAVE, entry);
+        updateAdmin();
+    }
+
+    // Caller holds lock
+    private void addEntry(Entry entry) {
+        String name = normalize(entry.username());
+        Entry previous = index.put(name, entry);
+        if (previous != null) {
+            joinOrder.remove(previous.sequence(), previous);
+            if (!previous.nodeId().equals(nodeId)) {
+                listener.remoteUserLeft(previous.username());
+            }
+        }
+        if (isLeaderLocked()) {
+            joinOrder.put(entry.sequence(), entry);
+        }
+        if (!entry.nodeId().equals(nodeId)) {
+            listener.remoteUserJoined(entry.username());
+        }
+    }
+
+    // Caller holds lock
+    private void removeEntry(Entry entry) {
+        String name = normalize(entry.username());
+        Entry current = index.get(name);
+        if (current == null || !current.sessionId().equals(entry.sessionId())
+                || !current.nodeId().equals(entry.nodeId())) {
+            return;
+        }
+        index.remove(name);
+        joinOrder.remove(current.sequence(), current);
+        if (!current.nodeId().equals(nodeId)) {
+            listener.remoteUserLeft(current.username());
+        }
+    }
+
+    // Caller holds lock and is the leader. The admin is the earliest joined session cluster-wide.
+    private void updateAdmin() {
+        Entry head = joinOrder.isEmpty() ? null : joinOrder.firstEntry().getValue();
+        if (!Objects.equals(head, admin)) {
+            setAdmin(head);
+            transport.broadcast(adminMessage());
+        }
+    }
+
+    // Caller holds lock
+    private void setAdmin(Entry newAdmin) {
+        if (Objects.equals(newAdmin, admin)) {
+            return;
+        }
+        admin = newAdmin;
+        log.info("Cluster node {} sees admin {} (epoch {})", nodeId,
+                newAdmin != null ? newAdmin.username() + "@" + newAdmin.nodeId() : "none", epoch);
+        listener.adminChanged(newAdmin);
+    }
+
+    // Caller holds lock and is the leader
+    private ClusterMessage adminMessage() {
+        return admin != null ? indexMessage(ClusterMessage.ADMIN, admin)
+                : ClusterMessage.of(ClusterMessage.ADMIN, nodeId, epoch);
+    }
+
+    // Caller holds lock and is the leader
+    private void broadcastIndex(String type, Entry entry) {
+        transport.broadcast(indexMessage(type, entry));
+    }
+
+    // Caller holds lock
+    private ClusterMessage indexMessage(String type, Entry entry) {
+        return ClusterMessage.session(type, nodeId, epoch, entry.username(), entry.nodeId(), entry.sessionId(),
+                entry.sequence());
+    }
+
+    private static Entry toEntry(ClusterMessage message) {
+        return new Entry(message.username(), message.nodeId(), message.sessionId(), message.sequence());
+    }
+
+    private static String normalize(String username) {
+        return username != null ? username.trim().toLowerCase(Locale.ROOT) : null;
+    }
+    // END
+}
+// END
@@ -0,0 +1,238 @@
+package com.hartmann.onlinechat.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hartmann.onlinechat.chat.ChatMessage;
+import com.hartmann.onlinechat.chat.MessageType;
+import com.hartmann.onlinechat.history.ChatHistoryStore;
+import com.hartmann.onlinechat.history.RecentMessageBuffer;
+import com.hartmann.onlinechat.service.PresenceBroadcaster;
+import com.hartmann.onlinechat.service.SessionManager;
+import com.hartmann.onlinechat.service.SessionMessenger;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Connects this server to the other chat nodes when cluster mode is enabled
+ * (chat.cluster.enabled). Public, join/leave and room messages are relayed to
+ * every node, usernames are claimed in the cluster-wide index before a session
+ * registers locally, direct messages are routed to the recipient's node, and
+ * the admin is elected cluster-wide.
+ * With cluster mode disabled every method is a cheap no-op and the server
+ * behaves exactly as a single node.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@Component
+@Slf4j
+public class ClusterService implements ClusterNode.Listener {
+
+    private final SessionManager sessionManager;
+    private final PresenceBroadcaster presenceBroadcaster;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final SessionMessenger sessionMessenger;
+    private final RecentMessageBuffer recentMessages;
+    private final ChatHistoryStore chatHistoryStore;
+    private final ObjectMapper objectMapper;
+    private final String nodeId;
+    private final long claimTimeoutMs;
+    private final ClusterNode node; // null when cluster mode is disabled
+
+    public ClusterService(SessionManager sessionManager, PresenceBroadcaster presenceBroadcaster,
+            SimpMessagingTemplate messagingTemplate, SessionMessenger sessionMessenger,
+            RecentMessageBuffer recentMessages, ChatHistoryStore chatHistoryStore, ObjectMapper objectMapper,
+            @Value("${chat.cluster.enabled:false}") boolean enabled,
+            @Value("${chat.cluster.node-id:node-1}") String nodeId,
+            @Value("${chat.cluster.bind-address:127.0.0.1}") String bindAddress,
+            @Value("${chat.cluster.port:7701}") int port,
+            @Value("${chat.cluster.peers:}") String peers,
+            @Value("${chat.cluster.secret:}") String secret,
+            @Value("${chat.cluster.heartbeat-ms:500}") long heartbeatMs,
+            @Value("${chat.cluster.lease-ms:2000}") long leaseMs,
+            @Value("${chat.cluster.claim-timeout-ms:2000}") long claimTimeoutMs) {
+        this.sessionManager = sessionManager;
+        this.presenceBroadcaster = presenceBroadcaster;
+        this.messagingTemplate = messagingTemplate;
+        this.sessionMessenger = sessionMessenger;
+        this.recentMessages = recentMessages;
+        this.chatHistoryStore = chatHistoryStore;
+        this.objectMapper = objectMapper;
+        this.nodeId = nodeId;
+        this.claimTimeoutMs = claimTimeoutMs;
+        if (enabled && secret.isBlank()) {
+            throw new IllegalStateException("chat.cluster.secret must be set when cluster mode is enabled");
+        }
+        this.node = enabled
+                ? new ClusterNode(nodeId, new TcpClusterTransport(nodeId, bindAddress, port, parsePeers(peers), secret,
+                        objectMapper), this, heartbeatMs, leaseMs)
+                : null;
+    }
+
+    /**
+     * Parses "id@host:port" entries separated by commas.
+     */
+    static Map<String, InetSocketAddress> parsePeers(String peers) {
+        Map<String, InetSocketAddress> result = new HashMap<>();
+        for (String peer : peers.split(",")) {
+            if (peer.isBlank()) {
+                continue;
+            }
+            String[] idAndAddress = peer.trim().split("@", 2);
+            int colon = idAndAddress.length == 2 ? idAndAddress[1].lastIndexOf(':') : -1;
+            if (colon < 0) {
+                throw new IllegalArgumentException("Invalid cluster peer '" + peer + "', expected id@host:port");
+            }
+            result.put(idAndAddress[0], new InetSocketAddress(idAndAddress[1].substring(0, colon),
+                    Integer.parseInt(idAndAddress[1].substring(colon + 1))));
+        }
+        return result;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (node != null) {
+            sessionManager.enableClusterMode();
+            node.start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (node != null) {
+            node.stop();
+        }
+    }
+
+    public boolean isEnabled() {
+        return node != null;
+    }
+
+    /**
+     * Claims a username in the cluster-wide index. Blocks for at most the claim
+     * timeout while the leader answers.
+     *
+     * @return true if the session may use the name (always true on a single node)
+     */
+    public boolean claimUsername(String username, String sessionId) {
+        if (node == null) {
+            return true;
+        }
+        try {
+            return node.claimUsername(username, sessionId).get(claimTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            log.warn("Cluster claim for '{}' failed: {}", username, e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        node.releaseUsername(username, sessionId);
+        return false;
+    }
+
+    public void releaseUsername(String username, String sessionId) {
+        if (node != null && username != null) {
+            node.releaseUsername(username, sessionId);
+        }
+    }
+
+    /**
+     * Relays a message that was just sent to a local destination to all other nodes.
+     */
+    public void publish(String destination, ChatMessage message) {
+        if (node == null) {
+            return;
+        }
+        try {
+            node.publish(destination, objectMapper.writeValueAsString(message));
+        } catch (Exception e) {
+            log.error("Failed to relay message to cluster", e);
+        }
+    }
+
+    /**
+     * Routes a direct message to a user connected to another node.
+     *
+     * @return true if the recipient is on another node and the message was sent
+     */
+    public boolean sendDirect(String username, ChatMessage message) {
+        if (node == null) {
+            return false;
+        }
+        try {
+            return node.sendDirect(username, objectMapper.writeValueAsString(message));
+        } catch (IOException e) {
+            log.error("Failed to route direct message to cluster", e);
+            return false;
+        }
+    }
+
+    /**
+     * @return One-line cluster status for server info, or null on a single node
+     */
+    public String getStatus() {
+        if (node == null) {
+            return null;
+        }
+        return nodeId + (node.isLeader() ? " (leader)" : "") + ", leader " + node.getLeaderId() + ", epoch "
+                + node.currentEpoch() + ", " + node.getLiveNodes().size() + " nodes live";
+    }
+
+    // START - ClusterNode.Listener
+    @Override
+    public void remoteUserJoined(String username) {
+        presenceBroadcaster.userJoined(username);
+    }
+
+    @Override
+    public void remoteUserLeft(String username) {
+        presenceBroadcaster.userLeft(username);
+    }
+
+    @Override
+    public void adminChanged(ClusterNode.Entry admin) {
+        if (admin == null) {
+            sessionManager.clusterAdminChanged(null, null);
+        } else {
+            sessionManager.clusterAdminChanged(admin.username(),
+                    nodeId.equals(admin.nodeId()) ? admin.sessionId() : null);
+        }
+    }
+
+    @Override
+    public void published(String destination, String payload) {
+        try {
+            ChatMessage message = objectMapper.readValue(payload, ChatMessage.class);
+            messagingTemplate.convertAndSend(destination, message);
+            if ("/topic/public".equals(destination) && message.getType() == MessageType.CHAT) {
+                recentMessages.publish(message);
+                chatHistoryStore.append(message);
+            }
+        } catch (Exception e) {
+            log.error("Failed to deliver relayed message to {}", destination, e);
+        }
+    }
+
+    @Override
+    public void directMessage(String sessionId, String payload) {
+        try {
+            ChatMessage message = objectMapper.readValue(payload, ChatMessage.class);
+            message.setTargetSessionId(sessionId);
+            sessionMessenger.sendToSession(sessionId, message);
+        } catch (Exception e) {
+            log.error("Failed to deliver relayed direct message", e);
+        }
+    }
+    // END
+}
+// END
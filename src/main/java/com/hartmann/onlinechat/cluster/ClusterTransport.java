@@ -0,0 +1,39 @@
+package com.hartmann.onlinechat.cluster;
+
+import java.util.function.Consumer;
+
+/**
+ * Pluggable inter-node transport for cluster mode.
+ * Delivery is best effort and per-peer ordered; the cluster protocol tolerates
+ * lost messages through heartbeats, leases and resync.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+public interface ClusterTransport {
+
+    /**
+     * Starts accepting messages from peers.
+     *
+     * @param handler Receives every inbound message, possibly on transport threads
+     */
+    void start(Consumer<ClusterMessage> handler);
+
+    /**
+     * Sends a message to a single peer.
+     *
+     * @param nodeId  Target node ID
+     * @param message The message to send
+     */
+    void send(String nodeId, ClusterMessage message);
+
+    /**
+     * Sends a message to every configured peer.
+     *
+     * @param message The message to send
+     */
+    void broadcast(ClusterMessage message);
+
+    void stop();
+}
+// END
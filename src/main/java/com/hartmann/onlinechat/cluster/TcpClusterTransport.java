@@ -0,0 +1,411 @@
+package com.hartmann.onlinechat.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Cluster transport over plain TCP.
+ * Every node listens on one port and opens one outbound connection per peer;
+ * messages are length-prefixed JSON frames. Each peer has its own sender
+ * thread with a bounded queue, so a slow or unreachable peer never blocks the
+ * caller or the other peers. While a peer is disconnected its frames are
+ * dropped and counted instead of queued; the connection is re-established in
+ * the background with exponential backoff.
+ * <p>
+ * Every connection starts with a handshake: the accepting node sends a random
+ * nonce, and the connecting node answers with its ID and an HMAC-SHA256 of the
+ * nonce and ID under the shared cluster secret. Connections from unknown node
+ * IDs or with a wrong proof are closed, and frames on an accepted connection
+ * must come from the node that authenticated it. The handshake authenticates
+ * nodes but does not encrypt; the listener binds to loopback unless
+ * configured otherwise.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@Slf4j
+public class TcpClusterTransport implements ClusterTransport {
+
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+    private static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+    // Frames waiting for a connected peer's sender thread; beyond this a slow peer loses frames
+    private static final int SEND_QUEUE_FRAMES = 1024;
+    private static final long RECONNECT_MIN_MS = 100;
+    private static final long RECONNECT_MAX_MS = 5000;
+    private static final int NONCE_BYTES = 16;
+    private static final int PROOF_BYTES = 32;
+    private static final int HANDSHAKE_ACCEPTED = 1;
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private final String nodeId;
+    private final String bindAddress;
+    private final int port;
+    private final Map<String, InetSocketAddress> peers;
+    private final SecretKeySpec secret;
+    private final ObjectMapper objectMapper;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, PeerConnection> connections = new ConcurrentHashMap<>();
+    private final Set<Socket> inbound = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService connector;
+    private final LongAdder droppedFrames = new LongAdder();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private volatile ServerSocket serverSocket;
+    private volatile boolean running;
+
+    /**
+     * @param nodeId       This node's ID
+     * @param bindAddress  Interface to listen on
+     * @param port         Port to listen on (0 picks a free port, see {@link #getPort()})
+     * @param peers        Peer node ID -> address, excluding this node
+     * @param secret       Shared secret every node of the cluster is configured with
+     * @param objectMapper Mapper for the JSON frames
+     */
+    public TcpClusterTransport(String nodeId, String bindAddress, int port, Map<String, InetSocketAddress> peers,
+            String secret, ObjectMapper objectMapper) {
+        if (secret == null || secret.isBlank()) {
+            throw new IllegalArgumentException("Cluster secret must not be empty");
+        }
+        this.nodeId = nodeId;
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.peers = Map.copyOf(peers);
+        this.secret = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM);
+        this.objectMapper = objectMapper;
+        this.connector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-connect-" + nodeId);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void start(Consumer<ClusterMessage> handler) {
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(bindAddress, port));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot listen on cluster address " + bindAddress + ":" + port, e);
+        }
+        running = true;
+        peers.forEach((peerId, address) -> connections.put(peerId, new PeerConnection(peerId, address)));
+        connections.values().forEach(connection -> connection.scheduleConnect(0));
+
+        Thread acceptor = new Thread(() -> acceptLoop(handler), "cluster-accept-" + nodeId);
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("Cluster node {} listening on {}:{} with peers {}", nodeId, bindAddress, getPort(), peers.keySet());
+    }
+
+    private void acceptLoop(Consumer<ClusterMessage> handler) {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                inbound.add(socket);
+                Thread reader = new Thread(() -> readLoop(socket, handler), "cluster-read-" + nodeId);
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (running) {
+                    log.warn("Cluster node {} failed to accept a connection", nodeId, e);
+                }
+            }
+        }
+    }
+
+    private void readLoop(Socket socket, Consumer<ClusterMessage> handler) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            String peerId = authenticate(socket, in);
+            if (peerId == null) {
+                rejectedConnections.increment();
+                return;
+            }
+            while (running) {
+                int length = in.readInt();
+                if (length <= 0 || length > MAX_FRAME_BYTES) {
+                    throw new IOException("Invalid cluster frame length " + length);
+                }
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                ClusterMessage message;
+                try {
+                    message = objectMapper.readValue(frame, ClusterMessage.class);
+                } catch (IOException e) {
+                    log.warn("Cluster node {} dropped an unreadable frame", nodeId, e);
+                    continue;
+                }
+                if (!peerId.equals(message.from())) {
+                    log.warn("Cluster node {} dropped {} from '{}' on the connection of {}", nodeId, message.type(),
+                            message.from(), peerId);
+                    continue;
+                }
+                try {
+                    handler.accept(message);
+                } catch (Exception e) {
+                    log.error("Cluster node {} failed to handle {}", nodeId, message.type(), e);
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                log.debug("Cluster node {} lost inbound connection {}", nodeId, socket.getRemoteSocketAddress());
+            }
+        } finally {
+            inbound.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Accepting side of the handshake.
+     *
+     * @return The authenticated peer ID, or null if the connection must be closed
+     */
+    private String authenticate(Socket socket, DataInputStream in) throws IOException {
+        byte[] nonce = new byte[NONCE_BYTES];
+        random.nextBytes(nonce);
+        socket.getOutputStream().write(nonce);
+        socket.getOutputStream().flush();
+
+        // A client that never answers must not hold a reader thread
+        socket.setSoTimeout(CONNECT_TIMEOUT_MS);
+        String peerId = in.readUTF();
+        byte[] proof = new byte[PROOF_BYTES];
+        in.readFully(proof);
+        socket.setSoTimeout(0);
+
+        if (!peers.containsKey(peerId) || !MessageDigest.isEqual(proof, proof(nonce, peerId))) {
+            log.warn("Cluster node {} rejected a connection from {} claiming to be '{}'", nodeId,
+                    socket.getRemoteSocketAddress(), peerId);
+            return null;
+        }
+        socket.getOutputStream().write(HANDSHAKE_ACCEPTED);
+        socket.getOutputStream().flush();
+        return peerId;
+    }
+
+    private byte[] proof(byte[] nonce, String id) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(secret);
+            mac.update(nonce);
+            return mac.doFinal(id.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot compute the cluster handshake proof", e);
+        }
+    }
+
+    @Override
+    public void send(String peerId, ClusterMessage message) {
+        PeerConnection connection = connections.get(peerId);
+        if (connection == null) {
+            log.warn("Cluster node {} has no peer {}", nodeId, peerId);
+            return;
+        }
+        connection.enqueue(encode(message));
+    }
+
+    @Override
+    public void broadcast(ClusterMessage message) {
+        byte[] frame = encode(message);
+        connections.values().forEach(connection -> connection.enqueue(frame));
+    }
+
+    private byte[] encode(ClusterMessage message) {
+        try {
+            return objectMapper.writeValueAsBytes(message);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot encode cluster message " + message.type(), e);
+        }
+    }
+
+    /**
+     * @return The bound port, or the configured port before {@link #start}
+     */
+    public int getPort() {
+        ServerSocket socket = serverSocket;
+        return socket != null ? socket.getLocalPort() : port;
+    }
+
+    /** Frames dropped because their peer was disconnected or its send queue was full. */
+    public long getDroppedFrames() {
+        return droppedFrames.sum();
+    }
+
+    /** Inbound connections closed because the handshake failed. */
+    public long getRejectedConnections() {
+        return rejectedConnections.sum();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        connector.shutdownNow();
+        connections.values().forEach(PeerConnection::close);
+        inbound.forEach(TcpClusterTransport::closeQuietly);
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                log.debug("Error closing cluster server socket", e);
+            }
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Already closed
+        }
+    }
+
+    /**
+     * Outbound connection to one peer with its own sender thread. The connector
+     * thread opens the connection while it is down and the sender thread drops
+     * it on a failed write, so exactly one of them owns it at any time.
+     */
+    private class PeerConnection {
+
+        private final String peerId;
+        private final InetSocketAddress address;
+        private final ThreadPoolExecutor sender;
+        private volatile Socket socket;
+        private volatile DataOutputStream out; // null while disconnected
+        private long backoffMs = RECONNECT_MIN_MS; // Connector thread only
+
+        PeerConnection(String peerId, InetSocketAddress address) {
+            this.peerId = peerId;
+            this.address = address;
+            this.sender = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(SEND_QUEUE_FRAMES), runnable -> {
+                        Thread thread = new Thread(runnable, "cluster-send-" + nodeId + "-" + peerId);
+                        thread.setDaemon(true);
+                        return thread;
+                    }, (task, executor) -> droppedFrames.increment());
+        }
+
+        void enqueue(byte[] frame) {
+            if (!running) {
+                return;
+            }
+            if (out == null) {
+                // Stale frames are useless once the peer is back: heartbeats and resync recover the state
+                droppedFrames.increment();
+                return;
+            }
+            sender.execute(() -> write(frame));
+        }
+
+        void scheduleConnect(long delayMs) {
+            try {
+                connector.schedule(this::connect, delayMs, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                log.debug("Cluster node {} stopped reconnecting to {}", nodeId, peerId);
+            }
+        }
+
+        private void connect() {
+            if (!running) {
+                return;
+            }
+            Socket candidate = new Socket();
+            try {
+                candidate.setTcpNoDelay(true);
+                candidate.connect(address, CONNECT_TIMEOUT_MS);
+                DataOutputStream stream = handshake(candidate);
+                socket = candidate;
+                out = stream;
+                backoffMs = RECONNECT_MIN_MS;
+                log.info("Cluster node {} connected to {} at {}", nodeId, peerId, address);
+            } catch (IOException e) {
+                closeQuietly(candidate);
+                log.debug("Cluster node {} cannot reach {}, retrying in {} ms: {}", nodeId, peerId, backoffMs,
+                        e.getMessage());
+                scheduleConnect(backoffMs);
+                backoffMs = Math.min(backoffMs * 2, RECONNECT_MAX_MS);
+            }
+        }
+
+        /** Connecting side of the handshake: proves this node's ID and waits for the peer to accept it. */
+        private DataOutputStream handshake(Socket candidate) throws IOException {
+            candidate.setSoTimeout(CONNECT_TIMEOUT_MS);
+            DataInputStream in = new DataInputStream(candidate.getInputStream());
+            byte[] nonce = new byte[NONCE_BYTES];
+            in.readFully(nonce);
+            DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(candidate.getOutputStream()));
+            stream.writeUTF(nodeId);
+            stream.write(proof(nonce, nodeId));
+            stream.flush();
+            if (in.read() != HANDSHAKE_ACCEPTED) {
+                throw new IOException("Handshake rejected by " + peerId);
+            }
+            candidate.setSoTimeout(0);
+            return stream;
+        }
+
+        private void write(byte[] frame) {
+            DataOutputStream current = out;
+            if (current == null) {
+                // Queued before the connection broke
+                droppedFrames.increment();
+                return;
+            }
+            try {
+                current.writeInt(frame.length);
+                current.write(frame);
+                current.flush();
+            } catch (IOException e) {
+                // Peer is down: drop the frame, the protocol recovers via heartbeats and resync
+                if (!(e instanceof SocketException)) {
+                    log.debug("Cluster node {} failed to send to {}: {}", nodeId, peerId, e.getMessage());
+                }
+                droppedFrames.increment();
+                disconnect();
+                scheduleConnect(RECONNECT_MIN_MS);
+            }
+        }
+
+        private void disconnect() {
+            out = null;
+            Socket current = socket;
+            if (current != null) {
+                closeQuietly(current);
+            }
+            socket = null;
+        }
+
+        void close() {
+            sender.shutdownNow();
+            disconnect();
+        }
+    }
+}
+// END
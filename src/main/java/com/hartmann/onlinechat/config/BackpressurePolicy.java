@@ -0,0 +1,24 @@
+package com.hartmann.onlinechat.config;
+
+/**
+ * What {@link SlowConsumerGuard} does with frames for a session that is lagging
+ * behind, set with chat.backpressure.policy.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+public enum BackpressurePolicy {
+
+    /** Close the session as soon as it lags behind. */
+    DISCONNECT,
+
+    /** Drop presence updates and join/leave notices while the session lags behind. */
+    DROP_NON_ESSENTIAL,
+
+    /**
+     * Drop presence deltas while the session lags behind and send it one fresh
+     * presence snapshot once it has caught up, in place of all the deltas it missed.
+     */
+    MERGE_PRESENCE
+}
+// END
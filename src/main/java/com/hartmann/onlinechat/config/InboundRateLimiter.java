@@ -0,0 +1,272 @@
+package com.hartmann.onlinechat.config;
+
+import com.hartmann.onlinechat.chat.ChatMessage;
+import com.hartmann.onlinechat.chat.MessageType;
+import com.hartmann.onlinechat.service.SessionManager;
+import com.hartmann.onlinechat.service.SessionMessenger;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Inbound channel interceptor that rate-limits what clients send to /app
+ * destinations with token buckets per session and per username. Public (and
+ * room) messages, direct messages and bot commands each have their own budget,
+ * told apart from the raw JSON payload the way {@code MessageClassifier} tells
+ * them apart from the content; other /app destinations count as public. A
+ * message needs a token from both the session's and the user's bucket, so
+ * reconnecting does not reset a user's budget. Throttled messages are dropped
+ * and the sender gets at most one notice per chat.ratelimit.notice-interval-ms,
+ * sent to its session only.
+ * <p>
+ * Buckets are lock-free and checking one allocates nothing; see
+ * {@link TokenBuckets}. Session buckets are removed when the session
+ * disconnects, and user buckets once they are full again, by a periodic sweep.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@Component
+@Slf4j
+public class InboundRateLimiter implements ChannelInterceptor {
+
+    public enum Traffic {
+        PUBLIC, DIRECT, BOT
+    }
+
+    private static final Traffic[] TRAFFIC = Traffic.values();
+    private static final String APP_PREFIX = "/app/";
+    private static final String SEND_MESSAGE = "/app/chat.sendMessage";
+    private static final byte[] CONTENT_KEY = "\"content\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BOT_PREFIX = "server".getBytes(StandardCharsets.UTF_8);
+
+    private final boolean enabled;
+    private final long[] intervals = new long[TRAFFIC.length];
+    private final long[] bursts = new long[TRAFFIC.length];
+    private final long noticeIntervalNanos;
+    private final SessionManager sessionManager;
+    private final SessionMessenger sessionMessenger;
+    private final Map<String, TokenBuckets> sessionBuckets = new ConcurrentHashMap<>();
+    private final Map<String, TokenBuckets> userBuckets = new ConcurrentHashMap<>();
+    private final LongAdder[] throttled = new LongAdder[TRAFFIC.length];
+    private final ScheduledExecutorService sweeper;
+
+    // Lazy: SessionManager and SessionMessenger depend on the messaging template, which is built from this config
+    public InboundRateLimiter(@Value("${chat.ratelimit.enabled:true}") boolean enabled,
+            @Value("${chat.ratelimit.public.per-second:5}") double publicRate,
+            @Value("${chat.ratelimit.public.burst:10}") int publicBurst,
+            @Value("${chat.ratelimit.direct.per-second:5}") double directRate,
+            @Value("${chat.ratelimit.direct.burst:10}") int directBurst,
+            @Value("${chat.ratelimit.bot.per-second:1}") double botRate,
+            @Value("${chat.ratelimit.bot.burst:3}") int botBurst,
+            @Value("${chat.ratelimit.notice-interval-ms:2000}") long noticeIntervalMs,
+            @Value("${chat.ratelimit.sweep-interval-ms:60000}") long sweepIntervalMs,
+            @Lazy SessionManager sessionManager, @Lazy SessionMessenger sessionMessenger) {
+        this.enabled = enabled;
+        budget(Traffic.PUBLIC, publicRate, publicBurst);
+        budget(Traffic.DIRECT, directRate, directBurst);
+        budget(Traffic.BOT, botRate, botBurst);
+        this.noticeIntervalNanos = TimeUnit.MILLISECONDS.toNanos(noticeIntervalMs);
+        this.sessionManager = sessionManager;
+        this.sessionMessenger = sessionMessenger;
+        for (int i = 0; i < throttled.length; i++) {
+            throttled[i] = new LongAdder();
+        }
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rate-limit-sweep");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMs, sweepIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void budget(Traffic traffic, double perSecond, int burst) {
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+        intervals[traffic.ordinal()] = interval;
+        bursts[traffic.ordinal()] = Math.max(1, burst) * interval;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        MessageHeaders headers = message.getHeaders();
+        if (!enabled || SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE) {
+            return message;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+        if (destination == null || sessionId == null || !destination.startsWith(APP_PREFIX)) {
+            return message;
+        }
+        Traffic traffic = SEND_MESSAGE.equals(destination) && message.getPayload() instanceof byte[] payload
+                ? classify(payload) : Traffic.PUBLIC;
+        long now = System.nanoTime();
+        TokenBuckets session = sessionBuckets.get(sessionId);
+        if (session == null) {
+            session = sessionBuckets.computeIfAbsent(sessionId, id -> new TokenBuckets(TRAFFIC.length, now));
+        }
+        if (!take(session, traffic, now)) {
+            return throttle(session, sessionId, traffic, now);
+        }
+        String username = sessionManager.getUsername(sessionId);
+        if (username != null) {
+            TokenBuckets user = userBuckets.get(username);
+            if (user == null) {
+                user = userBuckets.computeIfAbsent(username, name -> new TokenBuckets(TRAFFIC.length, now));
+            }
+            if (!take(user, traffic, now)) {
+                return throttle(session, sessionId, traffic, now);
+            }
+        }
+        return message;
+    }
+
+    private boolean take(TokenBuckets buckets, Traffic traffic, long now) {
+        int index = traffic.ordinal();
+        return buckets.tryAcquire(index, now, intervals[index], bursts[index]);
+    }
+
+    private Message<?> throttle(TokenBuckets session, String sessionId, Traffic traffic, long now) {
+        throttled[traffic.ordinal()].increment();
+        if (session.tryNotice(now, noticeIntervalNanos)) {
+            log.debug("Throttling {} traffic from session {}", traffic, sessionId);
+            ChatMessage notice = ChatMessage.builder()
+                    .content(noticeText(traffic))
+                    .sender("System")
+                    .type(MessageType.BOT_MESSAGE)
+                    .targetSessionId(sessionId)
+                    .build();
+            sessionMessenger.sendToSession(sessionId, notice);
+        }
+        return null;
+    }
+
+    private static String noticeText(Traffic traffic) {
+        return switch (traffic) {
+            case PUBLIC -> "You are sending messages too fast. Some were not delivered, please slow down.";
+            case DIRECT -> "You are sending direct messages too fast. Some were not delivered, please slow down.";
+            case BOT -> "You are sending bot commands too fast. Some were ignored, please slow down.";
+        };
+    }
+
+    /**
+     * Tells the budget of a chat.sendMessage payload from its raw JSON, without
+     * decoding it: the first non-blank character of the content decides, as in
+     * {@code MessageClassifier}.
+     */
+    static Traffic classify(byte[] json) {
+        int index = indexOfKey(json, CONTENT_KEY);
+        if (index < 0) {
+            return Traffic.PUBLIC;
+        }
+        index = skipBlank(json, index + CONTENT_KEY.length);
+        if (index >= json.length || json[index] != ':') {
+            return Traffic.PUBLIC;
+        }
+        index = skipBlank(json, index + 1);
+        if (index >= json.length || json[index] != '"') {
+            return Traffic.PUBLIC;
+        }
+        index = skipBlankContent(json, index + 1);
+        if (index >= json.length || json[index] != '@') {
+            return Traffic.PUBLIC;
+        }
+        index++;
+        for (int i = 0; i < BOT_PREFIX.length; i++) {
+            if (index + i >= json.length || (json[index + i] | 0x20) != BOT_PREFIX[i]) {
+                return Traffic.DIRECT;
+            }
+        }
+        return Traffic.BOT;
+    }
+
+    /**
+     * Finds a quoted key that starts a member of an object, i.e. follows '{' or
+     * ',' (whitespace aside). Matches inside string values are skipped: a string
+     * equal to the key follows ':', and quotes within strings are escaped.
+     */
+    private static int indexOfKey(byte[] bytes, byte[] key) {
+        outer:
+        for (int i = 0; i <= bytes.length - key.length; i++) {
+            for (int j = 0; j < key.length; j++) {
+                if (bytes[i + j] != key[j]) {
+                    continue outer;
+                }
+            }
+            int before = i - 1;
+            while (before >= 0 && bytes[before] >= 0 && bytes[before] <= ' ') {
+                before--;
+            }
+            if (before >= 0 && (bytes[before] == '{' || bytes[before] == ',')) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipBlank(byte[] json, int index) {
+        while (index < json.length && json[index] >= 0 && json[index] <= ' ') {
+            index++;
+        }
+        return index;
+    }
+
+    /** Skips leading whitespace inside a JSON string, escaped whitespace (\n, \t, \r, \b, \f) included. */
+    private static int skipBlankContent(byte[] json, int index) {
+        while (index < json.length) {
+            byte b = json[index];
+            if (b == '\\' && index + 1 < json.length && "ntrbf".indexOf(json[index + 1]) >= 0) {
+                index += 2;
+            } else if (b >= 0 && b <= ' ') {
+                index++;
+            } else {
+                break;
+            }
+        }
+        return index;
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        sessionBuckets.remove(event.getSessionId());
+    }
+
+    /** Drops user buckets that are full again; a user sending meanwhile just starts from a full bucket. */
+    void sweep() {
+        long now = System.nanoTime();
+        userBuckets.values().removeIf(buckets -> buckets.isIdle(now));
+    }
+
+    /** Messages dropped for exceeding a budget. */
+    public long getThrottled(Traffic traffic) {
+        return throttled[traffic.ordinal()].sum();
+    }
+
+    /** Session and user buckets currently held. */
+    public int getBuckets() {
+        return sessionBuckets.size() + userBuckets.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+}
+// END
@@ -0,0 +1,83 @@
+package com.hartmann.onlinechat.config;
+
+import com.hartmann.onlinechat.service.PresenceBroadcaster;
+import com.hartmann.onlinechat.service.SessionManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Inbound channel interceptor that only lets room members subscribe to a
+ * room topic. Subscriptions from non-members are dropped.
+ * A broker subscription outlives the membership it was granted for, so the
+ * interceptor returned by {@link #outboundInterceptor()} also drops room
+ * messages headed to sessions that have since left the room.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@Component
+@Slf4j
+public class RoomSubscriptionInterceptor implements ChannelInterceptor {
+
+    private final SessionManager sessionManager;
+    private final ChannelInterceptor outboundInterceptor = new ChannelInterceptor() {
+        @Override
+        public Message<?> preSend(Message<?> message, MessageChannel channel) {
+            return admitOutbound(message);
+        }
+    };
+
+    // Lazy: SessionManager depends on the messaging template, which is built from this config
+    public RoomSubscriptionInterceptor(@Lazy SessionManager sessionManager) {
+        this.sessionManager = sessionManager;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.SUBSCRIBE) {
+            return message;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (destination == null || !destination.startsWith(PresenceBroadcaster.ROOM_TOPIC_PREFIX)) {
+            return message;
+        }
+
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        String room = destination.substring(PresenceBroadcaster.ROOM_TOPIC_PREFIX.length());
+        if (!sessionManager.isRoomMember(sessionId, room)) {
+            log.warn("Rejected subscription to {} from non-member session {}", destination, sessionId);
+            return null;
+        }
+        return message;
+    }
+
+    /** Interceptor for the client outbound channel that keeps room messages from former members. */
+    public ChannelInterceptor outboundInterceptor() {
+        return outboundInterceptor;
+    }
+
+    private Message<?> admitOutbound(Message<?> message) {
+        if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE) {
+            return message;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (destination == null || !destination.startsWith(PresenceBroadcaster.ROOM_TOPIC_PREFIX)) {
+            return message;
+        }
+
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        String room = destination.substring(PresenceBroadcaster.ROOM_TOPIC_PREFIX.length());
+        if (!sessionManager.isRoomMember(sessionId, room)) {
+            log.debug("Dropped message on {} for former member session {}", destination, sessionId);
+            return null;
+        }
+        return message;
+    }
+}
+// END
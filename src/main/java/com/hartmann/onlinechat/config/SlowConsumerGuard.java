@@ -0,0 +1,297 @@
+package com.hartmann.onlinechat.config;
+
+import com.hartmann.onlinechat.chat.ChatMessage;
+import com.hartmann.onlinechat.chat.MessageType;
+import com.hartmann.onlinechat.service.PresenceBroadcaster;
+import com.hartmann.onlinechat.service.SessionManager;
+import com.hartmann.onlinechat.service.SessionMessenger;
+import com.hartmann.onlinechat.wire.SourceTrackingJsonMessageConverter;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Detects sessions that cannot keep up with their outbound frames and applies
+ * the configured {@link BackpressurePolicy} to them.
+ * <p>
+ * Frames are counted per session when they enter the client outbound channel
+ * (the interceptor returned by {@link #outboundInterceptor()}, installed ahead
+ * of the others) and again when they are written to the socket (a session
+ * decorator installed through {@link #decorate(WebSocketHandler)}). The
+ * difference covers both the outbound channel's queue and Spring's per-session
+ * send buffer. A session is lagging while chat.backpressure.max-pending-frames
+ * frames are pending or a single send has been blocked for longer than
+ * chat.backpressure.lag-ms, and it has caught up again once half of that
+ * backlog is written. Whatever the policy, a session reaching
+ * chat.backpressure.disconnect-pending-frames is closed, so one slow phone
+ * cannot pin memory.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@Component
+@Slf4j
+public class SlowConsumerGuard implements WebSocketHandlerDecoratorFactory {
+
+    private final BackpressurePolicy policy;
+    private final int maxPendingFrames;
+    private final int disconnectPendingFrames;
+    private final long lagNanos;
+    private final SessionManager sessionManager;
+    private final SessionMessenger sessionMessenger;
+    private final Map<String, SessionBacklog> backlogs = new ConcurrentHashMap<>();
+    private final ExecutorService closeExecutor;
+    private final LongAdder lagEvents = new LongAdder();
+    private final LongAdder droppedFrames = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final LongAdder resyncs = new LongAdder();
+    private final ChannelInterceptor outboundInterceptor = new ChannelInterceptor() {
+        @Override
+        public Message<?> preSend(Message<?> message, MessageChannel channel) {
+            return admit(message);
+        }
+    };
+
+    // Lazy: SessionManager and SessionMessenger depend on the messaging template, which is built from this config
+    public SlowConsumerGuard(@Value("${chat.backpressure.policy:merge-presence}") BackpressurePolicy policy,
+            @Value("${chat.backpressure.max-pending-frames:256}") int maxPendingFrames,
+            @Value("${chat.backpressure.disconnect-pending-frames:2048}") int disconnectPendingFrames,
+            @Value("${chat.backpressure.lag-ms:2000}") long lagMs,
+            @Lazy SessionManager sessionManager, @Lazy SessionMessenger sessionMessenger) {
+        this.policy = policy;
+        this.maxPendingFrames = maxPendingFrames;
+        this.disconnectPendingFrames = Math.max(maxPendingFrames, disconnectPendingFrames);
+        this.lagNanos = TimeUnit.MILLISECONDS.toNanos(lagMs);
+        this.sessionManager = sessionManager;
+        this.sessionMessenger = sessionMessenger;
+        // Closing a session may block behind its stuck send, so it never runs on a sending thread
+        this.closeExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "slow-consumer-close");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Interceptor for the client outbound channel that counts and filters frames per session. */
+    public ChannelInterceptor outboundInterceptor() {
+        return outboundInterceptor;
+    }
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                SessionBacklog backlog = new SessionBacklog(session);
+                backlogs.put(session.getId(), backlog);
+                super.afterConnectionEstablished(new CountingSession(session, backlog));
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                backlogs.remove(session.getId());
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    private Message<?> admit(Message<?> message) {
+        SessionBacklog backlog = backlogs.get(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()));
+        if (backlog == null) {
+            return message;
+        }
+        if (backlog.closing.get()) {
+            droppedFrames.increment();
+            return null;
+        }
+        long pending = backlog.pending();
+        long sendNanos = backlog.sendNanos();
+        if (pending < maxPendingFrames && sendNanos < lagNanos) {
+            backlog.queued.incrementAndGet();
+            return message;
+        }
+        if (!backlog.lagging) {
+            backlog.lagging = true;
+            lagEvents.increment();
+            log.warn("Session {} is lagging behind: {} frames pending, current send blocked for {} ms",
+                    backlog.session.getId(), pending, TimeUnit.NANOSECONDS.toMillis(sendNanos));
+        }
+        if (policy == BackpressurePolicy.DISCONNECT || pending >= disconnectPendingFrames) {
+            disconnect(backlog, pending);
+            droppedFrames.increment();
+            return null;
+        }
+        Object source = message.getHeaders().get(SourceTrackingJsonMessageConverter.SOURCE_PAYLOAD_HEADER);
+        if (policy == BackpressurePolicy.MERGE_PRESENCE && isPresenceDelta(source)) {
+            backlog.resyncPending.set(true);
+            droppedFrames.increment();
+            return null;
+        }
+        if (policy == BackpressurePolicy.DROP_NON_ESSENTIAL && isNonEssential(source)) {
+            droppedFrames.increment();
+            return null;
+        }
+        backlog.queued.incrementAndGet();
+        return message;
+    }
+
+    /** Called after every write to the socket. */
+    private void onSent(SessionBacklog backlog) {
+        if (!backlog.lagging || backlog.pending() > maxPendingFrames / 2) {
+            return;
+        }
+        backlog.lagging = false;
+        log.info("Session {} caught up", backlog.session.getId());
+        if (backlog.resyncPending.compareAndSet(true, false)) {
+            // Sent through the outbound channel like any frame, so it queues behind what is still pending
+            sessionMessenger.sendToSession(backlog.session.getId(), sessionManager.getPresenceSnapshot());
+            resyncs.increment();
+        }
+    }
+
+    private void disconnect(SessionBacklog backlog, long pending) {
+        if (!backlog.closing.compareAndSet(false, true)) {
+            return;
+        }
+        disconnects.increment();
+        log.warn("Closing session {} with {} frames pending", backlog.session.getId(), pending);
+        closeExecutor.execute(() -> {
+            try {
+                backlog.session.close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (IOException | RuntimeException e) {
+                log.debug("Failed to close lagging session {}", backlog.session.getId(), e);
+            }
+        });
+    }
+
+    static boolean isPresenceDelta(Object source) {
+        return source instanceof Map<?, ?> map && PresenceBroadcaster.PRESENCE_DELTA.equals(map.get("type"));
+    }
+
+    /** Presence updates and join/leave notices; a client catches up on them from the next presence snapshot. */
+    static boolean isNonEssential(Object source) {
+        if (source instanceof ChatMessage chatMessage) {
+            return chatMessage.getType() == MessageType.JOIN || chatMessage.getType() == MessageType.LEAVE;
+        }
+        return isPresenceDelta(source)
+                || source instanceof Map<?, ?> map && PresenceBroadcaster.ROOM_PRESENCE.equals(map.get("type"));
+    }
+
+    /** Sessions currently lagging behind. */
+    public int getLaggingSessions() {
+        int lagging = 0;
+        for (SessionBacklog backlog : backlogs.values()) {
+            if (backlog.lagging) {
+                lagging++;
+            }
+        }
+        return lagging;
+    }
+
+    /** The largest number of frames pending for one session. */
+    public long getMaxPendingFrames() {
+        long max = 0;
+        for (SessionBacklog backlog : backlogs.values()) {
+            max = Math.max(max, backlog.pending());
+        }
+        return max;
+    }
+
+    /** Times a session started lagging behind. */
+    public long getLagEvents() {
+        return lagEvents.sum();
+    }
+
+    /** Frames not sent to a lagging or closing session. */
+    public long getDroppedFrames() {
+        return droppedFrames.sum();
+    }
+
+    /** Sessions closed for lagging behind. */
+    public long getDisconnects() {
+        return disconnects.sum();
+    }
+
+    /** Presence snapshots sent in place of dropped presence deltas. */
+    public long getResyncs() {
+        return resyncs.sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        closeExecutor.shutdownNow();
+    }
+
+    private static final class SessionBacklog {
+
+        private final WebSocketSession session;
+        private final AtomicLong queued = new AtomicLong();
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicBoolean resyncPending = new AtomicBoolean();
+        private final AtomicBoolean closing = new AtomicBoolean();
+        // System.nanoTime() when the current send started, 0 while no send is in progress
+        private volatile long sendStarted;
+        private volatile boolean lagging;
+
+        SessionBacklog(WebSocketSession session) {
+            this.session = session;
+        }
+
+        /** Frames admitted but not written yet; frames sent outside the channel can make sent run ahead. */
+        long pending() {
+            return Math.max(0, queued.get() - sent.get());
+        }
+
+        long sendNanos() {
+            long started = sendStarted;
+            return started != 0 ? System.nanoTime() - started : 0;
+        }
+    }
+
+    /** Records when each frame is written to the socket. */
+    private final class CountingSession extends WebSocketSessionDecorator {
+
+        private final SessionBacklog backlog;
+
+        CountingSession(WebSocketSession session, SessionBacklog backlog) {
+            super(session);
+            this.backlog = backlog;
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            backlog.sendStarted = System.nanoTime();
+            try {
+                super.sendMessage(message);
+            } finally {
+                backlog.sendStarted = 0;
+                backlog.sent.incrementAndGet();
+                onSent(backlog);
+            }
+        }
+    }
+}
+// END
@@ -0,0 +1,70 @@
+package com.hartmann.onlinechat.config;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * One token bucket per traffic kind for a single session or username, kept
+ * lock-free in an {@link AtomicLongArray}. Each bucket is stored as its
+ * theoretical arrival time (the generic cell rate algorithm): the time at
+ * which the bucket is full again. Taking a token moves that time one emission
+ * interval further, and is refused while it would end up more than a burst
+ * ahead of now. Checking a bucket is a read and at most a few CAS attempts,
+ * without allocation.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+final class TokenBuckets {
+
+    private final AtomicLongArray fullAt;
+    // Last time a throttling notice went out, so a flooding client gets one per notice interval
+    private final AtomicLong lastNotice;
+
+    TokenBuckets(int buckets, long now) {
+        this.fullAt = new AtomicLongArray(buckets);
+        for (int i = 0; i < buckets; i++) {
+            fullAt.set(i, now);
+        }
+        this.lastNotice = new AtomicLong(now - Long.MAX_VALUE / 2);
+    }
+
+    /**
+     * Takes a token from a bucket.
+     *
+     * @param bucket   The bucket index
+     * @param now      The current System.nanoTime()
+     * @param interval Nanoseconds per token, the inverse of the rate
+     * @param burst    Nanoseconds the bucket may run ahead of now: burst size times interval
+     * @return false if the bucket is empty
+     */
+    boolean tryAcquire(int bucket, long now, long interval, long burst) {
+        while (true) {
+            long current = fullAt.get(bucket);
+            long next = Math.max(current - now, 0) + interval;
+            if (next > burst) {
+                return false;
+            }
+            if (fullAt.compareAndSet(bucket, current, now + next)) {
+                return true;
+            }
+        }
+    }
+
+    /** Whether a notice may go out now; claims the notice slot if so. */
+    boolean tryNotice(long now, long noticeInterval) {
+        long last = lastNotice.get();
+        return now - last >= noticeInterval && lastNotice.compareAndSet(last, now);
+    }
+
+    /** Whether every bucket is full again, so dropping this state loses nothing. */
+    boolean isIdle(long now) {
+        for (int i = 0; i < fullAt.length(); i++) {
+            if (fullAt.get(i) - now > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
+// END
@@ -1,33 +1,196 @@
 package com.hartmann.onlinechat.config;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hartmann.onlinechat.metrics.BroadcastMetricsInterceptor;
+import com.hartmann.onlinechat.wire.CompactMessageConverter;
+import com.hartmann.onlinechat.wire.CompressionInterceptor;
+import com.hartmann.onlinechat.wire.FrameBatcher;
+import com.hartmann.onlinechat.wire.SharedFrameEncoder;
+import com.hartmann.onlinechat.wire.SourceTrackingJsonMessageConverter;
+import com.hartmann.onlinechat.wire.TransportDeflateFilter;
+import com.hartmann.onlinechat.wire.WireFormatInterceptor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+import org.springframework.web.socket.messaging.StompSubProtocolHandler;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * WebSocket configuration for chat application.
  * Configures message broker and STOMP endpoints with support for private messaging.
+ * With chat.websocket.virtual-threads enabled (Java 21+), inbound dispatch and
+ * outbound writes run on one virtual thread per message instead of the default
+ * fixed-size pools, so blocking work no longer queues behind busy pool threads.
+ * Per-session ordering is then preserved explicitly, since an unbounded executor
+ * would otherwise let two messages of one session overtake each other.
+ * The broker and outbound channels carry the fan-out metrics interceptors.
+ * Inbound messages are rate-limited per session and per user.
+ * Sessions that fall behind on their outbound frames are handled by the
+ * {@link SlowConsumerGuard}, within explicit send time and buffer limits.
+ * Clients may negotiate the compact wire format and frame compression at CONNECT;
+ * uncompressed JSON stays the default. Broadcast frames are encoded once and
+ * shared by their subscribers, and clients that ask for it get bursts of topic
+ * messages in batch frames.
  * 
  * @author Thomas Hartmann
  */
 // START
 @Configuration
 @EnableWebSocketMessageBroker
+@Slf4j
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    private final InboundRateLimiter inboundRateLimiter;
+    private final RoomSubscriptionInterceptor roomSubscriptionInterceptor;
+    private final BroadcastMetricsInterceptor broadcastMetricsInterceptor;
+    private final WireFormatInterceptor wireFormatInterceptor;
+    private final CompressionInterceptor compressionInterceptor;
+    private final FrameBatcher frameBatcher;
+    private final SlowConsumerGuard slowConsumerGuard;
+    private final CompactMessageConverter compactMessageConverter;
+    private final ObjectMapper objectMapper;
+    private final boolean virtualThreads;
+    private final int sendTimeLimitMs;
+    private final int sendBufferSizeLimit;
+
+    public WebSocketConfig(InboundRateLimiter inboundRateLimiter, RoomSubscriptionInterceptor roomSubscriptionInterceptor,
+            BroadcastMetricsInterceptor broadcastMetricsInterceptor, WireFormatInterceptor wireFormatInterceptor,
+            CompressionInterceptor compressionInterceptor, FrameBatcher frameBatcher,
+            SlowConsumerGuard slowConsumerGuard, CompactMessageConverter compactMessageConverter,
+            ObjectMapper objectMapper,
+            @Value("${chat.websocket.virtual-threads:false}") boolean virtualThreads,
+            @Value("${chat.websocket.send-time-limit-ms:10000}") int sendTimeLimitMs,
+            @Value("${chat.websocket.send-buffer-size-limit:524288}") int sendBufferSizeLimit) {
+        this.inboundRateLimiter = inboundRateLimiter;
+        this.roomSubscriptionInterceptor = roomSubscriptionInterceptor;
+        this.broadcastMetricsInterceptor = broadcastMetricsInterceptor;
+        this.wireFormatInterceptor = wireFormatInterceptor;
+        this.compressionInterceptor = compressionInterceptor;
+        this.frameBatcher = frameBatcher;
+        this.slowConsumerGuard = slowConsumerGuard;
+        this.compactMessageConverter = compactMessageConverter;
+        this.objectMapper = objectMapper;
+        this.virtualThreads = virtualThreads;
+        this.sendTimeLimitMs = sendTimeLimitMs;
+        this.sendBufferSizeLimit = sendBufferSizeLimit;
+        if (virtualThreads) {
+            log.info("STOMP inbound and outbound channels run on virtual threads");
+        }
+    }
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
         // Enable a simple in-memory broker for public messages and user-specific messages
         config.enableSimpleBroker("/topic", "/queue");
         config.setApplicationDestinationPrefixes("/app");
         config.setUserDestinationPrefix("/user");
+        config.setPreservePublishOrder(virtualThreads);
+        config.configureBrokerChannel().interceptors(broadcastMetricsInterceptor);
     }
 
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         registry.addEndpoint("/ws").withSockJS();
+        registry.setPreserveReceiveOrder(virtualThreads);
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Spring closes a session whose single send blocks or whose buffered frames exceed these limits
+        registration.setSendTimeLimit(sendTimeLimitMs)
+                .setSendBufferSizeLimit(sendBufferSizeLimit)
+                .addDecoratorFactory(slowConsumerGuard);
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        // Throttled messages are dropped on the receiving thread, before they reach the channel executor
+        registration.interceptors(inboundRateLimiter, wireFormatInterceptor, compressionInterceptor, frameBatcher,
+                roomSubscriptionInterceptor);
+        if (virtualThreads) {
+            registration.executor(virtualThreadExecutor("stomp-inbound-"));
+        }
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        // Room messages for former members are dropped first, before they can be batched.
+        // Batching goes next, so held-back messages reach the rest only as part of their batch frame.
+        // The slow consumer guard follows, so frames it drops are neither counted nor encoded.
+        registration.interceptors(roomSubscriptionInterceptor.outboundInterceptor(),
+                frameBatcher.outboundInterceptor(), slowConsumerGuard.outboundInterceptor(),
+                broadcastMetricsInterceptor.outboundInterceptor(), wireFormatInterceptor.outboundInterceptor(),
+                compressionInterceptor.outboundInterceptor());
+        if (virtualThreads) {
+            registration.executor(virtualThreadExecutor("stomp-outbound-"));
+        }
+    }
+
+    @Override
+    public boolean configureMessageConverters(List<MessageConverter> messageConverters) {
+        // Inserted ahead of the converters Spring Boot registers. The compact converter only
+        // matches its own content type, so JSON remains the default in both directions.
+        messageConverters.add(0, new SourceTrackingJsonMessageConverter(objectMapper));
+        messageConverters.add(0, compactMessageConverter);
+        return true;
+    }
+
+    /**
+     * Tomcat's built-in permessage-deflate compresses every frame and keeps deflate state per
+     * connection; unless enabled, the handshake hides it and {@link CompressionInterceptor} applies.
+     */
+    @Bean
+    public FilterRegistrationBean<TransportDeflateFilter> transportDeflateFilter(
+            @Value("${chat.compression.transport-deflate:false}") boolean transportDeflate) {
+        FilterRegistrationBean<TransportDeflateFilter> registration =
+                new FilterRegistrationBean<>(new TransportDeflateFilter());
+        registration.addUrlPatterns("/ws/*");
+        registration.setEnabled(!transportDeflate);
+        return registration;
+    }
+
+    /**
+     * The STOMP endpoint registry creates its sub-protocol handler without a way to configure the
+     * encoder, so the shared frame encoder is set once all singletons, the handler among them, exist.
+     */
+    @Bean
+    public SmartInitializingSingleton sharedFrameEncoderInstaller(
+            @Qualifier("subProtocolWebSocketHandler") WebSocketHandler subProtocolWebSocketHandler,
+            SharedFrameEncoder sharedFrameEncoder,
+            @Value("${chat.wire.shared-frames-enabled:true}") boolean sharedFrames) {
+        return () -> {
+            if (!sharedFrames || !(subProtocolWebSocketHandler instanceof SubProtocolWebSocketHandler handler)) {
+                return;
+            }
+            handler.getProtocolHandlers().stream()
+                    .filter(StompSubProtocolHandler.class::isInstance)
+                    .forEach(stompHandler -> ((StompSubProtocolHandler) stompHandler).setEncoder(sharedFrameEncoder));
+            log.info("Broadcast frames are encoded once and shared by their subscribers");
+        };
+    }
+
+    private static Executor virtualThreadExecutor(String threadNamePrefix) {
+        if (Runtime.version().feature() < 21) {
+            throw new IllegalStateException("chat.websocket.virtual-threads requires Java 21 or later, running on "
+                    + Runtime.version());
+        }
+        return new VirtualThreadTaskExecutor(threadNamePrefix);
     }
 }
-// END
\ No newline at end of file
+// END
@@ -1,8 +1,11 @@
 package com.hartmann.onlinechat.config;
 
 
+import com.hartmann.onlinechat.audit.AuditEvent;
+import com.hartmann.onlinechat.audit.AuditLog;
 import com.hartmann.onlinechat.chat.ChatMessage;
 import com.hartmann.onlinechat.chat.MessageType;
+import com.hartmann.onlinechat.cluster.ClusterService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.event.EventListener;
@@ -17,18 +20,21 @@ import org.springframework.web.socket.messaging.SessionDisconnectEvent;
 public class WebSocketEventListener {
 
     private final SimpMessageSendingOperations messageTemplate;
+    private final ClusterService clusterService;
+    private final AuditLog auditLog;
 
     @EventListener
     public void handleWebSocketDisconnectListener(SessionDisconnectEvent event) {
         StompHeaderAccessor headerAccessor = StompHeaderAccessor.wrap(event.getMessage());
         String username = (String) headerAccessor.getSessionAttributes().get("username");
         if (username != null) {
-            log.info("User Disconnected : " + username);
+            auditLog.record(AuditEvent.Type.LEAVE, headerAccessor.getSessionId(), username, null, null);
             var chatMessage = ChatMessage.builder()
                     .type(MessageType.LEAVE)
                     .sender(username)
                     .build();
             messageTemplate.convertAndSend("/topic/public", chatMessage);
+            clusterService.publish("/topic/public", chatMessage);
 
         }
     }
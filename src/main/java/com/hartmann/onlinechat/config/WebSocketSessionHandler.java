@@ -26,7 +26,7 @@ public class WebSocketSessionHandler {
         StompHeaderAccessor headerAccessor = StompHeaderAccessor.wrap(event.getMessage());
         String sessionId = headerAccessor.getSessionId();
         
-        log.info("New WebSocket session connected: {}", sessionId);
+        log.debug("New WebSocket session connected: {}", sessionId);
         log.debug("Session details - ID: {}, User: {}", 
                 sessionId, 
                 headerAccessor.getUser());
@@ -0,0 +1,70 @@
+package com.hartmann.onlinechat.history;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * REST endpoint serving chat history backfill by offset range.
+ * Stored JSON records are streamed to the response as-is, without decoding
+ * them into ChatMessage objects.
+ *
+ * Response: {"records":[{"offset":..,"timestamp":..,"message":{..}},..],"nextOffset":..}
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@RestController
+@RequiredArgsConstructor
+public class ChatHistoryController {
+
+    private static final int MAX_LIMIT = 1000;
+
+    private final ChatHistoryStore historyStore;
+
+    @GetMapping("/api/history")
+    public ResponseEntity<StreamingResponseBody> history(@RequestParam(defaultValue = "0") long from,
+            @RequestParam(defaultValue = "100") int limit) {
+        int maxRecords = Math.max(0, Math.min(limit, MAX_LIMIT));
+
+        StreamingResponseBody body = out -> {
+            WritableByteChannel channel = Channels.newChannel(out);
+            write(out, "{\"records\":[");
+            boolean[] first = { true };
+            long nextOffset;
+            try {
+                nextOffset = historyStore.read(from, maxRecords, (offset, timestamp, payload) -> {
+                    try {
+                        write(out, (first[0] ? "" : ",") + "{\"offset\":" + offset + ",\"timestamp\":" + timestamp
+                                + ",\"message\":");
+                        channel.write(payload);
+                        write(out, "}");
+                        first[0] = false;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            write(out, "],\"nextOffset\":" + nextOffset + "}");
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    private static void write(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
+// END
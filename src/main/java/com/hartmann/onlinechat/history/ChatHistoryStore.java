@@ -0,0 +1,264 @@
+package com.hartmann.onlinechat.history;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hartmann.onlinechat.chat.ChatMessage;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Durable, append-only log of public chat messages.
+ * Messages are stored as JSON records in memory-mapped segment files and
+ * addressed by monotonically increasing offsets. Writes go to the page cache;
+ * a background task fsyncs the active segment once per interval. Segments roll
+ * when full and are deleted oldest-first once the log exceeds its size or age
+ * retention. On startup every segment is scanned and a torn tail is truncated.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@Component
+@Slf4j
+public class ChatHistoryStore {
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long retentionBytes;
+    private final Duration retentionAge;
+    private final ObjectMapper objectMapper;
+    private final ScheduledExecutorService scheduler;
+
+    // Base offset -> segment; the last entry is the active segment
+    private final ConcurrentSkipListMap<Long, LogSegment> segments = new ConcurrentSkipListMap<>();
+    private final Object writeLock = new Object();
+    private LogSegment active;
+
+    public ChatHistoryStore(@Value("${chat.history.dir:data/history}") Path directory,
+            @Value("${chat.history.segment-bytes:16777216}") int segmentBytes,
+            @Value("${chat.history.retention-bytes:1073741824}") long retentionBytes,
+            @Value("${chat.history.retention-hours:168}") long retentionHours,
+            @Value("${chat.history.fsync-interval-ms:1000}") long fsyncIntervalMs,
+            ObjectMapper objectMapper) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.retentionBytes = retentionBytes;
+        this.retentionAge = Duration.ofHours(retentionHours);
+        this.objectMapper = objectMapper;
+
+        Files.createDirectories(directory);
+        recoverSegments();
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-history-fsync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (fsyncIntervalMs > 0) {
+            scheduler.scheduleWithFixedDelay(this::flush, fsyncIntervalMs, fsyncIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        scheduler.scheduleWithFixedDelay(this::enforceRetention, 1, 1, TimeUnit.MINUTES);
+    }
+
+    private void recoverSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(f -> f.getFileName().toString().endsWith(LogSegment.FILE_SUFFIX))
+                    .sorted().toList()) {
+                LogSegment segment = LogSegment.open(file, segmentBytes);
+                segments.put(segment.baseOffset(), segment);
+            }
+        }
+        if (segments.isEmpty()) {
+            active = LogSegment.create(directory, 0, segmentBytes);
+            segments.put(0L, active);
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+        log.info("Chat history opened at {}: {} segment(s), next offset {}", directory, segments.size(),
+                active.nextOffset());
+    }
+
+    /**
+     * Appends a public chat message to the log.
+     *
+     * @param message The message to store
+     * @return The offset assigned to the message
+     */
+    public long append(ChatMessage message) {
+        byte[] payload;
+        try {
+            payload = objectMapper.writeValueAsBytes(message);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long timestamp = System.currentTimeMillis();
+
+        synchronized (writeLock) {
+            long offset = active.append(payload, timestamp);
+            if (offset < 0) {
+                roll();
+                offset = active.append(payload, timestamp);
+                if (offset < 0) {
+                    throw new IllegalArgumentException("Message of " + payload.length
+                            + " bytes does not fit in a history segment");
+                }
+            }
+            return offset;
+        }
+    }
+
+    // Caller holds writeLock
+    private void roll() {
+        try {
+            LogSegment previous = active;
+            active = LogSegment.create(directory, previous.nextOffset(), segmentBytes);
+            segments.put(active.baseOffset(), active);
+            log.info("Rolled chat history segment at offset {}", active.baseOffset());
+            // The fsync of the full segment must not hold up appends to the new one
+            try {
+                scheduler.execute(previous::flush);
+            } catch (RejectedExecutionException e) {
+                // Shutting down: close() forces every segment
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        enforceRetention();
+    }
+
+    /**
+     * Visits stored records from the given offset without decoding them.
+     * Payloads are views of the mapped segments, so backfill can be written to
+     * a socket without building a ChatMessage per record.
+     *
+     * @param fromOffset First offset to read (clamped to the oldest retained record)
+     * @param maxRecords Maximum number of records to visit
+     * @param visitor    Callback receiving each record
+     * @return The offset following the last visited record
+     */
+    public long read(long fromOffset, int maxRecords, HistoryRecordVisitor visitor) {
+        long offset = Math.max(fromOffset, getFirstOffset());
+        int remaining = maxRecords;
+        Map.Entry<Long, LogSegment> entry = segments.floorEntry(offset);
+        if (entry == null) {
+            entry = segments.firstEntry();
+        }
+        while (entry != null && remaining > 0) {
+            LogSegment segment = entry.getValue();
+            offset = Math.max(offset, segment.baseOffset());
+            int visited = segment.read(offset, remaining, visitor);
+            remaining -= visited;
+            offset += visited;
+            entry = segments.higherEntry(entry.getKey());
+        }
+        return offset;
+    }
+
+    /**
+     * Reads and decodes stored messages from the given offset.
+     *
+     * @param fromOffset First offset to read
+     * @param maxRecords Maximum number of messages to return
+     * @return The decoded messages in offset order
+     */
+    public List<ChatMessage> readMessages(long fromOffset, int maxRecords) {
+        List<ChatMessage> messages = new ArrayList<>();
+        read(fromOffset, maxRecords, (offset, timestamp, payload) -> messages.add(decode(payload)));
+        return messages;
+    }
+
+    private ChatMessage decode(ByteBuffer payload) {
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        try {
+            return objectMapper.readValue(bytes, ChatMessage.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return The oldest offset still retained
+     */
+    public long getFirstOffset() {
+        return segments.firstKey();
+    }
+
+    /**
+     * @return The offset the next appended message will get
+     */
+    public long getNextOffset() {
+        synchronized (writeLock) {
+            return active.nextOffset();
+        }
+    }
+
+    /**
+     * Forces the active segment to disk. Called periodically so fsync cost is
+     * paid once per interval instead of once per message. The fsync runs
+     * outside the write lock, so appends are not blocked while it lasts.
+     */
+    public void flush() {
+        LogSegment segment;
+        synchronized (writeLock) {
+            segment = active;
+        }
+        segment.flush();
+    }
+
+    /**
+     * Deletes the oldest closed segments while the log is over its size budget
+     * or their newest record is older than the retention age.
+     */
+    void enforceRetention() {
+        synchronized (writeLock) {
+            long totalBytes = segments.values().stream().mapToLong(LogSegment::sizeInBytes).sum();
+            long cutoff = System.currentTimeMillis() - retentionAge.toMillis();
+            Map.Entry<Long, LogSegment> oldest = segments.firstEntry();
+            while (oldest != null && oldest.getValue() != active
+                    && (totalBytes > retentionBytes || oldest.getValue().lastTimestamp() < cutoff)) {
+                LogSegment segment = oldest.getValue();
+                segments.remove(oldest.getKey());
+                totalBytes -= segment.sizeInBytes();
+                try {
+                    segment.delete();
+                    log.info("Deleted chat history segment at offset {}", segment.baseOffset());
+                } catch (IOException e) {
+                    log.error("Failed to delete chat history segment at offset {}", segment.baseOffset(), e);
+                }
+                oldest = segments.firstEntry();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+        synchronized (writeLock) {
+            for (LogSegment segment : segments.values()) {
+                try {
+                    segment.close();
+                } catch (IOException e) {
+                    log.error("Failed to close chat history segment at offset {}", segment.baseOffset(), e);
+                }
+            }
+        }
+    }
+}
+// END
@@ -0,0 +1,23 @@
+package com.hartmann.onlinechat.history;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Callback for reading raw records from the chat history log.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@FunctionalInterface
+public interface HistoryRecordVisitor {
+
+    /**
+     * Visits a single stored record.
+     *
+     * @param offset    The record's log offset
+     * @param timestamp The append time in epoch milliseconds
+     * @param payload   Read-only view of the JSON-encoded ChatMessage; only valid during the call
+     */
+    void visit(long offset, long timestamp, ByteBuffer payload);
+}
+// END
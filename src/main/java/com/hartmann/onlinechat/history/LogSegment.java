@@ -0,0 +1,212 @@
+package com.hartmann.onlinechat.history;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * One memory-mapped file of the chat history log.
+ * Records are laid out back to back as [length][crc32][timestamp][payload];
+ * a zero length marks the end of the written region. The segment is written
+ * by a single thread and read concurrently: a record becomes visible to
+ * readers only after the volatile record count is published.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@Slf4j
+class LogSegment {
+
+    static final int HEADER_BYTES = Integer.BYTES + Integer.BYTES + Long.BYTES;
+    static final String FILE_SUFFIX = ".log";
+
+    private final Path path;
+    private final long baseOffset;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    // Record index -> byte position, published through recordCount
+    private volatile int[] positions = new int[1024];
+    private volatile int recordCount;
+    private int writePosition;
+    private volatile long lastTimestamp;
+    // Set by the writer, cleared by flush(), which runs outside the store's write lock
+    private volatile boolean dirty;
+
+    private LogSegment(Path path, long baseOffset, int capacity) throws IOException {
+        this.path = path;
+        this.baseOffset = baseOffset;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(capacity, channel.size()));
+    }
+
+    static LogSegment create(Path directory, long baseOffset, int capacity) throws IOException {
+        return new LogSegment(directory.resolve(fileName(baseOffset)), baseOffset, capacity);
+    }
+
+    /**
+     * Opens an existing segment and scans it, truncating a torn or corrupt
+     * tail left behind by a crash.
+     */
+    static LogSegment open(Path path, int capacity) throws IOException {
+        String name = path.getFileName().toString();
+        long baseOffset = Long.parseLong(name.substring(0, name.length() - FILE_SUFFIX.length()));
+        LogSegment segment = new LogSegment(path, baseOffset, capacity);
+        segment.recover();
+        return segment;
+    }
+
+    static String fileName(long baseOffset) {
+        return String.format("%020d%s", baseOffset, FILE_SUFFIX);
+    }
+
+    private void recover() {
+        int position = 0;
+        int limit = buffer.capacity();
+        while (position + HEADER_BYTES <= limit) {
+            int length = buffer.getInt(position);
+            // Compared as a remainder: position + HEADER_BYTES + length overflows for a huge corrupt length
+            if (length <= 0 || length > limit - position - HEADER_BYTES) {
+                break;
+            }
+            int crc = buffer.getInt(position + Integer.BYTES);
+            if (crc != checksum(buffer, position + HEADER_BYTES, length)) {
+                break;
+            }
+            lastTimestamp = buffer.getLong(position + 2 * Integer.BYTES);
+            addPosition(position);
+            position += HEADER_BYTES + length;
+        }
+        writePosition = position;
+
+        // Zero out anything past the last valid record so it can't be mistaken for data later
+        boolean truncated = false;
+        for (int i = position; i < limit; i++) {
+            if (buffer.get(i) != 0) {
+                buffer.put(i, (byte) 0);
+                truncated = true;
+            }
+        }
+        if (truncated) {
+            log.warn("Recovered history segment {}: truncated corrupt tail at byte {}", path.getFileName(), position);
+            buffer.force();
+        }
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @return the record's offset, or -1 if the segment has no room left
+     */
+    long append(byte[] payload, long timestamp) {
+        if (writePosition + HEADER_BYTES + payload.length + Integer.BYTES > buffer.capacity()) {
+            return -1;
+        }
+        int position = writePosition;
+        buffer.putInt(position + Integer.BYTES, checksum(payload));
+        buffer.putLong(position + 2 * Integer.BYTES, timestamp);
+        buffer.put(position + HEADER_BYTES, payload);
+        // Length last: a crash before this point leaves a zero length, i.e. no record
+        buffer.putInt(position, payload.length);
+
+        writePosition = position + HEADER_BYTES + payload.length;
+        lastTimestamp = timestamp;
+        dirty = true;
+        addPosition(position);
+        return baseOffset + recordCount - 1;
+    }
+
+    private void addPosition(int position) {
+        int count = recordCount;
+        int[] current = positions;
+        if (count == current.length) {
+            current = Arrays.copyOf(current, count * 2);
+            current[count] = position;
+            positions = current;
+        } else {
+            current[count] = position;
+        }
+        recordCount = count + 1;
+    }
+
+    /**
+     * Visits records starting at the given offset. Payloads are read-only views
+     * of the mapped file; no bytes are copied onto the heap.
+     *
+     * @return the number of records visited
+     */
+    int read(long fromOffset, int maxRecords, HistoryRecordVisitor visitor) {
+        int count = recordCount;
+        int[] index = positions;
+        int start = (int) Math.max(0, fromOffset - baseOffset);
+        int end = (int) Math.min(count, (long) start + maxRecords);
+        ByteBuffer view = buffer.asReadOnlyBuffer();
+        for (int i = start; i < end; i++) {
+            int position = index[i];
+            int length = view.getInt(position);
+            long timestamp = view.getLong(position + 2 * Integer.BYTES);
+            ByteBuffer payload = view.slice(position + HEADER_BYTES, length);
+            visitor.visit(baseOffset + i, timestamp, payload);
+        }
+        return Math.max(0, end - start);
+    }
+
+    /**
+     * Forces written records to disk if anything changed since the last flush.
+     * Safe to call while records are appended; those are forced by the next flush.
+     */
+    void flush() {
+        if (dirty) {
+            dirty = false;
+            buffer.force();
+        }
+    }
+
+    void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    void delete() throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+
+    long baseOffset() {
+        return baseOffset;
+    }
+
+    long nextOffset() {
+        return baseOffset + recordCount;
+    }
+
+    long sizeInBytes() {
+        return writePosition;
+    }
+
+    long lastTimestamp() {
+        return lastTimestamp;
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static int checksum(ByteBuffer buffer, int position, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(position, length));
+        return (int) crc.getValue();
+    }
+}
+// END
@@ -0,0 +1,93 @@
+package com.hartmann.onlinechat.history;
+
+import com.hartmann.onlinechat.chat.ChatMessage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-capacity, lock-free ring buffer of the most recent public messages,
+ * replayed to users when they join.
+ * Publishing is wait-free: one atomic increment claims a sequence number and
+ * one compare-and-set attempt fills its slot. Readers validate each slot's
+ * sequence, so a slot that is overwritten or not yet filled during a snapshot
+ * is skipped instead of blocking the writer. Memory is bounded by the capacity regardless of traffic.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@Component
+public class RecentMessageBuffer {
+
+    private record Slot(long sequence, ChatMessage message) {
+    }
+
+    private final AtomicReferenceArray<Slot> slots;
+    private final int mask;
+    private final int capacity;
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    public RecentMessageBuffer(@Value("${chat.history.replay-size:50}") int capacity) {
+        // Round the slot array up to a power of two so the index is a mask, not a modulo
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.capacity = Math.max(1, capacity);
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds a message, overwriting the oldest one once the buffer is full.
+     *
+     * @param message The public message to remember
+     */
+    public void publish(ChatMessage message) {
+        store(nextSequence.getAndIncrement(), message);
+    }
+
+    /**
+     * Fills the slot of a claimed sequence with a single compare-and-set. A
+     * writer stalled for a full lap must not overwrite the newer message now in
+     * its slot, so the store is skipped once the slot holds a later sequence. If
+     * the compare-and-set loses to another writer of the same slot, the message
+     * is dropped from the replay rather than retried.
+     */
+    void store(long sequence, ChatMessage message) {
+        int index = (int) (sequence & mask);
+        Slot current = slots.get(index);
+        if (current == null || current.sequence() < sequence) {
+            slots.compareAndSet(index, current, new Slot(sequence, message));
+        }
+    }
+
+    /** Claims the next sequence without filling its slot, as a stalled writer would. */
+    long claim() {
+        return nextSequence.getAndIncrement();
+    }
+
+    /**
+     * Returns the buffered messages, oldest first.
+     *
+     * @return Up to capacity recent messages
+     */
+    public List<ChatMessage> snapshot() {
+        long end = nextSequence.get();
+        long start = Math.max(0, end - capacity);
+        List<ChatMessage> messages = new ArrayList<>((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            Slot slot = slots.get((int) (sequence & mask));
+            if (slot != null && slot.sequence() == sequence) {
+                messages.add(slot.message());
+            }
+        }
+        return messages;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
+// END
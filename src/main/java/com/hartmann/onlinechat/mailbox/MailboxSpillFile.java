@@ -0,0 +1,161 @@
+package com.hartmann.onlinechat.mailbox;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only overflow storage for queued direct messages that do not fit in
+ * the mailbox memory budget. Records are plain payloads addressed by a
+ * {@link Location} and length; the mailbox keeps those, so the files need no
+ * index or framing. Records go to rolling segment files ({@code <file>.0},
+ * {@code <file>.1}, ...) of about chat.mailbox.spill-segment-bytes each. Every
+ * segment counts its queued records and is deleted as soon as none are left,
+ * so one message that is never picked up pins a single segment rather than
+ * all the space spilled after it. Leftover segments are deleted on startup.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+final class MailboxSpillFile implements Closeable {
+
+    /** Where a spilled record lives. */
+    record Location(Segment segment, long position) {
+    }
+
+    /** One segment file; guarded by the spill file's monitor. */
+    static final class Segment {
+
+        private final Path file;
+        private final FileChannel channel;
+        private long size;
+        private int liveRecords;
+
+        private Segment(Path file, FileChannel channel) {
+            this.file = file;
+            this.channel = channel;
+        }
+    }
+
+    private final Path directory;
+    private final String baseName;
+    private final long maxBytes;
+    private final long segmentBytes;
+    private final List<Segment> segments = new ArrayList<>();
+    private Segment active;
+    private long nextSegment;
+    private long size;
+
+    private MailboxSpillFile(Path directory, String baseName, long maxBytes, long segmentBytes) {
+        this.directory = directory;
+        this.baseName = baseName;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = Math.max(1, segmentBytes);
+    }
+
+    static MailboxSpillFile open(Path file, long maxBytes, long segmentBytes) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        Files.createDirectories(absolute.getParent());
+        MailboxSpillFile spillFile = new MailboxSpillFile(absolute.getParent(), absolute.getFileName().toString(),
+                maxBytes, segmentBytes);
+        spillFile.deleteLeftoverSegments();
+        spillFile.active = spillFile.newSegment();
+        return spillFile;
+    }
+
+    private void deleteLeftoverSegments() throws IOException {
+        String prefix = baseName + ".";
+        DirectoryStream.Filter<Path> filter = path -> {
+            String name = path.getFileName().toString();
+            return name.startsWith(prefix) && name.length() > prefix.length()
+                    && name.substring(prefix.length()).chars().allMatch(Character::isDigit);
+        };
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(directory, filter)) {
+            for (Path leftover : leftovers) {
+                Files.delete(leftover);
+            }
+        }
+    }
+
+    private Segment newSegment() throws IOException {
+        Path file = directory.resolve(baseName + "." + nextSegment++);
+        Segment segment = new Segment(file, FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+        segments.add(segment);
+        return segment;
+    }
+
+    /**
+     * Appends a record, starting a new segment once the current one is full.
+     *
+     * @return Its location, or null if the segments together would grow beyond their limit
+     */
+    synchronized Location append(byte[] payload) throws IOException {
+        if (size + payload.length > maxBytes) {
+            return null;
+        }
+        if (active.size > 0 && active.size + payload.length > segmentBytes) {
+            active = newSegment();
+        }
+        long position = active.size;
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        while (buffer.hasRemaining()) {
+            active.channel.write(buffer, position + buffer.position());
+        }
+        active.size += payload.length;
+        active.liveRecords++;
+        size += payload.length;
+        return new Location(active, position);
+    }
+
+    synchronized byte[] read(Location location, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (location.segment().channel.read(buffer, location.position() + buffer.position()) < 0) {
+                throw new IOException("Mailbox spill segment ends inside a record at " + location.position());
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Marks a record as delivered or expired. A segment is deleted once no record
+     * in it is left; the current segment is emptied and reused instead.
+     */
+    synchronized void release(Location location) throws IOException {
+        Segment segment = location.segment();
+        if (--segment.liveRecords > 0) {
+            return;
+        }
+        segment.liveRecords = 0;
+        size -= segment.size;
+        segment.size = 0;
+        if (segment == active) {
+            segment.channel.truncate(0);
+            return;
+        }
+        segments.remove(segment);
+        segment.channel.close();
+        Files.deleteIfExists(segment.file);
+    }
+
+    /** Bytes in all segments, including delivered records of segments that still hold queued ones. */
+    synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments) {
+            segment.channel.close();
+        }
+    }
+}
+// END
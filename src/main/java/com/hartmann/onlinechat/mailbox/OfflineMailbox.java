@@ -0,0 +1,389 @@
+package com.hartmann.onlinechat.mailbox;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hartmann.onlinechat.chat.ChatMessage;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Store-and-forward mailboxes for direct messages to users who are offline.
+ * Messages are kept per recipient (case-insensitive, like the username index)
+ * as encoded JSON, in order. They stay in memory while all mailboxes together
+ * hold less than chat.mailbox.memory-bytes; beyond that they are appended to a
+ * {@link MailboxSpillFile}, in segments that are deleted once fully delivered
+ * or expired, and read back on delivery. Each recipient may have
+ * at most chat.mailbox.max-messages-per-user messages and
+ * chat.mailbox.max-bytes-per-user bytes queued, each sender at most
+ * chat.mailbox.max-messages-per-sender messages across all mailboxes, and a
+ * message expires after chat.mailbox.ttl-hours. Messages are only queued for
+ * users who left this node within the time to live, so nobody can fill the
+ * shared budget by writing to made-up names. A background sweep drops expired
+ * messages, empty mailboxes and users not seen for longer than that.
+ * <p>
+ * Mailboxes live on the node that accepted the message and do not survive a
+ * restart; the spill file is only overflow storage.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@Component
+@Slf4j
+public class OfflineMailbox {
+
+    private final boolean enabled;
+    private final int maxMessagesPerUser;
+    private final int maxMessagesPerSender;
+    private final long maxBytesPerUser;
+    private final long memoryBytes;
+    private final long ttlMillis;
+    private final ObjectMapper objectMapper;
+    private final MailboxSpillFile spillFile;
+    private final ScheduledExecutorService sweeper;
+
+    private final Map<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    // Users who left, until when messages to them are still accepted
+    private final Map<String, Long> seenUntil = new ConcurrentHashMap<>();
+    private final Map<String, Integer> queuedBySender = new ConcurrentHashMap<>();
+    private final AtomicLong memoryUsed = new AtomicLong();
+    private final AtomicLong queuedMessages = new AtomicLong();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public OfflineMailbox(ObjectMapper objectMapper,
+            @Value("${chat.mailbox.enabled:true}") boolean enabled,
+            @Value("${chat.mailbox.spill-file:data/mailbox/spill.dat}") Path spillFile,
+            @Value("${chat.mailbox.memory-bytes:4194304}") long memoryBytes,
+            @Value("${chat.mailbox.spill-max-bytes:268435456}") long spillMaxBytes,
+            @Value("${chat.mailbox.spill-segment-bytes:16777216}") long spillSegmentBytes,
+            @Value("${chat.mailbox.max-messages-per-user:200}") int maxMessagesPerUser,
+            @Value("${chat.mailbox.max-bytes-per-user:262144}") long maxBytesPerUser,
+            @Value("${chat.mailbox.max-messages-per-sender:1000}") int maxMessagesPerSender,
+            @Value("${chat.mailbox.ttl-hours:72}") long ttlHours) throws IOException {
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.memoryBytes = memoryBytes;
+        this.maxMessagesPerUser = maxMessagesPerUser;
+        this.maxMessagesPerSender = maxMessagesPerSender;
+        this.maxBytesPerUser = maxBytesPerUser;
+        this.ttlMillis = TimeUnit.HOURS.toMillis(ttlHours);
+        if (!enabled) {
+            this.spillFile = null;
+            this.sweeper = null;
+            return;
+        }
+
+        this.spillFile = MailboxSpillFile.open(spillFile, spillMaxBytes, spillSegmentBytes);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mailbox-sweep");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(() -> sweep(System.currentTimeMillis()), 1, 1, TimeUnit.MINUTES);
+        log.info("Offline mailboxes enabled ({} bytes in memory, spilling to {})", memoryBytes, spillFile);
+    }
+
+    /**
+     * Records that a user left, so direct messages to them are queued for the
+     * next chat.mailbox.ttl-hours.
+     *
+     * @param username The user who disconnected
+     */
+    public void userLeft(String username) {
+        userLeft(username, System.currentTimeMillis());
+    }
+
+    void userLeft(String username, long now) {
+        String key = normalize(username);
+        if (enabled && key != null && !key.isEmpty()) {
+            seenUntil.put(key, now + ttlMillis);
+        }
+    }
+
+    /**
+     * Queues a direct message for a recipient who is not connected.
+     *
+     * @param recipient The recipient's username
+     * @param message   The message, delivered as it is
+     * @return false if mailboxes are disabled, the recipient has not been seen
+     *         recently, or the recipient's or sender's quota or the spill file is full
+     */
+    public boolean offer(String recipient, ChatMessage message) {
+        return offer(recipient, message, System.currentTimeMillis());
+    }
+
+    boolean offer(String recipient, ChatMessage message, long now) {
+        String key = normalize(recipient);
+        if (!enabled || key == null || key.isEmpty()) {
+            return false;
+        }
+        Long until = seenUntil.get(key);
+        if (until == null || until <= now) {
+            return false;
+        }
+        String sender = normalize(message.getSender());
+        if (sender == null) {
+            sender = "";
+        }
+        byte[] payload;
+        try {
+            payload = objectMapper.writeValueAsBytes(message);
+        } catch (IOException e) {
+            log.error("Failed to encode a direct message for {}", recipient, e);
+            rejected.increment();
+            return false;
+        }
+        while (true) {
+            Mailbox mailbox = mailboxes.computeIfAbsent(key, k -> new Mailbox());
+            synchronized (mailbox) {
+                if (mailbox.closed) {
+                    // Drained or swept away since the lookup; queue into a fresh one
+                    continue;
+                }
+                if (mailbox.entries.size() >= maxMessagesPerUser || mailbox.bytes + payload.length > maxBytesPerUser) {
+                    rejected.increment();
+                    return false;
+                }
+                if (!claimSender(sender)) {
+                    rejected.increment();
+                    return false;
+                }
+                Entry entry = store(sender, payload, now + ttlMillis);
+                if (entry == null) {
+                    releaseSender(sender);
+                    rejected.increment();
+                    return false;
+                }
+                mailbox.entries.addLast(entry);
+                mailbox.bytes += payload.length;
+                queuedMessages.incrementAndGet();
+                accepted.increment();
+                return true;
+            }
+        }
+    }
+
+    /** Keeps the payload in memory if the budget allows, otherwise appends it to the spill file. */
+    private Entry store(String sender, byte[] payload, long expiresAt) {
+        if (memoryUsed.addAndGet(payload.length) <= memoryBytes) {
+            return new Entry(sender, expiresAt, payload, null, payload.length);
+        }
+        memoryUsed.addAndGet(-payload.length);
+        try {
+            MailboxSpillFile.Location location = spillFile.append(payload);
+            if (location == null) {
+                log.warn("Mailbox spill file is full, rejecting a direct message");
+                return null;
+            }
+            spilled.increment();
+            return new Entry(sender, expiresAt, null, location, payload.length);
+        } catch (IOException e) {
+            log.error("Failed to spill a direct message to disk", e);
+            return null;
+        }
+    }
+
+    /**
+     * Removes and returns everything queued for a user, oldest first, without expired messages.
+     *
+     * @param username The user who just joined
+     * @return The queued messages, possibly empty
+     */
+    public List<ChatMessage> drain(String username) {
+        return drain(username, System.currentTimeMillis());
+    }
+
+    List<ChatMessage> drain(String username, long now) {
+        String key = normalize(username);
+        Mailbox mailbox = key != null ? mailboxes.remove(key) : null;
+        if (mailbox == null) {
+            return List.of();
+        }
+        List<Entry> entries;
+        synchronized (mailbox) {
+            mailbox.closed = true;
+            entries = new ArrayList<>(mailbox.entries);
+            mailbox.entries.clear();
+        }
+
+        List<ChatMessage> messages = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            if (entry.expiresAt() <= now) {
+                expired.increment();
+                continue;
+            }
+            try {
+                messages.add(objectMapper.readValue(payloadOf(entry), ChatMessage.class));
+            } catch (IOException e) {
+                log.error("Failed to read a queued direct message for {}", username, e);
+            }
+        }
+        release(entries);
+        delivered.add(messages.size());
+        return messages;
+    }
+
+    private byte[] payloadOf(Entry entry) throws IOException {
+        return entry.payload() != null ? entry.payload() : spillFile.read(entry.location(), entry.length());
+    }
+
+    /** Drops expired messages, empty mailboxes and users not seen within the time to live. */
+    void sweep(long now) {
+        seenUntil.values().removeIf(until -> until <= now);
+        for (Map.Entry<String, Mailbox> slot : mailboxes.entrySet()) {
+            Mailbox mailbox = slot.getValue();
+            List<Entry> dropped = new ArrayList<>();
+            synchronized (mailbox) {
+                Iterator<Entry> entries = mailbox.entries.iterator();
+                while (entries.hasNext()) {
+                    Entry entry = entries.next();
+                    if (entry.expiresAt() <= now) {
+                        entries.remove();
+                        mailbox.bytes -= entry.length();
+                        dropped.add(entry);
+                    }
+                }
+                if (mailbox.entries.isEmpty() && mailboxes.remove(slot.getKey(), mailbox)) {
+                    mailbox.closed = true;
+                }
+            }
+            expired.add(dropped.size());
+            release(dropped);
+        }
+    }
+
+    /** Returns the memory or spill file space of entries that left their mailbox. */
+    private void release(List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        long bytes = 0;
+        for (Entry entry : entries) {
+            releaseSender(entry.sender());
+            if (entry.payload() != null) {
+                bytes += entry.length();
+                continue;
+            }
+            try {
+                spillFile.release(entry.location());
+            } catch (IOException e) {
+                log.error("Failed to release a mailbox spill segment", e);
+            }
+        }
+        memoryUsed.addAndGet(-bytes);
+        queuedMessages.addAndGet(-entries.size());
+    }
+
+    /** Counts one more queued message for a sender, unless they are at their quota. */
+    private boolean claimSender(String sender) {
+        boolean[] claimed = new boolean[1];
+        queuedBySender.compute(sender, (k, queued) -> {
+            int count = queued != null ? queued : 0;
+            if (count >= maxMessagesPerSender) {
+                return queued;
+            }
+            claimed[0] = true;
+            return count + 1;
+        });
+        return claimed[0];
+    }
+
+    /** Takes one message off a sender's count, dropping the count once it is zero. */
+    private void releaseSender(String sender) {
+        queuedBySender.computeIfPresent(sender, (k, queued) -> queued > 1 ? queued - 1 : null);
+    }
+
+    private static String normalize(String username) {
+        return username != null ? username.trim().toLowerCase(Locale.ROOT) : null;
+    }
+
+    /** Messages waiting in mailboxes. */
+    public long getQueuedMessages() {
+        return queuedMessages.get();
+    }
+
+    /** Recipients with at least one queued message. */
+    public int getMailboxes() {
+        return mailboxes.size();
+    }
+
+    /** Bytes of queued messages held in memory. */
+    public long getMemoryBytes() {
+        return memoryUsed.get();
+    }
+
+    /** Bytes in spill segments, including delivered records of segments that still hold queued ones. */
+    public long getSpillBytes() {
+        return spillFile != null ? spillFile.size() : 0;
+    }
+
+    /** Messages accepted into a mailbox. */
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    /** Accepted messages that were written to the spill file. */
+    public long getSpilled() {
+        return spilled.sum();
+    }
+
+    /** Messages handed out for delivery. */
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    /** Messages dropped after their time to live. */
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    /** Messages refused by a quota, a full spill file or an error. */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @PreDestroy
+    public void close() {
+        if (sweeper == null) {
+            return;
+        }
+        sweeper.shutdownNow();
+        try {
+            spillFile.close();
+        } catch (IOException e) {
+            log.error("Failed to close the mailbox spill file", e);
+        }
+    }
+
+    /** The queued messages of one recipient; guarded by its own monitor. */
+    private static final class Mailbox {
+
+        private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+        private long bytes;
+        private boolean closed;
+    }
+
+    /** A queued message, held in memory ({@code payload}) or in the spill file at {@code location}. */
+    private record Entry(String sender, long expiresAt, byte[] payload, MailboxSpillFile.Location location, int length) {
+    }
+}
+// END
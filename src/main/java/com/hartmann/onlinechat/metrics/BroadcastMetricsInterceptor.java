@@ -0,0 +1,101 @@
+package com.hartmann.onlinechat.metrics;
+
+import com.hartmann.onlinechat.service.PresenceBroadcaster;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Measures broker fan-out. Installed on the broker channel, it times each
+ * broadcast while the simple broker dispatches it; the interceptor returned
+ * by {@link #outboundInterceptor()} is installed on the client outbound
+ * channel and counts the session frames produced meanwhile. Both run on the
+ * sending thread, because the broker channel dispatches synchronously.
+ * /user/ destinations are not recorded themselves: they are translated and
+ * re-sent to the broker channel, where the nested send is recorded as private.
+ * With chat.websocket.virtual-threads, frames queued behind a session's pending
+ * frames are sent later from another thread, so fan-out counts are a lower bound.
+ * Messages held back for a batch frame (see {@code FrameBatcher}) are not
+ * frames yet and are not counted either.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@Component
+public class BroadcastMetricsInterceptor implements ChannelInterceptor {
+
+    // Marks broker messages that are not measured, so push and pop stay balanced
+    private static final Fanout UNTRACKED = new Fanout(null, 0);
+
+    private final ChatMetrics chatMetrics;
+    private final ThreadLocal<Deque<Fanout>> inProgress = ThreadLocal.withInitial(ArrayDeque::new);
+    private final ChannelInterceptor outboundInterceptor = new ChannelInterceptor() {
+        @Override
+        public Message<?> preSend(Message<?> message, MessageChannel channel) {
+            Fanout fanout = inProgress.get().peek();
+            if (fanout != null && fanout != UNTRACKED) {
+                fanout.recipients++;
+            }
+            return message;
+        }
+    };
+
+    public BroadcastMetricsInterceptor(ChatMetrics chatMetrics) {
+        this.chatMetrics = chatMetrics;
+    }
+
+    /** Interceptor for the client outbound channel that counts frames per broadcast. */
+    public ChannelInterceptor outboundInterceptor() {
+        return outboundInterceptor;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        String destination = destinationKind(message);
+        inProgress.get().push(destination != null ? new Fanout(destination, System.nanoTime()) : UNTRACKED);
+        return message;
+    }
+
+    @Override
+    public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent, Exception ex) {
+        Fanout fanout = inProgress.get().pop();
+        if (fanout != UNTRACKED) {
+            chatMetrics.fanoutCompleted(fanout.destination, fanout.recipients, System.nanoTime() - fanout.startNanos);
+        }
+    }
+
+    private static String destinationKind(Message<?> message) {
+        if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE) {
+            return null;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (destination == null || destination.startsWith("/user/")) {
+            return null;
+        }
+        if (destination.equals("/topic/public")) {
+            return "public";
+        }
+        if (destination.startsWith(PresenceBroadcaster.ROOM_TOPIC_PREFIX)) {
+            return "room";
+        }
+        return destination.startsWith("/queue/") ? "private" : "other";
+    }
+
+    private static final class Fanout {
+        private final String destination;
+        private final long startNanos;
+        private int recipients;
+
+        private Fanout(String destination, long startNanos) {
+            this.destination = destination;
+            this.startNanos = startNanos;
+        }
+    }
+}
+// END
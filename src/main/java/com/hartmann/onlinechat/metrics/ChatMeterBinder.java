@@ -0,0 +1,301 @@
+package com.hartmann.onlinechat.metrics;
+
+import com.hartmann.onlinechat.audit.AuditLog;
+import com.hartmann.onlinechat.bot.BotCommandRegistry;
+import com.hartmann.onlinechat.config.InboundRateLimiter;
+import com.hartmann.onlinechat.config.SlowConsumerGuard;
+import com.hartmann.onlinechat.mailbox.OfflineMailbox;
+import com.hartmann.onlinechat.search.SearchIndex;
+import com.hartmann.onlinechat.service.PresenceBroadcaster;
+import com.hartmann.onlinechat.service.SessionManager;
+import com.hartmann.onlinechat.wire.CompressionInterceptor;
+import com.hartmann.onlinechat.wire.FrameBatcher;
+import com.hartmann.onlinechat.wire.SharedFrameEncoder;
+import com.hartmann.onlinechat.wire.WireFormatInterceptor;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Binds gauges and counters that are read from existing state when scraped:
+ * sessions, joins, leaves and admin changes from SessionManager, presence
+ * broadcasts, the bot executor, the audit log, offline mailboxes, the search
+ * index, the compact wire format, shared broadcast frames, frame batching,
+ * frame compression, slow consumers, inbound rate limiting, and the queue
+ * depth and active threads of the STOMP inbound and outbound channels.
+ * The channel gauges are only present while the channels run on a thread pool,
+ * not on virtual threads.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@Component
+public class ChatMeterBinder implements MeterBinder {
+
+    private final SessionManager sessionManager;
+    private final PresenceBroadcaster presenceBroadcaster;
+    private final BotCommandRegistry botCommandRegistry;
+    private final AuditLog auditLog;
+    private final OfflineMailbox offlineMailbox;
+    private final SearchIndex searchIndex;
+    private final WireFormatInterceptor wireFormatInterceptor;
+    private final SharedFrameEncoder sharedFrameEncoder;
+    private final FrameBatcher frameBatcher;
+    private final CompressionInterceptor compressionInterceptor;
+    private final SlowConsumerGuard slowConsumerGuard;
+    private final InboundRateLimiter inboundRateLimiter;
+    private final ExecutorSubscribableChannel clientInboundChannel;
+    private final ExecutorSubscribableChannel clientOutboundChannel;
+
+    public ChatMeterBinder(SessionManager sessionManager, PresenceBroadcaster presenceBroadcaster,
+            BotCommandRegistry botCommandRegistry, AuditLog auditLog, OfflineMailbox offlineMailbox,
+            SearchIndex searchIndex, WireFormatInterceptor wireFormatInterceptor,
+            SharedFrameEncoder sharedFrameEncoder, FrameBatcher frameBatcher,
+            CompressionInterceptor compressionInterceptor,
+            SlowConsumerGuard slowConsumerGuard, InboundRateLimiter inboundRateLimiter,
+            @Qualifier("clientInboundChannel") ExecutorSubscribableChannel clientInboundChannel,
+            @Qualifier("clientOutboundChannel") ExecutorSubscribableChannel clientOutboundChannel) {
+        this.sessionManager = sessionManager;
+        this.presenceBroadcaster = presenceBroadcaster;
+        this.botCommandRegistry = botCommandRegistry;
+        this.auditLog = auditLog;
+        this.offlineMailbox = offlineMailbox;
+        this.searchIndex = searchIndex;
+        this.wireFormatInterceptor = wireFormatInterceptor;
+        this.sharedFrameEncoder = sharedFrameEncoder;
+        this.frameBatcher = frameBatcher;
+        this.compressionInterceptor = compressionInterceptor;
+        this.slowConsumerGuard = slowConsumerGuard;
+        this.inboundRateLimiter = inboundRateLimiter;
+        this.clientInboundChannel = clientInboundChannel;
+        this.clientOutboundChannel = clientOutboundChannel;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("chat.sessions", sessionManager, SessionManager::getConnectedClientCount)
+                .description("Sessions with a registered username")
+                .register(registry);
+        Gauge.builder("chat.rooms", sessionManager, manager -> manager.getRoomNames().size())
+                .description("Rooms with at least one member")
+                .register(registry);
+        FunctionCounter.builder("chat.sessions.joined", sessionManager, SessionManager::getSessionsAdded)
+                .description("Sessions registered since startup")
+                .register(registry);
+        FunctionCounter.builder("chat.sessions.left", sessionManager, SessionManager::getSessionsRemoved)
+                .description("Sessions removed since startup")
+                .register(registry);
+        FunctionCounter.builder("chat.admin.changes", sessionManager, SessionManager::getAdminChanges)
+                .description("Server admin hand-overs since startup")
+                .register(registry);
+
+        FunctionCounter.builder("chat.presence.updates", presenceBroadcaster, PresenceBroadcaster::getUpdatesSent)
+                .description("Presence broadcasts sent")
+                .register(registry);
+        FunctionCounter.builder("chat.presence.coalesced", presenceBroadcaster,
+                PresenceBroadcaster::getChangesCoalesced)
+                .description("Presence changes merged into another broadcast")
+                .register(registry);
+
+        Gauge.builder("chat.bot.queued", botCommandRegistry, BotCommandRegistry::getQueuedCommands)
+                .description("Bot commands waiting for an executor thread")
+                .register(registry);
+        FunctionCounter.builder("chat.bot.timeouts", botCommandRegistry, BotCommandRegistry::getTimeouts)
+                .description("Bot commands that exceeded their timeout")
+                .register(registry);
+        FunctionCounter.builder("chat.bot.rejections", botCommandRegistry, BotCommandRegistry::getRejections)
+                .description("Bot commands rejected by a bulkhead or a full executor")
+                .register(registry);
+
+        bindAuditCounter(registry, "recorded", AuditLog::getRecorded);
+        bindAuditCounter(registry, "dropped", AuditLog::getDropped);
+        bindAuditCounter(registry, "sampled_out", AuditLog::getSampledOut);
+        bindAuditCounter(registry, "written", AuditLog::getWritten);
+        bindAuditCounter(registry, "failed", AuditLog::getWriteErrors);
+        Gauge.builder("chat.audit.pending", auditLog, AuditLog::getPending)
+                .description("Audit events waiting for the writer")
+                .register(registry);
+
+        Gauge.builder("chat.mailbox.messages", offlineMailbox, OfflineMailbox::getQueuedMessages)
+                .description("Direct messages waiting for their recipient to join")
+                .register(registry);
+        Gauge.builder("chat.mailbox.bytes", offlineMailbox, OfflineMailbox::getMemoryBytes)
+                .description("Bytes of queued direct messages by where they are kept")
+                .tag("store", "memory")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("chat.mailbox.bytes", offlineMailbox, OfflineMailbox::getSpillBytes)
+                .description("Bytes of queued direct messages by where they are kept")
+                .tag("store", "spill")
+                .baseUnit("bytes")
+                .register(registry);
+        bindMailboxCounter(registry, "accepted", OfflineMailbox::getAccepted);
+        bindMailboxCounter(registry, "spilled", OfflineMailbox::getSpilled);
+        bindMailboxCounter(registry, "delivered", OfflineMailbox::getDelivered);
+        bindMailboxCounter(registry, "expired", OfflineMailbox::getExpired);
+        bindMailboxCounter(registry, "rejected", OfflineMailbox::getRejected);
+
+        Gauge.builder("chat.search.documents", searchIndex, SearchIndex::getDocuments)
+                .description("Public messages that can be searched")
+                .register(registry);
+        Gauge.builder("chat.search.segments", searchIndex, SearchIndex::getSegments)
+                .description("Sealed segments of the search index")
+                .register(registry);
+        Gauge.builder("chat.search.memory", searchIndex, SearchIndex::getMemoryBytes)
+                .description("Approximate heap size of the search index")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("chat.search.lag", searchIndex, SearchIndex::getLag)
+                .description("History records not indexed yet")
+                .register(registry);
+        FunctionCounter.builder("chat.search.merges", searchIndex, SearchIndex::getMerges)
+                .description("Search index segment merges")
+                .register(registry);
+        FunctionCounter.builder("chat.search.evicted", searchIndex, SearchIndex::getEvictedDocuments)
+                .description("Messages dropped from the search index to stay within its memory budget")
+                .register(registry);
+        FunctionCounter.builder("chat.search.skipped", searchIndex, SearchIndex::getSkippedRecords)
+                .description("History records the search index skipped because they could not be decoded")
+                .register(registry);
+        FunctionTimer.builder("chat.search.queries", searchIndex, SearchIndex::getQueries,
+                SearchIndex::getQueryNanos, TimeUnit.NANOSECONDS)
+                .description("Search queries and the time spent running them")
+                .register(registry);
+
+        Gauge.builder("chat.wire.compact.sessions", wireFormatInterceptor, WireFormatInterceptor::getCompactSessions)
+                .description("Sessions that negotiated the compact wire format")
+                .register(registry);
+        FunctionCounter.builder("chat.wire.compact.frames", wireFormatInterceptor,
+                WireFormatInterceptor::getCompactFrames)
+                .description("Frames sent in the compact wire format")
+                .register(registry);
+        FunctionCounter.builder("chat.wire.compact.encodings", wireFormatInterceptor,
+                WireFormatInterceptor::getCompactEncodings)
+                .description("Payloads encoded in the compact wire format, shared by the frames of a broadcast")
+                .register(registry);
+
+        FunctionCounter.builder("chat.wire.frames", sharedFrameEncoder, SharedFrameEncoder::getSharedFrames)
+                .description("Broadcast MESSAGE frames by how much of the encoding was shared")
+                .tag("encoding", "shared")
+                .register(registry);
+        FunctionCounter.builder("chat.wire.frames", sharedFrameEncoder, SharedFrameEncoder::getAssembledFrames)
+                .description("Broadcast MESSAGE frames by how much of the encoding was shared")
+                .tag("encoding", "assembled")
+                .register(registry);
+        FunctionCounter.builder("chat.wire.frame.encodings", sharedFrameEncoder,
+                SharedFrameEncoder::getFrameEncodings)
+                .description("Broadcast frames encoded, shared by the frames to all subscribers")
+                .register(registry);
+
+        Gauge.builder("chat.wire.batch.sessions", frameBatcher, FrameBatcher::getBatchingSessions)
+                .description("Sessions that negotiated batch frames")
+                .register(registry);
+        FunctionCounter.builder("chat.wire.batch.frames", frameBatcher, FrameBatcher::getBatchFrames)
+                .description("Batch frames sent, each carrying several topic messages")
+                .register(registry);
+        FunctionCounter.builder("chat.wire.batch.messages", frameBatcher, FrameBatcher::getBatchedMessages)
+                .description("Topic messages sent inside batch frames")
+                .register(registry);
+
+        FunctionCounter.builder("chat.compression.frames", compressionInterceptor,
+                CompressionInterceptor::getCompressedFrames)
+                .description("Frames to compressing sessions by outcome")
+                .tag("outcome", "compressed")
+                .register(registry);
+        FunctionCounter.builder("chat.compression.frames", compressionInterceptor,
+                CompressionInterceptor::getSkippedFrames)
+                .description("Frames to compressing sessions by outcome")
+                .tag("outcome", "skipped")
+                .register(registry);
+        FunctionCounter.builder("chat.compression.bytes", compressionInterceptor, CompressionInterceptor::getRawBytes)
+                .description("Body bytes of compressed frames before and after compression")
+                .tag("stage", "raw")
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("chat.compression.bytes", compressionInterceptor,
+                CompressionInterceptor::getCompressedBytes)
+                .description("Body bytes of compressed frames before and after compression")
+                .tag("stage", "compressed")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("chat.compression.ratio", compressionInterceptor, CompressionInterceptor::getCompressionRatio)
+                .description("Compressed size relative to the raw size of compressed frames")
+                .register(registry);
+        FunctionTimer.builder("chat.compression.time", compressionInterceptor, CompressionInterceptor::getCompressions,
+                CompressionInterceptor::getCompressionNanos, TimeUnit.NANOSECONDS)
+                .description("Time spent deflating frame bodies")
+                .register(registry);
+
+        Gauge.builder("chat.backpressure.lagging", slowConsumerGuard, SlowConsumerGuard::getLaggingSessions)
+                .description("Sessions currently lagging behind on their outbound frames")
+                .register(registry);
+        Gauge.builder("chat.backpressure.pending.max", slowConsumerGuard, SlowConsumerGuard::getMaxPendingFrames)
+                .description("Most outbound frames pending for a single session")
+                .register(registry);
+        FunctionCounter.builder("chat.backpressure.lag.events", slowConsumerGuard, SlowConsumerGuard::getLagEvents)
+                .description("Times a session started lagging behind")
+                .register(registry);
+        FunctionCounter.builder("chat.backpressure.dropped", slowConsumerGuard, SlowConsumerGuard::getDroppedFrames)
+                .description("Frames not sent to lagging or closing sessions")
+                .register(registry);
+        FunctionCounter.builder("chat.backpressure.disconnects", slowConsumerGuard, SlowConsumerGuard::getDisconnects)
+                .description("Sessions closed for lagging behind")
+                .register(registry);
+        FunctionCounter.builder("chat.backpressure.resyncs", slowConsumerGuard, SlowConsumerGuard::getResyncs)
+                .description("Presence snapshots sent in place of dropped presence deltas")
+                .register(registry);
+
+        for (InboundRateLimiter.Traffic traffic : InboundRateLimiter.Traffic.values()) {
+            FunctionCounter.builder("chat.ratelimit.throttled", inboundRateLimiter,
+                    limiter -> limiter.getThrottled(traffic))
+                    .description("Inbound messages dropped for exceeding a rate limit")
+                    .tag("traffic", traffic.name().toLowerCase(Locale.ROOT))
+                    .register(registry);
+        }
+        Gauge.builder("chat.ratelimit.buckets", inboundRateLimiter, InboundRateLimiter::getBuckets)
+                .description("Session and user rate limit buckets held")
+                .register(registry);
+
+        bindChannel(registry, "inbound", clientInboundChannel);
+        bindChannel(registry, "outbound", clientOutboundChannel);
+    }
+
+    private void bindAuditCounter(MeterRegistry registry, String outcome, ToDoubleFunction<AuditLog> count) {
+        FunctionCounter.builder("chat.audit.events", auditLog, count)
+                .description("Audit events by outcome")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    private void bindMailboxCounter(MeterRegistry registry, String outcome, ToDoubleFunction<OfflineMailbox> count) {
+        FunctionCounter.builder("chat.mailbox.events", offlineMailbox, count)
+                .description("Queued direct messages by outcome")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    private static void bindChannel(MeterRegistry registry, String name, ExecutorSubscribableChannel channel) {
+        if (!(channel.getExecutor() instanceof ThreadPoolTaskExecutor executor)) {
+            return;
+        }
+        Gauge.builder("chat.channel.queued", executor, pool -> pool.getThreadPoolExecutor().getQueue().size())
+                .description("Messages waiting for a STOMP channel thread")
+                .tag("channel", name)
+                .register(registry);
+        Gauge.builder("chat.channel.active", executor, ThreadPoolTaskExecutor::getActiveCount)
+                .description("STOMP channel threads busy with a message")
+                .tag("channel", name)
+                .register(registry);
+    }
+}
+// END
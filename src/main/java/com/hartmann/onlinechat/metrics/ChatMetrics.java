@@ -0,0 +1,109 @@
+package com.hartmann.onlinechat.metrics;
+
+import com.hartmann.onlinechat.chat.MessageType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters recorded on the chat hot paths: inbound messages by type,
+ * routing decisions, broadcast fan-out and bot command timings.
+ * Meters with a fixed tag set are registered up front, so recording is a
+ * lookup-free increment; bot command timers are cached per command and outcome.
+ * Exposed in Prometheus format at /actuator/prometheus.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@Component
+public class ChatMetrics {
+
+    /** Where a chat message was routed. */
+    public enum Route {
+        PUBLIC, ROOM, PRIVATE, BOT
+    }
+
+    private final MeterRegistry registry;
+    private final Map<MessageType, Counter> inbound = new EnumMap<>(MessageType.class);
+    private final Counter inboundUntyped;
+    private final Map<Route, Counter> routed = new EnumMap<>(Route.class);
+    private final Map<String, Timer> botCommandTimers = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> fanoutSizes = new ConcurrentHashMap<>();
+    private final Map<String, Timer> fanoutTimers = new ConcurrentHashMap<>();
+
+    public ChatMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        for (MessageType type : MessageType.values()) {
+            inbound.put(type, inboundCounter(type.name()));
+        }
+        inboundUntyped = inboundCounter("NONE");
+        for (Route route : Route.values()) {
+            routed.put(route, Counter.builder("chat.messages.routed")
+                    .description("Chat messages by routing decision")
+                    .tag("route", route.name().toLowerCase(Locale.ROOT))
+                    .register(registry));
+        }
+    }
+
+    private Counter inboundCounter(String type) {
+        return Counter.builder("chat.messages.inbound")
+                .description("Chat messages received from clients")
+                .tag("type", type)
+                .register(registry);
+    }
+
+    public void messageReceived(MessageType type) {
+        (type != null ? inbound.get(type) : inboundUntyped).increment();
+    }
+
+    public void messageRouted(Route route) {
+        routed.get(route).increment();
+    }
+
+    /**
+     * Records one bot command execution, from submission until its response was ready.
+     *
+     * @param command The command name
+     * @param outcome success, busy, overloaded, timeout or error
+     * @param nanos   Elapsed time in nanoseconds
+     */
+    public void botCommandCompleted(String command, String outcome, long nanos) {
+        botCommandTimers.computeIfAbsent(command + '|' + outcome, key -> Timer.builder("chat.bot.command")
+                .description("Bot command execution time, including queueing on the bot executor")
+                .tag("command", command)
+                .tag("outcome", outcome)
+                .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records one broker fan-out: how many session frames a broadcast produced
+     * and how long the broker took to hand them to the outbound channel.
+     *
+     * @param destination Destination kind: public, room, private or other
+     * @param recipients  Number of frames sent to sessions
+     * @param nanos       Elapsed time in nanoseconds
+     */
+    public void fanoutCompleted(String destination, int recipients, long nanos) {
+        fanoutSizes.computeIfAbsent(destination, key -> DistributionSummary.builder("chat.broadcast.fanout")
+                .description("Sessions reached per broadcast")
+                .baseUnit("sessions")
+                .tag("destination", destination)
+                .register(registry))
+                .record(recipients);
+        fanoutTimers.computeIfAbsent(destination, key -> Timer.builder("chat.broadcast.latency")
+                .description("Time for the broker to fan a broadcast out to the outbound channel")
+                .tag("destination", destination)
+                .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+}
+// END
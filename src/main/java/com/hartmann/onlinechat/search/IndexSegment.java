@@ -0,0 +1,176 @@
+package com.hartmann.onlinechat.search;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Immutable part of the search index covering a contiguous range of history
+ * offsets. Terms are kept sorted and looked up by binary search; the postings
+ * of all terms are stored back to back in one compressed array. Segments are
+ * built by sealing the in-memory buffer of {@link SearchIndex} and combined by
+ * {@link #merge}, which raises the level by one.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+final class IndexSegment {
+
+    // Rough heap cost of a term beyond its characters: String, array slots and start/count entries
+    private static final int TERM_OVERHEAD_BYTES = 64;
+
+    private final String[] terms;
+    private final int[] starts;
+    private final int[] counts;
+    private final byte[] postings;
+    private final int documents;
+    private final long minOffset;
+    private final long maxOffset;
+    private final int level;
+    private final long sizeInBytes;
+
+    private IndexSegment(String[] terms, int[] starts, int[] counts, byte[] postings, int documents, long minOffset,
+            long maxOffset, int level) {
+        this.terms = terms;
+        this.starts = starts;
+        this.counts = counts;
+        this.postings = postings;
+        this.documents = documents;
+        this.minOffset = minOffset;
+        this.maxOffset = maxOffset;
+        this.level = level;
+        long size = postings.length;
+        for (String term : terms) {
+            size += TERM_OVERHEAD_BYTES + 2L * term.length();
+        }
+        this.sizeInBytes = size;
+    }
+
+    /** Seals the per-term buffers of the in-memory buffer into a level 0 segment. */
+    static IndexSegment seal(Map<String, PostingsBuffer> buffers, int documents, long minOffset, long maxOffset) {
+        String[] terms = buffers.keySet().toArray(new String[0]);
+        Arrays.sort(terms);
+        int[] starts = new int[terms.length + 1];
+        int[] counts = new int[terms.length];
+        int length = 0;
+        for (PostingsBuffer buffer : buffers.values()) {
+            length += buffer.length();
+        }
+        byte[] postings = new byte[length];
+        int position = 0;
+        for (int i = 0; i < terms.length; i++) {
+            // Every buffer holds a single list starting from an absolute offset, so lists are copied as they are
+            PostingsBuffer buffer = buffers.get(terms[i]);
+            starts[i] = position;
+            counts[i] = buffer.count();
+            System.arraycopy(buffer.bytes(), 0, postings, position, buffer.length());
+            position += buffer.length();
+        }
+        starts[terms.length] = position;
+        return new IndexSegment(terms, starts, counts, postings, documents, minOffset, maxOffset, 0);
+    }
+
+    /**
+     * Merges adjacent segments into one. Their offset ranges do not overlap, so
+     * the postings of a term are the concatenation of its postings in each.
+     *
+     * @param segments Segments to merge, oldest first
+     * @return A segment one level above the highest merged level
+     */
+    static IndexSegment merge(List<IndexSegment> segments) {
+        // K-way merge of the sorted term arrays; ties are resolved oldest segment first
+        PriorityQueue<int[]> cursors = new PriorityQueue<>((a, b) -> {
+            int order = segments.get(a[0]).terms[a[1]].compareTo(segments.get(b[0]).terms[b[1]]);
+            return order != 0 ? order : Integer.compare(a[0], b[0]);
+        });
+        int termCapacity = 0;
+        int postingsCapacity = 0;
+        int documents = 0;
+        int level = 0;
+        for (int s = 0; s < segments.size(); s++) {
+            IndexSegment segment = segments.get(s);
+            if (segment.terms.length > 0) {
+                cursors.add(new int[] { s, 0 });
+            }
+            termCapacity += segment.terms.length;
+            postingsCapacity += segment.postings.length;
+            documents += segment.documents;
+            level = Math.max(level, segment.level);
+        }
+
+        String[] terms = new String[termCapacity];
+        int[] starts = new int[termCapacity + 1];
+        int[] counts = new int[termCapacity];
+        PostingsBuffer out = new PostingsBuffer(postingsCapacity);
+        int termCount = 0;
+        while (!cursors.isEmpty()) {
+            int[] cursor = cursors.poll();
+            String term = segments.get(cursor[0]).terms[cursor[1]];
+            terms[termCount] = term;
+            starts[termCount] = out.length();
+            out.startList();
+            copyPostings(segments.get(cursor[0]), cursor[1], out);
+            advance(cursors, segments, cursor);
+            while (!cursors.isEmpty() && segments.get(cursors.peek()[0]).terms[cursors.peek()[1]].equals(term)) {
+                int[] same = cursors.poll();
+                copyPostings(segments.get(same[0]), same[1], out);
+                advance(cursors, segments, same);
+            }
+            counts[termCount] = out.count();
+            termCount++;
+        }
+        starts[termCount] = out.length();
+
+        return new IndexSegment(Arrays.copyOf(terms, termCount), Arrays.copyOf(starts, termCount + 1),
+                Arrays.copyOf(counts, termCount), Arrays.copyOf(out.bytes(), out.length()), documents,
+                segments.get(0).minOffset, segments.get(segments.size() - 1).maxOffset, level + 1);
+    }
+
+    private static void copyPostings(IndexSegment segment, int term, PostingsBuffer out) {
+        PostingsIterator postings = segment.postings(term);
+        while (postings.next()) {
+            out.add(postings.offset());
+        }
+    }
+
+    private static void advance(PriorityQueue<int[]> cursors, List<IndexSegment> segments, int[] cursor) {
+        if (++cursor[1] < segments.get(cursor[0]).terms.length) {
+            cursors.add(cursor);
+        }
+    }
+
+    /**
+     * @return The postings of a term, or null if no document in this segment contains it
+     */
+    PostingsIterator postings(String term) {
+        int index = Arrays.binarySearch(terms, term);
+        return index >= 0 ? postings(index) : null;
+    }
+
+    private PostingsIterator postings(int index) {
+        return new PostingsIterator(postings, starts[index], starts[index + 1], counts[index]);
+    }
+
+    int documents() {
+        return documents;
+    }
+
+    long minOffset() {
+        return minOffset;
+    }
+
+    long maxOffset() {
+        return maxOffset;
+    }
+
+    int level() {
+        return level;
+    }
+
+    /** Approximate heap size of the terms and postings. */
+    long sizeInBytes() {
+        return sizeInBytes;
+    }
+}
+// END
@@ -0,0 +1,77 @@
+package com.hartmann.onlinechat.search;
+
+import java.util.Arrays;
+
+/**
+ * Growable, compressed list of ascending document offsets. Each offset is
+ * stored as the variable-length (7 bits per byte) difference to the previous
+ * one, so the dense offsets of a busy term take a byte or two each. The first
+ * offset of a list is stored as it is; {@link #startList()} begins a new list
+ * in the same buffer, which is how sealed segments keep all their postings in
+ * one array.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+final class PostingsBuffer {
+
+    private byte[] bytes;
+    private int length;
+    private int count;
+    private long last;
+
+    PostingsBuffer(int initialCapacity) {
+        this.bytes = new byte[Math.max(4, initialCapacity)];
+    }
+
+    /** Starts a new list at the current end of the buffer; the next offset is stored as it is. */
+    void startList() {
+        last = 0;
+        count = 0;
+    }
+
+    /**
+     * Appends an offset to the current list.
+     *
+     * @param offset The document offset, greater than the previous one in this list
+     */
+    void add(long offset) {
+        long delta = offset - last;
+        last = offset;
+        count++;
+        if (length + 10 > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 10));
+        }
+        while ((delta & ~0x7FL) != 0) {
+            bytes[length++] = (byte) ((delta & 0x7F) | 0x80);
+            delta >>>= 7;
+        }
+        bytes[length++] = (byte) delta;
+    }
+
+    /** Offsets in the current list. */
+    int count() {
+        return count;
+    }
+
+    /** Bytes used by all lists. */
+    int length() {
+        return length;
+    }
+
+    /** Bytes allocated, including room to grow. */
+    int capacity() {
+        return bytes.length;
+    }
+
+    /** The encoded lists; only valid until the next {@link #add}. */
+    byte[] bytes() {
+        return bytes;
+    }
+
+    /** Iterates the single list this buffer holds. Callers must not add while iterating. */
+    PostingsIterator iterator() {
+        return new PostingsIterator(bytes, 0, length, count);
+    }
+}
+// END
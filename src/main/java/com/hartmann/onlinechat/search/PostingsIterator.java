@@ -0,0 +1,72 @@
+package com.hartmann.onlinechat.search;
+
+/**
+ * Forward iterator over one list encoded by {@link PostingsBuffer}, decoding
+ * offsets as it goes.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+final class PostingsIterator {
+
+    private final byte[] data;
+    private final int end;
+    private final int count;
+    private int position;
+    private long accumulated;
+    private long offset = -1;
+
+    PostingsIterator(byte[] data, int start, int end, int count) {
+        this.data = data;
+        this.position = start;
+        this.end = end;
+        this.count = count;
+    }
+
+    /**
+     * Moves to the next offset.
+     *
+     * @return false if the list is exhausted
+     */
+    boolean next() {
+        if (position >= end) {
+            return false;
+        }
+        long delta = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[position++];
+            delta |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        accumulated += delta;
+        offset = accumulated;
+        return true;
+    }
+
+    /**
+     * Moves to the first offset at or after the target, unless already there.
+     *
+     * @return false if the list has no such offset
+     */
+    boolean advance(long target) {
+        while (offset < target) {
+            if (!next()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The current offset, or -1 before the first {@link #next}. */
+    long offset() {
+        return offset;
+    }
+
+    /** Offsets in the list. */
+    int count() {
+        return count;
+    }
+}
+// END
@@ -0,0 +1,43 @@
+package com.hartmann.onlinechat.search;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * REST endpoint searching the public chat history.
+ *
+ * Request:  GET /api/search?q=<words>&from=<user>&since=<epoch ms>&until=<epoch ms>&limit=<n>
+ * Response: {"hits":[{"offset":..,"timestamp":..,"message":{..}},..],"tookMs":..}
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@RestController
+@RequiredArgsConstructor
+public class SearchController {
+
+    private static final int MAX_LIMIT = 100;
+
+    private final SearchIndex searchIndex;
+
+    @GetMapping("/api/search")
+    public SearchResponse search(@RequestParam(defaultValue = "") String q,
+            @RequestParam(required = false) String from,
+            @RequestParam(defaultValue = "0") long since,
+            @RequestParam(defaultValue = "" + Long.MAX_VALUE) long until,
+            @RequestParam(defaultValue = "20") int limit) {
+        long start = System.nanoTime();
+        List<SearchHit> hits = searchIndex.search(new SearchQuery(q, from, since, until,
+                Math.max(0, Math.min(limit, MAX_LIMIT))));
+        return new SearchResponse(hits, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    public record SearchResponse(List<SearchHit> hits, long tookMs) {
+    }
+}
+// END
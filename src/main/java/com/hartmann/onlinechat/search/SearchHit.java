@@ -0,0 +1,14 @@
+package com.hartmann.onlinechat.search;
+
+import com.hartmann.onlinechat.chat.ChatMessage;
+
+/**
+ * A public message matching a search, as stored in the chat history.
+ *
+ * @param offset    The message's history offset
+ * @param timestamp The time it was stored, in epoch milliseconds
+ * @param message   The message
+ * @author Thomas Hartmann
+ */
+public record SearchHit(long offset, long timestamp, ChatMessage message) {
+}
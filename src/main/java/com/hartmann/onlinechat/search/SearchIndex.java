@@ -0,0 +1,613 @@
+package com.hartmann.onlinechat.search;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hartmann.onlinechat.chat.ChatMessage;
+import com.hartmann.onlinechat.history.ChatHistoryStore;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process inverted index over the public messages in the chat history.
+ * A background indexer tails {@link ChatHistoryStore}: it starts from the
+ * oldest retained record, so the index is rebuilt on startup, and after that
+ * {@link #messageStored()} wakes it for each new message. Indexing therefore
+ * never runs on the thread that broadcasts a message, and a burst only makes
+ * the indexer fall behind instead of queueing work.
+ * <p>
+ * Documents are history offsets. Words of the content and the sender are
+ * terms; their postings are compressed offset lists (see
+ * {@link PostingsBuffer}). New documents go to an in-memory buffer that is
+ * sealed into an immutable {@link IndexSegment} at chat.search.segment-bytes.
+ * Whenever chat.search.merge-factor segments of the same level exist they are
+ * merged into one of the next level, so the number of segments grows
+ * logarithmically. Beyond chat.search.memory-bytes the oldest segments are
+ * dropped, and so are segments whose messages are gone from the history.
+ * <p>
+ * A query intersects the postings of its terms, newest segment first, and
+ * reads the matching messages back from the history. Time ranges are mapped
+ * to offset ranges through a sparse sample of offsets and timestamps.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@Component
+@Slf4j
+public class SearchIndex {
+
+    // Offsets read from the history per indexing step
+    private static final int BATCH_SIZE = 1024;
+    // Every this many documents an (offset, timestamp) pair is sampled for time range queries
+    private static final int TIME_SAMPLE_INTERVAL = 64;
+    // The indexer also looks for new messages this often, e.g. for messages relayed by other cluster nodes
+    private static final long IDLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int MIN_TERM_LENGTH = 2;
+    private static final int MAX_TERM_LENGTH = 64;
+    // Senders are indexed as terms with this prefix, which never occurs in words of the content
+    private static final char SENDER_PREFIX = '@';
+    // Rough heap cost of a buffered term beyond its characters and postings
+    private static final int BUFFERED_TERM_OVERHEAD_BYTES = 96;
+
+    private final ChatHistoryStore historyStore;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final long memoryBytes;
+    private final long segmentBytes;
+    private final int mergeFactor;
+
+    // Guards the buffer, the time samples and replacing the segment list
+    private final Object lock = new Object();
+    private Map<String, PostingsBuffer> buffer = new HashMap<>();
+    private long bufferBytes;
+    private int bufferDocuments;
+    private long bufferMinOffset = -1;
+    private long bufferMaxOffset = -1;
+    // Oldest first; replaced as a whole, so a query can use the list it read under the lock
+    private volatile List<IndexSegment> segments = List.of();
+    private long[] sampleOffsets = new long[64];
+    private long[] sampleTimes = new long[64];
+    private int samples;
+    private long documentCount;
+
+    // Next history offset to index; only the indexer moves it
+    private volatile long position = -1;
+    private volatile boolean closed;
+    private volatile boolean waiting;
+    private Thread indexer;
+
+    private final LongAdder indexedDocuments = new LongAdder();
+    private final LongAdder evictedDocuments = new LongAdder();
+    private final LongAdder skippedRecords = new LongAdder();
+    private final LongAdder merges = new LongAdder();
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder queryNanos = new LongAdder();
+
+    public SearchIndex(ChatHistoryStore historyStore, ObjectMapper objectMapper,
+            @Value("${chat.search.enabled:true}") boolean enabled,
+            @Value("${chat.search.memory-bytes:67108864}") long memoryBytes,
+            @Value("${chat.search.segment-bytes:4194304}") long segmentBytes,
+            @Value("${chat.search.merge-factor:4}") int mergeFactor) {
+        this.historyStore = historyStore;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.memoryBytes = memoryBytes;
+        this.segmentBytes = segmentBytes;
+        this.mergeFactor = Math.max(2, mergeFactor);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        indexer = new Thread(this::indexLoop, "search-indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+        log.info("Search index enabled ({} bytes, segments of {} bytes)", memoryBytes, segmentBytes);
+    }
+
+    /**
+     * Tells the indexer that a public message was appended to the history.
+     * Cheap enough for the message path: it only wakes the indexer if it is idle.
+     */
+    public void messageStored() {
+        Thread thread = indexer;
+        if (waiting && thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void indexLoop() {
+        while (!closed) {
+            try {
+                if (catchUp() == 0) {
+                    waiting = true;
+                    // Re-check after announcing the wait, so a message stored in between is not missed
+                    if (position >= historyStore.getNextOffset()) {
+                        LockSupport.parkNanos(this, IDLE_NANOS);
+                    }
+                    waiting = false;
+                }
+            } catch (RuntimeException e) {
+                log.error("Failed to index chat history at offset {}", position, e);
+                LockSupport.parkNanos(this, IDLE_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Indexes everything stored in the history since the last call. Records
+     * that do not decode are skipped and counted.
+     *
+     * @return The number of messages indexed
+     */
+    synchronized int catchUp() {
+        int total = 0;
+        int[] visited = new int[1];
+        int[] indexed = new int[1];
+        // Offset after the last visited record. It is stored even if indexing fails part way through a batch,
+        // so a retry never adds a document twice, which would break the ascending order of its postings.
+        long[] next = { Math.max(position, historyStore.getFirstOffset()) };
+        try {
+            do {
+                visited[0] = 0;
+                indexed[0] = 0;
+                next[0] = Math.max(next[0], historyStore.getFirstOffset());
+                historyStore.read(next[0], BATCH_SIZE, (offset, timestamp, payload) -> {
+                    next[0] = offset + 1;
+                    visited[0]++;
+                    ChatMessage message = decode(payload);
+                    if (message == null) {
+                        log.warn("Skipped an undecodable chat history record at offset {}", offset);
+                        skippedRecords.increment();
+                        return;
+                    }
+                    add(offset, timestamp, message);
+                    indexed[0]++;
+                    if (bufferBytes >= segmentBytes) {
+                        seal();
+                    }
+                });
+                total += indexed[0];
+            } while (visited[0] == BATCH_SIZE && !closed);
+        } finally {
+            position = next[0];
+        }
+        return total;
+    }
+
+    /** @return The decoded message, or null if the payload is not a readable ChatMessage */
+    private ChatMessage decode(ByteBuffer payload) {
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        try {
+            return objectMapper.readValue(bytes, ChatMessage.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void add(long offset, long timestamp, ChatMessage message) {
+        Set<String> terms = terms(message.getContent());
+        String sender = senderTerm(message.getSender());
+        if (sender != null) {
+            terms.add(sender);
+        }
+        synchronized (lock) {
+            for (String term : terms) {
+                PostingsBuffer postings = buffer.get(term);
+                if (postings == null) {
+                    postings = new PostingsBuffer(4);
+                    buffer.put(term, postings);
+                    bufferBytes += BUFFERED_TERM_OVERHEAD_BYTES + 2L * term.length() + postings.capacity();
+                }
+                int capacity = postings.capacity();
+                postings.add(offset);
+                bufferBytes += postings.capacity() - capacity;
+            }
+            if (bufferDocuments % TIME_SAMPLE_INTERVAL == 0) {
+                sample(offset, timestamp);
+            }
+            if (bufferMinOffset < 0) {
+                bufferMinOffset = offset;
+            }
+            bufferMaxOffset = offset;
+            bufferDocuments++;
+            documentCount++;
+        }
+        indexedDocuments.increment();
+    }
+
+    // Caller holds lock
+    private void sample(long offset, long timestamp) {
+        if (samples == sampleOffsets.length) {
+            sampleOffsets = Arrays.copyOf(sampleOffsets, samples * 2);
+            sampleTimes = Arrays.copyOf(sampleTimes, samples * 2);
+        }
+        sampleOffsets[samples] = offset;
+        sampleTimes[samples] = timestamp;
+        samples++;
+    }
+
+    /** Turns the buffer into a segment, then merges and evicts segments as needed. Called by the indexer. */
+    private void seal() {
+        IndexSegment sealed;
+        synchronized (lock) {
+            if (bufferDocuments == 0) {
+                return;
+            }
+            sealed = IndexSegment.seal(buffer, bufferDocuments, bufferMinOffset, bufferMaxOffset);
+            List<IndexSegment> next = new ArrayList<>(segments);
+            next.add(sealed);
+            // Publish the segment and clear the buffer atomically, so queries see each document exactly once
+            segments = List.copyOf(next);
+            buffer = new HashMap<>();
+            bufferBytes = 0;
+            bufferDocuments = 0;
+            bufferMinOffset = -1;
+            bufferMaxOffset = -1;
+        }
+        log.debug("Sealed search segment with {} documents ({} bytes)", sealed.documents(), sealed.sizeInBytes());
+        mergeSegments();
+        evictSegments();
+    }
+
+    /** Merges the newest segments while merge-factor of them share a level; only the indexer changes segments. */
+    private void mergeSegments() {
+        while (true) {
+            List<IndexSegment> current = segments;
+            int size = current.size();
+            if (size < mergeFactor) {
+                return;
+            }
+            int level = current.get(size - 1).level();
+            // Levels never increase from oldest to newest, so segments of the same level are at the end
+            for (int i = size - mergeFactor; i < size; i++) {
+                if (current.get(i).level() != level) {
+                    return;
+                }
+            }
+            IndexSegment merged = IndexSegment.merge(current.subList(size - mergeFactor, size));
+            List<IndexSegment> next = new ArrayList<>(current.subList(0, size - mergeFactor));
+            next.add(merged);
+            synchronized (lock) {
+                segments = List.copyOf(next);
+            }
+            merges.increment();
+            log.debug("Merged {} search segments into one of level {} ({} bytes)", mergeFactor, merged.level(),
+                    merged.sizeInBytes());
+        }
+    }
+
+    /** Drops the oldest segments while over the memory budget or no longer backed by the history. */
+    private void evictSegments() {
+        long firstOffset = historyStore.getFirstOffset();
+        List<IndexSegment> current = segments;
+        long total = current.stream().mapToLong(IndexSegment::sizeInBytes).sum();
+        int dropped = 0;
+        while (dropped < current.size() - 1
+                && (total > memoryBytes || current.get(dropped).maxOffset() < firstOffset)) {
+            IndexSegment segment = current.get(dropped);
+            total -= segment.sizeInBytes();
+            evictedDocuments.add(segment.documents());
+            dropped++;
+        }
+        if (dropped == 0) {
+            return;
+        }
+        long minOffset = current.get(dropped).minOffset();
+        synchronized (lock) {
+            segments = List.copyOf(current.subList(dropped, current.size()));
+            documentCount -= current.subList(0, dropped).stream().mapToLong(IndexSegment::documents).sum();
+            int keep = 0;
+            while (keep < samples - 1 && sampleOffsets[keep + 1] <= minOffset) {
+                keep++;
+            }
+            samples -= keep;
+            System.arraycopy(sampleOffsets, keep, sampleOffsets, 0, samples);
+            System.arraycopy(sampleTimes, keep, sampleTimes, 0, samples);
+        }
+        log.info("Dropped {} search segment(s); searchable history now starts at offset {}", dropped, minOffset);
+    }
+
+    /**
+     * Finds the newest public messages matching a query.
+     *
+     * @param query The keywords, sender and time range to match
+     * @return Matching messages, newest first; empty if the query has neither keywords nor a sender
+     */
+    public List<SearchHit> search(SearchQuery query) {
+        long start = System.nanoTime();
+        try {
+            return doSearch(query);
+        } finally {
+            queries.increment();
+            queryNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    private List<SearchHit> doSearch(SearchQuery query) {
+        List<String> terms = new ArrayList<>(terms(query.keywords()));
+        String sender = senderTerm(query.sender());
+        if (sender != null) {
+            terms.add(sender);
+        }
+        List<SearchHit> hits = new ArrayList<>();
+        if (terms.isEmpty() || query.limit() <= 0 || query.since() > query.until()) {
+            return hits;
+        }
+
+        LongList bufferMatches = new LongList();
+        List<IndexSegment> snapshot;
+        long fromOffset;
+        long toOffset;
+        synchronized (lock) {
+            fromOffset = offsetAtOrBefore(query.since());
+            toOffset = offsetAfter(query.until());
+            // The buffer holds the newest documents; match it while nothing can change it
+            PostingsIterator[] lists = new PostingsIterator[terms.size()];
+            boolean allPresent = true;
+            for (int i = 0; i < lists.length && allPresent; i++) {
+                PostingsBuffer postings = buffer.get(terms.get(i));
+                allPresent = postings != null;
+                lists[i] = allPresent ? postings.iterator() : null;
+            }
+            if (allPresent) {
+                intersect(lists, fromOffset, toOffset, bufferMatches);
+            }
+            snapshot = segments;
+        }
+        if (!resolve(bufferMatches, query, hits)) {
+            return hits;
+        }
+
+        for (int s = snapshot.size() - 1; s >= 0; s--) {
+            IndexSegment segment = snapshot.get(s);
+            if (segment.maxOffset() < fromOffset || segment.minOffset() > toOffset) {
+                continue;
+            }
+            PostingsIterator[] lists = new PostingsIterator[terms.size()];
+            boolean allPresent = true;
+            for (int i = 0; i < lists.length && allPresent; i++) {
+                lists[i] = segment.postings(terms.get(i));
+                allPresent = lists[i] != null;
+            }
+            if (!allPresent) {
+                continue;
+            }
+            LongList matches = new LongList();
+            intersect(lists, fromOffset, toOffset, matches);
+            if (!resolve(matches, query, hits)) {
+                break;
+            }
+        }
+        return hits;
+    }
+
+    /** Adds the offsets in {@code [from, to]} that are in every list, in ascending order. */
+    private static void intersect(PostingsIterator[] lists, long from, long to, LongList out) {
+        // Lead with the shortest list, so the others are only advanced to its candidates
+        Arrays.sort(lists, Comparator.comparingInt(PostingsIterator::count));
+        PostingsIterator lead = lists[0];
+        if (!lead.advance(from)) {
+            return;
+        }
+        long candidate = lead.offset();
+        candidates:
+        while (candidate <= to) {
+            for (int i = 1; i < lists.length; i++) {
+                if (!lists[i].advance(candidate)) {
+                    return;
+                }
+                if (lists[i].offset() > candidate) {
+                    if (!lead.advance(lists[i].offset())) {
+                        return;
+                    }
+                    candidate = lead.offset();
+                    continue candidates;
+                }
+            }
+            out.add(candidate);
+            if (!lead.next()) {
+                return;
+            }
+            candidate = lead.offset();
+        }
+    }
+
+    /**
+     * Reads matches back from the history, newest first, until the query limit is reached.
+     *
+     * @return false once the limit is reached
+     */
+    private boolean resolve(LongList matches, SearchQuery query, List<SearchHit> hits) {
+        for (int i = matches.size() - 1; i >= 0; i--) {
+            long wanted = matches.get(i);
+            historyStore.read(wanted, 1, (offset, timestamp, payload) -> {
+                // Records deleted by retention are skipped; read() then starts at the oldest retained one
+                if (offset == wanted && timestamp >= query.since() && timestamp <= query.until()) {
+                    ChatMessage message = decode(payload);
+                    if (message != null) {
+                        hits.add(new SearchHit(offset, timestamp, message));
+                    }
+                }
+            });
+            if (hits.size() >= query.limit()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Caller holds lock. Timestamps are sampled, so the range is widened to the enclosing samples.
+    private long offsetAtOrBefore(long time) {
+        int index = lastSampleBefore(time);
+        return index >= 0 ? sampleOffsets[index] : 0;
+    }
+
+    // Caller holds lock
+    private long offsetAfter(long time) {
+        if (time == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        int index = lastSampleBefore(time + 1) + 1;
+        return index < samples ? sampleOffsets[index] : Long.MAX_VALUE;
+    }
+
+    /** Index of the last sample with a timestamp before {@code time}, or -1. */
+    private int lastSampleBefore(long time) {
+        int low = 0;
+        int high = samples - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (sampleTimes[middle] < time) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low - 1;
+    }
+
+    /**
+     * Splits text into lower-cased terms: runs of letters and digits of at
+     * least two characters, cut to 64 characters. Used for both messages and queries.
+     */
+    static Set<String> terms(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        int length = text.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean wordChar = i < length && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start >= MIN_TERM_LENGTH) {
+                    terms.add(text.substring(start, Math.min(i, start + MAX_TERM_LENGTH)).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    private static String senderTerm(String sender) {
+        if (sender == null || sender.isBlank()) {
+            return null;
+        }
+        return SENDER_PREFIX + sender.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /** Documents currently searchable. */
+    public long getDocuments() {
+        synchronized (lock) {
+            return documentCount;
+        }
+    }
+
+    /** Sealed segments. */
+    public int getSegments() {
+        return segments.size();
+    }
+
+    /** Approximate heap size of the segments and the buffer. */
+    public long getMemoryBytes() {
+        long total = segments.stream().mapToLong(IndexSegment::sizeInBytes).sum();
+        synchronized (lock) {
+            return total + bufferBytes;
+        }
+    }
+
+    /** History records not indexed yet. */
+    public long getLag() {
+        long next = position;
+        return next < 0 ? 0 : Math.max(0, historyStore.getNextOffset() - next);
+    }
+
+    /** Documents indexed since startup. */
+    public long getIndexedDocuments() {
+        return indexedDocuments.sum();
+    }
+
+    /** History records skipped because they could not be decoded. */
+    public long getSkippedRecords() {
+        return skippedRecords.sum();
+    }
+
+    /** Documents dropped with their segment to stay within the memory budget or the history. */
+    public long getEvictedDocuments() {
+        return evictedDocuments.sum();
+    }
+
+    /** Segment merges since startup. */
+    public long getMerges() {
+        return merges.sum();
+    }
+
+    /** Queries run since startup. */
+    public long getQueries() {
+        return queries.sum();
+    }
+
+    /** Total time spent running queries. */
+    public long getQueryNanos() {
+        return queryNanos.sum();
+    }
+
+    @PreDestroy
+    public void close() {
+        if (indexer == null) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(indexer);
+        try {
+            indexer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Growable list of primitive offsets. */
+    private static final class LongList {
+
+        private long[] values = new long[16];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
+// END
@@ -0,0 +1,20 @@
+package com.hartmann.onlinechat.search;
+
+/**
+ * A search over public chat history. A message matches if it contains every
+ * keyword, was sent by the sender if one is given, and was stored within the
+ * time range.
+ *
+ * @param keywords Words the message must contain, separated by anything but letters and digits
+ * @param sender   Username of the sender (case-insensitive), or null for any
+ * @param since    Earliest time in epoch milliseconds, inclusive
+ * @param until    Latest time in epoch milliseconds, inclusive
+ * @param limit    Maximum number of hits; the newest are returned
+ * @author Thomas Hartmann
+ */
+public record SearchQuery(String keywords, String sender, long since, long until, int limit) {
+
+    public SearchQuery(String keywords, String sender, int limit) {
+        this(keywords, sender, 0, Long.MAX_VALUE, limit);
+    }
+}
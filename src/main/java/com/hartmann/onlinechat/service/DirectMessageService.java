@@ -2,14 +2,20 @@ package com.hartmann.onlinechat.service;
 
 import com.hartmann.onlinechat.chat.ChatMessage;
 import com.hartmann.onlinechat.chat.MessageType;
+import com.hartmann.onlinechat.cluster.ClusterService;
+import com.hartmann.onlinechat.mailbox.OfflineMailbox;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * Service responsible for handling Direct Messages (Private Messages) between
- * users.
+ * users. Messages to users who are not connected anywhere but left recently are
+ * queued in their {@link OfflineMailbox} and delivered as one batch when they
+ * join again; names never seen are reported as not found.
  * 
  * @author Thomas Hartmann
  */
@@ -20,7 +26,9 @@ import org.springframework.stereotype.Component;
 public class DirectMessageService {
 
     private final SessionManager sessionManager;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final SessionMessenger sessionMessenger;
+    private final ClusterService clusterService;
+    private final OfflineMailbox offlineMailbox;
 
     /**
      * Sends a private message from one user to another.
@@ -34,15 +42,10 @@ public class DirectMessageService {
      */
     public String sendPrivateMessage(String senderUsername, String senderSessionId, String recipientUsername,
             String content) {
-        log.info("Attempting to send DM from {} to {}", senderUsername, recipientUsername);
+        log.debug("Attempting to send DM from {} to {}", senderUsername, recipientUsername);
 
         String recipientSessionId = sessionManager.getSessionIdByUsername(recipientUsername);
 
-        if (recipientSessionId == null) {
-            log.warn("Recipient {} not found.", recipientUsername);
-            return "User '" + recipientUsername + "' not found or offline.";
-        }
-
         // 1. Send to Recipient
         ChatMessage recipientMsg = ChatMessage.builder()
                 .content(content)
@@ -51,7 +54,22 @@ public class DirectMessageService {
                 .targetSessionId(recipientSessionId) // PRIVATE TARGETING
                 .build();
 
-        messagingTemplate.convertAndSend("/topic/public", recipientMsg);
+        String status = "Private message sent to " + recipientUsername;
+        if (recipientSessionId != null) {
+            sessionMessenger.sendToSession(recipientSessionId, recipientMsg);
+        } else if (!clusterService.sendDirect(recipientUsername, recipientMsg)) {
+            // Neither on this node nor on another cluster node - keep it until they join
+            if (!offlineMailbox.offer(recipientUsername, recipientMsg)) {
+                log.warn("Recipient {} not found and mailbox unavailable.", recipientUsername);
+                return "User '" + recipientUsername + "' not found or offline.";
+            }
+            // They may have joined between the lookup and the offer, after their mailbox was drained
+            String joinedSessionId = sessionManager.getSessionIdByUsername(recipientUsername);
+            if (joinedSessionId != null) {
+                deliverOfflineMessages(recipientUsername, joinedSessionId);
+            }
+            status = "User '" + recipientUsername + "' is offline; the message will be delivered when they join.";
+        }
 
         // 2. Send Confirmation to Sender (Mirror the message so they see it in their UI
         // too)
@@ -77,9 +95,35 @@ public class DirectMessageService {
         // But to be safe, let's send a copy back to the sender with
         // targetSessionId=senderSessionId.
 
-        messagingTemplate.convertAndSend("/topic/public", senderMsg);
+        sessionMessenger.sendToSession(senderSessionId, senderMsg);
 
-        return "Private message sent to " + recipientUsername;
+        return status;
+    }
+
+    /**
+     * Lets direct messages to a user who just disconnected be queued for them.
+     *
+     * @param username The user who left
+     */
+    public void userLeft(String username) {
+        offlineMailbox.userLeft(username);
+    }
+
+    /**
+     * Sends the direct messages queued while a user was offline to their new
+     * session, as one OFFLINE_MESSAGES batch.
+     *
+     * @param username  The user who joined
+     * @param sessionId The session they joined with
+     */
+    public void deliverOfflineMessages(String username, String sessionId) {
+        List<ChatMessage> queued = offlineMailbox.drain(username);
+        if (queued.isEmpty()) {
+            return;
+        }
+        queued.forEach(message -> message.setTargetSessionId(sessionId));
+        log.debug("Delivering {} queued direct message(s) to {}", queued.size(), username);
+        sessionMessenger.sendToSession(sessionId, Map.of("type", "OFFLINE_MESSAGES", "messages", queued));
     }
 }
 // END
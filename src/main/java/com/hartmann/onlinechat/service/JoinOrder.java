@@ -0,0 +1,96 @@
+package com.hartmann.onlinechat.service;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Join-ordered set of session IDs used for admin succession.
+ * Sessions are kept in a skip list keyed by a monotonically increasing join
+ * sequence, so joins and leaves are O(log n) and the admin is the first entry.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+class JoinOrder {
+
+    // Join order: sequence number -> session ID. The first entry is the admin.
+    private final ConcurrentSkipListMap<Long, String> order = new ConcurrentSkipListMap<>();
+    private final Map<String, Long> sequences = new ConcurrentHashMap<>();
+    private final AtomicLong nextSequence = new AtomicLong();
+    // Last admin announced to clients, used to detect hand-overs under concurrent churn; guarded by announceLock
+    private final Object announceLock = new Object();
+    private String announcedAdminId;
+
+    /**
+     * @return true if the session was added, false if it was already present
+     */
+    boolean add(String sessionId) {
+        long sequence = nextSequence.incrementAndGet();
+        if (sequences.putIfAbsent(sessionId, sequence) != null) {
+            return false;
+        }
+        order.put(sequence, sessionId);
+        return true;
+    }
+
+    /**
+     * @return true if the session was present and removed
+     */
+    boolean remove(String sessionId) {
+        Long sequence = sequences.remove(sessionId);
+        if (sequence == null) {
+            return false;
+        }
+        order.remove(sequence);
+        return true;
+    }
+
+    boolean contains(String sessionId) {
+        return sequences.containsKey(sessionId);
+    }
+
+    String head() {
+        Map.Entry<Long, String> first = order.firstEntry();
+        return first != null ? first.getValue() : null;
+    }
+
+    boolean isEmpty() {
+        return order.isEmpty();
+    }
+
+    int size() {
+        return sequences.size();
+    }
+
+    /**
+     * @return Member session IDs in join order
+     */
+    Collection<String> members() {
+        return order.values();
+    }
+
+    /**
+     * Announces the current head as admin if it differs from the last announced
+     * admin. Reading the head, recording it and delivering the announcement
+     * happen under one lock, so announcements reach the callback in the order
+     * they were decided and the last one delivered is always the latest head.
+     *
+     * @param onAdminChange Receives the new admin session ID, or null if empty
+     */
+    void announceAdmin(Consumer<String> onAdminChange) {
+        synchronized (announceLock) {
+            String current = head();
+            if (Objects.equals(announcedAdminId, current)) {
+                return;
+            }
+            announcedAdminId = current;
+            onAdminChange.accept(current);
+        }
+    }
+}
+// END
@@ -0,0 +1,258 @@
+package com.hartmann.onlinechat.service;
+
+import com.hartmann.onlinechat.chat.ChatMessage;
+import com.hartmann.onlinechat.chat.MessageType;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces presence changes (joins, leaves, admin hand-overs) into at most one
+ * versioned PRESENCE_DELTA broadcast per flush window.
+ * Changes are merged against the last flushed state, so a user who leaves and
+ * rejoins within one window produces no update at all. A flush is always
+ * scheduled while changes are pending, so the final state is always delivered.
+ * A flush window of 0 broadcasts every change immediately.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@Component
+@Slf4j
+public class PresenceBroadcaster {
+
+    public static final String PRESENCE_SNAPSHOT = "USER_LIST";
+    public static final String PRESENCE_DELTA = "PRESENCE_DELTA";
+    public static final String ROOM_PRESENCE = "ROOM_PRESENCE";
+    public static final String ROOM_TOPIC_PREFIX = "/topic/room.";
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final long flushWindowMs;
+    private final ScheduledExecutorService scheduler;
+
+    // Flushed state as seen by clients at presenceVersion, guarded by lock
+    private final Object lock = new Object();
+    private final NavigableSet<String> presence = new TreeSet<>();
+    private String presenceAdmin;
+    private long presenceVersion;
+
+    // Pending changes since the last flush: username -> online, guarded by lock
+    private final Map<String, Boolean> pendingUsers = new LinkedHashMap<>();
+    private String pendingAdmin;
+    private boolean adminPending;
+    private int pendingChanges;
+    private boolean flushScheduled;
+
+    private final AtomicLong changesRecorded = new AtomicLong();
+    private final AtomicLong updatesSent = new AtomicLong();
+    private final AtomicLong changesCoalesced = new AtomicLong();
+
+    public PresenceBroadcaster(SimpMessagingTemplate messagingTemplate,
+            @Value("${chat.presence.flush-window-ms:100}") long flushWindowMs) {
+        this.messagingTemplate = messagingTemplate;
+        this.flushWindowMs = flushWindowMs;
+        this.scheduler = flushWindowMs > 0 ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "presence-flush");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    public void userJoined(String username) {
+        record(username, true);
+    }
+
+    public void userLeft(String username) {
+        record(username, false);
+    }
+
+    /**
+     * Records an admin hand-over.
+     *
+     * @param adminName The new admin's username, or null if nobody is connected
+     */
+    public void adminChanged(String adminName) {
+        synchronized (lock) {
+            pendingAdmin = adminName;
+            adminPending = true;
+            onChangeRecorded();
+        }
+    }
+
+    private void record(String username, boolean online) {
+        synchronized (lock) {
+            pendingUsers.put(username, online);
+            onChangeRecorded();
+        }
+    }
+
+    // Caller holds lock
+    private void onChangeRecorded() {
+        pendingChanges++;
+        changesRecorded.incrementAndGet();
+        if (scheduler == null) {
+            flushLocked();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            scheduler.schedule(this::flush, flushWindowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Broadcasts all pending changes as a single update.
+     */
+    public void flush() {
+        synchronized (lock) {
+            flushScheduled = false;
+            flushLocked();
+        }
+    }
+
+    // Caller holds lock, so versions are assigned and sent in order
+    private void flushLocked() {
+        if (pendingChanges == 0) {
+            return;
+        }
+        List<String> joined = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        pendingUsers.forEach((username, online) -> {
+            if (online ? presence.add(username) : presence.remove(username)) {
+                (online ? joined : left).add(username);
+            }
+        });
+        boolean adminChanged = adminPending && !Objects.equals(pendingAdmin, presenceAdmin);
+        if (adminChanged) {
+            presenceAdmin = pendingAdmin;
+        }
+
+        changesCoalesced.addAndGet(pendingChanges - 1);
+        pendingUsers.clear();
+        adminPending = false;
+        pendingChanges = 0;
+
+        if (joined.isEmpty() && left.isEmpty() && !adminChanged) {
+            return; // Changes cancelled each other out
+        }
+
+        try {
+            Map<String, Object> payload = new HashMap<>();
+            payload.put("type", PRESENCE_DELTA);
+            payload.put("version", ++presenceVersion);
+            payload.put("joined", joined);
+            payload.put("left", left);
+            if (adminChanged) {
+                payload.put("admin", presenceAdmin);
+            }
+            messagingTemplate.convertAndSend("/topic/public", payload);
+            updatesSent.incrementAndGet();
+            log.debug("Broadcasted presence v{}: +{} -{}", presenceVersion, joined.size(), left.size());
+
+            if (adminChanged && presenceAdmin != null) {
+                broadcastAdminChange(presenceAdmin);
+            }
+        } catch (Exception e) {
+            log.error("Failed to broadcast presence change", e);
+        }
+    }
+
+    // START - Room presence
+    /**
+     * Room presence is sent straight to the room topic without coalescing:
+     * rooms are small, and only the room's members receive the update.
+     */
+    public void roomUserJoined(String room, String username) {
+        broadcastRoomPresence(room, "joined", List.of(username));
+    }
+
+    public void roomUserLeft(String room, String username) {
+        broadcastRoomPresence(room, "left", List.of(username));
+    }
+
+    public void roomAdminChanged(String room, String adminName) {
+        broadcastRoomPresence(room, "admin", adminName);
+    }
+
+    private void broadcastRoomPresence(String room, String field, Object value) {
+        try {
+            Map<String, Object> payload = new HashMap<>();
+            payload.put("type", ROOM_PRESENCE);
+            payload.put("room", room);
+            payload.put(field, value);
+            messagingTemplate.convertAndSend(roomDestination(room), payload);
+        } catch (Exception e) {
+            log.error("Failed to broadcast presence change for room {}", room, e);
+        }
+    }
+
+    public static String roomDestination(String room) {
+        return ROOM_TOPIC_PREFIX + room;
+    }
+    // END
+
+    private void broadcastAdminChange(String newAdminName) {
+        // Broadcast System Event
+        ChatMessage adminMessage = ChatMessage.builder()
+                .content("System: " + newAdminName + " is now the Server Admin.")
+                .sender("System")
+                .type(MessageType.BOT_MESSAGE)
+                .build();
+
+        messagingTemplate.convertAndSend("/topic/public", adminMessage);
+    }
+
+    /**
+     * Returns the flushed presence state (sorted usernames and admin) together
+     * with its version, so a client can apply every later delta on top of it.
+     *
+     * @return USER_LIST payload
+     */
+    public Map<String, Object> getPresenceSnapshot() {
+        synchronized (lock) {
+            Map<String, Object> payload = new HashMap<>();
+            payload.put("type", PRESENCE_SNAPSHOT);
+            payload.put("version", presenceVersion);
+            payload.put("users", new ArrayList<>(presence));
+            payload.put("admin", presenceAdmin);
+            return payload;
+        }
+    }
+
+    /** Total joins, leaves and admin changes recorded. */
+    public long getChangesRecorded() {
+        return changesRecorded.get();
+    }
+
+    /** Number of presence updates actually broadcast. */
+    public long getUpdatesSent() {
+        return updatesSent.get();
+    }
+
+    /** Number of changes merged into another change's update instead of being sent on their own. */
+    public long getChangesCoalesced() {
+        return changesCoalesced.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        flush();
+    }
+}
+// END
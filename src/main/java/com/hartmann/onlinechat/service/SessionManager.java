@@ -6,9 +6,17 @@ import org.springframework.stereotype.Service;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 /**
  * Manages active chat sessions and server statistics.
@@ -20,129 +28,341 @@ import java.util.concurrent.CopyOnWriteArrayList;
 @Slf4j
 public class SessionManager {
 
-    private final CopyOnWriteArrayList<String> sessionOrder = new CopyOnWriteArrayList<>();
+    private static final Pattern ROOM_NAME = Pattern.compile("[a-z0-9_-]{1,32}");
+
+    // Server-wide join order; its head is the server admin
+    private final JoinOrder sessionOrder = new JoinOrder();
+    // Room name -> members in join order; its head is the room admin. Empty rooms are removed.
+    private final Map<String, JoinOrder> rooms = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> roomsBySession = new ConcurrentHashMap<>();
     private final Map<String, String> activeSessions = new ConcurrentHashMap<>();
+    // Normalized (trimmed, lower-case) username -> session ID, kept in sync with activeSessions
+    private final Map<String, String> sessionIdsByName = new ConcurrentHashMap<>();
+    // Striped per-session locks: registering, removing and room changes of one session never interleave
+    private final Object[] sessionLocks = new Object[64];
     private final Instant startTime;
     // START
-    private final org.springframework.messaging.simp.SimpMessagingTemplate messagingTemplate;
+    private final PresenceBroadcaster presenceBroadcaster;
+    // END
+    // START - Cluster mode: the admin is elected cluster-wide instead of from the local join order
+    private volatile boolean clusterMode;
+    private volatile String clusterAdminName;
+    private volatile String clusterAdminSessionId;
+    // END
+    // START - Metrics
+    private final AtomicLong sessionsAdded = new AtomicLong();
+    private final AtomicLong sessionsRemoved = new AtomicLong();
+    private final AtomicLong adminChanges = new AtomicLong();
     // END
 
-    public SessionManager(org.springframework.messaging.simp.SimpMessagingTemplate messagingTemplate) {
+    public SessionManager(PresenceBroadcaster presenceBroadcaster) {
         this.startTime = Instant.now();
-        this.messagingTemplate = messagingTemplate;
+        this.presenceBroadcaster = presenceBroadcaster;
+        for (int i = 0; i < sessionLocks.length; i++) {
+            sessionLocks[i] = new Object();
+        }
+    }
+
+    private Object lockFor(String sessionId) {
+        return sessionLocks[Math.floorMod(Objects.hashCode(sessionId), sessionLocks.length)];
     }
 
     /**
-     * Registers a new session.
+     * Registers a new session by atomically claiming its username.
+     * The username is reserved in a case-insensitive index before the session is
+     * stored, so two sessions racing for the same name cannot both succeed.
      * The first registered session becomes the admin.
      *
      * @param sessionId The unique session ID
      * @param username  The username associated with the session
+     * @return true if the session was registered, false if the username is taken
+     *         or the session is already registered
      */
-    public void addSession(String sessionId, String username) {
-        if (!activeSessions.containsKey(sessionId)) {
-            activeSessions.put(sessionId, username);
+    public boolean addSession(String sessionId, String username) {
+        String normalizedName = normalize(username);
+        if (normalizedName == null) {
+            return false;
+        }
+        // Under the session's lock a concurrent removeSession sees either nothing or the fully registered session
+        synchronized (lockFor(sessionId)) {
+            if (sessionIdsByName.putIfAbsent(normalizedName, sessionId) != null) {
+                return false;
+            }
+            if (activeSessions.putIfAbsent(sessionId, username) != null) {
+                // Session already registered under another name - release the reservation
+                sessionIdsByName.remove(normalizedName, sessionId);
+                return false;
+            }
+
             sessionOrder.add(sessionId);
-            log.info("Session added: {}. User: {}. Total sessions: {}", sessionId, username, activeSessions.size());
+            sessionsAdded.incrementAndGet();
+            log.debug("Session added: {}. User: {}. Total sessions: {}", sessionId, username, activeSessions.size());
 
-            if (isAdmin(sessionId)) {
-                log.info("Session {} ({}) is now the Admin.", sessionId, username);
-                broadcastAdminChange(username);
-            }
             // START
-            broadcastUserList();
+            presenceBroadcaster.userJoined(username);
             // END
         }
+        updateAdmin();
+        return true;
     }
 
     /**
-     * Removes a session.
+     * Removes a session and releases its username.
      * If the admin disconnects, the next user in line automatically becomes admin.
      *
      * @param sessionId The session ID to remove
      */
     public void removeSession(String sessionId) {
-        if (activeSessions.containsKey(sessionId)) {
-            boolean wasAdmin = isAdmin(sessionId);
-            String previousAdminName = activeSessions.get(sessionId);
-
-            activeSessions.remove(sessionId);
-            sessionOrder.remove(sessionId);
-            log.info("Session removed: {}. Remaining sessions: {}", sessionId, activeSessions.size());
-
-            if (wasAdmin) {
-                if (!sessionOrder.isEmpty()) {
-                    String newAdminId = sessionOrder.get(0);
-                    String newAdminName = activeSessions.get(newAdminId);
-                    log.info("Admin disconnected. New Admin is session {} ({})", newAdminId, newAdminName);
-                    broadcastAdminChange(newAdminName);
-                } else {
-                    log.info("All users disconnected. No Admin.");
-                }
+        synchronized (lockFor(sessionId)) {
+            // Leave the join order first so the admin never points at a removed session
+            if (!sessionOrder.remove(sessionId)) {
+                return;
             }
+            Set<String> joinedRooms = roomsBySession.remove(sessionId);
+            if (joinedRooms != null) {
+                joinedRooms.forEach(room -> leaveRoom(sessionId, room));
+            }
+            String username = activeSessions.remove(sessionId);
+            sessionIdsByName.remove(normalize(username), sessionId);
+            sessionsRemoved.incrementAndGet();
+            log.debug("Session removed: {}. Remaining sessions: {}", sessionId, activeSessions.size());
+
             // START
-            broadcastUserList();
+            presenceBroadcaster.userLeft(username);
             // END
         }
+        updateAdmin();
     }
 
-    private void broadcastAdminChange(String newAdminName) {
-        // Broadcast System Event
-        com.hartmann.onlinechat.chat.ChatMessage adminMessage = com.hartmann.onlinechat.chat.ChatMessage.builder()
-                .content("System: " + newAdminName + " is now the Server Admin.")
-                .sender("System")
-                .type(com.hartmann.onlinechat.chat.MessageType.BOT_MESSAGE)
-                .build();
+    private void updateAdmin() {
+        if (clusterMode) {
+            return;
+        }
+        sessionOrder.announceAdmin(adminId -> {
+            adminChanges.incrementAndGet();
+            if (adminId == null) {
+                log.info("All users disconnected. No Admin.");
+                presenceBroadcaster.adminChanged(null);
+                return;
+            }
+            String adminName = activeSessions.get(adminId);
+            if (adminName != null) {
+                log.info("Session {} ({}) is now the Admin.", adminId, adminName);
+                presenceBroadcaster.adminChanged(adminName);
+            }
+        });
+    }
 
-        messagingTemplate.convertAndSend("/topic/public", adminMessage);
+    // START - Cluster mode
+    /**
+     * Hands admin election over to the cluster. Must be called before the
+     * first session registers.
+     */
+    public void enableClusterMode() {
+        clusterMode = true;
     }
 
-    // START
-    private void broadcastUserList() {
-        try {
-            java.util.List<String> onlineUsers = new java.util.ArrayList<>(activeSessions.values());
-            java.util.Collections.sort(onlineUsers);
-
-            // Create a special message type or just send the list
-            // We'll reuse ChatMessage but with a special sender/type if needed,
-            // OR we can send a raw map/list if the frontend handles it.
-            // Let's stick to ChatMessage for simplicity, or a wrapper.
-            // Actually, let's send a standard message but with a special header or JSON
-            // body content if we can.
-            // Simpler: Map<String, Object> payload
-
-            Map<String, Object> payload = new java.util.HashMap<>();
-            payload.put("type", "USER_LIST");
-            payload.put("users", onlineUsers);
-            // START - Added Admin Info
-            payload.put("admin", getAdminUsername());
-            // END
+    /**
+     * Applies a cluster-wide admin hand-over.
+     *
+     * @param adminName      The new admin's username, or null if nobody is connected
+     * @param adminSessionId The admin's session ID if it is connected to this node, otherwise null
+     */
+    public void clusterAdminChanged(String adminName, String adminSessionId) {
+        clusterAdminName = adminName;
+        clusterAdminSessionId = adminSessionId;
+        adminChanges.incrementAndGet();
+        log.info("Cluster admin is now {} (local session: {}).", adminName, adminSessionId);
+        presenceBroadcaster.adminChanged(adminName);
+    }
+    // END
+
+    // START - Rooms
+    /**
+     * Adds a registered session to a room, creating the room on first join.
+     * The first member of a room becomes its admin.
+     *
+     * @param sessionId The session joining
+     * @param room      The normalized room name
+     * @return true if the session joined, false if it is unknown or already a member
+     */
+    public boolean joinRoom(String sessionId, String room) {
+        String username;
+        JoinOrder members;
+        // The session's lock keeps a concurrent removeSession from missing this membership
+        synchronized (lockFor(sessionId)) {
+            username = activeSessions.get(sessionId);
+            if (username == null) {
+                return false;
+            }
+            boolean[] joined = { false };
+            // compute() keeps the join atomic with respect to a concurrent removal of the empty room
+            members = rooms.compute(room, (name, existing) -> {
+                JoinOrder order = existing != null ? existing : new JoinOrder();
+                joined[0] = order.add(sessionId);
+                return order;
+            });
+            if (!joined[0]) {
+                return false;
+            }
+            roomsBySession.computeIfAbsent(sessionId, id -> ConcurrentHashMap.newKeySet()).add(room);
+            log.debug("Session {} ({}) joined room '{}'. Members: {}", sessionId, username, room, members.size());
+        }
+
+        presenceBroadcaster.roomUserJoined(room, username);
+        updateRoomAdmin(room, members);
+        return true;
+    }
 
-            messagingTemplate.convertAndSend("/topic/public", payload);
-            log.debug("Broadcasted user list: {}", onlineUsers);
-        } catch (Exception e) {
-            log.error("Failed to broadcast user list", e);
+    /**
+     * Removes a session from a room. The room is dropped once its last member leaves,
+     * otherwise the next member in join order becomes the room admin.
+     *
+     * @param sessionId The session leaving
+     * @param room      The normalized room name
+     * @return true if the session was a member
+     */
+    public boolean leaveRoom(String sessionId, String room) {
+        boolean[] left = { false };
+        JoinOrder[] members = { null };
+        String username;
+        synchronized (lockFor(sessionId)) {
+            rooms.computeIfPresent(room, (name, order) -> {
+                left[0] = order.remove(sessionId);
+                members[0] = order;
+                return order.isEmpty() ? null : order;
+            });
+            if (!left[0]) {
+                return false;
+            }
+            Set<String> joinedRooms = roomsBySession.get(sessionId);
+            if (joinedRooms != null) {
+                joinedRooms.remove(room);
+            }
+            username = activeSessions.get(sessionId);
+            log.debug("Session {} ({}) left room '{}'. Members: {}", sessionId, username, room, members[0].size());
         }
+
+        presenceBroadcaster.roomUserLeft(room, username);
+        updateRoomAdmin(room, members[0]);
+        return true;
+    }
+
+    private void updateRoomAdmin(String room, JoinOrder members) {
+        members.announceAdmin(adminId -> {
+            String adminName = adminId != null ? activeSessions.get(adminId) : null;
+            if (adminName != null) {
+                presenceBroadcaster.roomAdminChanged(room, adminName);
+            }
+        });
+    }
+
+    public boolean isRoomMember(String sessionId, String room) {
+        JoinOrder members = rooms.get(room);
+        return members != null && members.contains(sessionId);
+    }
+
+    /**
+     * @return The room admin's session ID, or null if the room does not exist
+     */
+    public String getRoomAdminSessionId(String room) {
+        JoinOrder members = rooms.get(room);
+        return members != null ? members.head() : null;
+    }
+
+    /**
+     * Returns a room's sorted member usernames and admin, sent to a session that
+     * just joined it. Cost is proportional to the room size.
+     *
+     * @param room The normalized room name
+     * @return ROOM_JOINED payload
+     */
+    public Map<String, Object> getRoomSnapshot(String room) {
+        JoinOrder members = rooms.get(room);
+        List<String> users = new ArrayList<>();
+        String admin = null;
+        if (members != null) {
+            for (String memberId : members.members()) {
+                String name = activeSessions.get(memberId);
+                if (name != null) {
+                    users.add(name);
+                }
+            }
+            String adminId = members.head();
+            admin = adminId != null ? activeSessions.get(adminId) : null;
+        }
+        Collections.sort(users);
+
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("type", "ROOM_JOINED");
+        payload.put("room", room);
+        payload.put("users", users);
+        payload.put("admin", admin);
+        return payload;
+    }
+
+    /**
+     * @return Names of all rooms that currently have members
+     */
+    public Set<String> getRoomNames() {
+        return Collections.unmodifiableSet(rooms.keySet());
+    }
+    // END
+
+    /**
+     * Returns the last broadcast presence snapshot (sorted usernames and admin).
+     * Sent to joining clients and to clients that missed a delta version.
+     *
+     * @return Versioned USER_LIST payload
+     */
+    public Map<String, Object> getPresenceSnapshot() {
+        return presenceBroadcaster.getPresenceSnapshot();
+    }
+
+    /**
+     * Retrieves the username registered for a session.
+     *
+     * @param sessionId The session ID
+     * @return The username or null if the session has not joined
+     */
+    public String getUsername(String sessionId) {
+        return activeSessions.get(sessionId);
     }
 
     /**
      * Retrieves the session ID for a given username.
-     * Case-insensitive match.
+     * Case-insensitive match, served from the normalized name index in O(1).
      * 
      * @param username The username to look up
      * @return The session ID or null if not found
      */
     public String getSessionIdByUsername(String username) {
-        if (username == null)
-            return null;
-        String searchName = username.trim().toLowerCase();
+        String normalizedName = normalize(username);
+        return normalizedName != null ? sessionIdsByName.get(normalizedName) : null;
+    }
 
-        for (Map.Entry<String, String> entry : activeSessions.entrySet()) {
-            if (entry.getValue().toLowerCase().equals(searchName)) {
-                return entry.getKey();
-            }
+    /**
+     * Normalizes a username for the case-insensitive index.
+     *
+     * @param username The raw username
+     * @return The trimmed, lower-cased name, or null if the input is null
+     */
+    private static String normalize(String username) {
+        return username != null ? username.trim().toLowerCase(Locale.ROOT) : null;
+    }
+
+    /**
+     * Normalizes and validates a room name.
+     *
+     * @param room The raw room name
+     * @return The lower-cased name, or null if it is missing or not 1-32 letters, digits, '-' or '_'
+     */
+    public static String normalizeRoomName(String room) {
+        if (room == null) {
+            return null;
         }
-        return null;
+        String normalized = room.trim().toLowerCase(Locale.ROOT);
+        return ROOM_NAME.matcher(normalized).matches() ? normalized : null;
     }
 
     /**
@@ -162,19 +382,24 @@ public class SessionManager {
      * @return true if the session is the Admin, false otherwise
      */
     public boolean isAdmin(String sessionId) {
-        return !sessionOrder.isEmpty() && sessionOrder.get(0).equals(sessionId);
+        return sessionId != null && sessionId.equals(getAdminSessionId());
     }
 
     /**
      * Retrieves the session ID of the current Admin.
      *
-     * @return The Admin's session ID, or null if no users are connected
+     * @return The Admin's session ID, or null if no users are connected (or, in
+     *         cluster mode, if the admin is connected to another node)
      */
     public String getAdminSessionId() {
-        return sessionOrder.isEmpty() ? null : sessionOrder.get(0);
+        return clusterMode ? clusterAdminSessionId : sessionOrder.head();
     }
 
     public String getAdminUsername() {
+        if (clusterMode) {
+            String adminName = clusterAdminName;
+            return adminName != null ? adminName : "None";
+        }
         String adminId = getAdminSessionId();
         return adminId != null ? activeSessions.get(adminId) : "None";
     }
@@ -190,5 +415,22 @@ public class SessionManager {
         long seconds = uptime.toSecondsPart();
         return String.format("%02d:%02d:%02d", hours, minutes, seconds);
     }
+
+    // START - Metrics
+    /** Total sessions registered since startup. */
+    public long getSessionsAdded() {
+        return sessionsAdded.get();
+    }
+
+    /** Total sessions removed since startup. */
+    public long getSessionsRemoved() {
+        return sessionsRemoved.get();
+    }
+
+    /** Total admin hand-overs, including the server becoming empty. */
+    public long getAdminChanges() {
+        return adminChanges.get();
+    }
+    // END
 }
 // END
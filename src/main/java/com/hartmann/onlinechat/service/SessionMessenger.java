@@ -0,0 +1,47 @@
+package com.hartmann.onlinechat.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Delivers payloads to a single WebSocket session through the user destination
+ * prefix instead of broadcasting them on /topic/public.
+ * Clients subscribe to /user/queue/private and only receive their own frames.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@Component
+@RequiredArgsConstructor
+public class SessionMessenger {
+
+    public static final String PRIVATE_QUEUE = "/queue/private";
+
+    private final SimpMessagingTemplate messagingTemplate;
+
+    /**
+     * Sends a payload to exactly one session.
+     *
+     * @param sessionId The target WebSocket session ID
+     * @param payload   The payload to convert and send
+     */
+    public void sendToSession(String sessionId, Object payload) {
+        messagingTemplate.convertAndSendToUser(sessionId, PRIVATE_QUEUE, payload, sessionHeaders(sessionId));
+    }
+
+    /**
+     * Builds headers that let the user destination resolver match the session ID
+     * directly, so no authenticated Principal is required.
+     */
+    private MessageHeaders sessionHeaders(String sessionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setLeaveMutable(true);
+        return accessor.getMessageHeaders();
+    }
+}
+// END
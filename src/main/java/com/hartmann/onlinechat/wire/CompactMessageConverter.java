@@ -0,0 +1,167 @@
+package com.hartmann.onlinechat.wire;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.hartmann.onlinechat.chat.ChatMessage;
+import com.hartmann.onlinechat.chat.MessageType;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.AbstractMessageConverter;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Compact wire format for clients that ask for it at STOMP CONNECT.
+ * A {@link ChatMessage} is written positionally as
+ * {@code [type, sender, content, room, targetSessionId]} with the type as a
+ * small integer code and trailing nulls left out, so a public chat message
+ * becomes {@code [0,"Alice","hi"]} instead of an object repeating every
+ * field name and null. Other payloads (presence, room snapshots, history
+ * replay) keep their JSON shape, with any chat messages inside them compacted.
+ * <p>
+ * The format stays valid UTF-8 JSON text on purpose: the browser client talks
+ * STOMP over SockJS, whose transports are text-only, and stomp.js splits
+ * frames on NUL bytes, so a binary body could not survive the trip.
+ * <p>
+ * Only used when the content type is {@link #COMPACT_JSON} (strict matching),
+ * so plain JSON stays the default for everything else.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@Component
+public class CompactMessageConverter extends AbstractMessageConverter {
+
+    public static final MimeType COMPACT_JSON = MimeType.valueOf("application/vnd.onlinechat.compact+json");
+
+    // Wire codes by position. Append only - main.js decodes with the same table.
+    private static final MessageType[] TYPE_CODES = {
+            MessageType.CHAT, MessageType.JOIN, MessageType.LEAVE, MessageType.BOT_MESSAGE,
+            MessageType.JOIN_REJECTED };
+    private static final Map<MessageType, Integer> CODES_BY_TYPE = new EnumMap<>(MessageType.class);
+
+    static {
+        for (int code = 0; code < TYPE_CODES.length; code++) {
+            CODES_BY_TYPE.put(TYPE_CODES[code], code);
+        }
+        if (CODES_BY_TYPE.size() != MessageType.values().length) {
+            throw new IllegalStateException("Every MessageType needs a compact wire code");
+        }
+    }
+
+    private final ObjectMapper compactMapper;
+
+    public CompactMessageConverter(ObjectMapper objectMapper) {
+        super(COMPACT_JSON);
+        setStrictContentTypeMatch(true);
+        this.compactMapper = objectMapper.copy().registerModule(new SimpleModule("compact-chat-message")
+                .addSerializer(ChatMessage.class, new ChatMessageSerializer())
+                .addDeserializer(ChatMessage.class, new ChatMessageDeserializer()));
+    }
+
+    /**
+     * Encodes a payload in the compact format.
+     *
+     * @param payload The payload, as passed to the messaging template
+     * @return UTF-8 encoded compact JSON
+     */
+    public byte[] encode(Object payload) {
+        try {
+            return compactMapper.writeValueAsBytes(payload);
+        } catch (IOException e) {
+            throw new MessageConversionException("Could not encode compact payload: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return true;
+    }
+
+    @Override
+    protected Object convertFromInternal(Message<?> message, Class<?> targetClass, Object conversionHint) {
+        Object payload = message.getPayload();
+        try {
+            return payload instanceof byte[] bytes ? compactMapper.readValue(bytes, targetClass)
+                    : compactMapper.readValue(payload.toString(), targetClass);
+        } catch (IOException e) {
+            throw new MessageConversionException(message, "Could not decode compact payload: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected Object convertToInternal(Object payload, MessageHeaders headers, Object conversionHint) {
+        return encode(payload);
+    }
+
+    private static final class ChatMessageSerializer extends JsonSerializer<ChatMessage> {
+
+        @Override
+        public void serialize(ChatMessage message, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            String[] fields = { message.getSender(), message.getContent(), message.getRoom(),
+                    message.getTargetSessionId() };
+            int length = fields.length;
+            while (length > 0 && fields[length - 1] == null) {
+                length--;
+            }
+            generator.writeStartArray(message, length + 1);
+            if (message.getType() != null) {
+                generator.writeNumber(CODES_BY_TYPE.get(message.getType()));
+            } else {
+                generator.writeNull();
+            }
+            for (int i = 0; i < length; i++) {
+                generator.writeString(fields[i]);
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    private static final class ChatMessageDeserializer extends JsonDeserializer<ChatMessage> {
+
+        @Override
+        public ChatMessage deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            if (!parser.isExpectedStartArrayToken()) {
+                return context.reportInputMismatch(ChatMessage.class, "Compact chat message must be an array");
+            }
+            ChatMessage.ChatMessageBuilder builder = ChatMessage.builder();
+            int index = 0;
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token != JsonToken.VALUE_NULL) {
+                    switch (index) {
+                        case 0 -> builder.type(typeFor(parser.getIntValue(), context));
+                        case 1 -> builder.sender(parser.getText());
+                        case 2 -> builder.content(parser.getText());
+                        case 3 -> builder.room(parser.getText());
+                        case 4 -> builder.targetSessionId(parser.getText());
+                        default -> parser.skipChildren();
+                    }
+                }
+                index++;
+            }
+            return builder.build();
+        }
+
+        private static MessageType typeFor(int code, DeserializationContext context) throws IOException {
+            if (code < 0 || code >= TYPE_CODES.length) {
+                return context.reportInputMismatch(MessageType.class, "Unknown message type code %d", code);
+            }
+            return TYPE_CODES[code];
+        }
+    }
+}
+// END
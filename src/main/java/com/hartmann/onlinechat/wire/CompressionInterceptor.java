@@ -0,0 +1,229 @@
+package com.hartmann.onlinechat.wire;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+/**
+ * Per-frame deflate compression for clients that ask for it at STOMP CONNECT
+ * with {@value #COMPRESSION_HEADER}: {@value #DEFLATE}. Frames below
+ * chat.compression.min-size bytes are sent as they are, so small chat frames
+ * cost no deflate CPU. Larger frame bodies are raw-deflated against a preset
+ * dictionary shared with the client (the payload keys and types every frame
+ * repeats), base64 encoded because the SockJS transports carry text only, and
+ * marked with the {@value #COMPRESSION_HEADER} header.
+ * <p>
+ * Every frame is compressed on its own, without context takeover, by a
+ * Deflater borrowed from a bounded pool, so deflate memory is bounded by the
+ * pool size instead of growing with the number of connections. A broadcast
+ * body is compressed once and the result shared by all its subscribers.
+ * Installed on the client inbound channel it records the choice; the
+ * interceptor returned by {@link #outboundInterceptor()} goes on the client
+ * outbound channel after {@link WireFormatInterceptor}.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@Component
+@Slf4j
+public class CompressionInterceptor implements ChannelInterceptor {
+
+    public static final String COMPRESSION_HEADER = "chat-compression";
+    public static final String DEFLATE = "deflate";
+    // Served to the browser as /compression-dictionary.txt, so both sides use the same bytes
+    static final String DICTIONARY_RESOURCE = "static/compression-dictionary.txt";
+
+    // Recently compressed bodies, indexed by identity hash; a collision just compresses again
+    private static final int CACHE_SLOTS = 64;
+
+    private final boolean enabled;
+    private final int minSize;
+    private final int level;
+    private final byte[] dictionary;
+    private final BlockingQueue<Deflater> deflaters;
+    private final Set<String> compressedSessions = ConcurrentHashMap.newKeySet();
+    private final AtomicReferenceArray<Compressed> compressedCache = new AtomicReferenceArray<>(CACHE_SLOTS);
+    private final LongAdder compressedFrames = new LongAdder();
+    private final LongAdder skippedFrames = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder compressions = new LongAdder();
+    private final LongAdder compressionNanos = new LongAdder();
+    private final ChannelInterceptor outboundInterceptor = new ChannelInterceptor() {
+        @Override
+        public Message<?> preSend(Message<?> message, MessageChannel channel) {
+            return compressForSession(message);
+        }
+    };
+
+    public CompressionInterceptor(@Value("${chat.compression.enabled:true}") boolean enabled,
+            @Value("${chat.compression.min-size:1024}") int minSize,
+            @Value("${chat.compression.level:6}") int level,
+            @Value("${chat.compression.deflater-pool-size:8}") int deflaterPoolSize) throws IOException {
+        this.enabled = enabled;
+        this.minSize = minSize;
+        this.level = level;
+        this.deflaters = new ArrayBlockingQueue<>(Math.max(1, deflaterPoolSize));
+        try (InputStream in = new ClassPathResource(DICTIONARY_RESOURCE).getInputStream()) {
+            this.dictionary = in.readAllBytes();
+        }
+    }
+
+    /** Interceptor for the client outbound channel that compresses large frames for negotiating sessions. */
+    public ChannelInterceptor outboundInterceptor() {
+        return outboundInterceptor;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (enabled && SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.CONNECT) {
+            StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
+            if (DEFLATE.equalsIgnoreCase(accessor.getFirstNativeHeader(COMPRESSION_HEADER))) {
+                compressedSessions.add(accessor.getSessionId());
+                log.debug("Session {} accepts deflate compressed frames", accessor.getSessionId());
+            }
+        }
+        return message;
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        compressedSessions.remove(event.getSessionId());
+    }
+
+    private Message<?> compressForSession(Message<?> message) {
+        if (compressedSessions.isEmpty() || !(message.getPayload() instanceof byte[] body)
+                || !compressedSessions.contains(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()))) {
+            return message;
+        }
+        if (body.length < minSize) {
+            skippedFrames.increment();
+            return message;
+        }
+        byte[] compressed = compressed(body);
+        if (compressed == null) {
+            skippedFrames.increment();
+            return message;
+        }
+        compressedFrames.increment();
+        rawBytes.add(body.length);
+        compressedBytes.add(compressed.length);
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        accessor.setNativeHeader(COMPRESSION_HEADER, DEFLATE);
+        return MessageBuilder.createMessage(compressed, accessor.getMessageHeaders());
+    }
+
+    /**
+     * @return The base64 encoded deflate stream, or null if it is not smaller than the body
+     */
+    private byte[] compressed(byte[] body) {
+        int slot = System.identityHashCode(body) & (CACHE_SLOTS - 1);
+        Compressed cached = compressedCache.get(slot);
+        if (cached != null && cached.body == body) {
+            return cached.compressed;
+        }
+        byte[] compressed = compress(body);
+        compressedCache.set(slot, new Compressed(body, compressed));
+        return compressed;
+    }
+
+    /**
+     * Compresses a frame body on its own, as a raw deflate stream preset with the shared dictionary.
+     *
+     * @return The base64 encoded deflate stream, or null if it is not smaller than the body
+     */
+    byte[] compress(byte[] body) {
+        long start = System.nanoTime();
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        }
+        try {
+            deflater.setDictionary(dictionary);
+            deflater.setInput(body);
+            deflater.finish();
+            byte[] buffer = new byte[body.length / 2 + 64];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            // Base64 grows the stream by a third; compressing must still pay off after that
+            if ((length + 2) / 3 * 4 >= body.length) {
+                return null;
+            }
+            return Base64.getEncoder().encode(length == buffer.length ? buffer : Arrays.copyOf(buffer, length));
+        } finally {
+            deflater.reset();
+            if (!deflaters.offer(deflater)) {
+                deflater.end();
+            }
+            compressions.increment();
+            compressionNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /** Frames sent deflate compressed. */
+    public long getCompressedFrames() {
+        return compressedFrames.sum();
+    }
+
+    /** Frames to compressing sessions sent as they are: below the minimum size or incompressible. */
+    public long getSkippedFrames() {
+        return skippedFrames.sum();
+    }
+
+    /** Body bytes of the compressed frames before compression. */
+    public long getRawBytes() {
+        return rawBytes.sum();
+    }
+
+    /** Body bytes of the compressed frames as sent, base64 included. */
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    /** Compressed size relative to the raw size, 1.0 before anything was compressed. */
+    public double getCompressionRatio() {
+        long raw = rawBytes.sum();
+        return raw > 0 ? (double) compressedBytes.sum() / raw : 1.0;
+    }
+
+    /** Frame bodies run through deflate; lower than compressed frames when broadcasts share a result. */
+    public long getCompressions() {
+        return compressions.sum();
+    }
+
+    /** Time spent compressing, in nanoseconds. */
+    public double getCompressionNanos() {
+        return compressionNanos.sum();
+    }
+
+    private record Compressed(byte[] body, byte[] compressed) {
+    }
+}
+// END
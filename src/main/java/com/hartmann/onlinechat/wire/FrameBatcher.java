@@ -0,0 +1,288 @@
+package com.hartmann.onlinechat.wire;
+
+import com.hartmann.onlinechat.chat.ChatMessage;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Gathers the chat messages a session receives on a /topic destination into
+ * batch frames. A client asks for it at STOMP CONNECT with
+ * {@value #BATCH_HEADER}: {@code <window ms>[,<max messages>]}, capped by
+ * chat.batching.max-window-ms and chat.batching.max-messages. A message that
+ * finds the session quiet is sent at once and opens a window; messages
+ * arriving within the window are held back and sent together when it ends,
+ * or as soon as chat.batching.max-messages or chat.batching.max-bytes are
+ * reached. A batch frame's body is the JSON array of the held-back bodies and
+ * its {@value #BATCH_HEADER} header carries the message count. A lone message
+ * on a quiet topic costs no latency; at high rates a session gets one frame
+ * and one socket write per window instead of one per message.
+ * <p>
+ * Only messages whose payload is a {@link ChatMessage} are batched; presence
+ * updates and everything sent to the session's own queues go out at once.
+ * Installed on the client inbound channel it records the settings; the
+ * interceptor returned by {@link #outboundInterceptor()} goes first on the
+ * client outbound channel. A batch frame is sent through the same channel, so
+ * it passes the {@code SlowConsumerGuard} as one essential frame, and its
+ * original payloads, set as its source payload, are re-encoded for compact
+ * sessions by {@link WireFormatInterceptor}.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@Component
+@Slf4j
+public class FrameBatcher implements ChannelInterceptor {
+
+    public static final String BATCH_HEADER = "chat-batch";
+
+    private static final String TOPIC_PREFIX = "/topic/";
+
+    private final boolean enabled;
+    private final long maxWindowMs;
+    private final int maxMessages;
+    private final int maxBytes;
+    private final Map<String, SessionBatches> sessions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private final LongAdder batchedMessages = new LongAdder();
+    private final LongAdder batchFrames = new LongAdder();
+    private final ChannelInterceptor outboundInterceptor = new ChannelInterceptor() {
+        @Override
+        public Message<?> preSend(Message<?> message, MessageChannel channel) {
+            return batch(message, channel);
+        }
+    };
+
+    public FrameBatcher(@Value("${chat.batching.enabled:true}") boolean enabled,
+            @Value("${chat.batching.max-window-ms:25}") long maxWindowMs,
+            @Value("${chat.batching.max-messages:64}") int maxMessages,
+            @Value("${chat.batching.max-bytes:32768}") int maxBytes) {
+        this.enabled = enabled;
+        this.maxWindowMs = maxWindowMs;
+        this.maxMessages = Math.max(2, maxMessages);
+        this.maxBytes = maxBytes;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "frame-batch-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Interceptor for the client outbound channel that holds back topic messages for batching sessions. */
+    public ChannelInterceptor outboundInterceptor() {
+        return outboundInterceptor;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (enabled && SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.CONNECT) {
+            StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
+            String settings = accessor.getFirstNativeHeader(BATCH_HEADER);
+            SessionBatches batches = settings != null ? parse(settings) : null;
+            if (batches != null) {
+                sessions.put(accessor.getSessionId(), batches);
+                log.debug("Session {} receives batches: {} ms window, up to {} messages", accessor.getSessionId(),
+                        TimeUnit.NANOSECONDS.toMillis(batches.windowNanos), batches.maxMessages);
+            }
+        }
+        return message;
+    }
+
+    /** Parses {@code <window ms>[,<max messages>]}, capped by the server limits; null for no batching. */
+    private SessionBatches parse(String settings) {
+        String[] parts = settings.split(",");
+        try {
+            long windowMs = Math.min(Long.parseLong(parts[0].trim()), maxWindowMs);
+            int messages = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : maxMessages;
+            if (windowMs <= 0 || messages < 2) {
+                return null;
+            }
+            return new SessionBatches(TimeUnit.MILLISECONDS.toNanos(windowMs), Math.min(messages, maxMessages));
+        } catch (NumberFormatException e) {
+            log.debug("Ignoring invalid {} header: {}", BATCH_HEADER, settings);
+            return null;
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        SessionBatches batches = sessions.remove(event.getSessionId());
+        if (batches != null) {
+            batches.discard();
+        }
+    }
+
+    private Message<?> batch(Message<?> message, MessageChannel channel) {
+        if (sessions.isEmpty() || !(message.getPayload() instanceof byte[] payload)) {
+            return message;
+        }
+        MessageHeaders headers = message.getHeaders();
+        SessionBatches batches = sessions.get(SimpMessageHeaderAccessor.getSessionId(headers));
+        if (batches == null
+                || !(headers.get(SourceTrackingJsonMessageConverter.SOURCE_PAYLOAD_HEADER) instanceof ChatMessage)) {
+            return message;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        if (destination == null || !destination.startsWith(TOPIC_PREFIX)) {
+            return message;
+        }
+        return batches.batchFor(destination).offer(message, payload, channel, System.nanoTime());
+    }
+
+    /** Sessions that negotiated batching. */
+    public int getBatchingSessions() {
+        return sessions.size();
+    }
+
+    /** Messages sent inside batch frames. */
+    public long getBatchedMessages() {
+        return batchedMessages.sum();
+    }
+
+    /** Batch frames sent. */
+    public long getBatchFrames() {
+        return batchFrames.sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdownNow();
+    }
+
+    /** The settings of one session and its batch per topic. */
+    private final class SessionBatches {
+
+        private final long windowNanos;
+        private final int maxMessages;
+        private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+
+        SessionBatches(long windowNanos, int maxMessages) {
+            this.windowNanos = windowNanos;
+            this.maxMessages = maxMessages;
+        }
+
+        Batch batchFor(String destination) {
+            Batch batch = batches.get(destination);
+            return batch != null ? batch : batches.computeIfAbsent(destination, d -> new Batch(this));
+        }
+
+        void discard() {
+            batches.values().forEach(Batch::discard);
+        }
+    }
+
+    /** The held-back messages of one session on one topic; guarded by its own monitor. */
+    private final class Batch {
+
+        private final SessionBatches settings;
+        private final List<Message<?>> pending = new ArrayList<>();
+        private int pendingBytes;
+        // System.nanoTime() at which the current window ends; a message arriving later finds the topic quiet
+        private long windowEnd = System.nanoTime();
+        private MessageChannel channel;
+        private ScheduledFuture<?> scheduledFlush;
+        private boolean discarded;
+
+        Batch(SessionBatches settings) {
+            this.settings = settings;
+        }
+
+        synchronized Message<?> offer(Message<?> message, byte[] payload, MessageChannel channel, long now) {
+            if (discarded || pending.isEmpty() && now - windowEnd >= 0) {
+                windowEnd = now + settings.windowNanos;
+                return message;
+            }
+            pending.add(message);
+            pendingBytes += payload.length;
+            this.channel = channel;
+            if (pending.size() >= settings.maxMessages || pendingBytes >= maxBytes) {
+                flush(now);
+            } else if (pending.size() == 1) {
+                scheduledFlush = flusher.schedule(this::flushDue, windowEnd - now, TimeUnit.NANOSECONDS);
+            }
+            return null;
+        }
+
+        private synchronized void flushDue() {
+            scheduledFlush = null;
+            if (!pending.isEmpty()) {
+                flush(System.nanoTime());
+            }
+        }
+
+        /** Sends the pending messages as one frame and opens the next window; batches keep their order. */
+        private void flush(long now) {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            Message<?> frame = toBatchFrame();
+            int count = pending.size();
+            pending.clear();
+            pendingBytes = 0;
+            windowEnd = now + settings.windowNanos;
+            try {
+                channel.send(frame);
+                batchedMessages.add(count);
+                batchFrames.increment();
+            } catch (RuntimeException e) {
+                log.debug("Failed to send a batch of {} messages to session {}", count,
+                        SimpMessageHeaderAccessor.getSessionId(frame.getHeaders()), e);
+            }
+        }
+
+        /** The pending bodies as one JSON array, with the headers of the first message. */
+        private Message<?> toBatchFrame() {
+            byte[] body = new byte[pendingBytes + pending.size() + 1];
+            List<Object> sources = new ArrayList<>(pending.size());
+            body[0] = '[';
+            int position = 1;
+            for (Message<?> message : pending) {
+                if (position > 1) {
+                    body[position++] = ',';
+                }
+                byte[] payload = (byte[]) message.getPayload();
+                System.arraycopy(payload, 0, body, position, payload.length);
+                position += payload.length;
+                sources.add(message.getHeaders().get(SourceTrackingJsonMessageConverter.SOURCE_PAYLOAD_HEADER));
+            }
+            body[position] = ']';
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(pending.get(0));
+            accessor.setNativeHeader(BATCH_HEADER, Integer.toString(pending.size()));
+            accessor.setHeader(SourceTrackingJsonMessageConverter.SOURCE_PAYLOAD_HEADER, sources);
+            return MessageBuilder.createMessage(body, accessor.getMessageHeaders());
+        }
+
+        synchronized void discard() {
+            discarded = true;
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            pending.clear();
+            pendingBytes = 0;
+        }
+    }
+}
+// END
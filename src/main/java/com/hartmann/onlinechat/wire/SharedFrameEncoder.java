@@ -0,0 +1,219 @@
+package com.hartmann.onlinechat.wire;
+
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.NativeMessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * STOMP encoder that encodes a broadcast once instead of once per subscriber.
+ * The simple broker hands every subscriber the same payload array with the
+ * same headers, except for the per-subscription {@code subscription} and
+ * {@code message-id} headers. The first MESSAGE frame for a payload encodes
+ * everything else (the remaining headers, content length and body) into a
+ * shared tail, and the broadcast gets a single message ID. Subscribers with
+ * the same subscription ID, which browser clients usually share because they
+ * number their subscriptions in the same order, then receive the very same
+ * read-only frame array. A few such frames are kept per broadcast; beyond
+ * that, subscribers get a copy of the tail behind their own two header lines.
+ * <p>
+ * Installed on the STOMP sub-protocol handler by {@code WebSocketConfig}.
+ * Frames other than MESSAGE, and payloads whose headers differ from the cached
+ * ones, are encoded by {@link StompEncoder} as usual.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@Component
+public class SharedFrameEncoder extends StompEncoder {
+
+    private static final String SUBSCRIPTION = StompHeaderAccessor.STOMP_SUBSCRIPTION_HEADER;
+    private static final String MESSAGE_ID = StompHeaderAccessor.STOMP_MESSAGE_ID_HEADER;
+    private static final byte[] MESSAGE_LINE = "MESSAGE\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SUBSCRIPTION_KEY = (SUBSCRIPTION + ':').getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MESSAGE_ID_KEY = ('\n' + MESSAGE_ID + ':').getBytes(StandardCharsets.UTF_8);
+
+    // Recently encoded broadcasts, indexed by identity hash of the payload; a collision just encodes again
+    private static final int CACHE_SLOTS = 64;
+    // Complete frames kept per broadcast, one per subscription ID; further IDs get assembled frames
+    private static final int FRAMES_PER_BROADCAST = 4;
+
+    private final AtomicReferenceArray<SharedFrame> frameCache = new AtomicReferenceArray<>(CACHE_SLOTS);
+    private final AtomicLong broadcastIds = new AtomicLong();
+    private final LongAdder sharedFrames = new LongAdder();
+    private final LongAdder assembledFrames = new LongAdder();
+    private final LongAdder frameEncodings = new LongAdder();
+
+    @Override
+    public byte[] encode(Map<String, Object> headers, byte[] payload) {
+        @SuppressWarnings("unchecked")
+        Map<String, List<String>> nativeHeaders =
+                (Map<String, List<String>>) headers.get(NativeMessageHeaderAccessor.NATIVE_HEADERS);
+        String subscription = nativeHeaders != null ? first(nativeHeaders.get(SUBSCRIPTION)) : null;
+        if (subscription == null || payload.length == 0
+                || StompHeaderAccessor.getCommand(headers) != StompCommand.MESSAGE) {
+            return super.encode(headers, payload);
+        }
+        int slot = System.identityHashCode(payload) & (CACHE_SLOTS - 1);
+        SharedFrame shared = frameCache.get(slot);
+        if (shared == null || shared.payload != payload || !shared.hasHeaders(nativeHeaders)) {
+            shared = encodeShared(headers, nativeHeaders, payload);
+            frameCache.set(slot, shared);
+        }
+        byte[] frame = shared.frameFor(subscription);
+        if (frame != null) {
+            sharedFrames.increment();
+            return frame;
+        }
+        frame = assemble(subscription, shared);
+        shared.keepFrame(subscription, frame);
+        assembledFrames.increment();
+        return frame;
+    }
+
+    private SharedFrame encodeShared(Map<String, Object> headers, Map<String, List<String>> nativeHeaders,
+            byte[] payload) {
+        Map<String, List<String>> sharedHeaders = new LinkedHashMap<>(nativeHeaders);
+        sharedHeaders.remove(SUBSCRIPTION);
+        sharedHeaders.remove(MESSAGE_ID);
+        Map<String, Object> sharedMessageHeaders = new HashMap<>(headers);
+        sharedMessageHeaders.put(NativeMessageHeaderAccessor.NATIVE_HEADERS, sharedHeaders);
+        byte[] encoded = super.encode(sharedMessageHeaders, payload);
+        byte[] tail = new byte[encoded.length - MESSAGE_LINE.length];
+        System.arraycopy(encoded, MESSAGE_LINE.length, tail, 0, tail.length);
+        frameEncodings.increment();
+        String messageId = "b-" + broadcastIds.incrementAndGet();
+        return new SharedFrame(payload, sharedHeaders, messageId.getBytes(StandardCharsets.UTF_8), tail);
+    }
+
+    /** MESSAGE, the subscription and message ID header lines, then the shared tail. */
+    private static byte[] assemble(String subscription, SharedFrame shared) {
+        byte[] subscriptionBytes = escape(subscription).getBytes(StandardCharsets.UTF_8);
+        byte[] frame = new byte[MESSAGE_LINE.length + SUBSCRIPTION_KEY.length + subscriptionBytes.length
+                + MESSAGE_ID_KEY.length + shared.messageId.length + 1 + shared.tail.length];
+        int position = put(MESSAGE_LINE, frame, 0);
+        position = put(SUBSCRIPTION_KEY, frame, position);
+        position = put(subscriptionBytes, frame, position);
+        position = put(MESSAGE_ID_KEY, frame, position);
+        position = put(shared.messageId, frame, position);
+        frame[position++] = '\n';
+        put(shared.tail, frame, position);
+        return frame;
+    }
+
+    private static int put(byte[] source, byte[] target, int position) {
+        System.arraycopy(source, 0, target, position, source.length);
+        return position + source.length;
+    }
+
+    /** STOMP 1.2 header value escaping, as done by {@link StompEncoder} for MESSAGE frames. */
+    private static String escape(String value) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            String replacement = switch (value.charAt(i)) {
+                case '\\' -> "\\\\";
+                case ':' -> "\\c";
+                case '\n' -> "\\n";
+                case '\r' -> "\\r";
+                default -> null;
+            };
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(value.length() + 8).append(value, 0, i);
+            }
+            if (escaped != null) {
+                escaped.append(replacement != null ? replacement : value.charAt(i));
+            }
+        }
+        return escaped != null ? escaped.toString() : value;
+    }
+
+    private static String first(List<String> values) {
+        return values != null && !values.isEmpty() ? values.get(0) : null;
+    }
+
+    /** MESSAGE frames sent as the frame array of another subscriber. */
+    public long getSharedFrames() {
+        return sharedFrames.sum();
+    }
+
+    /** MESSAGE frames assembled from their own header lines and the shared tail. */
+    public long getAssembledFrames() {
+        return assembledFrames.sum();
+    }
+
+    /** Broadcast tails encoded; one per broadcast unless the cache slot was taken in between. */
+    public long getFrameEncodings() {
+        return frameEncodings.sum();
+    }
+
+    private static final class SharedFrame {
+
+        private final byte[] payload;
+        // The shared headers as arrays, so checking a subscriber's headers allocates nothing
+        private final String[] headerNames;
+        private final List<?>[] headerValues;
+        private final byte[] messageId;
+        private final byte[] tail;
+        private final AtomicReferenceArray<Frame> frames = new AtomicReferenceArray<>(FRAMES_PER_BROADCAST);
+
+        SharedFrame(byte[] payload, Map<String, List<String>> headers, byte[] messageId, byte[] tail) {
+            this.payload = payload;
+            this.headerNames = headers.keySet().toArray(new String[0]);
+            this.headerValues = headers.values().toArray(new List<?>[0]);
+            this.messageId = messageId;
+            this.tail = tail;
+        }
+
+        /** Whether the headers equal the shared ones, leaving out the per-subscription headers. */
+        boolean hasHeaders(Map<String, List<String>> nativeHeaders) {
+            int perSubscription = nativeHeaders.containsKey(MESSAGE_ID) ? 2 : 1;
+            if (nativeHeaders.size() != headerNames.length + perSubscription) {
+                return false;
+            }
+            for (int i = 0; i < headerNames.length; i++) {
+                if (!Objects.equals(headerValues[i], nativeHeaders.get(headerNames[i]))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** The complete frame for a subscription ID, if one was kept. */
+        byte[] frameFor(String subscription) {
+            for (int i = 0; i < FRAMES_PER_BROADCAST; i++) {
+                Frame frame = frames.get(i);
+                if (frame == null) {
+                    return null;
+                }
+                if (frame.subscription.equals(subscription)) {
+                    return frame.bytes;
+                }
+            }
+            return null;
+        }
+
+        void keepFrame(String subscription, byte[] bytes) {
+            Frame frame = new Frame(subscription, bytes);
+            for (int i = 0; i < FRAMES_PER_BROADCAST; i++) {
+                if (frames.compareAndSet(i, null, frame)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private record Frame(String subscription, byte[] bytes) {
+    }
+}
+// END
@@ -0,0 +1,73 @@
+package com.hartmann.onlinechat.wire;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.DefaultContentTypeResolver;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.SmartMessageConverter;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.util.MimeTypeUtils;
+
+/**
+ * Wraps the JSON converter so that outgoing messages also carry the payload
+ * object they were converted from in the {@link #SOURCE_PAYLOAD_HEADER}
+ * header. The simple broker copies headers to every subscriber's message, so
+ * {@link WireFormatInterceptor} can encode a broadcast in the compact format
+ * once, from the object, instead of re-parsing the JSON per session.
+ * The header is internal and never written to the wire. Strings and byte
+ * arrays are left to the string and byte array converters, as before.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+public class SourceTrackingJsonMessageConverter implements SmartMessageConverter {
+
+    public static final String SOURCE_PAYLOAD_HEADER = "chatSourcePayload";
+
+    private final MappingJackson2MessageConverter json;
+
+    public SourceTrackingJsonMessageConverter(ObjectMapper objectMapper) {
+        DefaultContentTypeResolver resolver = new DefaultContentTypeResolver();
+        resolver.setDefaultMimeType(MimeTypeUtils.APPLICATION_JSON);
+        this.json = new MappingJackson2MessageConverter(objectMapper);
+        json.setContentTypeResolver(resolver);
+    }
+
+    @Override
+    public Object fromMessage(Message<?> message, Class<?> targetClass) {
+        return fromMessage(message, targetClass, null);
+    }
+
+    @Override
+    public Object fromMessage(Message<?> message, Class<?> targetClass, Object conversionHint) {
+        if (targetClass == String.class || targetClass == byte[].class) {
+            return null;
+        }
+        return json.fromMessage(message, targetClass, conversionHint);
+    }
+
+    @Override
+    public Message<?> toMessage(Object payload, MessageHeaders headers) {
+        return toMessage(payload, headers, null);
+    }
+
+    @Override
+    public Message<?> toMessage(Object payload, MessageHeaders headers, Object conversionHint) {
+        if (payload instanceof String || payload instanceof byte[]) {
+            return null;
+        }
+        Message<?> message = json.toMessage(payload, headers, conversionHint);
+        if (message == null) {
+            return null;
+        }
+        MessageHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, MessageHeaderAccessor.class);
+        if (accessor != null && accessor.isMutable()) {
+            accessor.setHeader(SOURCE_PAYLOAD_HEADER, payload);
+            return message;
+        }
+        return MessageBuilder.fromMessage(message).setHeader(SOURCE_PAYLOAD_HEADER, payload).build();
+    }
+}
+// END
@@ -0,0 +1,74 @@
+package com.hartmann.onlinechat.wire;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Hides the permessage-deflate offer from the WebSocket handshake, so Tomcat
+ * does not negotiate its built-in transport compression. Tomcat keeps a
+ * Deflater and an Inflater with full context takeover for every connection
+ * that negotiated it, roughly 300 KB of native memory each, and compresses
+ * every frame regardless of size. With chat.compression.transport-deflate=false
+ * frames are compressed by {@link CompressionInterceptor} instead, which
+ * skips small frames and draws from a bounded Deflater pool.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+public class TransportDeflateFilter extends OncePerRequestFilter {
+
+    static final String EXTENSIONS_HEADER = "Sec-WebSocket-Extensions";
+    private static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (request.getHeader(EXTENSIONS_HEADER) == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        chain.doFilter(new HttpServletRequestWrapper(request) {
+            @Override
+            public String getHeader(String name) {
+                if (!EXTENSIONS_HEADER.equalsIgnoreCase(name)) {
+                    return super.getHeader(name);
+                }
+                List<String> extensions = withoutDeflate(super.getHeaders(name));
+                return extensions.isEmpty() ? null : String.join(", ", extensions);
+            }
+
+            @Override
+            public Enumeration<String> getHeaders(String name) {
+                if (!EXTENSIONS_HEADER.equalsIgnoreCase(name)) {
+                    return super.getHeaders(name);
+                }
+                return Collections.enumeration(withoutDeflate(super.getHeaders(name)));
+            }
+        }, response);
+    }
+
+    private static List<String> withoutDeflate(Enumeration<String> headers) {
+        List<String> extensions = new ArrayList<>();
+        while (headers.hasMoreElements()) {
+            for (String extension : headers.nextElement().split(",")) {
+                String trimmed = extension.trim();
+                if (!trimmed.isEmpty() && !trimmed.regionMatches(true, 0, PERMESSAGE_DEFLATE, 0,
+                        PERMESSAGE_DEFLATE.length())) {
+                    extensions.add(trimmed);
+                }
+            }
+        }
+        return extensions;
+    }
+}
+// END
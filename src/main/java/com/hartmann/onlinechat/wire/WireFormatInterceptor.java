@@ -0,0 +1,130 @@
+package com.hartmann.onlinechat.wire;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Negotiates the wire format per connection. A client that sends the
+ * {@value #WIRE_FORMAT_HEADER}: {@value #COMPACT} header with its STOMP CONNECT
+ * frame receives its frames in the compact format; every other client keeps
+ * getting JSON. Installed on the client inbound channel it records the choice;
+ * the interceptor returned by {@link #outboundInterceptor()} is installed on
+ * the client outbound channel and swaps the payload of frames for compact
+ * sessions. The compact encoding is made from the original payload object
+ * (see {@link SourceTrackingJsonMessageConverter}) and cached by identity, so
+ * a broadcast is encoded once no matter how many compact sessions receive it.
+ *
+ * @author Thomas Hartmann
+ */
+// START
+@Component
+@Slf4j
+public class WireFormatInterceptor implements ChannelInterceptor {
+
+    public static final String WIRE_FORMAT_HEADER = "chat-wire-format";
+    public static final String COMPACT = "compact";
+
+    // Recently encoded payloads, indexed by identity hash; a collision just re-encodes
+    private static final int CACHE_SLOTS = 64;
+
+    private final CompactMessageConverter compactConverter;
+    private final boolean compactEnabled;
+    private final Set<String> compactSessions = ConcurrentHashMap.newKeySet();
+    private final AtomicReferenceArray<Encoded> encodedCache = new AtomicReferenceArray<>(CACHE_SLOTS);
+    private final LongAdder compactFrames = new LongAdder();
+    private final LongAdder compactEncodings = new LongAdder();
+    private final ChannelInterceptor outboundInterceptor = new ChannelInterceptor() {
+        @Override
+        public Message<?> preSend(Message<?> message, MessageChannel channel) {
+            return toSessionFormat(message);
+        }
+    };
+
+    public WireFormatInterceptor(CompactMessageConverter compactConverter,
+            @Value("${chat.wire.compact-enabled:true}") boolean compactEnabled) {
+        this.compactConverter = compactConverter;
+        this.compactEnabled = compactEnabled;
+    }
+
+    /** Interceptor for the client outbound channel that re-encodes frames for compact sessions. */
+    public ChannelInterceptor outboundInterceptor() {
+        return outboundInterceptor;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (compactEnabled && SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.CONNECT) {
+            StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
+            if (COMPACT.equalsIgnoreCase(accessor.getFirstNativeHeader(WIRE_FORMAT_HEADER))) {
+                compactSessions.add(accessor.getSessionId());
+                log.debug("Session {} uses the compact wire format", accessor.getSessionId());
+            }
+        }
+        return message;
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        compactSessions.remove(event.getSessionId());
+    }
+
+    private Message<?> toSessionFormat(Message<?> message) {
+        if (compactSessions.isEmpty()) {
+            return message;
+        }
+        Object source = message.getHeaders().get(SourceTrackingJsonMessageConverter.SOURCE_PAYLOAD_HEADER);
+        if (source == null || !compactSessions.contains(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()))) {
+            return message;
+        }
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        accessor.setContentType(CompactMessageConverter.COMPACT_JSON);
+        compactFrames.increment();
+        return MessageBuilder.createMessage(encode(source), accessor.getMessageHeaders());
+    }
+
+    private byte[] encode(Object source) {
+        int slot = System.identityHashCode(source) & (CACHE_SLOTS - 1);
+        Encoded cached = encodedCache.get(slot);
+        if (cached != null && cached.source == source) {
+            return cached.bytes;
+        }
+        byte[] bytes = compactConverter.encode(source);
+        compactEncodings.increment();
+        encodedCache.set(slot, new Encoded(source, bytes));
+        return bytes;
+    }
+
+    /** Sessions that negotiated the compact format. */
+    public int getCompactSessions() {
+        return compactSessions.size();
+    }
+
+    /** Frames sent in the compact format. */
+    public long getCompactFrames() {
+        return compactFrames.sum();
+    }
+
+    /** Payloads encoded in the compact format; lower than frames when broadcasts share an encoding. */
+    public long getCompactEncodings() {
+        return compactEncodings.sum();
+    }
+
+    private record Encoded(Object source, byte[] bytes) {
+    }
+}
+// END
@@ -11,11 +11,16 @@ var connectingElement = document.querySelector('.connecting');
 var usersListElement = document.querySelector('#usersList');
 var onlineCountElement = document.querySelector('#online-count');
 var chatboxesContainer = document.querySelector('#chatboxes-container');
+var channelTitleElement = document.querySelector('#channel-title');
 
 var stompClient = null;
 var username = null;
 var currentSessionId = null;
 var currentAdminUsername = null;
+var presenceVersion = null; // Version of the last applied presence snapshot/delta
+var pendingPresenceDeltas = []; // Deltas received before the initial snapshot
+var activeRoom = null; // Room that new messages are sent to; null = #general
+var roomSubscriptions = {}; // Room name -> STOMP subscription
 
 var colors = [
     '#2196F3', '#32c787', '#00BCD4', '#ff5652',
@@ -58,15 +63,39 @@ function connect(event) {
         usernamePage.classList.add('hidden');
         chatPage.classList.remove('hidden');
 
-        var socket = new SockJS('/ws');
-        stompClient = Stomp.over(socket);
-        // stompClient.debug = null; // Disable debug logs in console
+        loadCompressionDictionary().then(function () {
+            var socket = new SockJS('/ws');
+            stompClient = Stomp.over(socket);
+            // stompClient.debug = null; // Disable debug logs in console
 
-        stompClient.connect({}, onConnected, onError);
+            // Ask for the compact wire format; frames say in their content-type which format they use
+            var connectHeaders = { 'chat-wire-format': 'compact' };
+            // Large frames arrive deflated (chat-compression header) once the shared dictionary is loaded
+            if (compressionDictionary) {
+                connectHeaders['chat-compression'] = 'deflate';
+            }
+            // Bursts of room and public messages may arrive together in one frame (chat-batch header)
+            connectHeaders['chat-batch'] = String(BATCH_WINDOW_MS);
+            stompClient.connect(connectHeaders, onConnected, onError);
+        });
     }
     event.preventDefault();
 }
 
+/**
+ * Fetches the preset deflate dictionary shared with the server. Without it
+ * (or without pako) the client simply does not ask for compressed frames.
+ */
+function loadCompressionDictionary() {
+    if (typeof pako === 'undefined' || typeof fetch === 'undefined') {
+        return Promise.resolve();
+    }
+    return fetch('/compression-dictionary.txt')
+        .then(function (response) { return response.ok ? response.arrayBuffer() : null; })
+        .then(function (buffer) { compressionDictionary = buffer ? new Uint8Array(buffer) : null; })
+        .catch(function () { compressionDictionary = null; });
+}
+
 function onConnected() {
     // Determine Session ID from transport URL
     // Format: .../ws/<server>/<session>/websocket
@@ -79,7 +108,9 @@ function onConnected() {
     console.log("My Session ID: " + currentSessionId);
 
     // Subscribe to Public Topic
-    stompClient.subscribe('/topic/public', onMessageReceived);
+    stompClient.subscribe('/topic/public', forEachMessage(onMessageReceived));
+    // Subscribe to our own session queue (DMs, bot replies, rejections)
+    stompClient.subscribe('/user/queue/private', onPrivateMessageReceived);
 
     // Tell your username to the server
     stompClient.send("/app/chat.addUser",
@@ -104,10 +135,17 @@ function sendMessage(event) {
     event.preventDefault();
     var messageContent = messageInput.value.trim();
     if (messageContent && stompClient) {
+        // Room commands: /join <room>, /leave
+        if (handleRoomCommand(messageContent)) {
+            messageInput.value = '';
+            return;
+        }
+
         var chatMessage = {
             sender: username,
             content: messageInput.value,
-            type: 'CHAT'
+            type: 'CHAT',
+            room: activeRoom
         };
 
         // Optimistic UI for DM could go here, but strict server echo is safer to ensure it arrived.
@@ -115,7 +153,7 @@ function sendMessage(event) {
         // So we MUST handle optimistic UI for DMs if we want to see what we sent.
 
         // Check if DM
-        if (messageContent.startsWith('@') && !messageContent.startsWith('@server')) {
+        if (messageContent.startsWith('@') && !messageContent.toLowerCase().startsWith('@server')) {
             // It's a DM or invalid
             // Parse recipient
             let parts = messageContent.split(/\s+/, 2);
@@ -192,74 +230,100 @@ function sendPrivateMessage(recipient, inputElement) {
     }
 }
 
-// --- Message Receiving ---
-
-function onMessageReceived(payload) {
-    var message = JSON.parse(payload.body);
+// --- Wire Format ---
 
-    // 1. Logic: Target Session Filter
-    if (message.targetSessionId) {
-        // If message has a target, check if it is for ME.
-        // Note: The session ID extraction hack (currentSessionId) must match what server thinks.
-        // If this fails, DMs might be ignored. 
-        // fallback: if we can't verify session ID, we might have issues.
+var COMPACT_CONTENT_TYPE = 'application/vnd.onlinechat.compact+json';
+var compressionDictionary = null;
+// Longest the server may hold back a topic message to send it with others; it caps this further
+var BATCH_WINDOW_MS = 20;
+// Compact message type codes, in the same order as CompactMessageConverter.TYPE_CODES on the server
+var COMPACT_MESSAGE_TYPES = ['CHAT', 'JOIN', 'LEAVE', 'BOT_MESSAGE', 'JOIN_REJECTED'];
 
-        if (message.targetSessionId !== currentSessionId) {
-            return; // Ignore message for others
-        }
-
-        // It IS for me.
+/**
+ * Decodes a STOMP frame body. JSON frames are parsed as they are; in compact
+ * frames a chat message is the array [type, sender, content, room, targetSessionId]
+ * with trailing nulls omitted, either as the whole body or inside a 'messages' list.
+ */
+function decodeFrame(frame) {
+    return decodeBody(parseBody(frame), isCompact(frame));
+}
 
-        // Case A: Bot Message (Private reply)
-        if (message.type === 'BOT_MESSAGE') {
-            // Show in Main Chat (as per guide requirement "Display in Main Chat")
-            // or check where user expected it. 
-            // Guide says: "Bot/System: Display in Main Chat."
-            displayMainChatMessage(message);
+/**
+ * Wraps a message handler for a topic subscription. A frame with a chat-batch
+ * header holds an array of messages, each encoded as it would be on its own,
+ * and the handler is called for each of them in order.
+ */
+function forEachMessage(handler) {
+    return function (frame) {
+        if (!frame.headers['chat-batch']) {
+            handler(decodeFrame(frame));
             return;
         }
+        var compact = isCompact(frame);
+        parseBody(frame).forEach(function (body) {
+            handler(decodeBody(body, compact));
+        });
+    };
+}
 
-        // Case B: Join Rejection
-        if (message.type === 'JOIN_REJECTED') {
-            alert(message.content);
-            window.location.reload();
-            return;
-        }
+function parseBody(frame) {
+    return JSON.parse(frame.headers['chat-compression'] === 'deflate' ? inflateBody(frame.body) : frame.body);
+}
 
-        // Case C: Private Message from another User
-        if (message.type === 'CHAT' && message.sender !== username) {
-            openChatbox(message.sender);
-            addMessageToChatbox(message.sender, message.content, 'received');
-            return;
-        }
-        // Case D: Echo from Self (Confirmation)
-        if (message.sender === username) {
-            return; // Ignore echo
-        }
+function isCompact(frame) {
+    return (frame.headers['content-type'] || '').indexOf(COMPACT_CONTENT_TYPE) === 0;
+}
 
-        return; // Prevent fall-through for any other targeted messages
+function decodeBody(body, compact) {
+    if (!compact) {
+        return body;
+    }
+    if (Array.isArray(body)) {
+        return decodeCompactMessage(body);
     }
+    if (Array.isArray(body.messages)) {
+        body.messages = body.messages.map(decodeCompactMessage);
+    }
+    return body;
+}
+
+// Compressed bodies are base64 encoded raw deflate streams preset with the shared dictionary
+function inflateBody(base64) {
+    var binary = atob(base64);
+    var bytes = new Uint8Array(binary.length);
+    for (var i = 0; i < binary.length; i++) {
+        bytes[i] = binary.charCodeAt(i);
+    }
+    return pako.inflateRaw(bytes, { dictionary: compressionDictionary, to: 'string' });
+}
+
+function decodeCompactMessage(fields) {
+    return {
+        type: fields[0] != null ? COMPACT_MESSAGE_TYPES[fields[0]] : null,
+        sender: fields[1] != null ? fields[1] : null,
+        content: fields[2] != null ? fields[2] : null,
+        room: fields[3] != null ? fields[3] : null,
+        targetSessionId: fields[4] != null ? fields[4] : null
+    };
+}
+
+// --- Message Receiving ---
+
+function onMessageReceived(message) {
 
-    // 2. Public Messages (No targetSessionId)
-    // AND Bot messages (even if targeted, if logic above didn't catch specific types)
+    // Public Messages (targeted messages arrive on /user/queue/private instead)
 
     if (message.type === 'JOIN') {
         message.content = message.sender + ' joined!';
         displayEventMessage(message);
-        // In a real app, we'd fetch the user list from an API here or via WebSocket.
-        // For this demo, let's just add them to the list locally if possible?
-        // Wait, backend doesn't send USER_LIST automatically on join in standard spring chat demo.
-        // We might need to implement that if we want a real sidebar. 
-        // For now, we will just add this user to sidebar.
-        updateUserList(message.sender, 'add');
+        // Sidebar is maintained by USER_JOINED/USER_LEFT presence deltas
     }
     else if (message.type === 'LEAVE') {
         message.content = message.sender + ' left!';
         displayEventMessage(message);
-        updateUserList(message.sender, 'remove');
     }
-    else if (message.type === 'USER_LIST') {
-        refreshUserList(message.users, message.admin);
+    else if (message.type === 'PRESENCE_DELTA') {
+        onPresenceDelta(message);
     }
     else {
         // Normal Public Chat
@@ -267,6 +331,195 @@ function onMessageReceived(payload) {
     }
 }
 
+/**
+ * Handle messages delivered only to this session via /user/queue/private.
+ */
+function onPrivateMessageReceived(payload) {
+    var message = decodeFrame(payload);
+
+    // Presence snapshot (sent on join or on request after a version gap)
+    if (message.type === 'USER_LIST') {
+        applyPresenceSnapshot(message);
+        return;
+    }
+
+    // Room membership confirmations
+    if (message.type === 'ROOM_JOINED') {
+        onRoomJoined(message);
+        return;
+    }
+    if (message.type === 'ROOM_LEFT') {
+        onRoomLeft(message.room);
+        return;
+    }
+
+    // Recent public messages replayed once after joining
+    if (message.type === 'HISTORY_REPLAY') {
+        message.messages.forEach(displayMainChatMessage);
+        return;
+    }
+
+    // Direct messages queued while we were offline, delivered once after joining
+    if (message.type === 'OFFLINE_MESSAGES') {
+        message.messages.forEach(onPrivateChatMessage);
+        return;
+    }
+
+    // Case A: Bot Message (Private reply) - Display in Main Chat
+    if (message.type === 'BOT_MESSAGE') {
+        displayMainChatMessage(message);
+        return;
+    }
+
+    // Case B: Join Rejection
+    if (message.type === 'JOIN_REJECTED') {
+        alert(message.content);
+        window.location.reload();
+        return;
+    }
+
+    onPrivateChatMessage(message);
+}
+
+function onPrivateChatMessage(message) {
+    // Case C: Private Message from another User
+    if (message.type === 'CHAT' && message.sender !== username) {
+        openChatbox(message.sender);
+        addMessageToChatbox(message.sender, message.content, 'received');
+        return;
+    }
+
+    // Case D: Echo from Self (Confirmation) - already appended optimistically
+}
+
+// --- Presence Sync ---
+
+/**
+ * Replace the sidebar with a full snapshot and replay any deltas that arrived
+ * on /topic/public before it.
+ */
+function applyPresenceSnapshot(snapshot) {
+    refreshUserList(snapshot.users, snapshot.admin);
+    presenceVersion = snapshot.version;
+
+    var pending = pendingPresenceDeltas;
+    pendingPresenceDeltas = [];
+    pending.forEach(onPresenceDelta);
+}
+
+/**
+ * Apply a versioned presence delta. Stale versions are ignored and a gap
+ * triggers a snapshot request instead of guessing the missing changes.
+ */
+function onPresenceDelta(delta) {
+    if (presenceVersion === null) {
+        pendingPresenceDeltas.push(delta); // Snapshot not received yet
+        return;
+    }
+    if (delta.version <= presenceVersion) {
+        return; // Already contained in the snapshot
+    }
+    if (delta.version !== presenceVersion + 1) {
+        requestPresenceSnapshot();
+        return;
+    }
+
+    // One delta may carry a whole flush window of coalesced changes
+    delta.left.forEach(function (user) {
+        updateUserList(user, 'remove');
+    });
+    delta.joined.forEach(function (user) {
+        updateUserList(user, 'add', user === currentAdminUsername);
+    });
+    if ('admin' in delta) {
+        setAdmin(delta.admin);
+    }
+    presenceVersion = delta.version;
+}
+
+function requestPresenceSnapshot() {
+    presenceVersion = null; // Buffer deltas until the snapshot arrives
+    stompClient.send("/app/chat.presence", {}, '');
+}
+
+function setAdmin(adminName) {
+    if (currentAdminUsername) {
+        var oldItem = document.getElementById('user-item-' + currentAdminUsername);
+        var oldTag = oldItem ? oldItem.querySelector('.admin-tag') : null;
+        if (oldTag) oldTag.remove();
+    }
+    currentAdminUsername = adminName;
+    if (adminName) {
+        var item = document.getElementById('user-item-' + adminName);
+        if (item && !item.querySelector('.admin-tag')) {
+            var adminTag = document.createElement('span');
+            adminTag.classList.add('admin-tag');
+            adminTag.innerText = 'ADMIN';
+            item.querySelector('.user-name').appendChild(adminTag);
+        }
+    }
+}
+
+// --- Rooms ---
+
+function handleRoomCommand(text) {
+    var parts = text.split(/\s+/);
+    if (parts[0] === '/join' && parts.length > 1) {
+        stompClient.send("/app/chat.joinRoom", {}, JSON.stringify({ sender: username, room: parts[1] }));
+        return true;
+    }
+    if (parts[0] === '/leave') {
+        var room = parts.length > 1 ? parts[1] : activeRoom;
+        if (room) {
+            stompClient.send("/app/chat.leaveRoom", {}, JSON.stringify({ sender: username, room: room }));
+        }
+        return true;
+    }
+    return false;
+}
+
+function onRoomJoined(snapshot) {
+    var room = snapshot.room;
+    if (!roomSubscriptions[room]) {
+        roomSubscriptions[room] = stompClient.subscribe('/topic/room.' + room, forEachMessage(onRoomMessageReceived));
+    }
+    setActiveRoom(room);
+    displayEventMessage({
+        content: 'You joined #' + room + ' (' + snapshot.users.join(', ') + '). Admin: ' + snapshot.admin
+    });
+}
+
+function onRoomLeft(room) {
+    if (roomSubscriptions[room]) {
+        roomSubscriptions[room].unsubscribe();
+        delete roomSubscriptions[room];
+    }
+    if (activeRoom === room) {
+        setActiveRoom(null);
+    }
+    displayEventMessage({ content: 'You left #' + room });
+}
+
+function setActiveRoom(room) {
+    activeRoom = room;
+    channelTitleElement.innerText = '#' + (room || 'general');
+}
+
+function onRoomMessageReceived(message) {
+
+    if (message.type === 'ROOM_PRESENCE') {
+        if (message.joined) {
+            displayEventMessage({ content: message.joined.join(', ') + ' joined #' + message.room });
+        } else if (message.left) {
+            displayEventMessage({ content: message.left.join(', ') + ' left #' + message.room });
+        } else if (message.admin) {
+            displayEventMessage({ content: message.admin + ' is now the admin of #' + message.room });
+        }
+        return;
+    }
+    displayMainChatMessage(message);
+}
+
 // --- UI Rendering Helpers ---
 
 function displayMainChatMessage(message) {
@@ -304,6 +557,13 @@ function displayMainChatMessage(message) {
         senderElement.appendChild(botTag);
     }
 
+    if (message.room) {
+        var roomTag = document.createElement('span');
+        roomTag.classList.add('bot-tag');
+        roomTag.innerText = '#' + message.room;
+        senderElement.appendChild(roomTag);
+    }
+
     var timeElement = document.createElement('span');
     timeElement.classList.add('message-time');
     var date = new Date();
@@ -433,8 +693,13 @@ function updateUserList(user, action, isAdmin = false) {
 
             li.appendChild(avatar);
             li.appendChild(nameSpan);
+            li.dataset.user = user;
 
-            usersListElement.appendChild(li);
+            // Keep the sidebar sorted like the server's presence set
+            var next = Array.prototype.find.call(usersListElement.children, function (item) {
+                return item.dataset.user > user;
+            });
+            usersListElement.insertBefore(li, next || null);
         }
     } else if (action === 'remove') {
         if (existing) {
@@ -3,7 +3,9 @@ package com.hartmann.onlinechat;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+@SpringBootTest(properties = { "chat.history.dir=target/test-history",
+        "chat.audit.file=target/test-audit/chat-audit.jsonl",
+        "chat.mailbox.spill-file=target/test-mailbox/spill.dat" })
 class OnlineChatApplicationTests {
 
     @Test
@@ -0,0 +1,127 @@
+package com.hartmann.onlinechat.audit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuditLogTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<AuditLog> auditLogs = new ArrayList<>();
+
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    void tearDown() {
+        auditLogs.forEach(AuditLog::close);
+    }
+
+    private AuditLog auditLog(int capacity, long flushIntervalMs, double sampleRate) throws Exception {
+        AuditLog auditLog = new AuditLog(objectMapper, true, directory.resolve("audit.jsonl"), capacity, 64,
+                flushIntervalMs, sampleRate);
+        auditLogs.add(auditLog);
+        return auditLog;
+    }
+
+    private List<JsonNode> readEvents() throws Exception {
+        List<JsonNode> events = new ArrayList<>();
+        for (String line : Files.readAllLines(directory.resolve("audit.jsonl"))) {
+            events.add(objectMapper.readTree(line));
+        }
+        return events;
+    }
+
+    @Test
+    void testEventsAreWrittenAsJsonLinesOnClose() throws Exception {
+        AuditLog auditLog = auditLog(1024, 10, 1.0);
+        auditLog.record(AuditEvent.Type.JOIN, "s1", "Alice", null, null);
+        auditLog.record(AuditEvent.Type.DIRECT_MESSAGE, "s1", "Alice", "Bob", "hi \"Bob\"");
+        auditLog.close();
+
+        List<JsonNode> events = readEvents();
+        assertEquals(2, events.size());
+        assertEquals("JOIN", events.get(0).get("type").asText());
+        assertFalse(events.get(0).has("content"), "Null fields are omitted");
+        assertEquals("Bob", events.get(1).get("target").asText());
+        assertEquals("hi \"Bob\"", events.get(1).get("content").asText());
+        assertEquals(2, auditLog.getWritten());
+    }
+
+    @Test
+    void testConcurrentProducersLoseNothingWhileThereIsRoom() throws Exception {
+        int producers = 4;
+        int perProducer = 5_000;
+        AuditLog auditLog = auditLog(producers * perProducer, 10, 1.0);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            String sessionId = "s" + p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    auditLog.record(AuditEvent.Type.MESSAGE, sessionId, "User", null, Integer.toString(i));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        auditLog.close();
+
+        List<JsonNode> events = readEvents();
+        assertEquals(producers * perProducer, events.size());
+        assertEquals(0, auditLog.getDropped());
+        Set<String> unique = new HashSet<>();
+        events.forEach(event -> unique.add(event.get("sessionId").asText() + "/" + event.get("content").asText()));
+        assertEquals(producers * perProducer, unique.size());
+    }
+
+    @Test
+    void testOverflowIsDroppedAndCounted() throws Exception {
+        // The writer parks for a long flush interval, so nothing is drained while recording
+        AuditLog auditLog = auditLog(4, 60_000, 1.0);
+        Thread.sleep(50);
+        for (int i = 0; i < 10; i++) {
+            auditLog.record(AuditEvent.Type.MESSAGE, "s1", "Alice", null, "m" + i);
+        }
+
+        assertEquals(10, auditLog.getRecorded() + auditLog.getDropped());
+        assertTrue(auditLog.getDropped() >= 6, "At most the queue capacity is accepted");
+        auditLog.close();
+        assertEquals(auditLog.getRecorded(), readEvents().size());
+    }
+
+    @Test
+    void testSamplingSkipsMessagesButNeverLifecycleEvents() throws Exception {
+        AuditLog auditLog = auditLog(1024, 10, 0.0);
+        auditLog.record(AuditEvent.Type.MESSAGE, "s1", "Alice", null, "hello");
+        auditLog.record(AuditEvent.Type.BOT_COMMAND, "s1", "Alice", null, "@server info");
+        auditLog.record(AuditEvent.Type.LEAVE, "s1", "Alice", null, null);
+        auditLog.close();
+
+        assertEquals(2, auditLog.getSampledOut());
+        List<JsonNode> events = readEvents();
+        assertEquals(1, events.size());
+        assertEquals("LEAVE", events.get(0).get("type").asText());
+    }
+}
@@ -0,0 +1,117 @@
+package com.hartmann.onlinechat.benchmark;
+
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares message latency on a STOMP channel backed by Spring's default
+ * channel pool (2 x cores threads, unbounded queue) against one backed by
+ * virtual threads, when every message does blocking work such as a slow
+ * socket write or bot command. Each connection sends one message in a burst.
+ * The virtual-thread rows need Java 21 and are skipped on older JVMs; the
+ * classes built for Java 17 run unchanged on a Java 21 runtime.
+ * Run with: java -cp target/test-classes:target/classes:&lt;deps&gt; com.hartmann.onlinechat.benchmark.ChannelExecutorBenchmark
+ * (using the java binary of a 21+ JDK to get both modes)
+ *
+ * @author Thomas Hartmann
+ */
+// START
+public class ChannelExecutorBenchmark {
+
+    private static final int[] CONNECTIONS = { 1_000, 5_000, 10_000 };
+    private static final long BLOCKING_MS = 2;
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws Exception {
+        boolean virtualThreadsAvailable = Runtime.version().feature() >= 21;
+        System.out.printf("Blocking work per message: %d ms, %d cores, Java %s%n", BLOCKING_MS,
+                Runtime.getRuntime().availableProcessors(), Runtime.version());
+        System.out.printf("%-8s %12s %10s %10s %10s %10s%n", "mode", "connections", "p50 ms", "p99 ms", "max ms",
+                "total ms");
+
+        for (int connections : CONNECTIONS) {
+            ThreadPoolTaskExecutor pool = defaultChannelPool();
+            run("pool", pool, connections);
+            pool.shutdown();
+            if (virtualThreadsAvailable) {
+                run("virtual", new VirtualThreadTaskExecutor("bench-"), connections);
+            } else {
+                System.out.printf("%-8s %12d %10s%n", "virtual", connections, "n/a (requires Java 21)");
+            }
+        }
+    }
+
+    // Mirrors the executor Spring creates for clientInboundChannel and clientOutboundChannel
+    private static ThreadPoolTaskExecutor defaultChannelPool() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(Runtime.getRuntime().availableProcessors() * 2);
+        executor.setMaxPoolSize(Integer.MAX_VALUE);
+        executor.setQueueCapacity(Integer.MAX_VALUE);
+        executor.setThreadNamePrefix("bench-pool-");
+        executor.initialize();
+        return executor;
+    }
+
+    private static void run(String mode, Executor executor, int connections) throws InterruptedException {
+        long[] best = null;
+        long bestTotal = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long[] latencies = new long[connections];
+            CountDownLatch done = new CountDownLatch(connections);
+            ExecutorSubscribableChannel channel = new ExecutorSubscribableChannel(executor);
+            channel.subscribe(message -> {
+                try {
+                    Thread.sleep(BLOCKING_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                int connection = (Integer) message.getPayload();
+                latencies[connection] = System.nanoTime() - (Long) message.getHeaders().get("sentAt");
+                done.countDown();
+            });
+
+            long start = System.nanoTime();
+            for (int i = 0; i < connections; i++) {
+                channel.send(message(i));
+            }
+            if (!done.await(5, TimeUnit.MINUTES)) {
+                throw new IllegalStateException("Benchmark did not finish");
+            }
+            long total = System.nanoTime() - start;
+            if (total < bestTotal) {
+                bestTotal = total;
+                best = latencies;
+            }
+        }
+
+        Arrays.sort(best);
+        System.out.printf("%-8s %12d %10.1f %10.1f %10.1f %10.1f%n", mode, connections, millis(percentile(best, 50)),
+                millis(percentile(best, 99)), millis(best[best.length - 1]), millis(bestTotal));
+    }
+
+    private static Message<Integer> message(int connection) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId("s" + connection);
+        accessor.setHeader("sentAt", System.nanoTime());
+        return MessageBuilder.createMessage(connection, accessor.getMessageHeaders());
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
+// END
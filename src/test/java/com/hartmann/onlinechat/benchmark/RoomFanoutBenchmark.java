@@ -0,0 +1,87 @@
+package com.hartmann.onlinechat.benchmark;
+
+import com.hartmann.onlinechat.service.PresenceBroadcaster;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures simple broker fan-out cost for one room message as a function of
+ * room size, with a fixed total connection count on the node.
+ * Run with: java -cp target/test-classes:target/classes:&lt;deps&gt; com.hartmann.onlinechat.benchmark.RoomFanoutBenchmark
+ *
+ * @author Thomas Hartmann
+ */
+// START
+public class RoomFanoutBenchmark {
+
+    private static final int TOTAL_SESSIONS = 20_000;
+    private static final int[] ROOM_SIZES = { 10, 100, 1_000, 10_000 };
+    private static final int WARMUP_MESSAGES = 2_000;
+    private static final int MEASURED_MESSAGES = 5_000;
+
+    public static void main(String[] args) {
+        AtomicLong delivered = new AtomicLong();
+        SimpleBrokerMessageHandler broker = new SimpleBrokerMessageHandler(new ExecutorSubscribableChannel(),
+                (message, timeout) -> delivered.incrementAndGet() >= 0, new ExecutorSubscribableChannel(),
+                List.of("/topic"));
+        broker.start();
+
+        // Every session is on the node and subscribed to the public topic
+        for (int i = 0; i < TOTAL_SESSIONS; i++) {
+            connect(broker, "s" + i);
+            subscribe(broker, "s" + i, "/topic/public");
+        }
+        // Room N holds the first ROOM_SIZES[N] sessions
+        for (int size : ROOM_SIZES) {
+            for (int i = 0; i < size; i++) {
+                subscribe(broker, "s" + i, PresenceBroadcaster.roomDestination("room" + size));
+            }
+        }
+
+        System.out.printf("%-10s %15s %18s%n", "room size", "ns/message", "ns/recipient");
+        for (int size : ROOM_SIZES) {
+            Message<byte[]> message = message(PresenceBroadcaster.roomDestination("room" + size));
+            for (int i = 0; i < WARMUP_MESSAGES; i++) {
+                broker.handleMessage(message);
+            }
+            delivered.set(0);
+            long start = System.nanoTime();
+            for (int i = 0; i < MEASURED_MESSAGES; i++) {
+                broker.handleMessage(message);
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%-10d %15d %18.1f%n", size, elapsed / MEASURED_MESSAGES,
+                    (double) elapsed / delivered.get());
+        }
+        broker.stop();
+    }
+
+    private static void connect(SimpleBrokerMessageHandler broker, String sessionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.CONNECT);
+        accessor.setSessionId(sessionId);
+        broker.handleMessage(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+    }
+
+    private static void subscribe(SimpleBrokerMessageHandler broker, String sessionId, String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(destination);
+        accessor.setDestination(destination);
+        broker.handleMessage(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+    }
+
+    private static Message<byte[]> message(String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage("{\"content\":\"hello\",\"sender\":\"bench\",\"type\":\"CHAT\"}".getBytes(),
+                accessor.getMessageHeaders());
+    }
+}
+// END
@@ -0,0 +1,457 @@
+package com.hartmann.onlinechat.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.hartmann.onlinechat.OnlineChatApplication;
+import com.hartmann.onlinechat.chat.ChatMessage;
+import com.hartmann.onlinechat.chat.MessageType;
+import com.hartmann.onlinechat.service.PresenceBroadcaster;
+import jakarta.websocket.ContainerProvider;
+import jakarta.websocket.WebSocketContainer;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * End-to-end load generator: starts the application on a random port and
+ * connects simulated STOMP clients over the raw WebSocket transport of /ws.
+ * Each client subscribes like the browser client, joins through
+ * /app/chat.addUser and then sends a mix of public messages, direct messages
+ * and @server commands at a fixed total rate.
+ * <p>
+ * The client count is stepped up (clients stay connected between steps) to find
+ * where the simple broker and SessionManager stop keeping up. For every step it
+ * reports connection setup rate, send and delivery throughput, and HDR latency
+ * histograms (p50/p99/p99.9/max) for public fan-out, direct messages and bot
+ * replies. Latency is measured from the intended send time, so a sender that
+ * falls behind shows up as latency instead of being hidden (coordinated omission).
+ * Full percentile distributions are written to target/loadtest as .hgrm files.
+ * Inbound rate limiting is switched off, so a fast load.rate measures the
+ * server instead of dropped messages.
+ * <p>
+ * Settings are system properties: load.clients (comma-separated steps,
+ * default 250,500,1000), load.rate (messages per second across all clients,
+ * default 200), load.mix (public,dm,bot weights, default 20,70,10),
+ * load.warmup-seconds (5), load.duration-seconds (20), load.connect-concurrency (100),
+ * load.sender-threads (4). Raise the open file limit before going past a few
+ * thousand clients.
+ * Run with: java -cp target/test-classes:target/classes:&lt;deps&gt; -Dload.clients=1000,2000,5000 com.hartmann.onlinechat.benchmark.StompLoadGenerator
+ *
+ * @author Thomas Hartmann
+ */
+// START
+public class StompLoadGenerator {
+
+    private static final String TIMESTAMP_PREFIX = "load:";
+    private static final String BOT_COMMAND = "@server math 6 * 7";
+    // Frame size headroom on top of the presence snapshot, which grows by about 20 bytes per user
+    private static final int FRAME_HEADROOM_BYTES = 64 * 1024;
+    private static final int SNAPSHOT_BYTES_PER_USER = 24;
+    private static final long JOIN_TIMEOUT_SECONDS = 30;
+    private static final long PRESENCE_RETRY_MILLIS = 1000;
+    private static final long DRAIN_SECONDS = 2;
+    // A step with more failed connections than this is reported as the breaking point
+    private static final double MAX_CONNECT_FAILURE_RATIO = 0.1;
+
+    private final int[] clientSteps = Arrays.stream(System.getProperty("load.clients", "250,500,1000").split(","))
+            .mapToInt(step -> Integer.parseInt(step.trim())).toArray();
+    private final int rate = Integer.getInteger("load.rate", 200);
+    private final int[] mix = Arrays.stream(System.getProperty("load.mix", "20,70,10").split(","))
+            .mapToInt(weight -> Integer.parseInt(weight.trim())).toArray();
+    private final int warmupSeconds = Integer.getInteger("load.warmup-seconds", 5);
+    private final int durationSeconds = Integer.getInteger("load.duration-seconds", 20);
+    private final int connectConcurrency = Integer.getInteger("load.connect-concurrency", 100);
+    private final int senderThreads = Integer.getInteger("load.sender-threads", 4);
+    private final Path outputDirectory = Path.of("target", "loadtest");
+
+    private final Recorder connectLatency = new Recorder(3);
+    private final Recorder publicLatency = new Recorder(3);
+    private final Recorder directLatency = new Recorder(3);
+    private final Recorder botLatency = new Recorder(3);
+
+    private final LongAdder publicSent = new LongAdder();
+    private final LongAdder publicDelivered = new LongAdder();
+    private final LongAdder directSent = new LongAdder();
+    private final LongAdder directDelivered = new LongAdder();
+    private final LongAdder botSent = new LongAdder();
+    private final LongAdder botReplies = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder presenceRetries = new LongAdder();
+
+    private final List<Client> clients = new ArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private WebSocketStompClient stompClient;
+    private String url;
+    private double connectRate;
+
+    public static void main(String[] args) throws Exception {
+        // Devtools would otherwise restart the application in its own class loader
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        new StompLoadGenerator().run();
+    }
+
+    private void run() throws Exception {
+        // Everything the server writes goes to a scratch directory that is removed afterwards.
+        // Passed as arguments, since default properties would lose to application.properties.
+        Path dataDirectory = Files.createTempDirectory("loadtest-data");
+        ConfigurableApplicationContext application = new SpringApplicationBuilder(OnlineChatApplication.class)
+                .run("--server.port=0", "--chat.history.dir=" + dataDirectory.resolve("history"),
+                        "--chat.audit.file=" + dataDirectory.resolve("audit/chat-audit.jsonl"),
+                        "--chat.mailbox.spill-file=" + dataDirectory.resolve("mailbox/spill.dat"),
+                        "--logging.level.root=WARN", "--spring.main.banner-mode=off", "--chat.ratelimit.enabled=false");
+        int port = ((WebServerApplicationContext) application).getWebServer().getPort();
+        url = "ws://localhost:" + port + "/ws/websocket";
+        stompClient = createStompClient();
+        Files.createDirectories(outputDirectory);
+
+        System.out.printf("Target %s, %d msg/s, mix public/dm/bot %s, %d cores, Java %s%n", url, rate,
+                Arrays.toString(mix), Runtime.getRuntime().availableProcessors(), Runtime.version());
+        System.out.printf("%8s %9s %10s %11s | %-29s | %-29s | %-29s | %6s%n", "clients", "conn/s", "sent/s",
+                "deliver/s", "public p50/p99/p999/max ms", "dm p50/p99/p999/max ms", "bot p50/p99/p999/max ms",
+                "errors");
+        try {
+            for (int step : clientSteps) {
+                int attempted = step - clients.size();
+                if (attempted <= 0) {
+                    continue;
+                }
+                long failed = connect(attempted);
+                runStep(step);
+                if (failed > attempted * MAX_CONNECT_FAILURE_RATIO) {
+                    System.out.printf("Breaking point: %d of %d connections failed at %d clients%n", failed,
+                            attempted, step);
+                    break;
+                }
+            }
+        } finally {
+            for (Client client : clients) {
+                client.disconnect();
+            }
+            scheduler.shutdownNow();
+            stompClient.stop();
+            application.close();
+            FileSystemUtils.deleteRecursively(dataDirectory);
+        }
+        System.out.println("Percentile distributions written to " + outputDirectory.toAbsolutePath());
+    }
+
+    private WebSocketStompClient createStompClient() {
+        // Presence snapshots grow with the number of users; Tomcat allocates this buffer up front per session
+        int maxClients = Arrays.stream(clientSteps).max().orElse(0);
+        int maxFrameBytes = FRAME_HEADROOM_BYTES + maxClients * SNAPSHOT_BYTES_PER_USER;
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        container.setDefaultMaxTextMessageBufferSize(maxFrameBytes);
+        WebSocketStompClient client = new WebSocketStompClient(new StandardWebSocketClient(container));
+        client.setMessageConverter(new MappingJackson2MessageConverter());
+        client.setInboundMessageSizeLimit(maxFrameBytes);
+        return client;
+    }
+
+    /**
+     * Connects and joins new clients with bounded concurrency.
+     *
+     * @return the number of clients that failed to connect or join
+     */
+    private long connect(int count) throws InterruptedException {
+        connectLatency.reset();
+        Semaphore inFlight = new Semaphore(connectConcurrency);
+        List<Client> connecting = new ArrayList<>(count);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            inFlight.acquire();
+            Client client = new Client("LoadUser" + (clients.size() + i));
+            connecting.add(client);
+            client.connect().whenComplete((ignored, error) -> inFlight.release());
+        }
+        inFlight.acquire(connectConcurrency);
+        long elapsed = System.nanoTime() - start;
+
+        long failed = 0;
+        for (Client client : connecting) {
+            if (client.joined.isCompletedExceptionally()) {
+                failed++;
+                client.disconnect();
+            } else {
+                clients.add(client);
+            }
+        }
+        Histogram setup = connectLatency.getIntervalHistogram();
+        write(setup, "connect-" + (clients.size() + failed));
+        connectRate = (count - failed) / (elapsed / 1e9);
+        System.out.printf("%8s connected %d new clients (setup p50 %.1f ms, p99 %.1f ms, %d failed, %d snapshot retries)%n",
+                "", count - failed, millis(setup.getValueAtPercentile(50)), millis(setup.getValueAtPercentile(99)), failed,
+                presenceRetries.sumThenReset());
+        return failed;
+    }
+
+    private void runStep(int step) throws InterruptedException {
+        List<Thread> senders = new ArrayList<>(senderThreads);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(warmupSeconds + durationSeconds);
+        for (int t = 0; t < senderThreads; t++) {
+            int partition = t;
+            Thread sender = new Thread(() -> send(partition, start, end), "load-sender-" + t);
+            sender.start();
+            senders.add(sender);
+        }
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+        resetMeasurements();
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        // Let in-flight deliveries arrive before reading the histograms
+        Thread.sleep(TimeUnit.SECONDS.toMillis(DRAIN_SECONDS));
+
+        Histogram publicHistogram = publicLatency.getIntervalHistogram();
+        Histogram directHistogram = directLatency.getIntervalHistogram();
+        Histogram botHistogram = botLatency.getIntervalHistogram();
+        write(publicHistogram, "public-" + step);
+        write(directHistogram, "dm-" + step);
+        write(botHistogram, "bot-" + step);
+
+        long sent = publicSent.sum() + directSent.sum() + botSent.sum();
+        long delivered = publicDelivered.sum() + directDelivered.sum() + botReplies.sum();
+        System.out.printf("%8d %9.0f %10.0f %11.0f | %-29s | %-29s | %-29s | %6d%n", step, connectRate,
+                sent / (double) durationSeconds,
+                delivered / (double) durationSeconds, percentiles(publicHistogram), percentiles(directHistogram),
+                percentiles(botHistogram), errors.sum());
+        System.out.printf("%8s dm delivered %d/%d, bot replies %d/%d, public fan-out %d frames for %d messages%n", "",
+                directDelivered.sum(), directSent.sum(), botReplies.sum(), botSent.sum(), publicDelivered.sum(),
+                publicSent.sum());
+    }
+
+    private void resetMeasurements() {
+        publicLatency.reset();
+        directLatency.reset();
+        botLatency.reset();
+        for (LongAdder counter : List.of(publicSent, publicDelivered, directSent, directDelivered, botSent,
+                botReplies, errors)) {
+            counter.reset();
+        }
+    }
+
+    /**
+     * Sends this thread's share of the load from the clients it owns, so every
+     * STOMP session is written by one thread only.
+     */
+    private void send(int partition, long start, long end) {
+        List<Client> own = new ArrayList<>();
+        for (int i = partition; i < clients.size(); i += senderThreads) {
+            own.add(clients.get(i));
+        }
+        if (own.isEmpty()) {
+            return;
+        }
+        long interval = TimeUnit.SECONDS.toNanos(senderThreads) / rate;
+        int totalWeight = mix[0] + mix[1] + mix[2];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (long intended = start + partition * interval / senderThreads; intended < end; intended += interval) {
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Client sender = own.get(random.nextInt(own.size()));
+            int pick = random.nextInt(totalWeight);
+            if (pick < mix[0]) {
+                sender.send(TIMESTAMP_PREFIX + intended);
+                publicSent.increment();
+            } else if (pick < mix[0] + mix[1]) {
+                Client recipient = clients.get(random.nextInt(clients.size()));
+                if (recipient == sender) {
+                    recipient = clients.get((clients.indexOf(sender) + 1) % clients.size());
+                }
+                sender.send("@" + recipient.username + " " + TIMESTAMP_PREFIX + intended);
+                directSent.increment();
+            } else {
+                sender.pendingBotCommands.add(intended);
+                sender.send(BOT_COMMAND);
+                botSent.increment();
+            }
+        }
+    }
+
+    private static long timestamp(JsonNode message) {
+        String content = message.path("content").asText();
+        return content.startsWith(TIMESTAMP_PREFIX) ? Long.parseLong(content.substring(TIMESTAMP_PREFIX.length())) : -1;
+    }
+
+    private static void record(Recorder recorder, long sentAt) {
+        recorder.recordValue(Math.max(0, (System.nanoTime() - sentAt) / 1_000));
+    }
+
+    private void write(Histogram histogram, String name) {
+        try (PrintStream out = new PrintStream(Files.newOutputStream(outputDirectory.resolve(name + ".hgrm")))) {
+            // Recorded in microseconds, written in milliseconds
+            histogram.outputPercentileDistribution(out, 1000.0);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write histogram " + name, e);
+        }
+    }
+
+    private static String percentiles(Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            return "-";
+        }
+        return String.format(Locale.ROOT, "%.1f/%.1f/%.1f/%.1f", millis(histogram.getValueAtPercentile(50)),
+                millis(histogram.getValueAtPercentile(99)), millis(histogram.getValueAtPercentile(99.9)),
+                millis(histogram.getMaxValue()));
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private static StompFrameHandler jsonHandler(Consumer<JsonNode> consumer) {
+        return new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return JsonNode.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                consumer.accept((JsonNode) payload);
+            }
+        };
+    }
+
+    /** One simulated browser client. */
+    private final class Client extends StompSessionHandlerAdapter {
+
+        private final String username;
+        private final CompletableFuture<Void> joined = new CompletableFuture<>();
+        private final Queue<Long> pendingBotCommands = new ConcurrentLinkedQueue<>();
+        private volatile StompSession session;
+        private long connectStart;
+
+        private Client(String username) {
+            this.username = username;
+        }
+
+        private CompletableFuture<Void> connect() {
+            connectStart = System.nanoTime();
+            stompClient.connectAsync(url, this).exceptionally(error -> {
+                joined.completeExceptionally(error);
+                return null;
+            });
+            return joined.orTimeout(JOIN_TIMEOUT_SECONDS, TimeUnit.SECONDS).whenComplete((ignored, error) -> {
+                if (error == null) {
+                    record(connectLatency, connectStart);
+                }
+            });
+        }
+
+        @Override
+        public void afterConnected(StompSession session, StompHeaders connectedHeaders) {
+            this.session = session;
+            session.subscribe("/topic/public", jsonHandler(this::onPublic));
+            session.subscribe("/user/queue/private", jsonHandler(this::onPrivate));
+            session.send("/app/chat.addUser", ChatMessage.builder().sender(username).type(MessageType.JOIN).build());
+            retryPresence();
+        }
+
+        // Subscriptions and the join are dispatched concurrently on the server; if the snapshot
+        // was sent before the private subscription existed, ask for it again
+        private void retryPresence() {
+            scheduler.schedule(() -> {
+                if (!joined.isDone() && session.isConnected()) {
+                    presenceRetries.increment();
+                    session.send("/app/chat.presence", "");
+                    retryPresence();
+                }
+            }, PRESENCE_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        private void onPublic(JsonNode message) {
+            if (MessageType.CHAT.name().equals(message.path("type").asText())) {
+                long sentAt = timestamp(message);
+                if (sentAt >= 0) {
+                    record(publicLatency, sentAt);
+                    publicDelivered.increment();
+                }
+            }
+        }
+
+        private void onPrivate(JsonNode message) {
+            String type = message.path("type").asText();
+            if (PresenceBroadcaster.PRESENCE_SNAPSHOT.equals(type)) {
+                joined.complete(null);
+            } else if (MessageType.JOIN_REJECTED.name().equals(type)) {
+                joined.completeExceptionally(new IllegalStateException(message.path("content").asText()));
+            } else if (MessageType.BOT_MESSAGE.name().equals(type)) {
+                Long sentAt = pendingBotCommands.poll();
+                if (sentAt != null) {
+                    record(botLatency, sentAt);
+                    botReplies.increment();
+                }
+            } else if (MessageType.CHAT.name().equals(type) && !username.equals(message.path("sender").asText())) {
+                long sentAt = timestamp(message);
+                if (sentAt >= 0) {
+                    record(directLatency, sentAt);
+                    directDelivered.increment();
+                }
+            }
+        }
+
+        private void send(String content) {
+            try {
+                session.send("/app/chat.sendMessage",
+                        ChatMessage.builder().content(content).sender(username).type(MessageType.CHAT).build());
+            } catch (RuntimeException e) {
+                errors.increment();
+            }
+        }
+
+        private void disconnect() {
+            StompSession current = session;
+            if (current != null && current.isConnected()) {
+                current.disconnect();
+            }
+        }
+
+        @Override
+        public void handleException(StompSession session, StompCommand command, StompHeaders headers,
+                byte[] payload, Throwable exception) {
+            errors.increment();
+        }
+
+        @Override
+        public void handleTransportError(StompSession session, Throwable exception) {
+            errors.increment();
+            joined.completeExceptionally(exception);
+        }
+    }
+}
+// END
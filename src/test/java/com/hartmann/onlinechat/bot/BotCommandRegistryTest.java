@@ -0,0 +1,145 @@
+package com.hartmann.onlinechat.bot;
+
+import com.hartmann.onlinechat.metrics.ChatMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BotCommandRegistryTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final BotCommand fast = command("fast", 0, () -> "pong", "ping", "f");
+    private final BotCommand blocking = command("blocking", 1, () -> {
+        release.await();
+        return "done";
+    });
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final BotCommandRegistry registry = new BotCommandRegistry(List.of(fast, blocking),
+            new ChatMetrics(meterRegistry), 4, 10, 200, 2);
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        registry.shutdown();
+    }
+
+    @Test
+    void testResultIsDeliveredAsynchronously() throws Exception {
+        registry.initializeCommands();
+
+        assertEquals("pong", registry.execute(fast, new String[0], null).get(5, TimeUnit.SECONDS));
+        assertEquals(1, commandTimerCount("fast", "success"));
+    }
+
+    @Test
+    void testSlowCommandTimesOutWithoutBlockingCaller() throws Exception {
+        registry.initializeCommands();
+
+        long start = System.nanoTime();
+        CompletableFuture<String> response = registry.execute(blocking, new String[0], null);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100), "Caller must not wait");
+
+        assertTrue(response.get(5, TimeUnit.SECONDS).contains("timed out"));
+        assertEquals(1, registry.getTimeouts());
+        assertEquals(1, commandTimerCount("blocking", "timeout"));
+    }
+
+    @Test
+    void testBulkheadRejectsExcessCallsAndIsolatesOtherCommands() throws Exception {
+        registry.initializeCommands();
+
+        CompletableFuture<String> first = registry.execute(blocking, new String[0], null);
+        // The timed-out first call still holds the only slot until it really finishes
+        assertTrue(first.get(5, TimeUnit.SECONDS).contains("timed out"));
+        assertTrue(registry.execute(blocking, new String[0], null).get(1, TimeUnit.SECONDS).contains("busy"));
+        assertEquals(1, registry.getRejections());
+        assertEquals(1, commandTimerCount("blocking", "busy"));
+
+        // Other commands are unaffected by the saturated one
+        assertEquals("pong", registry.execute(fast, new String[0], null).get(5, TimeUnit.SECONDS));
+
+        release.countDown();
+        awaitSlotFreed();
+    }
+
+    @Test
+    void testCommandsResolveByNameOrAliasIgnoringCase() {
+        registry.initializeCommands();
+
+        assertSame(fast, registry.getCommand("FAST").orElseThrow());
+        assertSame(fast, registry.getCommand("Ping").orElseThrow());
+        assertSame(fast, registry.getCommand("f").orElseThrow());
+        assertSame(blocking, registry.getCommand("@server blocking now", 8, 16).orElseThrow());
+        assertTrue(registry.getCommand("fas").isEmpty(), "Prefixes of a name do not match");
+        assertTrue(registry.getCommand("fastest").isEmpty());
+        assertTrue(registry.getCommand("").isEmpty());
+    }
+
+    @Test
+    void testDuplicateAliasIsRejected() {
+        BotCommand clash = command("other", 0, () -> "", "PING");
+        BotCommandRegistry clashing = new BotCommandRegistry(List.of(fast, clash), new ChatMetrics(meterRegistry),
+                1, 1, 200, 1);
+        try {
+            assertThrows(IllegalStateException.class, clashing::initializeCommands);
+        } finally {
+            clashing.shutdown();
+        }
+    }
+
+    private void awaitSlotFreed() throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            release.countDown();
+            if (!registry.execute(blocking, new String[0], null).get(5, TimeUnit.SECONDS).contains("busy")) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        fail("Bulkhead slot was not released");
+    }
+
+    private long commandTimerCount(String command, String outcome) {
+        return meterRegistry.get("chat.bot.command").tag("command", command).tag("outcome", outcome).timer().count();
+    }
+
+    private interface Body {
+        String run() throws Exception;
+    }
+
+    private static BotCommand command(String name, int maxConcurrency, Body body, String... aliases) {
+        return new BotCommand() {
+            @Override
+            public String execute(String[] args, SimpMessageHeaderAccessor headerAccessor) {
+                try {
+                    return body.run();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            public String getCommandName() {
+                return name;
+            }
+
+            @Override
+            public List<String> getAliases() {
+                return List.of(aliases);
+            }
+
+            @Override
+            public int getMaxConcurrency() {
+                return maxConcurrency;
+            }
+        };
+    }
+}
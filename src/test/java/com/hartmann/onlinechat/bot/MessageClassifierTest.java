@@ -0,0 +1,57 @@
+package com.hartmann.onlinechat.bot;
+
+import com.hartmann.onlinechat.bot.MessageClassifier.Classification;
+import com.hartmann.onlinechat.bot.MessageClassifier.Kind;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageClassifierTest {
+
+    @Test
+    void testPublicMessagesShareOneInstance() {
+        assertSame(MessageClassifier.classify("hello @Bob"), MessageClassifier.classify(null));
+        assertEquals(Kind.PUBLIC, MessageClassifier.classify("   ").kind());
+        assertEquals(Kind.PUBLIC, MessageClassifier.classify("mail me at a@b.c").kind());
+    }
+
+    @Test
+    void testDirectMessage() {
+        Classification dm = MessageClassifier.classify("  @Bob   hi there \t");
+
+        assertEquals(Kind.DIRECT, dm.kind());
+        assertEquals("Bob", dm.name());
+        assertEquals("hi there", dm.body());
+
+        Classification empty = MessageClassifier.classify("@Bob");
+        assertEquals("Bob", empty.name());
+        assertEquals("", empty.body());
+    }
+
+    @Test
+    void testBotCommandWithArguments() {
+        Classification bot = MessageClassifier.classify(" @SERVER  math 2 +\t3 ");
+
+        assertEquals(Kind.BOT, bot.kind());
+        assertEquals("math", bot.name());
+        assertEquals("2 +\t3", bot.body());
+    }
+
+    @Test
+    void testBotCommandWithoutName() {
+        Classification bot = MessageClassifier.classify("@server   ");
+
+        assertEquals(Kind.BOT, bot.kind());
+        assertFalse(bot.hasName());
+    }
+
+    @Test
+    void testServerPrefixedTokenNamesTheCommand() {
+        Classification bot = MessageClassifier.classify("@Server-Info now");
+
+        assertEquals(Kind.BOT, bot.kind());
+        assertEquals("Server-Info", bot.name());
+        assertEquals("now", bot.body());
+        assertEquals(Kind.DIRECT, MessageClassifier.classify("@serv hi").kind());
+    }
+}
@@ -0,0 +1,86 @@
+package com.hartmann.onlinechat.bot.math;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionCompilerTest {
+
+    private static double eval(String expression) {
+        return ExpressionCompiler.compile(expression).evaluate();
+    }
+
+    @Test
+    void testPrecedenceAndParentheses() {
+        assertEquals(14, eval("2 + 3 * 4"));
+        assertEquals(20, eval("(2 + 3) * 4"));
+        assertEquals(1, eval("10 - 4 - 5"));
+        assertEquals(2, eval("16 / 4 / 2"));
+        assertEquals(1, eval("7 % 3"));
+        assertEquals(0.5, eval(".5"));
+    }
+
+    @Test
+    void testUnaryOperatorsAndExponentiation() {
+        assertEquals(-5, eval("-5"));
+        assertEquals(8, eval("-2 * -4"));
+        assertEquals(-4, eval("-2 ^ 2"), "Exponentiation binds tighter than unary minus");
+        assertEquals(4, eval("(-2) ^ 2"));
+        assertEquals(512, eval("2 ^ 3 ^ 2"), "Exponentiation is right-associative");
+        assertEquals(0.5, eval("2 ^ -1"));
+        assertEquals(3, eval("+-+-3"));
+    }
+
+    @Test
+    void testFunctionsAndConstants() {
+        assertEquals(3, eval("sqrt(9)"));
+        assertEquals(5, eval("max(2, abs(-5))"));
+        assertEquals(2, eval("min(2, 3)"));
+        assertEquals(2, eval("log(100)"));
+        assertEquals(Math.PI, eval("pi"));
+        assertEquals(1, eval("ln(e)"), 1e-12);
+        assertEquals(4, eval("ROUND(3.6)"));
+    }
+
+    @Test
+    void testInvalidInputIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCompiler.compile(""));
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCompiler.compile("2 +"));
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCompiler.compile("(2 + 3"));
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCompiler.compile("2 3"));
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCompiler.compile("foo(1)"));
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCompiler.compile("max(1)"));
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCompiler.compile("2 $ 3"));
+        assertThrows(ArithmeticException.class, () -> eval("1 / (2 - 2)"));
+        assertThrows(ArithmeticException.class, () -> eval("sqrt(-1)"));
+    }
+
+    @Test
+    void testLengthAndDepthLimits() {
+        assertThrows(IllegalArgumentException.class,
+                () -> ExpressionCompiler.compile("1+".repeat(ExpressionCompiler.MAX_LENGTH) + "1"));
+        String deep = "(".repeat(ExpressionCompiler.MAX_DEPTH) + "1" + ")".repeat(ExpressionCompiler.MAX_DEPTH);
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCompiler.compile(deep));
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCompiler.compile("-".repeat(100) + "1"));
+
+        String allowed = "(".repeat(ExpressionCompiler.MAX_DEPTH - 2) + "1" + ")".repeat(ExpressionCompiler.MAX_DEPTH - 2);
+        assertEquals(1, eval(allowed));
+    }
+
+    @Test
+    void testCacheReusesCompiledExpressionsAndEvictsLeastRecentlyUsed() {
+        ExpressionCache cache = new ExpressionCache(2);
+        CompiledExpression first = cache.get("1 + 1");
+        assertSame(first, cache.get("1 + 1"));
+        cache.get("2 + 2");
+        cache.get("1 + 1"); // most recently used
+        cache.get("3 + 3"); // evicts "2 + 2"
+
+        assertEquals(2, cache.size());
+        assertSame(first, cache.get("1 + 1"));
+        assertEquals(3, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        assertEquals(4, cache.get("2 + 2").evaluate());
+        assertEquals(4, cache.getMisses());
+    }
+}
@@ -0,0 +1,166 @@
+package com.hartmann.onlinechat.chat;
+
+import com.hartmann.onlinechat.config.RoomSubscriptionInterceptor;
+import com.hartmann.onlinechat.service.PresenceBroadcaster;
+import com.hartmann.onlinechat.service.SessionManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Drives room subscriptions and room messages through the room interceptor
+ * the way the inbound and outbound client channels do, with the simple broker
+ * in between.
+ */
+class RoomFanoutTest {
+
+    private static final String DEV = PresenceBroadcaster.roomDestination("dev");
+    private static final String OPS = PresenceBroadcaster.roomDestination("ops");
+
+    private final List<Message<?>> outbound = new ArrayList<>();
+    private SessionManager sessionManager;
+    private RoomSubscriptionInterceptor interceptor;
+    private SimpleBrokerMessageHandler broker;
+
+    @BeforeEach
+    void setUp() {
+        sessionManager = new SessionManager(new PresenceBroadcaster(mock(SimpMessagingTemplate.class), 0));
+        interceptor = new RoomSubscriptionInterceptor(sessionManager);
+        // Frames leave the broker through the outbound interceptor, like on the client outbound channel
+        broker = new SimpleBrokerMessageHandler(new ExecutorSubscribableChannel(), (message, timeout) -> {
+            Message<?> admitted = interceptor.outboundInterceptor().preSend(message, null);
+            if (admitted != null) {
+                outbound.add(admitted);
+            }
+            return true;
+        }, new ExecutorSubscribableChannel(), List.of("/topic"));
+        broker.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        broker.stop();
+    }
+
+    @Test
+    void testNonMemberSubscriptionIsRejected() {
+        connect("s1");
+        connect("s2");
+        sessionManager.joinRoom("s2", "dev");
+
+        assertFalse(subscribe("s1", DEV));
+        assertTrue(subscribe("s2", DEV));
+
+        outbound.clear();
+        send(DEV);
+        assertEquals(Set.of("s2"), recipients());
+    }
+
+    @Test
+    void testRoomMessageReachesOnlyRoomMembers() {
+        for (int i = 0; i < 30; i++) {
+            connect("s" + i);
+            subscribe("s" + i, "/topic/public");
+        }
+        for (int i = 0; i < 5; i++) {
+            sessionManager.joinRoom("s" + i, "dev");
+        }
+        for (int i = 5; i < 15; i++) {
+            sessionManager.joinRoom("s" + i, "ops");
+        }
+        // Everybody tries both rooms; only the members' subscriptions go through
+        for (int i = 0; i < 30; i++) {
+            subscribe("s" + i, DEV);
+            subscribe("s" + i, OPS);
+        }
+
+        outbound.clear();
+        send(DEV);
+        assertEquals(Set.of("s0", "s1", "s2", "s3", "s4"), recipients());
+
+        outbound.clear();
+        send(OPS);
+        assertEquals(10, recipients().size());
+        assertFalse(recipients().contains("s0"));
+
+        outbound.clear();
+        send("/topic/public");
+        assertEquals(30, outbound.size());
+    }
+
+    @Test
+    void testMemberStopsReceivingAfterLeaving() {
+        connect("s1");
+        connect("s2");
+        sessionManager.joinRoom("s1", "dev");
+        sessionManager.joinRoom("s2", "dev");
+        subscribe("s1", DEV);
+        subscribe("s2", DEV);
+
+        outbound.clear();
+        send(DEV);
+        assertEquals(Set.of("s1", "s2"), recipients());
+
+        // The broker subscription of s1 is still registered, but s1 is no longer a member
+        sessionManager.leaveRoom("s1", "dev");
+        outbound.clear();
+        send(DEV);
+        assertEquals(Set.of("s2"), recipients());
+
+        sessionManager.removeSession("s2");
+        outbound.clear();
+        send(DEV);
+        assertTrue(outbound.isEmpty());
+    }
+
+    private void connect(String sessionId) {
+        sessionManager.addSession(sessionId, "User-" + sessionId);
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.CONNECT);
+        accessor.setSessionId(sessionId);
+        broker.handleMessage(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+    }
+
+    /** @return true if the interceptor let the subscription through to the broker */
+    private boolean subscribe(String sessionId, String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(destination);
+        accessor.setDestination(destination);
+        Message<?> admitted = interceptor.preSend(
+                MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()), null);
+        if (admitted == null) {
+            return false;
+        }
+        broker.handleMessage(admitted);
+        return true;
+    }
+
+    private void send(String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(destination);
+        broker.handleMessage(MessageBuilder.createMessage("hello".getBytes(), accessor.getMessageHeaders()));
+    }
+
+    private Set<String> recipients() {
+        Set<String> sessionIds = new TreeSet<>();
+        for (Message<?> message : outbound) {
+            sessionIds.add(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()));
+        }
+        return sessionIds;
+    }
+}
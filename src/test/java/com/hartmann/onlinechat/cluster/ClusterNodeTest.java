@@ -0,0 +1,238 @@
+package com.hartmann.onlinechat.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs three cluster nodes in-process, connected over loopback TCP.
+ */
+class ClusterNodeTest {
+
+    private static final String[] NODE_IDS = { "node-1", "node-2", "node-3" };
+    private static final long HEARTBEAT_MS = 50;
+    private static final long LEASE_MS = 300;
+    private static final String SECRET = "test-secret";
+
+    private final Map<String, InetSocketAddress> addresses = new HashMap<>();
+    private final Map<String, ClusterNode> nodes = new HashMap<>();
+    private final Map<String, TcpClusterTransport> transports = new HashMap<>();
+    private final Map<String, RecordingListener> listeners = new HashMap<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        for (String id : NODE_IDS) {
+            addresses.put(id, new InetSocketAddress("127.0.0.1", freePort()));
+        }
+        for (String id : NODE_IDS) {
+            Map<String, InetSocketAddress> peers = new HashMap<>(addresses);
+            peers.remove(id);
+            RecordingListener listener = new RecordingListener();
+            TcpClusterTransport transport = new TcpClusterTransport(id, "127.0.0.1", addresses.get(id).getPort(),
+                    peers, SECRET, new ObjectMapper());
+            listeners.put(id, listener);
+            transports.put(id, transport);
+            nodes.put(id, new ClusterNode(id, transport, listener, HEARTBEAT_MS, LEASE_MS));
+        }
+        nodes.values().forEach(ClusterNode::start);
+        awaitTrue(() -> nodes.values().stream().allMatch(node -> "node-1".equals(node.getLeaderId())));
+    }
+
+    @AfterEach
+    void tearDown() {
+        nodes.values().forEach(ClusterNode::stop);
+    }
+
+    @Test
+    void testUsernameIsUniqueAcrossNodes() throws Exception {
+        assertTrue(nodes.get("node-2").claimUsername("Alice", "s1").get(5, TimeUnit.SECONDS));
+        assertFalse(nodes.get("node-3").claimUsername("alice", "s2").get(5, TimeUnit.SECONDS));
+        assertFalse(nodes.get("node-1").claimUsername(" ALICE ", "s3").get(5, TimeUnit.SECONDS));
+
+        // Every replica routes the name to its owner
+        awaitTrue(() -> nodes.values().stream().allMatch(node -> node.lookup("alice") != null));
+        ClusterNode.Entry entry = nodes.get("node-3").lookup("ALICE");
+        assertEquals("node-2", entry.nodeId());
+        assertEquals("s1", entry.sessionId());
+        awaitTrue(() -> listeners.get("node-3").joined.contains("Alice"));
+        assertFalse(listeners.get("node-2").joined.contains("Alice"), "Local users are not remote joins");
+
+        // Released names can be claimed on another node
+        nodes.get("node-2").releaseUsername("Alice", "s1");
+        awaitTrue(() -> listeners.get("node-3").left.contains("Alice"));
+        assertTrue(nodes.get("node-3").claimUsername("alice", "s2").get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testAdminIsEarliestUserClusterWide() throws Exception {
+        assertTrue(nodes.get("node-3").claimUsername("Carol", "c").get(5, TimeUnit.SECONDS));
+        assertTrue(nodes.get("node-1").claimUsername("Alice", "a").get(5, TimeUnit.SECONDS));
+        awaitTrue(() -> listeners.values().stream().allMatch(listener -> "Carol".equals(listener.adminName())));
+
+        nodes.get("node-3").releaseUsername("Carol", "c");
+        awaitTrue(() -> listeners.values().stream().allMatch(listener -> "Alice".equals(listener.adminName())));
+    }
+
+    @Test
+    void testLeaderFailoverBumpsEpochAndHandsOverAdmin() throws Exception {
+        assertTrue(nodes.get("node-1").claimUsername("Alice", "a").get(5, TimeUnit.SECONDS));
+        assertTrue(nodes.get("node-2").claimUsername("Bob", "b").get(5, TimeUnit.SECONDS));
+        assertTrue(nodes.get("node-3").claimUsername("Carol", "c").get(5, TimeUnit.SECONDS));
+        long oldEpoch = nodes.get("node-1").currentEpoch();
+
+        nodes.remove("node-1").stop();
+
+        awaitTrue(() -> nodes.values().stream().allMatch(node -> "node-2".equals(node.getLeaderId())));
+        assertTrue(nodes.get("node-3").currentEpoch() > oldEpoch);
+        // The failed node's users are gone and the next earliest user is admin everywhere
+        awaitTrue(() -> nodes.values().stream().allMatch(node -> node.lookup("alice") == null));
+        awaitTrue(() -> "Bob".equals(listeners.get("node-2").adminName())
+                && "Bob".equals(listeners.get("node-3").adminName()));
+        assertTrue(listeners.get("node-3").left.contains("Alice"));
+
+        // The surviving index still guards usernames under the new leader
+        assertFalse(nodes.get("node-3").claimUsername("bob", "b2").get(5, TimeUnit.SECONDS));
+        assertTrue(nodes.get("node-3").claimUsername("alice", "a2").get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testStaleLeaderIsFenced() throws Exception {
+        ClusterNode follower = nodes.get("node-2");
+        long epoch = follower.currentEpoch();
+        // Messages from a leader with an older epoch must not change the replica or the leader
+        TcpClusterTransport rogue = new TcpClusterTransport("node-0", "127.0.0.1", 0,
+                Map.of("node-2", addresses.get("node-2")), SECRET, new ObjectMapper());
+        rogue.start(message -> { });
+        try {
+            rogue.send("node-2", ClusterMessage.session(ClusterMessage.INDEX_JOIN, "node-0", epoch - 1, "Mallory",
+                    "node-0", "m", 1));
+            rogue.send("node-2", ClusterMessage.of(ClusterMessage.LEADER_HEARTBEAT, "node-0", epoch - 1));
+            Thread.sleep(4 * HEARTBEAT_MS);
+        } finally {
+            rogue.stop();
+        }
+        assertNull(follower.lookup("mallory"));
+        assertEquals("node-1", follower.getLeaderId());
+        assertEquals(epoch, follower.currentEpoch());
+    }
+
+    @Test
+    void testConnectionsWithoutTheSecretAreRejected() throws Exception {
+        ClusterNode follower = nodes.get("node-2");
+        long epoch = follower.currentEpoch();
+        // Impersonates the current leader, but cannot prove the shared secret
+        TcpClusterTransport impostor = new TcpClusterTransport("node-1", "127.0.0.1", 0,
+                Map.of("node-2", addresses.get("node-2")), "wrong-secret", new ObjectMapper());
+        impostor.start(message -> { });
+        try {
+            for (int i = 0; i < 10; i++) {
+                impostor.send("node-2", ClusterMessage.session(ClusterMessage.INDEX_JOIN, "node-1", epoch, "Mallory",
+                        "node-1", "m", 1000));
+                Thread.sleep(HEARTBEAT_MS);
+            }
+        } finally {
+            impostor.stop();
+        }
+        assertNull(follower.lookup("mallory"));
+        assertEquals(10, impostor.getDroppedFrames(), "Nothing is sent without an accepted handshake");
+        assertTrue(transports.get("node-2").getRejectedConnections() > 0);
+    }
+
+    @Test
+    void testPublishAndDirectMessagesReachOtherNodes() throws Exception {
+        assertTrue(nodes.get("node-3").claimUsername("Carol", "c").get(5, TimeUnit.SECONDS));
+        awaitTrue(() -> nodes.get("node-1").lookup("carol") != null);
+
+        nodes.get("node-1").publish("/topic/public", "{\"content\":\"hi\"}");
+        assertTrue(nodes.get("node-1").sendDirect("carol", "{\"content\":\"psst\"}"));
+        assertFalse(nodes.get("node-3").sendDirect("carol", "{}"), "Local recipients are not routed");
+
+        awaitTrue(() -> listeners.get("node-2").published.contains("/topic/public {\"content\":\"hi\"}")
+                && listeners.get("node-3").published.contains("/topic/public {\"content\":\"hi\"}"));
+        awaitTrue(() -> listeners.get("node-3").direct.contains("c {\"content\":\"psst\"}"));
+        assertTrue(listeners.get("node-1").published.isEmpty(), "Publishers do not receive their own messages");
+    }
+
+    @Test
+    void testFramesForUnreachablePeerAreDroppedInsteadOfQueued() throws Exception {
+        TcpClusterTransport transport = new TcpClusterTransport("node-9", "127.0.0.1", 0,
+                Map.of("down", new InetSocketAddress("127.0.0.1", freePort())), SECRET, new ObjectMapper());
+        transport.start(message -> { });
+        try {
+            for (int i = 0; i < 10_000; i++) {
+                transport.send("down", ClusterMessage.of(ClusterMessage.HEARTBEAT, "node-9", 0));
+            }
+            assertEquals(10_000, transport.getDroppedFrames());
+        } finally {
+            transport.stop();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Condition not met within 10 seconds");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static class RecordingListener implements ClusterNode.Listener {
+
+        final List<String> joined = new CopyOnWriteArrayList<>();
+        final List<String> left = new CopyOnWriteArrayList<>();
+        final List<String> published = new CopyOnWriteArrayList<>();
+        final List<String> direct = new CopyOnWriteArrayList<>();
+        volatile ClusterNode.Entry admin;
+
+        @Override
+        public void remoteUserJoined(String username) {
+            joined.add(username);
+        }
+
+        @Override
+        public void remoteUserLeft(String username) {
+            left.add(username);
+        }
+
+        @Override
+        public void adminChanged(ClusterNode.Entry newAdmin) {
+            admin = newAdmin;
+        }
+
+        @Override
+        public void published(String destination, String payload) {
+            published.add(destination + " " + payload);
+        }
+
+        @Override
+        public void directMessage(String sessionId, String payload) {
+            direct.add(sessionId + " " + payload);
+        }
+
+        String adminName() {
+            ClusterNode.Entry current = admin;
+            return current != null ? current.username() : null;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.hartmann.onlinechat.config;
+
+import com.hartmann.onlinechat.chat.ChatMessage;
+import com.hartmann.onlinechat.config.InboundRateLimiter.Traffic;
+import com.hartmann.onlinechat.service.SessionManager;
+import com.hartmann.onlinechat.service.SessionMessenger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class InboundRateLimiterTest {
+
+    private final SessionManager sessionManager = mock(SessionManager.class);
+    private final SessionMessenger sessionMessenger = mock(SessionMessenger.class);
+    private InboundRateLimiter limiter;
+
+    @AfterEach
+    void tearDown() {
+        limiter.shutdown();
+    }
+
+    @Test
+    void testPayloadsAreClassifiedLikeMessageClassifier() {
+        limiter = limiter(1, 1);
+
+        assertEquals(Traffic.PUBLIC, InboundRateLimiter.classify(json("hello @bob")));
+        assertEquals(Traffic.DIRECT, InboundRateLimiter.classify(json("@bob hi")));
+        assertEquals(Traffic.BOT, InboundRateLimiter.classify(json("@Server math 6 * 7")));
+        assertEquals(Traffic.BOT, InboundRateLimiter.classify(json("\\n  @server-info")));
+        assertEquals(Traffic.DIRECT, InboundRateLimiter.classify(json("@serv")));
+        assertEquals(Traffic.PUBLIC, InboundRateLimiter.classify(
+                "{\"sender\":\"@server\",\"type\":\"JOIN\"}".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(Traffic.DIRECT, InboundRateLimiter.classify(
+                "{ \"content\" : \"@bob\" }".getBytes(StandardCharsets.UTF_8)));
+        // "content" as a value, or quoted inside one, is not the content key
+        assertEquals(Traffic.BOT, InboundRateLimiter.classify(
+                "{\"sender\":\"content\",\"content\":\"@server math 6 * 7\"}".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(Traffic.PUBLIC, InboundRateLimiter.classify(
+                "{\"sender\":\"x, \\\"content\\\": \\\"@bob\",\"content\":\"hi\"}".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testBurstIsAllowedThenThrottledWithOneNotice() {
+        limiter = limiter(3, 1);
+
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(send("s1", "hello"));
+        }
+        assertNull(send("s1", "hello"));
+        assertNull(send("s1", "hello"));
+
+        ArgumentCaptor<Object> notice = ArgumentCaptor.forClass(Object.class);
+        verify(sessionMessenger).sendToSession(eq("s1"), notice.capture());
+        assertEquals("s1", ((ChatMessage) notice.getValue()).getTargetSessionId());
+        assertEquals(2, limiter.getThrottled(Traffic.PUBLIC));
+        assertNotNull(send("s2", "hello"), "Other sessions have their own budget");
+    }
+
+    @Test
+    void testTrafficKindsHaveSeparateBudgets() {
+        limiter = limiter(10, 1);
+
+        assertNotNull(send("s1", "@server help"));
+        assertNull(send("s1", "@server help"));
+        assertNotNull(send("s1", "@bob hi"));
+        assertNotNull(send("s1", "hello"));
+        assertEquals(1, limiter.getThrottled(Traffic.BOT));
+        assertEquals(0, limiter.getThrottled(Traffic.PUBLIC));
+    }
+
+    @Test
+    void testUserBudgetSurvivesReconnecting() {
+        limiter = limiter(2, 1);
+        when(sessionManager.getUsername("s1")).thenReturn("Alice");
+        when(sessionManager.getUsername("s2")).thenReturn("Alice");
+
+        assertNotNull(send("s1", "one"));
+        assertNotNull(send("s1", "two"));
+        limiter.onDisconnect(new SessionDisconnectEvent(this, MessageBuilder.withPayload(new byte[0]).build(), "s1",
+                CloseStatus.NORMAL));
+
+        assertNull(send("s2", "three"), "The new session starts with a full bucket, the user does not");
+    }
+
+    @Test
+    void testIdleBucketsAreRemoved() throws Exception {
+        // Ten thousand tokens per second: every bucket is full again within a millisecond
+        limiter = new InboundRateLimiter(true, 10_000, 1, 10_000, 1, 10_000, 1, 2000, 60_000, sessionManager,
+                sessionMessenger);
+        when(sessionManager.getUsername("s1")).thenReturn("Alice");
+        send("s1", "hello");
+        assertEquals(2, limiter.getBuckets());
+
+        Thread.sleep(5);
+        limiter.sweep();
+        limiter.onDisconnect(new SessionDisconnectEvent(this, MessageBuilder.withPayload(new byte[0]).build(), "s1",
+                CloseStatus.NORMAL));
+
+        assertEquals(0, limiter.getBuckets());
+    }
+
+    /** Every budget allows the burst, then practically nothing within a test. */
+    private InboundRateLimiter limiter(int publicBurst, int botBurst) {
+        return new InboundRateLimiter(true, 0.001, publicBurst, 0.001, publicBurst, 0.001, botBurst, 60_000, 60_000,
+                sessionManager, sessionMessenger);
+    }
+
+    private Message<?> send(String sessionId, String content) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setDestination("/app/chat.sendMessage");
+        return limiter.preSend(MessageBuilder.createMessage(json(content), accessor.getMessageHeaders()), null);
+    }
+
+    private static byte[] json(String content) {
+        return ("{\"sender\":\"Alice\",\"content\":\"" + content + "\",\"type\":\"CHAT\"}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,148 @@
+package com.hartmann.onlinechat.config;
+
+import com.hartmann.onlinechat.chat.ChatMessage;
+import com.hartmann.onlinechat.chat.MessageType;
+import com.hartmann.onlinechat.service.PresenceBroadcaster;
+import com.hartmann.onlinechat.service.SessionManager;
+import com.hartmann.onlinechat.service.SessionMessenger;
+import com.hartmann.onlinechat.wire.SourceTrackingJsonMessageConverter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class SlowConsumerGuardTest {
+
+    private static final Map<String, Object> SNAPSHOT = Map.of("type", PresenceBroadcaster.PRESENCE_SNAPSHOT);
+
+    private final SessionManager sessionManager = mock(SessionManager.class);
+    private final SessionMessenger sessionMessenger = mock(SessionMessenger.class);
+    private final WebSocketSession socket = mock(WebSocketSession.class);
+    private SlowConsumerGuard guard;
+    private WebSocketSession countingSession;
+
+    @AfterEach
+    void tearDown() {
+        guard.shutdown();
+    }
+
+    @Test
+    void testMergePolicyReplacesDroppedDeltasWithOneSnapshot() throws Exception {
+        connect(BackpressurePolicy.MERGE_PRESENCE);
+        when(sessionManager.getPresenceSnapshot()).thenReturn(SNAPSHOT);
+        fillBacklog();
+
+        assertNull(send(presenceDelta()));
+        assertNull(send(presenceDelta()));
+        assertNotNull(send(chat(MessageType.JOIN)), "Only presence deltas are merged");
+        assertEquals(1, guard.getLaggingSessions());
+        assertEquals(5, guard.getMaxPendingFrames());
+
+        write(5);
+
+        verify(sessionMessenger).sendToSession("s1", SNAPSHOT);
+        assertEquals(0, guard.getLaggingSessions());
+        assertEquals(1, guard.getLagEvents());
+        assertEquals(2, guard.getDroppedFrames());
+        assertEquals(1, guard.getResyncs());
+    }
+
+    @Test
+    void testDropPolicyDropsOnlyNonEssentialFrames() throws Exception {
+        connect(BackpressurePolicy.DROP_NON_ESSENTIAL);
+        fillBacklog();
+
+        assertNull(send(presenceDelta()));
+        assertNull(send(chat(MessageType.LEAVE)));
+        assertNull(send(Map.of("type", PresenceBroadcaster.ROOM_PRESENCE, "room", "java")));
+        assertNotNull(send(chat(MessageType.CHAT)));
+
+        write(5);
+
+        verifyNoInteractions(sessionMessenger);
+        assertEquals(3, guard.getDroppedFrames());
+        assertEquals(0, guard.getLaggingSessions());
+    }
+
+    @Test
+    void testDisconnectPolicyClosesTheSession() throws Exception {
+        connect(BackpressurePolicy.DISCONNECT);
+        fillBacklog();
+
+        assertNull(send(chat(MessageType.CHAT)));
+        assertNull(send(chat(MessageType.CHAT)), "Nothing more is queued for a closing session");
+
+        verify(socket, timeout(1000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+        assertEquals(1, guard.getDisconnects());
+        assertEquals(2, guard.getDroppedFrames());
+    }
+
+    @Test
+    void testEveryPolicyDisconnectsAtTheHardLimit() throws Exception {
+        connect(BackpressurePolicy.MERGE_PRESENCE);
+        fillBacklog();
+
+        for (int i = 0; i < 4; i++) {
+            assertNotNull(send(chat(MessageType.CHAT)));
+        }
+        assertNull(send(chat(MessageType.CHAT)));
+
+        verify(socket, timeout(1000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+        assertEquals(1, guard.getDisconnects());
+    }
+
+    /** A session lagging at 4 pending frames and disconnected at 8; no send time limit. */
+    private void connect(BackpressurePolicy policy) throws Exception {
+        guard = new SlowConsumerGuard(policy, 4, 8, 60_000, sessionManager, sessionMessenger);
+        when(socket.getId()).thenReturn("s1");
+        WebSocketHandler handler = mock(WebSocketHandler.class);
+        guard.decorate(handler).afterConnectionEstablished(socket);
+        ArgumentCaptor<WebSocketSession> session = ArgumentCaptor.forClass(WebSocketSession.class);
+        verify(handler).afterConnectionEstablished(session.capture());
+        countingSession = session.getValue();
+    }
+
+    private void fillBacklog() {
+        for (int i = 0; i < 4; i++) {
+            assertNotNull(send(chat(MessageType.CHAT)));
+        }
+        assertEquals(0, guard.getLaggingSessions());
+    }
+
+    private void write(int frames) throws Exception {
+        for (int i = 0; i < frames; i++) {
+            countingSession.sendMessage(new TextMessage("frame"));
+        }
+        verify(socket, times(frames)).sendMessage(any());
+    }
+
+    private Message<?> send(Object source) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId("s1");
+        accessor.setDestination("/topic/public");
+        accessor.setHeader(SourceTrackingJsonMessageConverter.SOURCE_PAYLOAD_HEADER, source);
+        return guard.outboundInterceptor().preSend(MessageBuilder.createMessage(new byte[0],
+                accessor.getMessageHeaders()), null);
+    }
+
+    private static Map<String, Object> presenceDelta() {
+        return Map.of("type", PresenceBroadcaster.PRESENCE_DELTA, "version", 2L);
+    }
+
+    private static ChatMessage chat(MessageType type) {
+        return ChatMessage.builder().type(type).sender("Alice").content("hi").build();
+    }
+}
@@ -0,0 +1,163 @@
+package com.hartmann.onlinechat.history;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hartmann.onlinechat.chat.ChatMessage;
+import com.hartmann.onlinechat.chat.MessageType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatHistoryStoreTest {
+
+    private static final int SEGMENT_BYTES = 4096;
+
+    @TempDir
+    Path directory;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private ChatHistoryStore store;
+
+    @AfterEach
+    void tearDown() {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    @Test
+    void testAppendAssignsMonotonicOffsetsAndReadsBack() throws IOException {
+        store = open(Long.MAX_VALUE);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, store.append(message(i)));
+        }
+
+        List<ChatMessage> messages = store.readMessages(3, 4);
+        assertEquals(4, messages.size());
+        assertEquals("message 3", messages.get(0).getContent());
+        assertEquals("message 6", messages.get(3).getContent());
+        assertEquals(10, store.getNextOffset());
+    }
+
+    @Test
+    void testSegmentsRollAndReadsSpanSegments() throws IOException {
+        store = open(Long.MAX_VALUE);
+        for (int i = 0; i < 200; i++) {
+            store.append(message(i));
+        }
+
+        assertTrue(segmentFiles().size() > 1);
+        List<ChatMessage> messages = store.readMessages(0, 200);
+        assertEquals(200, messages.size());
+        for (int i = 0; i < 200; i++) {
+            assertEquals("message " + i, messages.get(i).getContent());
+        }
+    }
+
+    @Test
+    void testRecoveryKeepsOffsetsAfterReopen() throws IOException {
+        store = open(Long.MAX_VALUE);
+        for (int i = 0; i < 50; i++) {
+            store.append(message(i));
+        }
+        store.close();
+
+        store = open(Long.MAX_VALUE);
+        assertEquals(50, store.getNextOffset());
+        assertEquals(50, store.append(message(50)));
+        assertEquals("message 49", store.readMessages(49, 1).get(0).getContent());
+    }
+
+    @Test
+    void testCorruptTailIsTruncatedOnStartup() throws IOException {
+        store = open(Long.MAX_VALUE);
+        for (int i = 0; i < 5; i++) {
+            store.append(message(i));
+        }
+        store.close();
+
+        // Flip a byte inside the payload of the last record
+        Path segment = segmentFiles().get(0);
+        long lastRecordEnd = lastRecordEnd(segment);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(lastRecordEnd - 2);
+            int value = file.read();
+            file.seek(lastRecordEnd - 2);
+            file.write(value ^ 0xFF);
+        }
+
+        store = open(Long.MAX_VALUE);
+        assertEquals(4, store.getNextOffset());
+        assertEquals(4, store.readMessages(0, 10).size());
+        assertEquals(4, store.append(message(99)));
+        assertEquals("message 99", store.readMessages(4, 1).get(0).getContent());
+        store.close();
+
+        // A torn header whose length is so large that position + length overflows an int
+        long end = lastRecordEnd(segment);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(end);
+            file.writeInt(0x7FFFFFF0);
+            file.writeInt(0xCAFEBABE);
+        }
+
+        store = open(Long.MAX_VALUE);
+        assertEquals(5, store.getNextOffset());
+        assertEquals(5, store.readMessages(0, 10).size());
+    }
+
+    @Test
+    void testRetentionBySizeDeletesOldestSegments() throws IOException {
+        store = open(SEGMENT_BYTES * 2L);
+        for (int i = 0; i < 500; i++) {
+            store.append(message(i));
+        }
+
+        assertTrue(store.getFirstOffset() > 0);
+        assertTrue(segmentFiles().size() <= 3);
+        List<ChatMessage> remaining = store.readMessages(0, 500);
+        assertEquals(store.getNextOffset() - store.getFirstOffset(), remaining.size());
+        assertEquals("message 499", remaining.get(remaining.size() - 1).getContent());
+    }
+
+    private ChatHistoryStore open(long retentionBytes) throws IOException {
+        return new ChatHistoryStore(directory, SEGMENT_BYTES, retentionBytes, 168, 0, objectMapper);
+    }
+
+    private ChatMessage message(int i) {
+        return ChatMessage.builder()
+                .content("message " + i)
+                .sender("User" + (i % 7))
+                .type(MessageType.CHAT)
+                .build();
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private long lastRecordEnd(Path segment) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "r")) {
+            long position = 0;
+            while (true) {
+                file.seek(position);
+                int length = file.readInt();
+                if (length == 0) {
+                    return position;
+                }
+                position += LogSegment.HEADER_BYTES + length;
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.hartmann.onlinechat.history;
+
+import com.hartmann.onlinechat.chat.ChatMessage;
+import com.hartmann.onlinechat.chat.MessageType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecentMessageBufferTest {
+
+    @Test
+    void testSnapshotReturnsMessagesOldestFirst() {
+        RecentMessageBuffer buffer = new RecentMessageBuffer(5);
+        for (int i = 0; i < 3; i++) {
+            buffer.publish(message(i));
+        }
+
+        List<ChatMessage> snapshot = buffer.snapshot();
+        assertEquals(List.of("0", "1", "2"), snapshot.stream().map(ChatMessage::getContent).toList());
+    }
+
+    @Test
+    void testOldestMessagesAreOverwrittenAtCapacity() {
+        RecentMessageBuffer buffer = new RecentMessageBuffer(5);
+        for (int i = 0; i < 12; i++) {
+            buffer.publish(message(i));
+        }
+
+        List<ChatMessage> snapshot = buffer.snapshot();
+        assertEquals(List.of("7", "8", "9", "10", "11"), snapshot.stream().map(ChatMessage::getContent).toList());
+    }
+
+    @Test
+    void testStalledWriterDoesNotOverwriteNewerSlotAfterWrap() {
+        RecentMessageBuffer buffer = new RecentMessageBuffer(4);
+        long stalled = buffer.claim();
+        // Other writers lap the ring; sequence 4 lands in the stalled writer's slot
+        for (int i = 1; i <= 4; i++) {
+            buffer.publish(message(i));
+        }
+
+        buffer.store(stalled, message(0));
+
+        List<ChatMessage> snapshot = buffer.snapshot();
+        assertEquals(List.of("1", "2", "3", "4"), snapshot.stream().map(ChatMessage::getContent).toList());
+    }
+
+    @Test
+    void testConcurrentPublishStaysBounded() throws Exception {
+        RecentMessageBuffer buffer = new RecentMessageBuffer(50);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    buffer.publish(message(i));
+                    assertTrue(buffer.snapshot().size() <= 50);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(50, buffer.snapshot().size());
+    }
+
+    private ChatMessage message(int i) {
+        return ChatMessage.builder().content(String.valueOf(i)).sender("User").type(MessageType.CHAT).build();
+    }
+}
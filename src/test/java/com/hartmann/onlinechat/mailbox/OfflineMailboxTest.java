@@ -0,0 +1,201 @@
+package com.hartmann.onlinechat.mailbox;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hartmann.onlinechat.chat.ChatMessage;
+import com.hartmann.onlinechat.chat.MessageType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OfflineMailboxTest {
+
+    private static final long TTL = TimeUnit.HOURS.toMillis(1);
+
+    @TempDir
+    Path directory;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private OfflineMailbox mailbox;
+
+    @AfterEach
+    void tearDown() {
+        if (mailbox != null) {
+            mailbox.close();
+        }
+    }
+
+    @Test
+    void testMessagesAreDeliveredOnceInOrderCaseInsensitively() throws IOException {
+        mailbox = open(1 << 20, 100, 1 << 20);
+        mailbox.userLeft("Bob", 0);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(mailbox.offer("Bob", message(i), 0));
+        }
+
+        List<ChatMessage> delivered = mailbox.drain(" bob ", 1);
+        assertEquals(5, delivered.size());
+        assertEquals("message 0", delivered.get(0).getContent());
+        assertEquals("message 4", delivered.get(4).getContent());
+        assertTrue(mailbox.drain("Bob", 2).isEmpty());
+        assertEquals(0, mailbox.getQueuedMessages());
+        assertEquals(0, mailbox.getMailboxes());
+        assertEquals(0, mailbox.getMemoryBytes());
+    }
+
+    @Test
+    void testMessagesBeyondTheMemoryBudgetSpillToDiskAndReadBack() throws IOException {
+        mailbox = open(200, 100, 1 << 20);
+        mailbox.userLeft("bob", 0);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(mailbox.offer("bob", message(i), 0));
+        }
+        assertTrue(mailbox.getMemoryBytes() <= 200);
+        assertTrue(mailbox.getSpilled() > 0);
+        assertTrue(Files.size(directory.resolve("spill.dat.0")) > 0);
+
+        List<ChatMessage> delivered = mailbox.drain("bob", 1);
+        assertEquals(20, delivered.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals("message " + i, delivered.get(i).getContent());
+        }
+        assertEquals(0, mailbox.getSpillBytes(), "Spill file is emptied once nothing in it is queued");
+        assertEquals(0, Files.size(directory.resolve("spill.dat.0")));
+    }
+
+    @Test
+    void testOneUndeliveredMessageDoesNotPinTheSpillSpace() throws IOException {
+        // Everything spills, in segments of a few messages, with room for only a few segments
+        mailbox = new OfflineMailbox(objectMapper, true, directory.resolve("spill.dat"), 0, 2048, 256, 100, 1 << 20,
+                1000, 1);
+        leave("bob", "carol");
+        assertTrue(mailbox.offer("bob", message(-1), 0));
+
+        // Bob never shows up while carol keeps receiving and collecting messages
+        for (int i = 0; i < 500; i++) {
+            assertTrue(mailbox.offer("carol", message(i), 0), "Spill space is reclaimed around bob's message");
+            if (i % 3 == 2) {
+                assertEquals(3, mailbox.drain("carol", 1).size());
+            }
+        }
+        assertTrue(mailbox.getSpillBytes() <= 2048);
+        try (Stream<Path> segments = Files.list(directory)) {
+            assertTrue(segments.count() <= 3, "Drained segments are deleted");
+        }
+
+        List<ChatMessage> delivered = mailbox.drain("bob", 1);
+        assertEquals(List.of("message -1"), delivered.stream().map(ChatMessage::getContent).toList());
+        assertEquals(0, mailbox.getRejected());
+    }
+
+    @Test
+    void testPerUserQuotasRejectFurtherMessages() throws IOException {
+        mailbox = open(1 << 20, 3, 1 << 20);
+        leave("bob", "carol");
+        for (int i = 0; i < 3; i++) {
+            assertTrue(mailbox.offer("bob", message(i), 0));
+        }
+
+        assertFalse(mailbox.offer("bob", message(3), 0));
+        assertTrue(mailbox.offer("carol", message(3), 0), "Quotas are per recipient");
+        assertEquals(1, mailbox.getRejected());
+
+        mailbox.close();
+        mailbox = open(1 << 20, 100, 100);
+        leave("bob");
+        assertTrue(mailbox.offer("bob", message(0), 0));
+        assertFalse(mailbox.offer("bob", message(1), 0), "Byte quota is exceeded");
+    }
+
+    @Test
+    void testOnlyRecentlySeenUsersGetAMailbox() throws IOException {
+        mailbox = open(1 << 20, 100, 1 << 20);
+
+        assertFalse(mailbox.offer("nobody", message(0), 0), "Never seen");
+        mailbox.userLeft(" Bob ", 0);
+        assertTrue(mailbox.offer("bob", message(0), TTL - 1));
+        assertFalse(mailbox.offer("bob", message(1), TTL), "Left longer than the time to live ago");
+
+        mailbox.userLeft("bob", TTL);
+        mailbox.sweep(TTL + 1);
+        assertTrue(mailbox.offer("bob", message(1), TTL + 1), "Seen again after the sweep");
+        mailbox.sweep(2 * TTL);
+        assertFalse(mailbox.offer("bob", message(2), 2 * TTL), "Swept away");
+        assertEquals(0, mailbox.getRejected(), "Unknown recipients are not counted as rejected");
+    }
+
+    @Test
+    void testPerSenderQuotaSpansMailboxesAndIsReturnedOnDrain() throws IOException {
+        mailbox = new OfflineMailbox(objectMapper, true, directory.resolve("spill.dat"), 1 << 20, 1 << 20, 1 << 16,
+                100, 1 << 20, 4, 1);
+        leave("bob", "carol", "dave");
+        for (int i = 0; i < 4; i++) {
+            assertTrue(mailbox.offer(i % 2 == 0 ? "bob" : "carol", message(i), 0));
+        }
+
+        assertFalse(mailbox.offer("dave", message(4), 0), "Alice has four messages queued");
+        assertTrue(mailbox.offer("dave",
+                ChatMessage.builder().type(MessageType.CHAT).sender("eve").content("hi").build(), 0));
+        assertEquals(1, mailbox.getRejected());
+
+        assertEquals(2, mailbox.drain("bob", 1).size());
+        assertTrue(mailbox.offer("dave", message(5), 1), "Delivered messages no longer count");
+    }
+
+    @Test
+    void testExpiredMessagesAreDroppedOnDrainAndBySweep() throws IOException {
+        mailbox = open(200, 100, 1 << 20);
+        leave("bob", "carol");
+        for (int i = 0; i < 10; i++) {
+            assertTrue(mailbox.offer("bob", message(i), 0));
+        }
+        mailbox.userLeft("bob", TTL);
+        assertTrue(mailbox.offer("bob", message(10), TTL));
+        assertTrue(mailbox.offer("carol", message(11), 0));
+
+        mailbox.sweep(TTL);
+        assertEquals(1, mailbox.getMailboxes(), "Carol's mailbox only held expired messages");
+        assertEquals(11, mailbox.getExpired());
+
+        List<ChatMessage> delivered = mailbox.drain("bob", TTL + 1);
+        assertEquals(1, delivered.size());
+        assertEquals("message 10", delivered.get(0).getContent());
+        assertEquals(0, mailbox.getSpillBytes());
+        assertEquals(0, mailbox.getMemoryBytes());
+    }
+
+    @Test
+    void testDisabledMailboxQueuesNothing() throws IOException {
+        mailbox = new OfflineMailbox(objectMapper, false, directory.resolve("spill.dat"), 1 << 20, 1 << 20, 1 << 16,
+                100, 1 << 20, 1000, 1);
+        mailbox.userLeft("bob", 0);
+
+        assertFalse(mailbox.offer("bob", message(0), 0));
+        assertTrue(mailbox.drain("bob", 0).isEmpty());
+        assertFalse(Files.exists(directory.resolve("spill.dat.0")));
+    }
+
+    private OfflineMailbox open(long memoryBytes, int maxMessagesPerUser, long maxBytesPerUser) throws IOException {
+        return new OfflineMailbox(objectMapper, true, directory.resolve("spill.dat"), memoryBytes, 1 << 20, 1 << 16,
+                maxMessagesPerUser, maxBytesPerUser, 1000, 1);
+    }
+
+    private void leave(String... usernames) {
+        for (String username : usernames) {
+            mailbox.userLeft(username, 0);
+        }
+    }
+
+    private static ChatMessage message(int i) {
+        return ChatMessage.builder().type(MessageType.CHAT).sender("alice").content("message " + i).build();
+    }
+}
@@ -0,0 +1,81 @@
+package com.hartmann.onlinechat.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BroadcastMetricsInterceptorTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+    private final ExecutorSubscribableChannel outboundChannel = new ExecutorSubscribableChannel();
+
+    @BeforeEach
+    void setUp() {
+        BroadcastMetricsInterceptor interceptor = new BroadcastMetricsInterceptor(new ChatMetrics(meterRegistry));
+        brokerChannel.addInterceptor(interceptor);
+        outboundChannel.addInterceptor(interceptor.outboundInterceptor());
+        outboundChannel.subscribe(message -> { });
+        // Stands in for the simple broker: one frame per subscriber, sent on the broker thread.
+        // /user/ destinations are translated and re-sent to the broker channel like the user destination handler.
+        brokerChannel.subscribe(message -> {
+            String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+            if (destination.startsWith("/user/")) {
+                brokerChannel.send(message("/queue/private-user1"));
+                return;
+            }
+            int subscribers = destination.equals("/topic/public") ? 3 : 1;
+            for (int i = 0; i < subscribers; i++) {
+                outboundChannel.send(message(destination));
+            }
+        });
+    }
+
+    @Test
+    void testFanoutIsCountedPerDestinationKind() {
+        brokerChannel.send(message("/topic/public"));
+        brokerChannel.send(message("/topic/public"));
+        brokerChannel.send(message("/topic/room.dev"));
+
+        DistributionSummary publicFanout = fanout("public");
+        assertEquals(2, publicFanout.count());
+        assertEquals(6, publicFanout.totalAmount());
+        assertEquals(1, fanout("room").totalAmount());
+        assertEquals(2, meterRegistry.get("chat.broadcast.latency").tag("destination", "public").timer().count());
+    }
+
+    @Test
+    void testUserDestinationIsRecordedOnceAsPrivate() {
+        brokerChannel.send(message("/user/s1/queue/private"));
+
+        assertEquals(1, fanout("private").count());
+        assertEquals(1, fanout("private").totalAmount());
+        assertEquals(1, meterRegistry.get("chat.broadcast.fanout").summaries().size());
+    }
+
+    @Test
+    void testFramesOutsideABroadcastAreNotCounted() {
+        outboundChannel.send(message("/topic/public"));
+        brokerChannel.send(message("/topic/public"));
+
+        assertEquals(3, fanout("public").totalAmount());
+    }
+
+    private DistributionSummary fanout(String destination) {
+        return meterRegistry.get("chat.broadcast.fanout").tag("destination", destination).summary();
+    }
+
+    private static Message<byte[]> message(String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+}
@@ -0,0 +1,192 @@
+package com.hartmann.onlinechat.search;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hartmann.onlinechat.chat.ChatMessage;
+import com.hartmann.onlinechat.chat.MessageType;
+import com.hartmann.onlinechat.history.ChatHistoryStore;
+import com.hartmann.onlinechat.history.HistoryRecordVisitor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SearchIndexTest {
+
+    private static final String[] SENDERS = { "alice", "bob", "carol" };
+    private static final String[] WORDS = { "deploy", "release", "lunch", "coffee", "review", "bug" };
+
+    @TempDir
+    Path directory;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private ChatHistoryStore store;
+    private SearchIndex index;
+
+    @AfterEach
+    void tearDown() {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    @Test
+    void testKeywordsMustAllMatchAndNewestComeFirst() throws IOException {
+        open(Long.MAX_VALUE, 1 << 20);
+        append("alice", "Deploy is done");
+        append("bob", "the deploy failed, rolling back");
+        append("carol", "Lunch?");
+        append("alice", "deploy FAILED again");
+        index.catchUp();
+
+        List<SearchHit> hits = index.search(new SearchQuery("deploy failed", null, 10));
+        assertEquals(2, hits.size());
+        assertEquals("deploy FAILED again", hits.get(0).message().getContent());
+        assertEquals(3, hits.get(0).offset());
+        assertEquals(1, hits.get(1).offset());
+
+        assertEquals(1, index.search(new SearchQuery("deploy", null, 1)).size(), "Limited to the newest hit");
+        assertTrue(index.search(new SearchQuery("deploy dinner", null, 10)).isEmpty());
+        assertTrue(index.search(new SearchQuery("", null, 10)).isEmpty(), "No terms, no hits");
+    }
+
+    @Test
+    void testSenderFilterAloneOrWithKeywords() throws IOException {
+        open(Long.MAX_VALUE, 1 << 20);
+        append("alice", "deploy is done");
+        append("Bob", "deploy failed");
+        append("bob", "coffee anyone");
+        index.catchUp();
+
+        assertEquals(2, index.search(new SearchQuery("", "BOB", 10)).size());
+        List<SearchHit> hits = index.search(new SearchQuery("deploy", "bob", 10));
+        assertEquals(1, hits.size());
+        assertEquals("deploy failed", hits.get(0).message().getContent());
+    }
+
+    @Test
+    void testSealedAndMergedSegmentsMatchLikeAScan() throws IOException {
+        open(Long.MAX_VALUE, 2048);
+        for (int i = 0; i < 3000; i++) {
+            append(SENDERS[i % SENDERS.length], WORDS[i % WORDS.length] + " " + WORDS[(i / 7) % WORDS.length]
+                    + " item" + i);
+        }
+        index.catchUp();
+
+        assertTrue(index.getSegments() > 0);
+        assertTrue(index.getMerges() > 0);
+        assertEquals(3000, index.getDocuments());
+        assertEquals(0, index.getLag());
+
+        assertEquals(1, index.search(new SearchQuery("item7", null, 10)).size());
+        assertEquals(2999, index.search(new SearchQuery("item2999", null, 10)).get(0).offset());
+
+        // Count the documents holding both words and sent by carol
+        int expected = 0;
+        for (int i = 0; i < 3000; i++) {
+            String first = WORDS[i % WORDS.length];
+            String second = WORDS[(i / 7) % WORDS.length];
+            boolean both = first.equals("coffee") && second.equals("bug")
+                    || first.equals("bug") && second.equals("coffee");
+            if (both && i % SENDERS.length == 2) {
+                expected++;
+            }
+        }
+        List<SearchHit> hits = index.search(new SearchQuery("bug coffee", "carol", 10_000));
+        assertTrue(expected > 0);
+        assertEquals(expected, hits.size());
+        for (int i = 1; i < hits.size(); i++) {
+            assertTrue(hits.get(i - 1).offset() > hits.get(i).offset(), "Newest first");
+        }
+    }
+
+    @Test
+    void testOldestSegmentsAreDroppedBeyondTheMemoryBudget() throws IOException {
+        open(8192, 2048);
+        for (int i = 0; i < 3000; i++) {
+            append("alice", "message number" + i);
+        }
+        index.catchUp();
+
+        assertTrue(index.getEvictedDocuments() > 0);
+        assertTrue(index.getDocuments() < 3000);
+        assertTrue(index.search(new SearchQuery("number0", null, 10)).isEmpty());
+        assertEquals(1, index.search(new SearchQuery("number2999", null, 10)).size());
+    }
+
+    @Test
+    void testTimeRangeFiltersHits() throws IOException {
+        open(Long.MAX_VALUE, 1 << 20);
+        long before = System.currentTimeMillis();
+        append("alice", "deploy now");
+        index.catchUp();
+        long after = System.currentTimeMillis();
+
+        assertEquals(1, index.search(new SearchQuery("deploy", null, before, after, 10)).size());
+        assertTrue(index.search(new SearchQuery("deploy", null, after + 1, Long.MAX_VALUE, 10)).isEmpty());
+        assertTrue(index.search(new SearchQuery("deploy", null, 0, before - 1, 10)).isEmpty());
+        assertEquals(3, index.getQueries());
+    }
+
+    @Test
+    void testUndecodableRecordsAreSkippedAndCountedOnce() throws IOException {
+        // The history hands out whatever bytes it stored; one record in the middle is not a ChatMessage
+        List<byte[]> records = List.of(objectMapper.writeValueAsBytes(message("alice", "deploy one")),
+                "{not json".getBytes(StandardCharsets.UTF_8),
+                objectMapper.writeValueAsBytes(message("bob", "deploy two")));
+        ChatHistoryStore history = mock(ChatHistoryStore.class);
+        when(history.getFirstOffset()).thenReturn(0L);
+        when(history.getNextOffset()).thenReturn((long) records.size());
+        when(history.read(anyLong(), anyInt(), any())).thenAnswer(invocation -> {
+            long from = invocation.getArgument(0);
+            int maxRecords = invocation.getArgument(1);
+            HistoryRecordVisitor visitor = invocation.getArgument(2);
+            long offset = from;
+            for (; offset < records.size() && offset < from + maxRecords; offset++) {
+                visitor.visit(offset, 0, ByteBuffer.wrap(records.get((int) offset)).asReadOnlyBuffer());
+            }
+            return offset;
+        });
+        index = new SearchIndex(history, objectMapper, true, Long.MAX_VALUE, 1 << 20, 2);
+
+        assertEquals(2, index.catchUp());
+        assertEquals(0, index.catchUp(), "Nothing is indexed twice");
+        assertEquals(1, index.getSkippedRecords());
+        assertEquals(2, index.getDocuments());
+        assertEquals(0, index.getLag());
+
+        List<SearchHit> hits = index.search(new SearchQuery("deploy", null, 10));
+        assertEquals(List.of(2L, 0L), hits.stream().map(SearchHit::offset).toList());
+    }
+
+    @Test
+    void testTermsAreLowerCasedWordsOfTwoOrMoreCharacters() {
+        assertEquals(List.of("hello", "wörld", "42", "it"), List.copyOf(SearchIndex.terms("Hello, WÖRLD! 42 a it's")));
+        assertTrue(SearchIndex.terms(null).isEmpty());
+    }
+
+    private void open(long memoryBytes, long segmentBytes) throws IOException {
+        store = new ChatHistoryStore(directory, 1 << 20, Long.MAX_VALUE, 24, 0, objectMapper);
+        index = new SearchIndex(store, objectMapper, true, memoryBytes, segmentBytes, 2);
+    }
+
+    private void append(String sender, String content) {
+        store.append(message(sender, content));
+    }
+
+    private static ChatMessage message(String sender, String content) {
+        return ChatMessage.builder().type(MessageType.CHAT).sender(sender).content(content).build();
+    }
+}
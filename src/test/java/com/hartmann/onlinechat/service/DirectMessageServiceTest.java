@@ -0,0 +1,132 @@
+package com.hartmann.onlinechat.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hartmann.onlinechat.chat.ChatMessage;
+import com.hartmann.onlinechat.cluster.ClusterService;
+import com.hartmann.onlinechat.mailbox.OfflineMailbox;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class DirectMessageServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<Message<?>> outbound = new ArrayList<>();
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private SessionManager sessionManager;
+    private OfflineMailbox offlineMailbox;
+    private DirectMessageService directMessageService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        sessionManager = new SessionManager(new PresenceBroadcaster(mock(SimpMessagingTemplate.class), 0));
+        offlineMailbox = mailbox(true);
+        directMessageService = service(offlineMailbox);
+
+        for (int i = 0; i < 50; i++) {
+            sessionManager.addSession("s" + i, "User" + i);
+        }
+    }
+
+    @Test
+    void testDirectMessageSendsExactlyTwoFrames() {
+        directMessageService.sendPrivateMessage("User1", "s1", "User2", "hello");
+
+        // One frame to the recipient, one echo to the sender - independent of session count
+        assertEquals(2, outbound.size());
+    }
+
+    @Test
+    void testDirectMessageTargetsSessionQueues() {
+        directMessageService.sendPrivateMessage("User1", "s1", "user2", "hello");
+
+        assertEquals("/user/s2/queue/private", destinationOf(outbound.get(0)));
+        assertEquals("/user/s1/queue/private", destinationOf(outbound.get(1)));
+        assertEquals("s2", SimpMessageHeaderAccessor.getSessionId(outbound.get(0).getHeaders()));
+        assertTrue(outbound.stream().noneMatch(m -> "/topic/public".equals(destinationOf(m))));
+    }
+
+    @AfterEach
+    void tearDown() {
+        offlineMailbox.close();
+    }
+
+    @Test
+    void testDirectMessageToOfflineUserIsQueuedUntilTheyJoin() {
+        directMessageService.userLeft("Ghost");
+        String result = directMessageService.sendPrivateMessage("User1", "s1", "Ghost", "hello");
+
+        assertEquals("User 'Ghost' is offline; the message will be delivered when they join.", result);
+        assertEquals(1, outbound.size(), "Only the echo to the sender");
+        assertEquals(1, offlineMailbox.getQueuedMessages());
+
+        sessionManager.addSession("s99", "ghost");
+        directMessageService.deliverOfflineMessages("ghost", "s99");
+
+        assertEquals(2, outbound.size());
+        assertEquals("/user/s99/queue/private", destinationOf(outbound.get(1)));
+        Map<?, ?> batch = (Map<?, ?>) outbound.get(1).getPayload();
+        assertEquals("OFFLINE_MESSAGES", batch.get("type"));
+        List<?> messages = (List<?>) batch.get("messages");
+        assertEquals(1, messages.size());
+        assertEquals("s99", ((ChatMessage) messages.get(0)).getTargetSessionId());
+        assertEquals(0, offlineMailbox.getQueuedMessages());
+    }
+
+    @Test
+    void testDirectMessageToNeverSeenUserIsNotFound() {
+        String result = directMessageService.sendPrivateMessage("User1", "s1", "Nobody", "hello");
+
+        assertEquals("User 'Nobody' not found or offline.", result);
+        assertEquals(0, outbound.size());
+        assertEquals(0, offlineMailbox.getQueuedMessages());
+    }
+
+    @Test
+    void testJoinWithEmptyMailboxSendsNothing() {
+        directMessageService.deliverOfflineMessages("User3", "s3");
+
+        assertEquals(0, outbound.size());
+    }
+
+    @Test
+    void testDirectMessageToOfflineUserWithoutMailboxSendsNothing() throws IOException {
+        OfflineMailbox disabled = mailbox(false);
+        String result = service(disabled).sendPrivateMessage("User1", "s1", "Ghost", "hello");
+
+        assertEquals("User 'Ghost' not found or offline.", result);
+        assertEquals(0, outbound.size());
+    }
+
+    private OfflineMailbox mailbox(boolean enabled) throws IOException {
+        return new OfflineMailbox(objectMapper, enabled, directory.resolve("spill.dat"), 4096, 65536, 16384, 10, 4096,
+                1000, 1);
+    }
+
+    private DirectMessageService service(OfflineMailbox mailbox) {
+        MessageChannel channel = (message, timeout) -> outbound.add(message);
+        return new DirectMessageService(sessionManager, new SessionMessenger(new SimpMessagingTemplate(channel)),
+                mock(ClusterService.class), mailbox);
+    }
+
+    private String destinationOf(Message<?> message) {
+        return SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+    }
+}
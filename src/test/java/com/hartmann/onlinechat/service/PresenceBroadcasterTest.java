@@ -0,0 +1,81 @@
+package com.hartmann.onlinechat.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class PresenceBroadcasterTest {
+
+    private final SimpMessagingTemplate messagingTemplate = mock(SimpMessagingTemplate.class);
+    private PresenceBroadcaster broadcaster;
+
+    @AfterEach
+    void tearDown() {
+        broadcaster.shutdown();
+    }
+
+    @Test
+    void testJoinStormIsCoalescedIntoOneUpdate() {
+        // Long window: nothing goes out until we flush explicitly
+        broadcaster = new PresenceBroadcaster(messagingTemplate, 60_000);
+        for (int i = 0; i < 500; i++) {
+            broadcaster.userJoined("User" + i);
+        }
+        broadcaster.adminChanged("User0");
+        verifyNoInteractions(messagingTemplate);
+
+        broadcaster.flush();
+
+        Map<String, Object> delta = capturedDeltas().get(0);
+        assertEquals(1L, delta.get("version"));
+        assertEquals(500, ((List<?>) delta.get("joined")).size());
+        assertEquals("User0", delta.get("admin"));
+        assertEquals(1, broadcaster.getUpdatesSent());
+        assertEquals(500, broadcaster.getChangesCoalesced());
+        assertEquals(500, ((List<?>) broadcaster.getPresenceSnapshot().get("users")).size());
+    }
+
+    @Test
+    void testReconnectWithinWindowProducesNoUpdate() {
+        broadcaster = new PresenceBroadcaster(messagingTemplate, 60_000);
+        broadcaster.userJoined("User1");
+        broadcaster.flush();
+
+        broadcaster.userLeft("User1");
+        broadcaster.userJoined("User1");
+        broadcaster.flush();
+
+        assertEquals(1, capturedDeltas().size());
+        assertEquals(1L, broadcaster.getPresenceSnapshot().get("version"));
+    }
+
+    @Test
+    void testScheduledFlushDeliversFinalState() {
+        broadcaster = new PresenceBroadcaster(messagingTemplate, 20);
+        broadcaster.userJoined("User1");
+        broadcaster.userJoined("User2");
+        broadcaster.userLeft("User1");
+
+        verify(messagingTemplate, timeout(2_000)).convertAndSend(eq("/topic/public"), any(Object.class));
+        assertEquals(List.of("User2"), broadcaster.getPresenceSnapshot().get("users"));
+        assertEquals(List.of("User2"), capturedDeltas().get(0).get("joined"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> capturedDeltas() {
+        ArgumentCaptor<Object> payloads = ArgumentCaptor.forClass(Object.class);
+        verify(messagingTemplate, atLeastOnce()).convertAndSend(eq("/topic/public"), payloads.capture());
+        return payloads.getAllValues().stream()
+                .filter(Map.class::isInstance)
+                .map(p -> (Map<String, Object>) p)
+                .toList();
+    }
+}
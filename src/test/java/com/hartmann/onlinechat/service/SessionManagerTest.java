@@ -14,7 +14,7 @@ class SessionManagerTest {
     @BeforeEach
     void setUp() {
         messagingTemplate = mock(org.springframework.messaging.simp.SimpMessagingTemplate.class);
-        sessionManager = new SessionManager(messagingTemplate);
+        sessionManager = new SessionManager(new PresenceBroadcaster(messagingTemplate, 0));
     }
 
     @Test
@@ -69,4 +69,277 @@ class SessionManagerTest {
         sessionManager.addSession("s1", "User1");
         assertEquals(1, sessionManager.getConnectedClientCount());
     }
+
+    @Test
+    void testUsernameLookupIsCaseInsensitive() {
+        sessionManager.addSession("s1", "User1");
+        assertEquals("s1", sessionManager.getSessionIdByUsername("user1"));
+        assertEquals("s1", sessionManager.getSessionIdByUsername(" USER1 "));
+        assertNull(sessionManager.getSessionIdByUsername("User2"));
+    }
+
+    @Test
+    void testDuplicateUsernameIsRejected() {
+        assertTrue(sessionManager.addSession("s1", "User1"));
+        assertFalse(sessionManager.addSession("s2", "user1"));
+        assertEquals(1, sessionManager.getConnectedClientCount());
+        assertEquals("s1", sessionManager.getSessionIdByUsername("User1"));
+    }
+
+    @Test
+    void testUsernameReleasedOnDisconnect() {
+        sessionManager.addSession("s1", "User1");
+        sessionManager.removeSession("s1");
+
+        assertNull(sessionManager.getSessionIdByUsername("User1"));
+        assertTrue(sessionManager.addSession("s2", "User1"));
+        assertEquals("s2", sessionManager.getSessionIdByUsername("User1"));
+    }
+
+    @Test
+    void testConcurrentClaimsForSameUsername() throws Exception {
+        int threads = 16;
+        java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newFixedThreadPool(threads);
+        java.util.concurrent.CountDownLatch start = new java.util.concurrent.CountDownLatch(1);
+        java.util.concurrent.atomic.AtomicInteger winners = new java.util.concurrent.atomic.AtomicInteger();
+
+        for (int i = 0; i < threads; i++) {
+            String sessionId = "s" + i;
+            executor.submit(() -> {
+                start.await();
+                if (sessionManager.addSession(sessionId, "Contested")) {
+                    winners.incrementAndGet();
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, java.util.concurrent.TimeUnit.SECONDS));
+
+        assertEquals(1, winners.get());
+        assertEquals(1, sessionManager.getConnectedClientCount());
+    }
+
+    @Test
+    void testAdminSuccessionUnderConcurrentChurn() throws Exception {
+        sessionManager.addSession("keeper", "Keeper");
+        int threads = 8;
+        int perThread = 500;
+        java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newFixedThreadPool(threads);
+
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            executor.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    String sessionId = "t" + thread + "-" + i;
+                    sessionManager.addSession(sessionId, sessionId);
+                    sessionManager.removeSession(sessionId);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, java.util.concurrent.TimeUnit.SECONDS));
+
+        assertEquals(1, sessionManager.getConnectedClientCount());
+        assertTrue(sessionManager.isAdmin("keeper"));
+
+        sessionManager.addSession("next", "Next");
+        sessionManager.removeSession("keeper");
+        assertEquals("next", sessionManager.getAdminSessionId());
+        assertEquals("Next", sessionManager.getAdminUsername());
+    }
+
+    @Test
+    void testRemoveRacingAddNeverLeavesHalfRegisteredSession() throws Exception {
+        java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newFixedThreadPool(2);
+        for (int i = 0; i < 2000; i++) {
+            String sessionId = "r" + i;
+            java.util.concurrent.CountDownLatch start = new java.util.concurrent.CountDownLatch(1);
+            java.util.concurrent.Future<?> add = executor.submit(() -> {
+                start.await();
+                return sessionManager.addSession(sessionId, sessionId);
+            });
+            java.util.concurrent.Future<?> remove = executor.submit(() -> {
+                start.await();
+                sessionManager.removeSession(sessionId);
+                return null;
+            });
+            start.countDown();
+            add.get();
+            remove.get();
+
+            // Either the removal came first and the session is fully registered, or it is fully gone
+            String admin = sessionManager.getAdminSessionId();
+            assertEquals(sessionManager.getUsername(sessionId) != null, sessionId.equals(admin));
+            assertEquals(sessionManager.getConnectedClientCount(), admin != null ? 1 : 0);
+            sessionManager.removeSession(sessionId);
+            assertNull(sessionManager.getAdminSessionId());
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    void testLastAnnouncedAdminIsTheHeadAfterConcurrentChurn() throws Exception {
+        int threads = 8;
+        java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            executor.submit(() -> {
+                for (int i = 0; i < 500; i++) {
+                    String sessionId = "t" + thread + "-" + i;
+                    sessionManager.addSession(sessionId, sessionId);
+                    if (i < 499) {
+                        sessionManager.removeSession(sessionId);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, java.util.concurrent.TimeUnit.SECONDS));
+
+        // Every thread leaves its last session connected; clients must have been told the real admin
+        assertEquals(threads, sessionManager.getConnectedClientCount());
+        assertEquals(sessionManager.getAdminUsername(), sessionManager.getPresenceSnapshot().get("admin"));
+    }
+
+    @Test
+    void testPresenceSnapshotIsSortedAndVersioned() {
+        sessionManager.addSession("s1", "Charlie");
+        sessionManager.addSession("s2", "Alice");
+        sessionManager.addSession("s3", "Bob");
+        sessionManager.removeSession("s3");
+
+        java.util.Map<String, Object> snapshot = sessionManager.getPresenceSnapshot();
+        assertEquals("USER_LIST", snapshot.get("type"));
+        assertEquals(java.util.List.of("Alice", "Charlie"), snapshot.get("users"));
+        assertEquals("Charlie", snapshot.get("admin"));
+        // 3 joins + 1 leave + 1 admin change
+        assertEquals(5L, snapshot.get("version"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testPresenceDeltasAreBroadcastInsteadOfFullList() {
+        sessionManager.addSession("s1", "User1");
+        sessionManager.addSession("s2", "User2");
+        sessionManager.removeSession("s1");
+
+        org.mockito.ArgumentCaptor<Object> payloads = org.mockito.ArgumentCaptor.forClass(Object.class);
+        org.mockito.Mockito.verify(messagingTemplate, org.mockito.Mockito.atLeastOnce())
+                .convertAndSend(org.mockito.ArgumentMatchers.eq("/topic/public"), payloads.capture());
+
+        java.util.List<java.util.Map<String, Object>> deltas = payloads.getAllValues().stream()
+                .filter(java.util.Map.class::isInstance)
+                .map(p -> (java.util.Map<String, Object>) p)
+                .toList();
+
+        // Flush window 0: every change is its own versioned delta
+        assertEquals(java.util.List.of(1L, 2L, 3L, 4L, 5L), deltas.stream().map(d -> d.get("version")).toList());
+        assertTrue(deltas.stream().allMatch(d -> "PRESENCE_DELTA".equals(d.get("type"))));
+        assertTrue(deltas.stream().noneMatch(d -> d.containsKey("users")));
+        assertEquals(java.util.List.of("User1"), deltas.get(0).get("joined"));
+        assertEquals(java.util.List.of("User1"), deltas.get(3).get("left"));
+        assertEquals("User2", deltas.get(4).get("admin"));
+    }
+
+    @Test
+    void testRoomAdminSuccession() {
+        sessionManager.addSession("s1", "User1");
+        sessionManager.addSession("s2", "User2");
+        sessionManager.addSession("s3", "User3");
+
+        assertTrue(sessionManager.joinRoom("s2", "dev"));
+        assertTrue(sessionManager.joinRoom("s3", "dev"));
+        assertFalse(sessionManager.joinRoom("s2", "dev"));
+        assertEquals("s2", sessionManager.getRoomAdminSessionId("dev"));
+
+        // Room admin is independent of the server admin
+        assertTrue(sessionManager.isAdmin("s1"));
+        assertFalse(sessionManager.isRoomMember("s1", "dev"));
+
+        assertTrue(sessionManager.leaveRoom("s2", "dev"));
+        assertEquals("s3", sessionManager.getRoomAdminSessionId("dev"));
+    }
+
+    @Test
+    void testEmptyRoomIsRemoved() {
+        sessionManager.addSession("s1", "User1");
+        sessionManager.joinRoom("s1", "dev");
+        assertTrue(sessionManager.getRoomNames().contains("dev"));
+
+        sessionManager.leaveRoom("s1", "dev");
+        assertFalse(sessionManager.getRoomNames().contains("dev"));
+        assertNull(sessionManager.getRoomAdminSessionId("dev"));
+    }
+
+    @Test
+    void testDisconnectLeavesAllRooms() {
+        sessionManager.addSession("s1", "User1");
+        sessionManager.addSession("s2", "User2");
+        sessionManager.joinRoom("s1", "dev");
+        sessionManager.joinRoom("s1", "ops");
+        sessionManager.joinRoom("s2", "dev");
+
+        sessionManager.removeSession("s1");
+
+        assertFalse(sessionManager.isRoomMember("s1", "dev"));
+        assertFalse(sessionManager.getRoomNames().contains("ops"));
+        assertEquals("s2", sessionManager.getRoomAdminSessionId("dev"));
+        assertEquals(java.util.List.of("User2"), sessionManager.getRoomSnapshot("dev").get("users"));
+    }
+
+    @Test
+    void testJoinRacingRemoveNeverLeavesGhostMember() throws Exception {
+        java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newFixedThreadPool(2);
+        for (int i = 0; i < 2000; i++) {
+            String sessionId = "j" + i;
+            sessionManager.addSession(sessionId, sessionId);
+            java.util.concurrent.CountDownLatch start = new java.util.concurrent.CountDownLatch(1);
+            java.util.concurrent.Future<?> join = executor.submit(() -> {
+                start.await();
+                return sessionManager.joinRoom(sessionId, "dev");
+            });
+            java.util.concurrent.Future<?> remove = executor.submit(() -> {
+                start.await();
+                sessionManager.removeSession(sessionId);
+                return null;
+            });
+            start.countDown();
+            join.get();
+            remove.get();
+
+            assertFalse(sessionManager.isRoomMember(sessionId, "dev"));
+            assertNull(sessionManager.getRoomAdminSessionId("dev"));
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    void testUnregisteredSessionCannotJoinRoom() {
+        assertFalse(sessionManager.joinRoom("ghost", "dev"));
+    }
+
+    @Test
+    void testRoomNameNormalization() {
+        assertEquals("dev-team", SessionManager.normalizeRoomName(" Dev-Team "));
+        assertNull(SessionManager.normalizeRoomName("../public"));
+        assertNull(SessionManager.normalizeRoomName(""));
+        assertNull(SessionManager.normalizeRoomName(null));
+    }
+
+    @Test
+    void testClusterModeUsesClusterAdmin() {
+        sessionManager.enableClusterMode();
+        sessionManager.addSession("s1", "User1");
+        // The local join order no longer decides the admin
+        assertNull(sessionManager.getAdminSessionId());
+
+        sessionManager.clusterAdminChanged("Remote", null);
+        assertEquals("Remote", sessionManager.getAdminUsername());
+        assertFalse(sessionManager.isAdmin("s1"));
+
+        sessionManager.clusterAdminChanged("User1", "s1");
+        assertTrue(sessionManager.isAdmin("s1"));
+    }
 }
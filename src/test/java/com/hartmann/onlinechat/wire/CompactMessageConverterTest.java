@@ -0,0 +1,66 @@
+package com.hartmann.onlinechat.wire;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hartmann.onlinechat.chat.ChatMessage;
+import com.hartmann.onlinechat.chat.MessageType;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactMessageConverterTest {
+
+    private final CompactMessageConverter converter = new CompactMessageConverter(new ObjectMapper());
+
+    @Test
+    void testChatMessageIsPositionalWithoutTrailingNulls() {
+        ChatMessage message = ChatMessage.builder().type(MessageType.CHAT).sender("Alice").content("hi").build();
+
+        assertEquals("[0,\"Alice\",\"hi\"]", encode(message));
+    }
+
+    @Test
+    void testRoundTripKeepsInnerNulls() {
+        ChatMessage message = ChatMessage.builder().type(MessageType.BOT_MESSAGE).sender("Server Bot")
+                .targetSessionId("s1").build();
+        Message<byte[]> frame = MessageBuilder.withPayload(converter.encode(message))
+                .setHeader(MessageHeaders.CONTENT_TYPE, CompactMessageConverter.COMPACT_JSON)
+                .build();
+
+        assertEquals("[3,\"Server Bot\",null,null,\"s1\"]", encode(message));
+        assertEquals(message, converter.fromMessage(frame, ChatMessage.class));
+    }
+
+    @Test
+    void testChatMessagesInsideOtherPayloadsAreCompacted() {
+        ChatMessage message = ChatMessage.builder().type(MessageType.CHAT).sender("Bob").content("yo").build();
+
+        Map<String, Object> replay = new LinkedHashMap<>();
+        replay.put("type", "HISTORY_REPLAY");
+        replay.put("messages", List.of(message));
+
+        assertEquals("{\"type\":\"HISTORY_REPLAY\",\"messages\":[[0,\"Bob\",\"yo\"]]}", encode(replay));
+    }
+
+    @Test
+    void testOnlyUsedForItsOwnContentType() {
+        ChatMessage message = ChatMessage.builder().type(MessageType.CHAT).sender("Alice").content("hi").build();
+
+        assertNull(converter.toMessage(message, null), "JSON stays the default without a content type");
+        Message<byte[]> json = MessageBuilder.withPayload("{}".getBytes(StandardCharsets.UTF_8))
+                .setHeader(MessageHeaders.CONTENT_TYPE, "application/json")
+                .build();
+        assertNull(converter.fromMessage(json, ChatMessage.class));
+    }
+
+    private String encode(Object payload) {
+        return new String(converter.encode(payload), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,123 @@
+package com.hartmann.onlinechat.wire;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressionInterceptorTest {
+
+    private final CompressionInterceptor interceptor = new CompressionInterceptor(true, 256, 6, 2);
+
+    CompressionInterceptorTest() throws Exception {
+    }
+
+    @Test
+    void testLargeFramesAreDeflatedWithTheSharedDictionary() throws Exception {
+        connect("s1");
+        byte[] body = userList(200);
+
+        Message<?> sent = send("s1", body);
+
+        assertEquals(CompressionInterceptor.DEFLATE,
+                SimpMessageHeaderAccessor.wrap(sent).getFirstNativeHeader(CompressionInterceptor.COMPRESSION_HEADER));
+        byte[] compressed = (byte[]) sent.getPayload();
+        assertTrue(compressed.length < body.length / 2, "Repetitive presence lists compress well");
+        assertArrayEquals(body, inflate(compressed));
+        assertEquals(1, interceptor.getCompressedFrames());
+        assertEquals(body.length, interceptor.getRawBytes());
+        assertTrue(interceptor.getCompressionRatio() < 0.5);
+    }
+
+    @Test
+    void testBroadcastBodyIsCompressedOnce() throws Exception {
+        connect("s1");
+        connect("s2");
+        byte[] body = userList(200);
+
+        Object first = send("s1", body).getPayload();
+        Object second = send("s2", body).getPayload();
+
+        assertSame(first, second);
+        assertEquals(2, interceptor.getCompressedFrames());
+        assertEquals(1, interceptor.getCompressions());
+    }
+
+    @Test
+    void testSmallAndIncompressibleFramesAreSentAsTheyAre() {
+        connect("s1");
+        byte[] small = "{\"type\":\"PRESENCE_DELTA\",\"version\":7}".getBytes(StandardCharsets.UTF_8);
+        byte[] noise = new byte[4096];
+        new Random(42).nextBytes(noise);
+
+        assertSame(small, send("s1", small).getPayload());
+        assertSame(noise, send("s1", noise).getPayload());
+        assertEquals(2, interceptor.getSkippedFrames());
+        assertEquals(0, interceptor.getCompressedFrames());
+        assertEquals(1, interceptor.getCompressions(), "Small frames never reach deflate");
+    }
+
+    @Test
+    void testSessionsThatDidNotAskGetPlainFrames() {
+        byte[] body = userList(200);
+
+        assertSame(body, send("s1", body).getPayload());
+        assertEquals(0, interceptor.getCompressions());
+    }
+
+    private void connect(String sessionId) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.CONNECT);
+        accessor.setSessionId(sessionId);
+        accessor.setNativeHeader(CompressionInterceptor.COMPRESSION_HEADER, CompressionInterceptor.DEFLATE);
+        interceptor.preSend(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()), null);
+    }
+
+    private Message<?> send(String sessionId, byte[] body) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setDestination("/topic/public");
+        return interceptor.outboundInterceptor().preSend(MessageBuilder.createMessage(body,
+                accessor.getMessageHeaders()), null);
+    }
+
+    private static byte[] userList(int users) {
+        StringBuilder json = new StringBuilder("{\"type\":\"USER_LIST\",\"version\":42,\"users\":[");
+        for (int i = 0; i < users; i++) {
+            json.append(i > 0 ? "," : "").append("\"user").append(i).append('"');
+        }
+        return json.append("],\"admin\":\"user0\"}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] inflate(byte[] base64) throws Exception {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setDictionary(new ClassPathResource(CompressionInterceptor.DICTIONARY_RESOURCE)
+                    .getContentAsByteArray());
+            inflater.setInput(Base64.getDecoder().decode(base64));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && inflater.needsInput()) {
+                    break;
+                }
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.hartmann.onlinechat.wire;
+
+import com.hartmann.onlinechat.chat.ChatMessage;
+import com.hartmann.onlinechat.chat.MessageType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameBatcherTest {
+
+    private final FrameBatcher batcher = new FrameBatcher(true, 1000, 3, 32768);
+    private final BlockingQueue<Message<?>> sent = new LinkedBlockingQueue<>();
+    private final MessageChannel channel = (message, timeout) -> sent.add(message);
+
+    @AfterEach
+    void tearDown() {
+        batcher.shutdown();
+    }
+
+    @Test
+    void testFirstMessageIsSentAtOnceAndBurstIsBatched() {
+        connect("s1", "1000");
+        ChatMessage first = chat("a");
+
+        assertNotNull(send("s1", "/topic/public", first));
+        assertNull(send("s1", "/topic/public", chat("b")));
+        assertNull(send("s1", "/topic/public", chat("c")));
+        assertTrue(sent.isEmpty(), "Held back until the window ends or the batch is full");
+        assertNull(send("s1", "/topic/public", chat("d")));
+
+        Message<?> batch = sent.poll();
+        assertNotNull(batch);
+        assertEquals("3", SimpMessageHeaderAccessor.wrap(batch).getFirstNativeHeader(FrameBatcher.BATCH_HEADER));
+        assertEquals("[\"b\",\"c\",\"d\"]", new String((byte[]) batch.getPayload(), StandardCharsets.UTF_8));
+        List<?> sources = (List<?>) batch.getHeaders().get(SourceTrackingJsonMessageConverter.SOURCE_PAYLOAD_HEADER);
+        assertEquals(3, sources.size());
+        assertEquals(1, batcher.getBatchFrames());
+        assertEquals(3, batcher.getBatchedMessages());
+    }
+
+    @Test
+    void testHeldBackMessagesAreFlushedWhenTheWindowEnds() throws Exception {
+        connect("s1", "10");
+
+        assertNotNull(send("s1", "/topic/public", chat("a")));
+        assertNull(send("s1", "/topic/public", chat("b")));
+
+        Message<?> batch = sent.poll(5, TimeUnit.SECONDS);
+        assertNotNull(batch, "Flushed by the window timer");
+        assertEquals("[\"b\"]", new String((byte[]) batch.getPayload(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testOnlyTopicChatMessagesOfBatchingSessionsAreHeldBack() {
+        connect("s1", "1000");
+        send("s1", "/topic/public", chat("a"));
+
+        assertNotNull(send("s1", "/user/queue/private", chat("b")));
+        assertNotNull(send("s1", "/topic/public", "{\"type\":\"PRESENCE_DELTA\"}"));
+        assertNotNull(send("s2", "/topic/public", chat("c")));
+        assertNotNull(send("s2", "/topic/public", chat("d")));
+        assertEquals(1, batcher.getBatchingSessions());
+    }
+
+    @Test
+    void testInvalidOrDisabledSettingsKeepFramesUnbatched() {
+        connect("s1", "fast");
+        connect("s2", "10,1");
+
+        send("s1", "/topic/public", chat("a"));
+        assertNotNull(send("s1", "/topic/public", chat("b")));
+        send("s2", "/topic/public", chat("a"));
+        assertNotNull(send("s2", "/topic/public", chat("b")));
+        assertEquals(0, batcher.getBatchingSessions());
+    }
+
+    private void connect(String sessionId, String settings) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.CONNECT);
+        accessor.setSessionId(sessionId);
+        accessor.setNativeHeader(FrameBatcher.BATCH_HEADER, settings);
+        batcher.preSend(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()), null);
+    }
+
+    private Message<?> send(String sessionId, String destination, Object source) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setDestination(destination);
+        accessor.setHeader(SourceTrackingJsonMessageConverter.SOURCE_PAYLOAD_HEADER, source);
+        byte[] body = (source instanceof ChatMessage message ? '"' + message.getContent() + '"' : source.toString())
+                .getBytes(StandardCharsets.UTF_8);
+        return batcher.outboundInterceptor().preSend(MessageBuilder.createMessage(body, accessor.getMessageHeaders()),
+                channel);
+    }
+
+    private static ChatMessage chat(String content) {
+        return ChatMessage.builder().type(MessageType.CHAT).sender("alice").content(content).build();
+    }
+}
@@ -0,0 +1,101 @@
+package com.hartmann.onlinechat.wire;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompDecoder;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SharedFrameEncoderTest {
+
+    private final SharedFrameEncoder encoder = new SharedFrameEncoder();
+    private final byte[] payload = "{\"type\":\"CHAT\",\"sender\":\"Alice\",\"content\":\"hi\"}"
+            .getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void testSubscribersWithTheSameSubscriptionShareTheFrame() {
+        byte[] first = encoder.encode(headers("s1", "sub-0", "/topic/public"), payload);
+        byte[] second = encoder.encode(headers("s2", "sub-0", "/topic/public"), payload);
+
+        assertSame(first, second);
+        assertEquals(1, encoder.getFrameEncodings());
+        assertEquals(1, encoder.getSharedFrames());
+        StompHeaderAccessor decoded = decode(second);
+        assertEquals(StompCommand.MESSAGE, decoded.getCommand());
+        assertEquals("sub-0", decoded.getSubscriptionId());
+        assertEquals("/topic/public", decoded.getDestination());
+        assertEquals(payload.length, decoded.getContentLength());
+        assertNotNull(decoded.getMessageId());
+    }
+
+    @Test
+    void testOtherSubscriptionsGetTheirOwnHeaderLinesOverTheSharedTail() {
+        byte[] first = encoder.encode(headers("s1", "sub-0", "/topic/public"), payload);
+        byte[] other = encoder.encode(headers("s2", "a:b", "/topic/public"), payload);
+
+        assertNotSame(first, other);
+        assertEquals(1, encoder.getFrameEncodings());
+        assertEquals(2, encoder.getAssembledFrames());
+        StompHeaderAccessor decoded = decode(other);
+        assertEquals("a:b", decoded.getSubscriptionId(), "The subscription ID is escaped and decodes back");
+        assertEquals(decode(first).getMessageId(), decoded.getMessageId(), "One message ID per broadcast");
+        assertEquals("/topic/public", decoded.getDestination());
+        assertEquals(new String(payload, StandardCharsets.UTF_8), new String(body(other), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testDifferentHeadersAreNotShared() {
+        byte[] toPublic = encoder.encode(headers("s1", "sub-0", "/topic/public"), payload);
+        byte[] toRoom = encoder.encode(headers("s2", "sub-0", "/topic/room.java"), payload);
+
+        assertNotSame(toPublic, toRoom);
+        assertEquals("/topic/room.java", decode(toRoom).getDestination());
+        assertEquals(2, encoder.getFrameEncodings());
+    }
+
+    @Test
+    void testOtherFramesAreEncodedAsUsual() {
+        StompHeaderAccessor connected = StompHeaderAccessor.create(StompCommand.CONNECTED);
+        connected.setVersion("1.2");
+        Map<String, Object> headers = connected.getMessageHeaders();
+
+        assertArrayEquals(new StompEncoder().encode(headers, new byte[0]), encoder.encode(headers, new byte[0]));
+        assertEquals(0, encoder.getFrameEncodings());
+    }
+
+    /** Headers as the STOMP handler passes them for a broker MESSAGE to one subscriber. */
+    private static Map<String, Object> headers(String sessionId, String subscriptionId, String destination) {
+        SimpMessageHeaderAccessor broker = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        broker.setSessionId(sessionId);
+        broker.setSubscriptionId(subscriptionId);
+        broker.setDestination(destination);
+        broker.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(
+                MessageBuilder.createMessage(new byte[0], broker.getMessageHeaders()));
+        accessor.updateStompCommandAsServerMessage();
+        return accessor.getMessageHeaders();
+    }
+
+    private static StompHeaderAccessor decode(byte[] frame) {
+        return StompHeaderAccessor.wrap(decodeMessage(frame));
+    }
+
+    private static byte[] body(byte[] frame) {
+        return (byte[]) decodeMessage(frame).getPayload();
+    }
+
+    private static Message<byte[]> decodeMessage(byte[] frame) {
+        return new StompDecoder().decode(ByteBuffer.wrap(frame)).get(0);
+    }
+}
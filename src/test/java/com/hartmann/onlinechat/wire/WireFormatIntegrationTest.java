@@ -0,0 +1,159 @@
+package com.hartmann.onlinechat.wire;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.ByteArrayMessageConverter;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Connects a compact and a JSON client to a running server and checks that
+ * each receives the same broadcast in the format it negotiated.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = { "chat.history.dir=target/test-history-wire", "chat.audit.enabled=false",
+                "chat.audit.file=target/test-audit-wire/chat-audit.jsonl",
+                "chat.mailbox.spill-file=target/test-mailbox-wire/spill.dat" })
+class WireFormatIntegrationTest {
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    SharedFrameEncoder sharedFrameEncoder;
+
+    private final WebSocketStompClient stompClient = new WebSocketStompClient(new StandardWebSocketClient());
+    private final List<StompSession> sessions = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        sessions.forEach(StompSession::disconnect);
+        stompClient.stop();
+    }
+
+    @Test
+    void testEachClientReceivesItsNegotiatedFormat() throws Exception {
+        stompClient.setMessageConverter(new CompositeMessageConverter(List.of(new RawBytesConverter(),
+                new MappingJackson2MessageConverter())));
+        Client compact = connect("Alice", true);
+        Client json = connect("Bob", false);
+        compact.awaitFrame("USER_LIST");
+        json.awaitFrame("USER_LIST");
+
+        compact.session.send("/app/chat.sendMessage", Map.of("sender", "Alice", "content", "hello", "type", "CHAT"));
+
+        Frame compactFrame = compact.awaitFrame("hello");
+        assertEquals(CompactMessageConverter.COMPACT_JSON.toString(), compactFrame.contentType);
+        assertEquals("[0,\"Alice\",\"hello\"]", compactFrame.body);
+
+        Frame jsonFrame = json.awaitFrame("hello");
+        assertTrue(jsonFrame.contentType.startsWith("application/json"), jsonFrame.contentType);
+        assertTrue(jsonFrame.body.contains("\"content\":\"hello\""), jsonFrame.body);
+        assertTrue(jsonFrame.body.length() > compactFrame.body.length());
+    }
+
+    @Test
+    void testBroadcastFrameIsSharedBySubscribers() throws Exception {
+        stompClient.setMessageConverter(new CompositeMessageConverter(List.of(new RawBytesConverter(),
+                new MappingJackson2MessageConverter())));
+        Client carol = connect("Carol", false);
+        Client dave = connect("Dave", false);
+        carol.awaitFrame("USER_LIST");
+        dave.awaitFrame("USER_LIST");
+        long shared = sharedFrameEncoder.getSharedFrames();
+
+        carol.session.send("/app/chat.sendMessage", Map.of("sender", "Carol", "content", "shared", "type", "CHAT"));
+
+        assertTrue(carol.awaitFrame("shared").body.contains("\"sender\":\"Carol\""));
+        assertTrue(dave.awaitFrame("shared").body.contains("\"sender\":\"Carol\""));
+        assertTrue(sharedFrameEncoder.getSharedFrames() > shared, "Both sessions subscribed as 0 and got one frame");
+    }
+
+    private Client connect(String username, boolean compactFormat) throws Exception {
+        StompHeaders connectHeaders = new StompHeaders();
+        if (compactFormat) {
+            connectHeaders.add(WireFormatInterceptor.WIRE_FORMAT_HEADER, WireFormatInterceptor.COMPACT);
+        }
+        StompSession session = stompClient.connectAsync("ws://localhost:" + port + "/ws/websocket",
+                new WebSocketHttpHeaders(), connectHeaders, new StompSessionHandlerAdapter() {
+                }).get(5, TimeUnit.SECONDS);
+        sessions.add(session);
+        Client client = new Client(session);
+        session.subscribe("/topic/public", client);
+        session.subscribe("/user/queue/private", client);
+        session.send("/app/chat.addUser", Map.of("sender", username, "type", "JOIN"));
+        return client;
+    }
+
+    private record Frame(String contentType, String body) {
+    }
+
+    private static final class Client implements StompFrameHandler {
+
+        private final StompSession session;
+        private final BlockingQueue<Frame> frames = new LinkedBlockingQueue<>();
+
+        Client(StompSession session) {
+            this.session = session;
+        }
+
+        @Override
+        public Type getPayloadType(StompHeaders headers) {
+            return byte[].class;
+        }
+
+        @Override
+        public void handleFrame(StompHeaders headers, Object payload) {
+            String contentType = headers.getContentType() != null ? headers.getContentType().toString() : "";
+            frames.add(new Frame(contentType, new String((byte[]) payload, StandardCharsets.UTF_8)));
+        }
+
+        Frame awaitFrame(String containing) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            Frame frame;
+            while ((frame = frames.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) != null) {
+                if (frame.body.contains(containing)) {
+                    return frame;
+                }
+            }
+            fail("No frame containing '" + containing + "' received");
+            return null;
+        }
+    }
+
+    /** Hands every frame body over as raw bytes, whatever its content type. */
+    private static final class RawBytesConverter extends ByteArrayMessageConverter {
+
+        @Override
+        protected boolean supportsMimeType(MessageHeaders headers) {
+            return true;
+        }
+
+        @Override
+        protected boolean canConvertTo(Object payload, MessageHeaders headers) {
+            return payload instanceof byte[];
+        }
+    }
+}